@@ -17,6 +17,7 @@ import fr.pandacube.lib.chat.Chat;
 import fr.pandacube.lib.chat.Chat.FormattableChat;
 import fr.pandacube.lib.chat.ChatTreeNode;
 import fr.pandacube.lib.cli.CLIApplication;
+import fr.pandacube.lib.db.DB;
 import fr.pandacube.lib.util.log.Log;
 import net.kyori.adventure.text.Component;
 
@@ -54,6 +55,9 @@ public class CommandAdmin extends CLIBrigadierCommand {
 				.then(literal("debug")
 						.executes(this::debug)
 				)
+				.then(literal("dbstats")
+						.executes(this::dbStats)
+				)
 				.then(literal("commandstruct")
 						.executes(this::commandStruct)
 						.then(argument("path", StringArgumentType.greedyString())
@@ -92,6 +96,18 @@ public class CommandAdmin extends CLIBrigadierCommand {
 		return 1;
 	}
 	
+	private int dbStats(CommandContext<CLICommandSender> context) {
+		try {
+			for (String line : DB.getMetrics().dump())
+				Log.info(line);
+		} catch (NoClassDefFoundError e) {
+			// pandalib-db is an optional dependency of this module
+			Log.severe(failureText("Le module pandalib-db n’est pas disponible dans cette application.").getLegacyText());
+			return 0;
+		}
+		return 1;
+	}
+	
 	private int commandStruct(CommandContext<CLICommandSender> context) {
 		CLICommandSender sender = context.getSource();
 		String[] tokens = tryGetArgument(context, "path", String.class, s -> s.split(" "), new String[0]);
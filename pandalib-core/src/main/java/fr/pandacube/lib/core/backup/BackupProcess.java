@@ -38,6 +38,7 @@ public abstract class BackupProcess implements Comparable<BackupProcess>, Runnab
     private String scheduling = "0 2 * * *"; // cron format, here is every day at 2am
     private BackupCleaner backupCleaner = null;
     private List<String> ignoreList = new ArrayList<>();
+    private int compressionThreads = 1;
 
     /**
      * Instantiates a new backup process.
@@ -161,6 +162,24 @@ public abstract class BackupProcess implements Comparable<BackupProcess>, Runnab
         this.scheduling = scheduling;
     }
 
+    /**
+     * Gets the number of threads compressing the files during the backup process.
+     * @return the number of threads compressing the files.
+     */
+    public int getCompressionThreads() {
+        return compressionThreads;
+    }
+
+    /**
+     * Sets the number of threads compressing the files during the backup process.
+     * @param compressionThreads the number of threads compressing the files. Must be strictly positive.
+     */
+    public void setCompressionThreads(int compressionThreads) {
+        if (compressionThreads <= 0)
+            throw new IllegalArgumentException("compressionThreads must be strictly positive");
+        this.compressionThreads = compressionThreads;
+    }
+
     /**
      * Gets the associated backup cleaner, that is executed at the end of this backup process.
      * @return the associated backup cleaner.
@@ -221,7 +240,7 @@ public abstract class BackupProcess implements Comparable<BackupProcess>, Runnab
             new Thread(() -> {
                 Log.info("[Backup] Starting for " + LegacyChatFormat.GRAY + getDisplayName() + LegacyChatFormat.RESET + " ...");
 
-                compressor = new ZipCompressor(sourceDir, target, 9, filter);
+                compressor = new ZipCompressor(sourceDir, target, 9, filter, compressionThreads);
 
                 boolean success = false;
                 try {
@@ -0,0 +1,276 @@
+package fr.pandacube.lib.core.backup;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes a zip file from already compressed entry data, which {@link java.util.zip.ZipOutputStream} does not support.
+ * It is used by {@link ZipCompressor} to assemble the data compressed concurrently.
+ * <p>
+ * The file entries use the deflate method, with their CRC and sizes written after their data (like
+ * {@link java.util.zip.ZipOutputStream} does), so the data can be written as it is compressed. The zip64 extensions are
+ * used when the sizes or offsets do not fit the original format.
+ */
+/* package */ class ZipArchiveWriter implements Closeable {
+
+	private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+	private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+	private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+	private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+	private static final int END_SIGNATURE = 0x06054b50;
+
+	private static final int VERSION = 20;
+	private static final int VERSION_ZIP64 = 45;
+	private static final int FLAG_DATA_DESCRIPTOR = 0x08;
+	private static final int FLAG_UTF8 = 0x800;
+	private static final int METHOD_STORED = 0;
+	private static final int METHOD_DEFLATED = 8;
+	private static final int ZIP64_EXTRA_ID = 0x0001;
+	private static final long ZIP64_MAGIC_VALUE = 0xFFFFFFFFL;
+	private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+
+	private final OutputStream out;
+	private long written = 0;
+	private final byte[] numberBuffer = new byte[8];
+
+	private final List<CentralEntry> entries = new ArrayList<>();
+	private CentralEntry currentEntry = null;
+
+	/**
+	 * Creates a zip writer.
+	 * @param out the stream to write the zip file into, preferably buffered.
+	 */
+	/* package */ ZipArchiveWriter(OutputStream out) {
+		this.out = out;
+	}
+
+	/**
+	 * Writes a directory entry.
+	 * @param name the name of the entry, ending with a {@code /}.
+	 */
+	/* package */ void putDirectory(String name) throws IOException {
+		CentralEntry entry = new CentralEntry(name, METHOD_STORED, FLAG_UTF8, System.currentTimeMillis(), written);
+		writeLocalHeader(entry);
+		entries.add(entry);
+	}
+
+	/**
+	 * Starts a file entry, whose deflated data is then provided by {@link #writeCompressed(byte[])}.
+	 * @param name the name of the entry.
+	 * @param time the last modification time of the file.
+	 */
+	/* package */ void beginFile(String name, long time) throws IOException {
+		if (currentEntry != null)
+			throw new IllegalStateException("Entry " + currentEntry.name + " not ended");
+		currentEntry = new CentralEntry(name, METHOD_DEFLATED, FLAG_UTF8 | FLAG_DATA_DESCRIPTOR, time, written);
+		writeLocalHeader(currentEntry);
+	}
+
+	/**
+	 * Writes a part of the raw deflate data of the current file entry.
+	 * @param compressed the raw deflate data.
+	 */
+	/* package */ void writeCompressed(byte[] compressed) throws IOException {
+		out.write(compressed);
+		written += compressed.length;
+		currentEntry.compressedSize += compressed.length;
+	}
+
+	/**
+	 * Ends the current file entry.
+	 * @param crc the CRC-32 of the uncompressed data.
+	 * @param size the size of the uncompressed data.
+	 */
+	/* package */ void endFile(long crc, long size) throws IOException {
+		CentralEntry entry = currentEntry;
+		entry.crc = crc;
+		entry.size = size;
+		writeInt(DATA_DESCRIPTOR_SIGNATURE);
+		writeInt(crc);
+		if (entry.size >= ZIP64_MAGIC_VALUE || entry.compressedSize >= ZIP64_MAGIC_VALUE) {
+			writeLong(entry.compressedSize);
+			writeLong(entry.size);
+		}
+		else {
+			writeInt(entry.compressedSize);
+			writeInt(entry.size);
+		}
+		entries.add(entry);
+		currentEntry = null;
+	}
+
+	/**
+	 * Writes the central directory and closes the underlying stream.
+	 */
+	@Override
+	public void close() throws IOException {
+		try (out) {
+			long centralDirectoryOffset = written;
+			for (CentralEntry entry : entries)
+				writeCentralHeader(entry);
+			writeEnd(centralDirectoryOffset, written - centralDirectoryOffset);
+		}
+	}
+
+
+
+	private void writeLocalHeader(CentralEntry entry) throws IOException {
+		writeInt(LOCAL_HEADER_SIGNATURE);
+		writeShort(VERSION);
+		writeShort(entry.flags);
+		writeShort(entry.method);
+		writeInt(entry.dosTime);
+		writeInt(0); // crc, sizes: zero for a directory, in the data descriptor for a file
+		writeInt(0);
+		writeInt(0);
+		writeShort(entry.nameBytes.length);
+		writeShort(0);
+		writeBytes(entry.nameBytes);
+	}
+
+	private void writeCentralHeader(CentralEntry entry) throws IOException {
+		int zip64ExtraSize = 0;
+		if (entry.size >= ZIP64_MAGIC_VALUE)
+			zip64ExtraSize += 8;
+		if (entry.compressedSize >= ZIP64_MAGIC_VALUE)
+			zip64ExtraSize += 8;
+		if (entry.offset >= ZIP64_MAGIC_VALUE)
+			zip64ExtraSize += 8;
+		int version = zip64ExtraSize > 0 ? VERSION_ZIP64 : VERSION;
+
+		writeInt(CENTRAL_HEADER_SIGNATURE);
+		writeShort(version); // made by
+		writeShort(version); // needed to extract
+		writeShort(entry.flags);
+		writeShort(entry.method);
+		writeInt(entry.dosTime);
+		writeInt(entry.crc);
+		writeInt(Math.min(entry.compressedSize, ZIP64_MAGIC_VALUE));
+		writeInt(Math.min(entry.size, ZIP64_MAGIC_VALUE));
+		writeShort(entry.nameBytes.length);
+		writeShort(zip64ExtraSize > 0 ? zip64ExtraSize + 4 : 0);
+		writeShort(0); // comment length
+		writeShort(0); // disk number
+		writeShort(0); // internal attributes
+		writeInt(0); // external attributes
+		writeInt(Math.min(entry.offset, ZIP64_MAGIC_VALUE));
+		writeBytes(entry.nameBytes);
+		if (zip64ExtraSize > 0) {
+			writeShort(ZIP64_EXTRA_ID);
+			writeShort(zip64ExtraSize);
+			if (entry.size >= ZIP64_MAGIC_VALUE)
+				writeLong(entry.size);
+			if (entry.compressedSize >= ZIP64_MAGIC_VALUE)
+				writeLong(entry.compressedSize);
+			if (entry.offset >= ZIP64_MAGIC_VALUE)
+				writeLong(entry.offset);
+		}
+	}
+
+	private void writeEnd(long centralDirectoryOffset, long centralDirectorySize) throws IOException {
+		int count = entries.size();
+		if (count >= ZIP64_MAGIC_COUNT || centralDirectoryOffset >= ZIP64_MAGIC_VALUE
+				|| centralDirectorySize >= ZIP64_MAGIC_VALUE) {
+			long zip64EndOffset = written;
+			writeInt(ZIP64_END_SIGNATURE);
+			writeLong(44); // size of the remaining record
+			writeShort(VERSION_ZIP64);
+			writeShort(VERSION_ZIP64);
+			writeInt(0); // disk number
+			writeInt(0); // disk of the central directory
+			writeLong(count); // entries on this disk
+			writeLong(count);
+			writeLong(centralDirectorySize);
+			writeLong(centralDirectoryOffset);
+
+			writeInt(ZIP64_LOCATOR_SIGNATURE);
+			writeInt(0); // disk of the zip64 end record
+			writeLong(zip64EndOffset);
+			writeInt(1); // number of disks
+		}
+
+		writeInt(END_SIGNATURE);
+		writeShort(0); // disk number
+		writeShort(0); // disk of the central directory
+		writeShort(Math.min(count, ZIP64_MAGIC_COUNT)); // entries on this disk
+		writeShort(Math.min(count, ZIP64_MAGIC_COUNT));
+		writeInt(Math.min(centralDirectorySize, ZIP64_MAGIC_VALUE));
+		writeInt(Math.min(centralDirectoryOffset, ZIP64_MAGIC_VALUE));
+		writeShort(0); // comment length
+	}
+
+
+
+	private void writeShort(int v) throws IOException {
+		numberBuffer[0] = (byte) v;
+		numberBuffer[1] = (byte) (v >>> 8);
+		out.write(numberBuffer, 0, 2);
+		written += 2;
+	}
+
+	private void writeInt(long v) throws IOException {
+		for (int i = 0; i < 4; i++)
+			numberBuffer[i] = (byte) (v >>> (8 * i));
+		out.write(numberBuffer, 0, 4);
+		written += 4;
+	}
+
+	private void writeLong(long v) throws IOException {
+		for (int i = 0; i < 8; i++)
+			numberBuffer[i] = (byte) (v >>> (8 * i));
+		out.write(numberBuffer, 0, 8);
+		written += 8;
+	}
+
+	private void writeBytes(byte[] b) throws IOException {
+		out.write(b);
+		written += b.length;
+	}
+
+	/**
+	 * Converts a millis timestamp to the MS-DOS date and time format used in the zip headers.
+	 */
+	private static long toDosTime(long time) {
+		LocalDateTime d = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+		if (d.getYear() < 1980)
+			return (1 << 21) | (1 << 16); // 1980-01-01 00:00:00
+		return ((long) (d.getYear() - 1980) << 25)
+				| ((long) d.getMonthValue() << 21)
+				| ((long) d.getDayOfMonth() << 16)
+				| ((long) d.getHour() << 11)
+				| ((long) d.getMinute() << 5)
+				| ((long) d.getSecond() >> 1);
+	}
+
+
+
+	private static class CentralEntry {
+		final String name;
+		final byte[] nameBytes;
+		final int method;
+		final int flags;
+		final long dosTime;
+		final long offset;
+		long crc = 0;
+		long compressedSize = 0;
+		long size = 0;
+
+		CentralEntry(String name, int method, int flags, long time, long offset) {
+			this.name = name;
+			nameBytes = name.getBytes(StandardCharsets.UTF_8);
+			this.method = method;
+			this.flags = flags;
+			dosTime = toDosTime(time);
+			this.offset = offset;
+		}
+	}
+
+}
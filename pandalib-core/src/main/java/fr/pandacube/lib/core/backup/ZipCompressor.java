@@ -1,33 +1,67 @@
 package fr.pandacube.lib.core.backup;
 
 import java.io.BufferedOutputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.BiPredicate;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
 import fr.pandacube.lib.chat.Chat;
 import fr.pandacube.lib.util.MemoryUtil;
 import fr.pandacube.lib.util.TimeUtil;
+import fr.pandacube.lib.util.function.RunnableException;
 
 /**
  * Handles the creation of a zip file that will have the content of a provided folder.
+ * <p>
+ * When using more than one thread, the files are split into blocks of {@value #BLOCK_SIZE} bytes, that are compressed
+ * concurrently then written in order into a standard zip file. Each block is compressed using the end of the previous
+ * one as a dictionary, so the compression ratio is close to the one of the single thread compression.
  */
 public class ZipCompressor {
 	private static final int BUFFER_SIZE = 16 * 1024;
+	private static final int BLOCK_SIZE = 1024 * 1024;
+	private static final int DICTIONARY_SIZE = 32 * 1024;
+	/**
+	 * The number of blocks read in advance for each compression thread.
+	 */
+	private static final int PENDING_BLOCKS_PER_THREAD = 4;
 
 
 
 	private final File srcDir, destFile;
 	private final int compressionLevel;
 	private final BiPredicate<File, String> filter;
+	private final int threads;
+	/**
+	 * The raw deflaters of the compression threads.
+	 */
+	private final ThreadLocal<Deflater> deflaters;
+	/**
+	 * All the deflaters created by {@link #deflaters}, to release their native memory at the end of the compression.
+	 */
+	private final Queue<Deflater> createdDeflaters = new ConcurrentLinkedQueue<>();
 	
 	private final List<Entry> entriesToCompress;
 	private ZipOutputStream zipOutStream;
@@ -48,10 +82,31 @@ public class ZipCompressor {
 	 * @param f a filter that returns true for the files to include in the zip file, false to exclude.
 	 */
 	public ZipCompressor(File s, File d, int c, BiPredicate<File, String> f) {
+		this(s, d, c, f, 1);
+	}
+
+	/**
+	 * Creates a new zip compressor, that may compress the files using several threads.
+	 * @param s the source directory.
+	 * @param d the destination file.
+	 * @param c the compression level, used in {@link ZipOutputStream#setLevel(int)} .
+	 * @param f a filter that returns true for the files to include in the zip file, false to exclude.
+	 * @param t the number of threads compressing the files. With 1, the files are compressed by the thread calling
+	 *          {@link #compress()}.
+	 */
+	public ZipCompressor(File s, File d, int c, BiPredicate<File, String> f, int t) {
+		if (t <= 0)
+			throw new IllegalArgumentException("The number of threads must be strictly positive");
 		srcDir = s;
 		destFile = d;
 		compressionLevel = c;
 		filter = f;
+		threads = t;
+		deflaters = ThreadLocal.withInitial(() -> {
+			Deflater deflater = new Deflater(compressionLevel, true);
+			createdDeflaters.add(deflater);
+			return deflater;
+		});
 		
 		entriesToCompress = new ArrayList<>();
 		inputByteSize = addEntry("");
@@ -108,14 +163,42 @@ public class ZipCompressor {
 	public void compress() throws Exception {
 		destFile.getParentFile().mkdirs();
 		
+		try {
+			if (threads > 1)
+				compressParallel();
+			else
+				compressSequential();
+			
+			synchronized (stateLock) {
+				finished = true;
+			}
+		} catch (Exception e) {
+			synchronized (stateLock) {
+				exception = e;
+			}
+			throw e;
+		}
+	}
+	
+	private void markStarted() {
+		synchronized (stateLock) {
+			startTime = System.nanoTime();
+			started = true;
+		}
+	}
+	
+	private void addElapsedBytes(long bytes) {
+		synchronized (stateLock) {
+			elapsedByte += bytes;
+		}
+	}
+	
+	private void compressSequential() throws IOException {
 		try(ZipOutputStream zipStream = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(destFile), BUFFER_SIZE))) {
 			zipOutStream = zipStream;
 			zipOutStream.setLevel(compressionLevel);
 			
-			synchronized (stateLock) {
-				startTime = System.nanoTime();
-				started = true;
-			}
+			markStarted();
 			
 			for (Entry entry : entriesToCompress) {
 				try {
@@ -124,17 +207,90 @@ public class ZipCompressor {
 					// file has been deleted since
 				}
 			}
+		}
+	}
+	
+	/*
+	 * The current thread reads the files block by block, submits each block to the compression threads, and writes the
+	 * compressed blocks in order. The number of blocks read in advance is limited, to limit the memory usage.
+	 */
+	private void compressParallel() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+			Thread t = new Thread(r, "Backup compression thread");
+			t.setDaemon(true);
+			return t;
+		});
+		BlockReader reader = null;
+		try (ZipArchiveWriter writer = new ZipArchiveWriter(new BufferedOutputStream(new FileOutputStream(destFile), BUFFER_SIZE))) {
+			markStarted();
 			
-			synchronized (stateLock) {
-				finished = true;
-			}
-		} catch (Exception e) {
-			synchronized (stateLock) {
-				exception = e;
+			Deque<PendingWrite> pendingWrites = new ArrayDeque<>();
+			int pendingBlocks = 0;
+			int maxPendingBlocks = threads * PENDING_BLOCKS_PER_THREAD;
+			Iterator<Entry> entries = entriesToCompress.iterator();
+			for (;;) {
+				PendingWrite next = pendingWrites.peek();
+				boolean canRead = pendingBlocks < maxPendingBlocks && (reader != null || entries.hasNext());
+				if (next != null && (!canRead || next.isReady())) {
+					pendingWrites.poll();
+					next.write.run();
+					if (next.block != null)
+						pendingBlocks--;
+				}
+				else if (canRead) {
+					if (reader == null) {
+						reader = entries.next().openParallel(writer, executor, pendingWrites);
+						continue;
+					}
+					pendingWrites.add(reader.readBlock());
+					pendingBlocks++;
+					if (reader.finished) {
+						pendingWrites.add(reader.end());
+						reader.close();
+						reader = null;
+					}
+				}
+				else {
+					break;
+				}
 			}
-			throw e;
+		} finally {
+			if (reader != null)
+				reader.close();
+			executor.shutdownNow();
+			executor.close(); // waits for the running compressions, that still use their deflater
+			Deflater deflater;
+			while ((deflater = createdDeflaters.poll()) != null)
+				deflater.end();
 		}
 	}
+	
+	/**
+	 * Compresses a block of a file as a part of a raw deflate stream. Unless it is the last block of the file, it ends
+	 * with a sync flush, so the next block can be appended to it.
+	 */
+	private byte[] deflateBlock(byte[] data, int length, byte[] previousData, int previousLength, boolean last) {
+		Deflater deflater = deflaters.get();
+		deflater.reset();
+		if (previousData != null) {
+			int dictionaryLength = Math.min(DICTIONARY_SIZE, previousLength);
+			deflater.setDictionary(previousData, previousLength - dictionaryLength, dictionaryLength);
+		}
+		deflater.setInput(data, 0, length);
+		if (last)
+			deflater.finish();
+		byte[] out = new byte[Math.max(64, length / 2)];
+		int outLength = 0;
+		for (;;) {
+			if (outLength == out.length)
+				out = Arrays.copyOf(out, out.length * 2);
+			outLength += deflater.deflate(out, outLength, out.length - outLength, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+			// the sync flush is complete when there is space left in the output buffer
+			if (last ? deflater.finished() : outLength < out.length)
+				break;
+		}
+		return Arrays.copyOf(out, outLength);
+	}
 
 	
 	private long addEntry(String currentEntry) {
@@ -189,11 +345,99 @@ public class ZipCompressor {
 					zipOutStream.closeEntry();
 				}
 				
-				synchronized (stateLock) {
-					elapsedByte += attributes.size();
+				addElapsedBytes(attributes.size());
+			}
+		}
+		
+		/**
+		 * Queues the writing of the header of this entry, and opens the file for reading its blocks.
+		 * @return the reader of the file, or null if this entry is a directory or a deleted file.
+		 */
+		BlockReader openParallel(ZipArchiveWriter writer, ExecutorService executor, Deque<PendingWrite> pendingWrites) throws IOException {
+			BasicFileAttributes attributes;
+			InputStream in;
+			try {
+				attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+				if (attributes.isDirectory()) {
+					pendingWrites.add(new PendingWrite(null, () -> writer.putDirectory(entry)));
+					return null;
 				}
+				in = Files.newInputStream(file.toPath());
+			} catch (NoSuchFileException e) {
+				// file has been deleted since
+				return null;
 			}
+			long time = attributes.lastModifiedTime().toMillis();
+			pendingWrites.add(new PendingWrite(null, () -> writer.beginFile(entry, time)));
+			return new BlockReader(in, attributes.size(), writer, executor);
+		}
+		
+	}
+	
+	/**
+	 * Reads a file block by block, and submits each block for compression.
+	 */
+	private class BlockReader implements Closeable {
+		private final InputStream in;
+		private final ZipArchiveWriter writer;
+		private final ExecutorService executor;
+		private final long expectedSize;
+		private final CRC32 crc = new CRC32();
+		private long size = 0;
+		private byte[] previousData = null;
+		private int previousLength = 0;
+		private boolean finished = false;
+		
+		private BlockReader(InputStream in, long expectedSize, ZipArchiveWriter writer, ExecutorService executor) {
+			this.in = in;
+			this.expectedSize = expectedSize;
+			this.writer = writer;
+			this.executor = executor;
+		}
+		
+		private PendingWrite readBlock() throws IOException {
+			// one more byte than expected, to detect the end of the file without another read
+			byte[] data = new byte[(int) Math.min(BLOCK_SIZE, Math.max(0, expectedSize - size) + 1)];
+			int length = in.readNBytes(data, 0, data.length);
+			boolean last = length < data.length;
+			crc.update(data, 0, length);
+			size += length;
+			
+			byte[] dictionary = previousData;
+			int dictionaryLength = previousLength;
+			Future<byte[]> block = executor.submit(() -> deflateBlock(data, length, dictionary, dictionaryLength, last));
+			previousData = data;
+			previousLength = length;
+			finished = last;
+			
+			return new PendingWrite(block, () -> {
+				try {
+					writer.writeCompressed(block.get());
+				} catch (ExecutionException e) {
+					throw e.getCause() instanceof Exception cause ? cause : e;
+				}
+				addElapsedBytes(length);
+			});
 		}
 		
+		private PendingWrite end() {
+			long crcValue = crc.getValue();
+			long totalSize = size;
+			return new PendingWrite(null, () -> writer.endFile(crcValue, totalSize));
+		}
+		
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+	
+	/**
+	 * A write to the zip file, waiting for the previous ones and possibly for the compression of a block.
+	 */
+	private record PendingWrite(Future<byte[]> block, RunnableException<Exception> write) {
+		private boolean isReady() {
+			return block == null || block.isDone();
+		}
 	}
 }
@@ -10,25 +10,95 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
-import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
 
 /**
  * Application wide task scheduler using Cron expression.
+ * <p>
+ * The scheduled tasks are kept in a sorted set by next execution time, watched by a single scheduler thread. Each
+ * execution runs in its own virtual thread, but the number of executions running at the same time is limited (see
+ * {@link #setMaxConcurrentRuns(int)}). The behaviour when a task is due while its previous execution is still running
+ * is configurable for each task (see {@link OverlapPolicy}).
+ * <p>
+ * The last execution time of each task is persisted in the file {@code cron-last-run.json}, so the executions missed
+ * while the application was stopped are run at startup, either each of them or only once (see
+ * {@link MissedRunsPolicy}). The file is saved at most every {@value #LAST_RUN_SAVE_DELAY} ms, and when the
+ * application stops.
  */
 public class CronScheduler {
 
+    /**
+     * What to do when a task is due while its previous execution is still running.
+     */
+    public enum OverlapPolicy {
+        /**
+         * The new execution is skipped, and counted in {@link CronTaskMetrics#getSkippedOverlaps()}.
+         */
+        SKIP,
+        /**
+         * The new execution is run after the running one, and counted in {@link CronTaskMetrics#getQueuedOverlaps()}.
+         * At most one execution is queued: if one is already waiting, the new one is merged into it and counted in
+         * {@link CronTaskMetrics#getSkippedOverlaps()}.
+         */
+        QUEUE,
+        /**
+         * The new execution runs concurrently with the running one.
+         */
+        PARALLEL
+    }
+
+    /**
+     * What to do with the executions of a task that were missed, while the application was stopped or the scheduler
+     * was late.
+     */
+    public enum MissedRunsPolicy {
+        /**
+         * Each missed execution is run as soon as possible, subject to the {@link OverlapPolicy} of the task.
+         */
+        RUN_ALL,
+        /**
+         * The missed executions are merged into a single one, run as soon as possible.
+         */
+        RUN_ONCE
+    }
+
+    /**
+     * The default maximum number of task executions running at the same time.
+     */
+    public static final int DEFAULT_MAX_CONCURRENT_RUNS = 64;
+
+    /**
+     * The maximum delay between a task execution and the saving of its time in the last run file, in milliseconds.
+     */
+    private static final long LAST_RUN_SAVE_DELAY = 10000;
+    /**
+     * The delay actually used, {@link #LAST_RUN_SAVE_DELAY} unless changed by the tests.
+     */
+    /* package */ static volatile long lastRunSaveDelay = LAST_RUN_SAVE_DELAY;
+
     private static final Object lock = new Object();
 
-    private static final List<CronTask> tasks = new ArrayList<>();
+    private static final NavigableSet<CronTask> tasks = new TreeSet<>(Comparator.<CronTask>comparingLong(t -> t.nextRun)
+            .thenComparingLong(t -> t.sequence));
     private static final Map<String, CronTask> tasksById = new HashMap<>();
+    private static long nextTaskSequence = 0;
+
+    private static final Map<String, CronTaskMetrics> metricsById = new ConcurrentHashMap<>();
+
+    private static volatile Semaphore runPermits = new Semaphore(DEFAULT_MAX_CONCURRENT_RUNS);
 
 
 
@@ -42,31 +112,36 @@ public class CronScheduler {
             Thread t = new Thread(CronScheduler::run, "Pandalib CronScheduler Thread");
             t.setDaemon(true);
             t.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(CronScheduler::saveLastRuns, "Pandalib CronScheduler last runs saving"));
         }
     }
 
 
 
     private static void run() {
-        synchronized (lock) {
-            for (;;) {
-                long wait = 0;
+        for (;;) {
+            synchronized (lock) {
                 long now = System.currentTimeMillis();
+                CronTask next = tasks.isEmpty() ? null : tasks.first();
+                if (next != null && next.nextRun <= now) {
+                    tasks.pollFirst();
+                    next.runAsync(now);
+                    tasks.add(next);
+                    setLastRun(next.taskId, now);
+                    continue;
+                }
 
-                if (!tasks.isEmpty()) {
-                    CronTask next = tasks.getFirst();
-                    if (next.nextRun <= now) {
-                        next.runAsync();
-                        setLastRun(next.taskId, now);
-                        onTaskUpdate(false);
+                long wakeUp = next == null ? Long.MAX_VALUE : next.nextRun;
+                if (lastRunsDirtySince != 0) {
+                    if (lastRunsDirtySince + lastRunSaveDelay <= now) {
+                        lastRunsDirtySince = 0;
+                        saveLastRunsAsync();
                         continue;
                     }
-                    else {
-                        wait = next.nextRun - now;
-                    }
+                    wakeUp = Math.min(wakeUp, lastRunsDirtySince + lastRunSaveDelay);
                 }
                 try {
-                    lock.wait(wait, 0);
+                    lock.wait(wakeUp == Long.MAX_VALUE ? 0 : wakeUp - now, 0);
                 } catch (InterruptedException e) {
                     return;
                 }
@@ -78,13 +153,47 @@ public class CronScheduler {
     /**
      * Schedule a task.
      * If a task with the provided taskId already exists, it will be replaced.
+     * The executions of the task may run concurrently (see {@link OverlapPolicy#PARALLEL}), and each missed execution
+     * is run (see {@link MissedRunsPolicy#RUN_ALL}).
      * @param taskId the id of the task.
      * @param cronExpression the scheduling of the task. May use seconds (6 values) or not (5 values).
      *                       See {@link CronExpression} for the format.
      * @param task the task to run.
      */
     public static void schedule(String taskId, String cronExpression, Runnable task) {
+        schedule(taskId, cronExpression, OverlapPolicy.PARALLEL, task);
+    }
+
+    /**
+     * Schedule a task.
+     * If a task with the provided taskId already exists, it will be replaced. The executions of the replaced task that
+     * are still running or queued are not cancelled.
+     * @param taskId the id of the task.
+     * @param cronExpression the scheduling of the task. May use seconds (6 values) or not (5 values).
+     *                       See {@link CronExpression} for the format.
+     * @param overlapPolicy what to do when the task is due while its previous execution is still running.
+     * @param task the task to run.
+     */
+    public static void schedule(String taskId, String cronExpression, OverlapPolicy overlapPolicy, Runnable task) {
+        schedule(taskId, cronExpression, overlapPolicy, MissedRunsPolicy.RUN_ALL, task);
+    }
+
+    /**
+     * Schedule a task.
+     * If a task with the provided taskId already exists, it will be replaced. The executions of the replaced task that
+     * are still running or queued are not cancelled.
+     * @param taskId the id of the task.
+     * @param cronExpression the scheduling of the task. May use seconds (6 values) or not (5 values).
+     *                       See {@link CronExpression} for the format.
+     * @param overlapPolicy what to do when the task is due while its previous execution is still running.
+     * @param missedRunsPolicy what to do with the executions that were missed.
+     * @param task the task to run.
+     */
+    public static void schedule(String taskId, String cronExpression, OverlapPolicy overlapPolicy,
+                                MissedRunsPolicy missedRunsPolicy, Runnable task) {
         init();
+        CronExpression cron = new CronExpression(cronExpression, cronExpression.split("\\s+").length == 6);
+        CronTaskMetrics metrics = metricsById.computeIfAbsent(taskId, id -> new CronTaskMetrics());
         synchronized (lock) {
             long lastRun = getLastRun(taskId);
 
@@ -94,9 +203,8 @@ public class CronScheduler {
                 removeTask(taskId);
             }
 
-            CronExpression cron = new CronExpression(cronExpression, cronExpression.split("\\s+").length == 6);
-            addTask(new CronTask(taskId, task, cron, lastRun));
-            onTaskUpdate(true);
+            addTask(new CronTask(taskId, task, cron, overlapPolicy, missedRunsPolicy, metrics, nextTaskSequence++, lastRun));
+            onTaskUpdate();
         }
     }
 
@@ -110,20 +218,42 @@ public class CronScheduler {
             CronTask existing = getTask(taskId);
             if (existing != null) {
                 removeTask(taskId);
-                onTaskUpdate(true);
+                onTaskUpdate();
             }
         }
     }
 
+    /**
+     * Sets the maximum number of task executions running at the same time. The other executions wait for a running
+     * one to end, which is counted in their lateness (see {@link CronTaskMetrics#getLateness()}).
+     * The executions already running or waiting are not affected.
+     * @param maxConcurrentRuns the maximum number of task executions running at the same time.
+     */
+    public static void setMaxConcurrentRuns(int maxConcurrentRuns) {
+        if (maxConcurrentRuns <= 0)
+            throw new IllegalArgumentException("maxConcurrentRuns must be strictly positive");
+        runPermits = new Semaphore(maxConcurrentRuns);
+    }
+
+    /* package */ static Semaphore getRunPermits() {
+        return runPermits;
+    }
 
+    /**
+     * Gets the metrics of the executions of a task.
+     * @param taskId the id of the task.
+     * @return the metrics of the task, or null if no task was scheduled with this id.
+     */
+    public static CronTaskMetrics getTaskMetrics(String taskId) {
+        return metricsById.get(taskId);
+    }
 
-    private static void onTaskUpdate(boolean notify) {
+
+
+    private static void onTaskUpdate() {
         synchronized (lock) {
-            tasks.sort(Comparator.comparing(t -> t.nextRun));
-            if (notify) {
-                Log.info("Scheduler notified.");
-                lock.notify();
-            }
+            Log.info("Scheduler notified.");
+            lock.notify();
         }
     }
 
@@ -143,7 +273,9 @@ public class CronScheduler {
 
     private static void removeTask(String taskId) {
         synchronized (lock) {
-            tasks.remove(tasksById.remove(taskId));
+            CronTask task = tasksById.remove(taskId);
+            if (task != null)
+                tasks.remove(task);
         }
     }
 
@@ -157,16 +289,45 @@ public class CronScheduler {
 
 
     private static final Map<String, Long> savedLastRun = new LinkedHashMap<>();
-    private static final File lastRunFile = new File("cron-last-run.json");
+    /**
+     * The last run file, {@code cron-last-run.json} unless changed by the tests before the scheduler starts.
+     */
+    /* package */ static volatile File lastRunFile = new File("cron-last-run.json");
+    private static final Object saveLock = new Object();
+    /**
+     * Millis timestamp of the first unsaved change of {@link #savedLastRun}, or 0 if there is none.
+     */
+    private static long lastRunsDirtySince = 0;
 
+    private static void saveLastRunsAsync() {
+        Thread.ofVirtual().name("Pandalib CronScheduler last runs saving").start(CronScheduler::saveLastRuns);
+    }
+
+    /**
+     * Saves the last runs into a temporary file, then replaces the last run file with it, so the file is never left
+     * truncated. The data is read while holding the save lock, so a save cannot overwrite a more recent one.
+     */
     private static void saveLastRuns() {
-        try (FileWriter writer = new FileWriter(lastRunFile, false)) {
+        synchronized (saveLock) {
+            File lastRunFile = CronScheduler.lastRunFile;
+            File lastRunTempFile = new File(lastRunFile.getPath() + ".tmp");
+            Map<String, Long> data;
             synchronized (lock) {
-                Json.gsonPrettyPrinting.toJson(savedLastRun, writer);
+                data = new LinkedHashMap<>(savedLastRun);
+            }
+            try {
+                try (FileWriter writer = new FileWriter(lastRunTempFile, false)) {
+                    Json.gsonPrettyPrinting.toJson(data, writer);
+                }
+                try {
+                    Files.move(lastRunTempFile.toPath(), lastRunFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(lastRunTempFile.toPath(), lastRunFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            catch (JsonParseException | IOException e) {
+                Log.severe("could not save " + lastRunFile, e);
             }
-        }
-        catch (JsonParseException | IOException e) {
-            Log.severe("could not save " + lastRunFile, e);
         }
     }
 
@@ -195,7 +356,10 @@ public class CronScheduler {
     /* package */ static void setLastRun(String taskId, long lastRun) {
         synchronized (lock) {
             savedLastRun.put(taskId, lastRun);
-            saveLastRuns();
+            if (lastRunsDirtySince == 0) {
+                lastRunsDirtySince = System.currentTimeMillis();
+                lock.notify();
+            }
         }
     }
 
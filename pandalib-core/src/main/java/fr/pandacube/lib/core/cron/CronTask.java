@@ -1,6 +1,11 @@
 package fr.pandacube.lib.core.cron;
 
 import fc.cron.CronExpression;
+import fr.pandacube.lib.core.cron.CronScheduler.MissedRunsPolicy;
+import fr.pandacube.lib.core.cron.CronScheduler.OverlapPolicy;
+import fr.pandacube.lib.util.log.Log;
+
+import java.util.concurrent.Semaphore;
 
 /* package */ class CronTask {
     /**
@@ -15,6 +20,22 @@ import fc.cron.CronExpression;
      * The cron expression telling when to run the task.
      */
     /* package */ final CronExpression scheduling;
+    /**
+     * What to do when the task is due while a previous execution is still running.
+     */
+    /* package */ final OverlapPolicy overlapPolicy;
+    /**
+     * What to do with the executions missed before the current time.
+     */
+    /* package */ final MissedRunsPolicy missedRunsPolicy;
+    /**
+     * The metrics of the executions of the task.
+     */
+    /* package */ final CronTaskMetrics metrics;
+    /**
+     * Order of scheduling of the task, to order the tasks with the same next run.
+     */
+    /* package */ final long sequence;
     /**
      * Millis timestamp of the previous run. Must be saved.
      */
@@ -24,12 +45,24 @@ import fc.cron.CronExpression;
      */
     /* package */ long nextRun;
 
+    // guarded by this
+    private int runningCount = 0;
+    /**
+     * Scheduled time of the execution queued by the {@link OverlapPolicy#QUEUE} policy, or 0 if there is none.
+     */
+    private long queuedRun = 0;
+
 
 
-    /* package */ CronTask(String taskId, Runnable task, CronExpression scheduling, long lastRun) {
+    /* package */ CronTask(String taskId, Runnable task, CronExpression scheduling, OverlapPolicy overlapPolicy,
+                           MissedRunsPolicy missedRunsPolicy, CronTaskMetrics metrics, long sequence, long lastRun) {
         this.taskId = taskId;
         this.task = task;
         this.scheduling = scheduling;
+        this.overlapPolicy = overlapPolicy;
+        this.missedRunsPolicy = missedRunsPolicy;
+        this.metrics = metrics;
+        this.sequence = sequence;
         this.lastRun = lastRun;
         updateNextRun();
     }
@@ -41,11 +74,77 @@ import fc.cron.CronExpression;
     }
 
 
-    /* package */ void runAsync() {
-        Thread t = new Thread(task, "Pandalib CronTask " + taskId);
-        t.start();
+    /**
+     * Runs the task in a new virtual thread, according to its overlap policy, and updates the next run.
+     * With the {@link MissedRunsPolicy#RUN_ONCE} policy, the executions missed before {@code now} are merged into
+     * this one. Otherwise, the next run is the following occurrence, even if it is already due.
+     * @param now the current millis timestamp.
+     */
+    /* package */ void runAsync(long now) {
+        long scheduledTime = nextRun;
         lastRun = nextRun;
-        updateNextRun();
+        nextRun = CronScheduler.getNextTime(scheduling,
+                missedRunsPolicy == MissedRunsPolicy.RUN_ONCE ? Math.max(lastRun, now) : lastRun);
+
+        synchronized (this) {
+            if (runningCount > 0) {
+                switch (overlapPolicy) {
+                    case SKIP -> {
+                        metrics.recordSkippedOverlap();
+                        return;
+                    }
+                    case QUEUE -> {
+                        if (queuedRun != 0) { // merged into the already queued execution
+                            metrics.recordSkippedOverlap();
+                            return;
+                        }
+                        queuedRun = scheduledTime;
+                        metrics.recordQueuedOverlap();
+                        return;
+                    }
+                    case PARALLEL -> { }
+                }
+            }
+            runningCount++;
+        }
+
+        Thread.ofVirtual().name("Pandalib CronTask " + taskId).start(() -> {
+            long nextScheduledTime = scheduledTime;
+            while (nextScheduledTime != 0) {
+                run(nextScheduledTime);
+                synchronized (this) {
+                    nextScheduledTime = queuedRun;
+                    queuedRun = 0;
+                    if (nextScheduledTime == 0)
+                        runningCount--;
+                }
+            }
+        });
+    }
+
+
+    private void run(long scheduledTime) {
+        Semaphore permits = CronScheduler.getRunPermits();
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        try {
+            long lateness = Math.max(0, System.currentTimeMillis() - scheduledTime);
+            long start = System.nanoTime();
+            boolean failed = false;
+            try {
+                task.run();
+            } catch (Throwable t) {
+                failed = true;
+                Log.severe("Error while running cron task " + taskId, t);
+            }
+            metrics.recordRun(lateness, System.nanoTime() - start, failed);
+        } finally {
+            permits.release();
+        }
     }
 
 
@@ -0,0 +1,144 @@
+package fr.pandacube.lib.core.cron;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The metrics of the executions of a task of the {@link CronScheduler}.
+ * <p>
+ * The lateness of an execution is the delay between its scheduled time and its actual start, for instance because of
+ * the maximum number of concurrent executions (see {@link CronScheduler#setMaxConcurrentRuns(int)}), or because it was
+ * queued after a previous execution (see {@link CronScheduler.OverlapPolicy#QUEUE}).
+ * <p>
+ * Get the instance using {@link CronScheduler#getTaskMetrics(String)}. The metrics of a task are kept when it is
+ * scheduled again with the same id.
+ */
+public final class CronTaskMetrics {
+
+    private final LongAdder runCount = new LongAdder();
+    private final LongAdder runNanos = new LongAdder();
+    private final LongAccumulator maxRunNanos = new LongAccumulator(Long::max, 0);
+    private final LongAdder latenessMillis = new LongAdder();
+    private final LongAccumulator maxLatenessMillis = new LongAccumulator(Long::max, 0);
+    private final LongAdder failedRuns = new LongAdder();
+    private final LongAdder skippedOverlaps = new LongAdder();
+    private final LongAdder queuedOverlaps = new LongAdder();
+
+    /* package */ CronTaskMetrics() { }
+
+    /**
+     * Gets the number of completed executions of the task.
+     * @return the number of completed executions.
+     */
+    public long getRunCount() {
+        return runCount.sum();
+    }
+
+    /**
+     * Gets the total duration of the executions counted by {@link #getRunCount()}.
+     * @return the total duration of the executions.
+     */
+    public Duration getRunTime() {
+        return Duration.ofNanos(runNanos.sum());
+    }
+
+    /**
+     * Gets the duration of the longest execution of the task.
+     * @return the duration of the longest execution.
+     */
+    public Duration getMaxRunTime() {
+        return Duration.ofNanos(maxRunNanos.get());
+    }
+
+    /**
+     * Gets the total lateness of the executions counted by {@link #getRunCount()}.
+     * @return the total lateness of the executions.
+     */
+    public Duration getLateness() {
+        return Duration.ofMillis(latenessMillis.sum());
+    }
+
+    /**
+     * Gets the highest lateness of the executions of the task.
+     * @return the highest lateness of the executions.
+     */
+    public Duration getMaxLateness() {
+        return Duration.ofMillis(maxLatenessMillis.get());
+    }
+
+    /**
+     * Gets the number of executions that ended with an exception.
+     * @return the number of failed executions.
+     */
+    public long getFailedRunCount() {
+        return failedRuns.sum();
+    }
+
+    /**
+     * Gets the number of executions that were skipped because the previous one was still running
+     * (see {@link CronScheduler.OverlapPolicy#SKIP}), or merged into an already queued one
+     * (see {@link CronScheduler.OverlapPolicy#QUEUE}).
+     * @return the number of skipped executions.
+     */
+    public long getSkippedOverlaps() {
+        return skippedOverlaps.sum();
+    }
+
+    /**
+     * Gets the number of executions that were queued because the previous one was still running
+     * (see {@link CronScheduler.OverlapPolicy#QUEUE}).
+     * @return the number of queued executions.
+     */
+    public long getQueuedOverlaps() {
+        return queuedOverlaps.sum();
+    }
+
+    /**
+     * Resets all the metrics.
+     */
+    public void reset() {
+        runCount.reset();
+        runNanos.reset();
+        maxRunNanos.reset();
+        latenessMillis.reset();
+        maxLatenessMillis.reset();
+        failedRuns.reset();
+        skippedOverlaps.reset();
+        queuedOverlaps.reset();
+    }
+
+    @Override
+    public String toString() {
+        long count = getRunCount();
+        Duration time = getRunTime();
+        return "runs=" + count + " failed=" + getFailedRunCount()
+                + " meanRunTime=" + (count == 0 ? 0 : time.toMillis() / count) + "ms"
+                + " maxRunTime=" + getMaxRunTime().toMillis() + "ms"
+                + " meanLateness=" + (count == 0 ? 0 : getLateness().toMillis() / count) + "ms"
+                + " maxLateness=" + getMaxLateness().toMillis() + "ms"
+                + " skippedOverlaps=" + getSkippedOverlaps()
+                + " queuedOverlaps=" + getQueuedOverlaps();
+    }
+
+
+
+    /* package */ void recordRun(long lateness, long nanos, boolean failed) {
+        runCount.increment();
+        runNanos.add(nanos);
+        maxRunNanos.accumulate(nanos);
+        latenessMillis.add(lateness);
+        maxLatenessMillis.accumulate(lateness);
+        if (failed)
+            failedRuns.increment();
+    }
+
+    /* package */ void recordSkippedOverlap() {
+        skippedOverlaps.increment();
+    }
+
+    /* package */ void recordQueuedOverlap() {
+        queuedOverlaps.increment();
+    }
+
+}
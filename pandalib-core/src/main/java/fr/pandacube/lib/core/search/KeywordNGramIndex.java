@@ -0,0 +1,208 @@
+package fr.pandacube.lib.core.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+
+/**
+ * Substring index of the keywords of a {@link SearchEngine}.
+ * <p>
+ * Each keyword is given an integer id, and each trigram of the keywords is associated with the sorted list of ids of
+ * the keywords containing it. The keywords are padded with two {@link #END} characters, so each character of a keyword
+ * starts a trigram. The keywords containing a search term shorter than 3 characters are then given by the lists of the
+ * trigrams starting with this term. For a longer search term, the lists of its trigrams are intersected, starting from
+ * the smallest one. In both cases, the remaining candidates are checked using {@link String#contains(CharSequence)}.
+ * The cost of a search is then proportional to the size of the candidate lists, instead of the number of keywords.
+ * <p>
+ * The modifications must be done by one thread at a time, but the searches can be done concurrently with the
+ * modifications, without locking: the lists are immutable arrays replaced on each modification.
+ */
+/* package */ final class KeywordNGramIndex {
+
+	/* package */ static final int N = 3;
+	private static final char END = '\u0003';
+
+	// only accessed by the modifying thread
+	private final Map<String, Integer> keywordIds = new HashMap<>();
+	private final List<Integer> freeIds = new ArrayList<>();
+	private int nextId = 0;
+
+	private volatile String[] keywords = new String[16]; // by id, null if the id is free
+	private final ConcurrentSkipListMap<String, int[]> postings = new ConcurrentSkipListMap<>();
+
+	/**
+	 * Adds keywords to this index, if not already present.
+	 * @param newKeywords the lowercase keywords.
+	 */
+	/* package */ void addAll(Collection<String> newKeywords) {
+		Map<String, List<Integer>> addedIds = new HashMap<>();
+		for (String keyword : newKeywords) {
+			if (keywordIds.containsKey(keyword))
+				continue;
+			int id = freeIds.isEmpty() ? nextId++ : freeIds.removeLast();
+			if (id >= keywords.length)
+				keywords = Arrays.copyOf(keywords, Math.max(keywords.length * 2, id + 1));
+			keywords[id] = keyword; // published before the lists containing the id
+			keywordIds.put(keyword, id);
+			for (String gram : trigrams(keyword))
+				addedIds.computeIfAbsent(gram, g -> new ArrayList<>()).add(id);
+		}
+		addedIds.forEach((gram, ids) -> postings.put(gram, union(postings.get(gram), toSortedArray(ids))));
+	}
+
+	/**
+	 * Removes keywords from this index.
+	 * @param oldKeywords the lowercase keywords.
+	 */
+	/* package */ void removeAll(Collection<String> oldKeywords) {
+		Map<String, List<Integer>> removedIds = new HashMap<>();
+		List<Integer> ids = new ArrayList<>();
+		for (String keyword : oldKeywords) {
+			Integer id = keywordIds.remove(keyword);
+			if (id == null)
+				continue;
+			ids.add(id);
+			for (String gram : trigrams(keyword))
+				removedIds.computeIfAbsent(gram, g -> new ArrayList<>()).add(id);
+		}
+		removedIds.forEach((gram, gramIds) -> {
+			int[] remaining = difference(postings.get(gram), toSortedArray(gramIds));
+			if (remaining.length == 0)
+				postings.remove(gram);
+			else
+				postings.put(gram, remaining);
+		});
+		String[] kws = keywords;
+		for (int id : ids)
+			kws[id] = null;
+		freeIds.addAll(ids);
+	}
+
+	/**
+	 * Performs the provided action for each keyword containing the provided term.
+	 * @param term the lowercase non-empty search term.
+	 * @param action the action to perform.
+	 */
+	/* package */ void forEachKeywordContaining(String term, Consumer<String> action) {
+		String[] kws = keywords;
+		if (term.length() < N) {
+			BitSet candidates = new BitSet();
+			for (int[] posting : postings.subMap(term, true, term + Character.MAX_VALUE, false).values()) {
+				for (int id : posting)
+					candidates.set(id);
+			}
+			for (int id = candidates.nextSetBit(0); id >= 0; id = candidates.nextSetBit(id + 1))
+				acceptIfContains(kws, id, term, action);
+			return;
+		}
+
+		List<int[]> termPostings = new ArrayList<>();
+		for (String gram : trigramsOf(term)) {
+			int[] posting = postings.get(gram);
+			if (posting == null)
+				return;
+			termPostings.add(posting);
+		}
+		termPostings.sort(Comparator.comparingInt(p -> p.length));
+
+		int[] candidates = termPostings.getFirst().clone();
+		int count = candidates.length;
+		for (int p = 1; p < termPostings.size() && count > 0; p++) {
+			int[] posting = termPostings.get(p);
+			int kept = 0;
+			for (int i = 0; i < count; i++) {
+				if (Arrays.binarySearch(posting, candidates[i]) >= 0)
+					candidates[kept++] = candidates[i];
+			}
+			count = kept;
+		}
+
+		for (int i = 0; i < count; i++)
+			acceptIfContains(kws, candidates[i], term, action);
+	}
+
+	/**
+	 * Tells if at least one keyword contains the provided term.
+	 * @param term the lowercase non-empty search term.
+	 * @return true if at least one keyword contains the provided term.
+	 */
+	/* package */ boolean containsAnyKeywordContaining(String term) {
+		boolean[] found = { false };
+		forEachKeywordContaining(term, k -> found[0] = true);
+		return found[0];
+	}
+
+	private static void acceptIfContains(String[] kws, int id, String term, Consumer<String> action) {
+		if (id >= kws.length)
+			return;
+		String keyword = kws[id]; // null if removed since the list was read
+		if (keyword != null && keyword.contains(term))
+			action.accept(keyword);
+	}
+
+	/**
+	 * Gets the trigrams of a keyword, padded so each of its characters starts a trigram.
+	 */
+	private static Set<String> trigrams(String keyword) {
+		return trigramsOf(keyword + END + END);
+	}
+
+	private static Set<String> trigramsOf(String s) {
+		Set<String> grams = new HashSet<>();
+		for (int i = 0; i + N <= s.length(); i++)
+			grams.add(s.substring(i, i + N));
+		return grams;
+	}
+
+	private static int[] toSortedArray(List<Integer> ids) {
+		int[] array = new int[ids.size()];
+		for (int i = 0; i < array.length; i++)
+			array[i] = ids.get(i);
+		Arrays.sort(array);
+		return array;
+	}
+
+	private static int[] union(int[] a, int[] b) {
+		if (a == null)
+			return b;
+		int[] result = new int[a.length + b.length];
+		int i = 0, j = 0, k = 0;
+		while (i < a.length && j < b.length) {
+			if (a[i] < b[j])
+				result[k++] = a[i++];
+			else if (a[i] > b[j])
+				result[k++] = b[j++];
+			else {
+				result[k++] = a[i++];
+				j++;
+			}
+		}
+		while (i < a.length)
+			result[k++] = a[i++];
+		while (j < b.length)
+			result[k++] = b[j++];
+		return k == result.length ? result : Arrays.copyOf(result, k);
+	}
+
+	private static int[] difference(int[] a, int[] b) {
+		if (a == null)
+			return new int[0];
+		int[] result = new int[a.length];
+		int k = 0;
+		for (int id : a) {
+			if (Arrays.binarySearch(b, id) < 0)
+				result[k++] = id;
+		}
+		return Arrays.copyOf(result, k);
+	}
+
+}
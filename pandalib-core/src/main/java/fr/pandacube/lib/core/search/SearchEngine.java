@@ -2,36 +2,64 @@ package fr.pandacube.lib.core.search;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import fr.pandacube.lib.util.LevenshteinDistance;
 import fr.pandacube.lib.util.log.Log;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 /**
  * Utility class to manage searching among a set of {@link SearchResult} instances, using case-insensitive keywords.
  * The search engine is responsible for storing a database of entries ({@link SearchResult}) that can be searched using
- * keywords. This class provides methods to returns a list of results for provided keywords, a list of keyword
- * suggestions based on pre-typed keywords.
+ * keywords. This class provides methods to returns a list of results for provided keywords, optionally ranked by
+ * relevance (see {@link #search(Set, int)}), a list of keyword suggestions based on pre-typed keywords.
+ * <p>
+ * This class is thread-safe. The modifications are done by one thread at a time, but the searches and suggestions never
+ * wait for them: a search concurrent with a modification may or may not see the entries being added or removed.
  * @param <R> the type of search result.
  */
 public class SearchEngine<R extends SearchResult> {
 
-	private final Map<String, Set<R>> searchKeywordsResultMap = new HashMap<>();
-	private final Map<R, Set<String>> resultsSearchKeywordsMap = new HashMap<>();
+	/**
+	 * Above this number of modified entries, the whole suggestion cache is invalidated instead of the suggestions
+	 * related to each entry.
+	 */
+	private static final int SCOPED_INVALIDATION_MAX_RESULTS = 64;
 
-	private final Map<String, Set<R>> suggestionsKeywordsResultMap = new HashMap<>();
-	private final Map<R, Set<String>> resultsSuggestionsKeywordsMap = new HashMap<>();
+	/*
+	 * Relevance score of a search term, depending on how it matches a keyword. The ratio of the length of the term to
+	 * the length of the keyword, in [0;1[, is added to the prefix and substring scores, so a keyword that is mostly
+	 * covered by the term is more relevant. The fuzzy score is in ]0;0.5].
+	 */
+	private static final double EXACT_MATCH_SCORE = 4;
+	private static final double PREFIX_MATCH_SCORE = 2;
+	private static final double SUBSTRING_MATCH_SCORE = 1;
+	/**
+	 * Added to the score of a search term for each additional keyword of a result matching this term.
+	 */
+	private static final double KEYWORD_FREQUENCY_SCORE = 0.1;
+
+	private final Map<String, Set<R>> searchKeywordsResultMap = new ConcurrentHashMap<>();
+	private final Map<R, Set<String>> resultsSearchKeywordsMap = new ConcurrentHashMap<>();
+	private final KeywordNGramIndex searchKeywordsIndex = new KeywordNGramIndex();
+
+	private final Map<String, Set<R>> suggestionsKeywordsResultMap = new ConcurrentHashMap<>();
+	private final Map<R, Set<String>> resultsSuggestionsKeywordsMap = new ConcurrentHashMap<>();
 
-	private final Set<R> resultSet = new HashSet<>();
-	
 	private final Cache<Set<String>, List<String>> suggestionsCache;
+	private final AtomicLong modificationCount = new AtomicLong();
 
 	/**
 	 * Creates a new search engine.
@@ -47,90 +75,162 @@ public class SearchEngine<R extends SearchResult> {
 	 * Adds an entry in this search engine.
 	 * @param result the new entry.
 	 */
-	public synchronized void addResult(R result) {
-		if (result == null) 
+	public void addResult(R result) {
+		if (result == null)
 			throw new IllegalArgumentException("Provided result cannot be null.");
-		if (resultSet.contains(result))
-			return;
-		
-		Set<String> searchKw;
-		try {
-			searchKw = result.getSearchKeywords();
-			Objects.requireNonNull(searchKw, "SearchResult instance must provide a non null set of search keywords");
-			searchKw = searchKw.stream()
-					.filter(Objects::nonNull)
-					.map(String::toLowerCase)
-					.collect(Collectors.toSet());
-		} catch (Exception e) {
-			Log.severe(e);
-			return;
+		addResults(List.of(result));
+	}
+
+	/**
+	 * Adds entries in this search engine. This is more efficient than adding each entry separately.
+	 * @param results the new entries.
+	 */
+	public synchronized void addResults(Collection<? extends R> results) {
+		List<Set<String>> addedSearchKeywords = new ArrayList<>();
+		Set<String> newSearchKeywords = new HashSet<>();
+		for (R result : results) {
+			if (result == null)
+				throw new IllegalArgumentException("Provided result cannot be null.");
+			if (resultsSearchKeywordsMap.containsKey(result))
+				continue;
+
+			Set<String> searchKw;
+			try {
+				searchKw = result.getSearchKeywords();
+				Objects.requireNonNull(searchKw, "SearchResult instance must provide a non null set of search keywords");
+				searchKw = searchKw.stream()
+						.filter(Objects::nonNull)
+						.map(String::toLowerCase)
+						.collect(Collectors.toUnmodifiableSet());
+			} catch (Exception e) {
+				Log.severe(e);
+				continue;
+			}
+
+			Set<String> suggestsKw;
+			try {
+				suggestsKw = result.getSuggestionKeywords();
+				Objects.requireNonNull(suggestsKw, "SearchResult instance must provide a non null set of suggestions keywords");
+				suggestsKw = suggestsKw.stream()
+						.filter(Objects::nonNull)
+						.collect(Collectors.toUnmodifiableSet());
+			} catch (Exception e) {
+				Log.severe(e);
+				continue;
+			}
+
+			for (String skw : searchKw) {
+				searchKeywordsResultMap.computeIfAbsent(skw, s -> {
+					newSearchKeywords.add(s);
+					return ConcurrentHashMap.newKeySet();
+				}).add(result);
+			}
+
+			resultsSuggestionsKeywordsMap.put(result, suggestsKw);
+
+			for (String skw : suggestsKw) {
+				suggestionsKeywordsResultMap.computeIfAbsent(skw, s -> ConcurrentHashMap.newKeySet()).add(result);
+			}
+
+			resultsSearchKeywordsMap.put(result, searchKw);
+			addedSearchKeywords.add(searchKw);
 		}
-		
-		Set<String> suggestsKw;
-		try {
-			suggestsKw = result.getSuggestionKeywords();
-			Objects.requireNonNull(suggestsKw, "SearchResult instance must provide a non null set of suggestions keywords");
-			suggestsKw = new HashSet<>(suggestsKw);
-			suggestsKw.removeIf(Objects::isNull);
-		} catch (Exception e) {
-			Log.severe(e);
+
+		if (addedSearchKeywords.isEmpty())
 			return;
-		}
-		
-		resultSet.add(result);
-		
-		for (String skw : searchKw) {
-			searchKeywordsResultMap.computeIfAbsent(skw, s -> new HashSet<>()).add(result);
-		}
-		
-		resultsSearchKeywordsMap.put(result, searchKw);
-		
-		resultsSuggestionsKeywordsMap.put(result, suggestsKw);
-		
-		for (String skw : suggestsKw) {
-			suggestionsKeywordsResultMap.computeIfAbsent(skw, s -> new HashSet<>()).add(result);
-		}
-		
-		suggestionsCache.invalidateAll();
+		searchKeywordsIndex.addAll(newSearchKeywords);
+		invalidateSuggestions(addedSearchKeywords);
 	}
 
 	/**
 	 * Removes the provided entry from this search engine.
 	 * @param result the new entry.
 	 */
-	public synchronized void removeResult(R result) {
-		if (result == null || !resultSet.contains(result))
+	public void removeResult(R result) {
+		if (result == null)
 			return;
+		removeResults(List.of(result));
+	}
 
-		resultSet.remove(result);
-		
-		Set<String> searchKw = resultsSearchKeywordsMap.remove(result);
-		if (searchKw != null) {
+	/**
+	 * Removes the provided entries from this search engine. This is more efficient than removing each entry
+	 * separately.
+	 * @param results the entries to remove.
+	 */
+	public synchronized void removeResults(Collection<? extends R> results) {
+		List<Set<String>> removedSearchKeywords = new ArrayList<>();
+		Set<String> oldSearchKeywords = new HashSet<>();
+		for (R result : results) {
+			if (result == null)
+				continue;
+
+			Set<String> searchKw = resultsSearchKeywordsMap.remove(result);
+			if (searchKw == null)
+				continue;
+			removedSearchKeywords.add(searchKw);
 			for (String skw : searchKw) {
 				Set<R> set = searchKeywordsResultMap.get(skw);
 				if (set == null)
 					continue;
 				set.remove(result);
-				if (set.isEmpty())
+				if (set.isEmpty()) {
 					searchKeywordsResultMap.remove(skw);
+					oldSearchKeywords.add(skw);
+				}
+			}
+
+			Set<String> suggestsKw = resultsSuggestionsKeywordsMap.remove(result);
+			if (suggestsKw != null) {
+				for (String skw : suggestsKw) {
+					Set<R> set = suggestionsKeywordsResultMap.get(skw);
+					if (set == null)
+						continue;
+					set.remove(result);
+					if (set.isEmpty())
+						suggestionsKeywordsResultMap.remove(skw);
+				}
 			}
 		}
-		
-		Set<String> suggestsKw = resultsSearchKeywordsMap.remove(result);
-		if (suggestsKw != null) {
-			for (String skw : suggestsKw) {
-				Set<R> set = suggestionsKeywordsResultMap.get(skw);
-				if (set == null)
-					continue;
-				set.remove(result);
-				if (set.isEmpty())
-					suggestionsKeywordsResultMap.remove(skw);
+
+		if (removedSearchKeywords.isEmpty())
+			return;
+		searchKeywordsIndex.removeAll(oldSearchKeywords);
+		invalidateSuggestions(removedSearchKeywords);
+	}
+
+	/**
+	 * Invalidates the cached suggestions that may include the keywords of the added or removed entries, that is the
+	 * suggestions for already typed keywords that are all contained in the search keywords of one of these entries.
+	 * @param modifiedSearchKeywords the search keywords of each added or removed entry.
+	 */
+	private void invalidateSuggestions(List<Set<String>> modifiedSearchKeywords) {
+		modificationCount.incrementAndGet();
+		if (modifiedSearchKeywords.size() > SCOPED_INVALIDATION_MAX_RESULTS) {
+			suggestionsCache.invalidateAll();
+			return;
+		}
+		suggestionsCache.asMap().keySet().removeIf(prevSearchTerms -> {
+			for (Set<String> searchKw : modifiedSearchKeywords) {
+				if (matchesAll(searchKw, prevSearchTerms))
+					return true;
 			}
+			return false;
+		});
+	}
+
+	private static boolean matchesAll(Set<String> searchKeywords, Set<String> searchTerms) {
+		for (String term : searchTerms) {
+			boolean found = false;
+			for (String skw : searchKeywords) {
+				if (skw.contains(term)) {
+					found = true;
+					break;
+				}
+			}
+			if (!found)
+				return false;
 		}
-		
-		resultsSuggestionsKeywordsMap.remove(result);
-		
-		suggestionsCache.invalidateAll();
+		return true;
 	}
 
 	/**
@@ -138,15 +238,30 @@ public class SearchEngine<R extends SearchResult> {
 	 * @param searchTerms all the search terms (keywords).
 	 * @return all the search results that correspond to all the provided keywords.
 	 */
-	public synchronized Set<R> search(Set<String> searchTerms) {
+	public Set<R> search(Set<String> searchTerms) {
 		if (searchTerms == null)
 			searchTerms = new HashSet<>();
-		
-		Set<R> retainedResults = new HashSet<>(resultSet);
+
+		List<Set<R>> termsResults = new ArrayList<>();
 		for (String term : searchTerms) {
-			retainedResults.retainAll(search(term));
+			if (term == null || term.isEmpty())
+				continue; // matches all the results
+			Set<R> termResults = search(term);
+			if (termResults.isEmpty())
+				return termResults;
+			termsResults.add(termResults);
 		}
-		
+		if (termsResults.isEmpty())
+			return new HashSet<>(resultsSearchKeywordsMap.keySet());
+
+		// intersect from the smallest set, so each step costs at most the size of the current intersection
+		termsResults.sort(Comparator.comparingInt(Set::size));
+		Set<R> retainedResults = termsResults.getFirst();
+		for (int i = 1; i < termsResults.size() && !retainedResults.isEmpty(); i++) {
+			Set<R> termResults = termsResults.get(i);
+			retainedResults.removeIf(r -> !termResults.contains(r));
+		}
+
 		return retainedResults;
 	}
 
@@ -155,19 +270,245 @@ public class SearchEngine<R extends SearchResult> {
 	 * @param searchTerm the search term (keyword). If null, all the possible results are returned.
 	 * @return all the search results that correspond to the provided keyword.
 	 */
-	public synchronized Set<R> search(String searchTerm) {
+	public Set<R> search(String searchTerm) {
 		if (searchTerm == null || searchTerm.isEmpty()) {
-			return new HashSet<>(resultSet);
+			return new HashSet<>(resultsSearchKeywordsMap.keySet());
 		}
 		searchTerm = searchTerm.toLowerCase();
 		Set<R> retainedResults = new HashSet<>();
-		for (String skw : searchKeywordsResultMap.keySet()) {
-			if (skw.contains(searchTerm)) {
-				retainedResults.addAll(new ArrayList<>(searchKeywordsResultMap.get(skw)));
+		searchKeywordsIndex.forEachKeywordContaining(searchTerm, skw -> {
+			Set<R> results = searchKeywordsResultMap.get(skw);
+			if (results != null) // null if removed since the index was read
+				retainedResults.addAll(results);
+		});
+
+		return retainedResults;
+	}
+
+	/**
+	 * Provides the most relevant search results that correspond to all the provided keywords, sorted by decreasing
+	 * relevance.
+	 * <p>
+	 * For each search term, the relevance of a result depends on how the term matches its keywords: an exact match is
+	 * more relevant than a keyword starting with the term, itself more relevant than a keyword only containing the
+	 * term. A result with several keywords matching the same term is also slightly more relevant. The relevance of a
+	 * result is the sum of the relevance of each term, multiplied by {@link SearchResult#getSearchWeight()}.
+	 * <p>
+	 * Only the {@code k} most relevant results are kept during the search, so the cost of sorting them does not depend
+	 * on the total number of results.
+	 * @param searchTerms all the search terms (keywords).
+	 * @param k the maximum number of results to return.
+	 * @return the {@code k} most relevant search results, sorted by decreasing relevance.
+	 */
+	public List<R> search(Set<String> searchTerms, int k) {
+		return search(searchTerms, k, 0);
+	}
+
+	/**
+	 * Provides the most relevant search results that correspond to all the provided keywords, sorted by decreasing
+	 * relevance, like {@link #search(Set, int)}. If no result matches all the keywords, the search terms that match
+	 * no keyword at all are considered as misspelled, and matched with the keywords (or keyword prefixes) at a
+	 * {@link LevenshteinDistance} of at most {@code maxEditDistance}. Those approximate matches are less relevant than
+	 * any exact match.
+	 * @param searchTerms all the search terms (keywords).
+	 * @param k the maximum number of results to return.
+	 * @param maxEditDistance the maximum edit distance of the approximate matches. 0 to disable them. The search terms
+	 *                        that are not longer than this value are never approximately matched.
+	 * @return the {@code k} most relevant search results, sorted by decreasing relevance.
+	 */
+	public List<R> search(Set<String> searchTerms, int k, int maxEditDistance) {
+		if (k <= 0)
+			throw new IllegalArgumentException("k must be strictly positive");
+		if (maxEditDistance < 0)
+			throw new IllegalArgumentException("maxEditDistance must be positive");
+		if (searchTerms == null)
+			searchTerms = new HashSet<>();
+
+		List<String> terms = searchTerms.stream()
+				.filter(t -> t != null && !t.isEmpty()) // empty terms match all the results
+				.map(String::toLowerCase)
+				.distinct()
+				.toList();
+
+		if (terms.isEmpty()) {
+			PriorityQueue<ScoredResult<R>> topResults = new PriorityQueue<>(Comparator.comparingDouble(ScoredResult::score));
+			for (R result : resultsSearchKeywordsMap.keySet())
+				offer(topResults, k, result, 1);
+			return sortedResults(topResults);
+		}
+
+		List<R> results = rankedSearch(terms, Set.of(), k, 0);
+		if (!results.isEmpty() || maxEditDistance == 0)
+			return results;
+
+		Set<String> misspelledTerms = new HashSet<>();
+		for (String term : terms) {
+			if (term.length() > maxEditDistance && !searchKeywordsIndex.containsAnyKeywordContaining(term))
+				misspelledTerms.add(term);
+		}
+		if (misspelledTerms.isEmpty())
+			return results;
+		return rankedSearch(terms, misspelledTerms, k, maxEditDistance);
+	}
+
+	/**
+	 * Scores the results matching all the provided terms, and keeps the {@code k} most relevant ones.
+	 * <p>
+	 * Only one of the terms, the most selective one, is searched in the keyword index. The other terms are scored
+	 * against the keywords of each of its results.
+	 * @param terms the lowercase non-empty search terms.
+	 * @param approximateTerms the terms among {@code terms} to match approximately.
+	 * @param k the maximum number of results to return.
+	 * @param maxEditDistance the maximum edit distance of the approximate matches.
+	 * @return the {@code k} most relevant search results, sorted by decreasing relevance.
+	 */
+	private List<R> rankedSearch(List<String> terms, Set<String> approximateTerms, int k, int maxEditDistance) {
+		// the longest exactly matched term is likely the most selective one
+		String mainTerm = terms.stream()
+				.max(Comparator.comparing((String t) -> !approximateTerms.contains(t))
+						.thenComparingInt(String::length))
+				.orElseThrow();
+		Map<R, TermScore> candidates = approximateTerms.contains(mainTerm)
+				? scoreTermApproximately(mainTerm, maxEditDistance)
+				: scoreTerm(mainTerm);
+
+		PriorityQueue<ScoredResult<R>> topResults = new PriorityQueue<>(Comparator.comparingDouble(ScoredResult::score));
+		candidatesLoop:
+		for (Map.Entry<R, TermScore> candidate : candidates.entrySet()) {
+			R result = candidate.getKey();
+			double score = candidate.getValue().value();
+			if (terms.size() > 1) {
+				Set<String> searchKw = resultsSearchKeywordsMap.get(result);
+				if (searchKw == null) // removed since the index was read
+					continue;
+				for (String term : terms) {
+					if (term.equals(mainTerm))
+						continue;
+					boolean approximate = approximateTerms.contains(term);
+					TermScore termScore = new TermScore();
+					for (String skw : searchKw) {
+						double keywordScore = approximate
+								? approximateKeywordScore(term, skw, maxEditDistance)
+								: keywordScore(term, skw);
+						if (keywordScore > 0)
+							termScore.add(keywordScore);
+					}
+					if (termScore.matchingKeywords == 0)
+						continue candidatesLoop;
+					score += termScore.value();
+				}
 			}
+			offer(topResults, k, result, score);
+		}
+
+		return sortedResults(topResults);
+	}
+
+	/**
+	 * Scores the results having at least a keyword containing the provided term.
+	 */
+	private Map<R, TermScore> scoreTerm(String term) {
+		Map<R, TermScore> scores = new HashMap<>();
+		searchKeywordsIndex.forEachKeywordContaining(term, skw -> {
+			Set<R> results = searchKeywordsResultMap.get(skw);
+			if (results == null) // removed since the index was read
+				return;
+			double keywordScore = keywordScore(term, skw);
+			for (R result : results)
+				scores.computeIfAbsent(result, r -> new TermScore()).add(keywordScore);
+		});
+		return scores;
+	}
+
+	/**
+	 * Scores the results having at least a keyword with a prefix at most {@code maxEditDistance} edits away from the
+	 * provided term. All the keywords are scanned.
+	 */
+	private Map<R, TermScore> scoreTermApproximately(String term, int maxEditDistance) {
+		Map<R, TermScore> scores = new HashMap<>();
+		for (Map.Entry<String, Set<R>> keywordResults : searchKeywordsResultMap.entrySet()) {
+			double keywordScore = approximateKeywordScore(term, keywordResults.getKey(), maxEditDistance);
+			if (keywordScore == 0)
+				continue;
+			for (R result : keywordResults.getValue())
+				scores.computeIfAbsent(result, r -> new TermScore()).add(keywordScore);
+		}
+		return scores;
+	}
+
+	/**
+	 * Gets the relevance of the keyword for the provided term, or 0 if the keyword does not contain the term.
+	 */
+	private static double keywordScore(String term, String keyword) {
+		if (keyword.length() == term.length())
+			return keyword.equals(term) ? EXACT_MATCH_SCORE : 0;
+		if (keyword.startsWith(term))
+			return PREFIX_MATCH_SCORE + (double) term.length() / keyword.length();
+		if (keyword.contains(term))
+			return SUBSTRING_MATCH_SCORE + (double) term.length() / keyword.length();
+		return 0;
+	}
+
+	/**
+	 * Gets the relevance of the keyword for the provided misspelled term, or 0 if no prefix of the keyword is at most
+	 * {@code maxEditDistance} edits away from the term.
+	 */
+	private static double approximateKeywordScore(String term, String keyword, int maxEditDistance) {
+		if (keyword.length() < term.length() - maxEditDistance)
+			return 0;
+		// distance from the term to each prefix of the keyword, computed progressively
+		LevenshteinDistance distance = new LevenshteinDistance(term);
+		int minDistance = Integer.MAX_VALUE;
+		for (int i = 0; i < keyword.length() && i < term.length() + maxEditDistance; i++) {
+			distance.add(keyword.charAt(i));
+			minDistance = Math.min(minDistance, distance.getCurrentDistance());
+		}
+		return minDistance > maxEditDistance ? 0 : 1d / (1 + minDistance);
+	}
+
+	private static <R extends SearchResult> void offer(PriorityQueue<ScoredResult<R>> topResults, int k, R result, double score) {
+		double weightedScore;
+		try {
+			weightedScore = score * result.getSearchWeight();
+		} catch (Exception e) {
+			Log.severe(e);
+			weightedScore = score;
+		}
+		if (topResults.size() < k)
+			topResults.add(new ScoredResult<>(result, weightedScore));
+		else if (topResults.peek().score() < weightedScore) {
+			topResults.poll();
+			topResults.add(new ScoredResult<>(result, weightedScore));
+		}
+	}
+
+	private static <R extends SearchResult> List<R> sortedResults(PriorityQueue<ScoredResult<R>> topResults) {
+		List<ScoredResult<R>> scoredResults = new ArrayList<>(topResults);
+		scoredResults.sort(Comparator.comparingDouble(ScoredResult<R>::score).reversed());
+		List<R> results = new ArrayList<>(scoredResults.size());
+		for (ScoredResult<R> scoredResult : scoredResults)
+			results.add(scoredResult.result());
+		return results;
+	}
+
+	private record ScoredResult<R>(R result, double score) { }
+
+	/**
+	 * The relevance of a search term for a result: the score of the best matching keyword, plus a bonus for each
+	 * other matching keyword.
+	 */
+	private static class TermScore {
+		private double best = 0;
+		private int matchingKeywords = 0;
+
+		private void add(double keywordScore) {
+			best = Math.max(best, keywordScore);
+			matchingKeywords++;
+		}
+
+		private double value() {
+			return best + KEYWORD_FREQUENCY_SCORE * (matchingKeywords - 1);
 		}
-		
-		return retainedResults;
 	}
 
 	/**
@@ -175,40 +516,46 @@ public class SearchEngine<R extends SearchResult> {
 	 * @param prevSearchTerms the already typed keywords.
 	 * @return the next keywords to suggest.
 	 */
-	public synchronized List<String> suggestKeywords(List<String> prevSearchTerms) {
+	public List<String> suggestKeywords(List<String> prevSearchTerms) {
 		if (prevSearchTerms == null || prevSearchTerms.isEmpty()) {
 			return new ArrayList<>(suggestionsKeywordsResultMap.keySet());
 		}
 		Set<String> lowerCaseSearchTerm = prevSearchTerms.stream()
 				.map(String::toLowerCase)
 				.collect(Collectors.toSet());
-		
+
 		try {
-			return suggestionsCache.get(lowerCaseSearchTerm, () -> {
+			long modificationCountBefore = modificationCount.get();
+			List<String> suggestions = suggestionsCache.get(lowerCaseSearchTerm, () -> {
 				Set<R> prevResults = search(lowerCaseSearchTerm);
-				
-				Set<String> suggestions = new HashSet<>();
+
+				Set<String> sugg = new HashSet<>();
 				for (R prevRes : prevResults) {
-					suggestions.addAll(new ArrayList<>(resultsSuggestionsKeywordsMap.get(prevRes)));
+					Set<String> suggestsKw = resultsSuggestionsKeywordsMap.get(prevRes);
+					if (suggestsKw != null) // null if removed since the search
+						sugg.addAll(suggestsKw);
 				}
-				
-				suggestions.removeIf(s -> {
+
+				sugg.removeIf(s -> {
 					for (String st : lowerCaseSearchTerm)
 						if (s.contains(st))
 							return true;
 					return false;
 				});
-				
-				return new ArrayList<>(suggestions);
+
+				return new ArrayList<>(sugg);
 			});
+			if (modificationCount.get() != modificationCountBefore) {
+				// the cached value may have been computed before a concurrent modification, and not invalidated by it
+				suggestionsCache.invalidate(lowerCaseSearchTerm);
+			}
+			return suggestions;
 		} catch (ExecutionException e) {
 			Log.severe(e);
 			return new ArrayList<>(suggestionsKeywordsResultMap.keySet());
 		}
-		
-		
+
+
 	}
-	
-	// TODO sort results
-	
+
 }
@@ -20,4 +20,13 @@ public interface SearchResult {
 	 */
 	Set<String> getSuggestionKeywords();
 
+	/**
+	 * Returns the weight of this search result, that multiplies its relevance score in the ranked searches of the
+	 * {@link SearchEngine} (see {@link SearchEngine#search(Set, int)}). It must be positive.
+	 * @return the weight of this search result. By default, 1.
+	 */
+	default double getSearchWeight() {
+		return 1;
+	}
+
 }
@@ -0,0 +1,143 @@
+package fr.pandacube.lib.core.backup;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ZipArchiveWriterTest {
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void roundTripWithZipFile() throws IOException {
+		Map<String, byte[]> files = testFiles();
+		File zip = folder.newFile("test.zip");
+		writeZip(zip, files);
+
+		try (ZipFile zipFile = new ZipFile(zip)) {
+			List<? extends ZipEntry> entries = Collections.list(zipFile.entries());
+			assertEquals(files.size() + 1, entries.size());
+			ZipEntry dir = entries.getFirst();
+			assertEquals("dir/", dir.getName());
+			assertTrue(dir.isDirectory());
+			int i = 1;
+			for (Map.Entry<String, byte[]> file : files.entrySet()) {
+				ZipEntry entry = entries.get(i++);
+				assertEquals(file.getKey(), entry.getName());
+				assertEquals(file.getValue().length, entry.getSize());
+				assertEquals(crc(file.getValue()), entry.getCrc());
+				try (InputStream in = zipFile.getInputStream(entry)) {
+					assertArrayEquals(file.getKey(), file.getValue(), in.readAllBytes());
+				}
+			}
+		}
+	}
+
+	@Test
+	public void roundTripWithZipInputStream() throws IOException {
+		Map<String, byte[]> files = testFiles();
+		File zip = folder.newFile("test.zip");
+		writeZip(zip, files);
+
+		try (ZipInputStream in = new ZipInputStream(new FileInputStream(zip))) {
+			assertEquals("dir/", in.getNextEntry().getName());
+			for (Map.Entry<String, byte[]> file : files.entrySet()) {
+				assertEquals(file.getKey(), in.getNextEntry().getName());
+				assertArrayEquals(file.getKey(), file.getValue(), in.readAllBytes());
+			}
+			assertNull(in.getNextEntry());
+		}
+	}
+
+
+
+	private static Map<String, byte[]> testFiles() {
+		Random random = new Random(42);
+		Map<String, byte[]> files = new LinkedHashMap<>();
+		files.put("dir/empty.txt", new byte[0]);
+		files.put("dir/fichier accentué.txt", "Bonjour à tous !\n".repeat(100).getBytes(StandardCharsets.UTF_8));
+		byte[] randomData = new byte[3 * 1024 * 1024 + 17];
+		random.nextBytes(randomData);
+		files.put("random.bin", randomData);
+		byte[] mixedData = new byte[2 * 1024 * 1024];
+		for (int i = 0; i < mixedData.length; i++)
+			mixedData[i] = (byte) (random.nextInt(8) == 0 ? random.nextInt() : i / 1024);
+		files.put("mixed.bin", mixedData);
+		return files;
+	}
+
+	/**
+	 * Writes the files, each one compressed in several raw deflate parts separated by sync flushes, like the parallel
+	 * compression of {@link ZipCompressor} does.
+	 */
+	private static void writeZip(File zip, Map<String, byte[]> files) throws IOException {
+		try (ZipArchiveWriter writer = new ZipArchiveWriter(new BufferedOutputStream(new FileOutputStream(zip)))) {
+			writer.putDirectory("dir/");
+			Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+			try {
+				for (Map.Entry<String, byte[]> file : files.entrySet()) {
+					byte[] data = file.getValue();
+					writer.beginFile(file.getKey(), System.currentTimeMillis());
+					deflater.reset();
+					int partSize = 256 * 1024;
+					for (int offset = 0; offset < data.length || offset == 0; offset += partSize) {
+						int length = Math.min(partSize, data.length - offset);
+						boolean last = offset + length >= data.length;
+						writer.writeCompressed(deflate(deflater, Arrays.copyOfRange(data, offset, offset + length), last));
+					}
+					writer.endFile(crc(data), data.length);
+				}
+			} finally {
+				deflater.end();
+			}
+		}
+	}
+
+	private static byte[] deflate(Deflater deflater, byte[] data, boolean last) {
+		deflater.setInput(data);
+		if (last)
+			deflater.finish();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[64 * 1024];
+		for (;;) {
+			int length = deflater.deflate(buffer, 0, buffer.length, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+			out.write(buffer, 0, length);
+			if (last ? deflater.finished() : length < buffer.length)
+				break;
+		}
+		return out.toByteArray();
+	}
+
+	private static long crc(byte[] data) {
+		CRC32 crc = new CRC32();
+		crc.update(data);
+		return crc.getValue();
+	}
+
+}
@@ -0,0 +1,78 @@
+package fr.pandacube.lib.core.backup;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ZipCompressorTest {
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void sequentialRoundTrip() throws Exception {
+		roundTrip(1);
+	}
+
+	@Test
+	public void parallelRoundTrip() throws Exception {
+		roundTrip(4);
+	}
+
+	private void roundTrip(int threads) throws Exception {
+		File src = folder.newFolder("src");
+		Map<String, byte[]> files = createFiles(src);
+		File zip = new File(folder.getRoot(), "backup.zip");
+
+		new ZipCompressor(src, zip, 9, (f, n) -> true, threads).compress();
+
+		Map<String, byte[]> read = new TreeMap<>();
+		try (ZipFile zipFile = new ZipFile(zip)) {
+			for (ZipEntry entry : Collections.list(zipFile.entries())) {
+				if (entry.isDirectory())
+					continue;
+				try (InputStream in = zipFile.getInputStream(entry)) {
+					read.put(entry.getName(), in.readAllBytes());
+				}
+			}
+		}
+		assertEquals(files.keySet(), read.keySet());
+		for (Map.Entry<String, byte[]> file : files.entrySet())
+			assertArrayEquals(file.getKey(), file.getValue(), read.get(file.getKey()));
+	}
+
+	/**
+	 * Creates files of various sizes, some bigger than a compression block, with both compressible and random data.
+	 */
+	private static Map<String, byte[]> createFiles(File src) throws IOException {
+		Random random = new Random(42);
+		Map<String, byte[]> files = new TreeMap<>();
+		int[] sizes = { 0, 1, 1000, 1024 * 1024, 1024 * 1024 + 1, 5 * 1024 * 1024 + 123 };
+		for (int i = 0; i < sizes.length; i++) {
+			byte[] data = new byte[sizes[i]];
+			for (int j = 0; j < data.length; j++)
+				data[j] = (byte) (random.nextInt(4) == 0 ? random.nextInt() : j / 100);
+			String name = (i % 2 == 0 ? "" : "sub/") + "file" + i + ".bin";
+			File file = new File(src, name);
+			Files.createDirectories(file.getParentFile().toPath());
+			Files.write(file.toPath(), data);
+			files.put(name, data);
+		}
+		return files;
+	}
+
+}
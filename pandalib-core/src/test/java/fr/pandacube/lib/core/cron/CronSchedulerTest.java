@@ -0,0 +1,59 @@
+package fr.pandacube.lib.core.cron;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static fr.pandacube.lib.core.cron.CronTaskTest.awaitUntil;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CronSchedulerTest {
+
+    private static final long SAVE_DELAY = 500;
+
+    private static File lastRunFile;
+
+    @BeforeClass
+    public static void useTemporaryFile() throws IOException {
+        lastRunFile = new File(Files.createTempDirectory("cron-test").toFile(), "cron-last-run.json");
+        CronScheduler.lastRunFile = lastRunFile;
+        CronScheduler.lastRunSaveDelay = SAVE_DELAY;
+        // starts the scheduler thread, with a task that is never due during the test
+        CronScheduler.schedule("never", "0 0 1 1 *", () -> { });
+    }
+
+    @Test
+    public void lastRunSavesAreDebounced() throws Exception {
+        long start = System.nanoTime();
+        CronScheduler.setLastRun("debounced-a", 1);
+        Thread.sleep(50);
+        CronScheduler.setLastRun("debounced-b", 2);
+        assertFalse("saved immediately", readLastRuns().contains("debounced-a"));
+
+        awaitUntil(() -> readLastRuns().contains("debounced-b"));
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        assertTrue("saved after " + elapsedMillis + " ms", elapsedMillis >= SAVE_DELAY - 50);
+        assertTrue("both changes in a single save", readLastRuns().contains("debounced-a"));
+        assertFalse(new File(lastRunFile.getPath() + ".tmp").exists());
+
+        // a new change is saved after the delay again
+        long second = System.nanoTime();
+        CronScheduler.setLastRun("debounced-c", 3);
+        assertFalse("saved immediately", readLastRuns().contains("debounced-c"));
+        awaitUntil(() -> readLastRuns().contains("debounced-c"));
+        assertTrue((System.nanoTime() - second) / 1_000_000 >= SAVE_DELAY - 50);
+    }
+
+    private static String readLastRuns() {
+        try {
+            return Files.readString(lastRunFile.toPath());
+        } catch (IOException e) {
+            return "";
+        }
+    }
+
+}
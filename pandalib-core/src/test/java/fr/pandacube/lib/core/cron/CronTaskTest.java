@@ -0,0 +1,164 @@
+package fr.pandacube.lib.core.cron;
+
+import fc.cron.CronExpression;
+import fr.pandacube.lib.core.cron.CronScheduler.MissedRunsPolicy;
+import fr.pandacube.lib.core.cron.CronScheduler.OverlapPolicy;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CronTaskTest {
+
+    private static final CronExpression EVERY_SECOND = new CronExpression("* * * * * *", true);
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicInteger started = new AtomicInteger();
+
+    @After
+    public void releaseTasks() {
+        release.countDown();
+        CronScheduler.setMaxConcurrentRuns(CronScheduler.DEFAULT_MAX_CONCURRENT_RUNS);
+    }
+
+    @Test
+    public void eachMissedRunIsRunByDefault() throws InterruptedException {
+        long now = System.currentTimeMillis();
+        long lastRun = now - now % 1000 - 5000;
+        CronTask task = newTask(() -> started.incrementAndGet(), OverlapPolicy.PARALLEL, MissedRunsPolicy.RUN_ALL, lastRun);
+
+        int runs = 0;
+        while (task.nextRun <= now) {
+            assertEquals(lastRun + 1000L * (runs + 1), task.nextRun);
+            task.runAsync(now);
+            runs++;
+        }
+        assertEquals(5, runs);
+        assertEquals(now - now % 1000 + 1000, task.nextRun);
+        awaitUntil(() -> task.metrics.getRunCount() == 5);
+        assertEquals(5, started.get());
+    }
+
+    @Test
+    public void missedRunsAreMergedIfRequested() throws InterruptedException {
+        long now = System.currentTimeMillis();
+        long lastRun = now - now % 1000 - 5000;
+        CronTask task = newTask(() -> started.incrementAndGet(), OverlapPolicy.PARALLEL, MissedRunsPolicy.RUN_ONCE, lastRun);
+
+        task.runAsync(now);
+        assertEquals(now - now % 1000 + 1000, task.nextRun);
+        awaitUntil(() -> task.metrics.getRunCount() == 1);
+        assertEquals(1, started.get());
+        assertTrue("late by about 4 seconds", task.metrics.getMaxLateness().toMillis() >= 3000);
+    }
+
+    @Test
+    public void skipPolicy() throws InterruptedException {
+        CronTask task = newTask(this::blockingTask, OverlapPolicy.SKIP, MissedRunsPolicy.RUN_ALL, System.currentTimeMillis());
+        runThreeTimes(task);
+        awaitUntil(() -> started.get() == 1);
+        assertEquals(2, task.metrics.getSkippedOverlaps());
+        assertEquals(0, task.metrics.getQueuedOverlaps());
+
+        release.countDown();
+        awaitUntil(() -> task.metrics.getRunCount() == 1);
+        assertEquals(1, started.get());
+
+        task.runAsync(System.currentTimeMillis()); // not running anymore
+        awaitUntil(() -> task.metrics.getRunCount() == 2);
+        assertEquals(2, task.metrics.getSkippedOverlaps());
+    }
+
+    @Test
+    public void queuePolicy() throws InterruptedException {
+        CronTask task = newTask(this::blockingTask, OverlapPolicy.QUEUE, MissedRunsPolicy.RUN_ALL, System.currentTimeMillis());
+        runThreeTimes(task);
+        awaitUntil(() -> started.get() == 1);
+        // the second one is queued, the third one is merged into it
+        assertEquals(1, task.metrics.getQueuedOverlaps());
+        assertEquals(1, task.metrics.getSkippedOverlaps());
+
+        Thread.sleep(200);
+        assertEquals(1, started.get());
+        release.countDown();
+        awaitUntil(() -> task.metrics.getRunCount() == 2);
+        assertEquals(2, started.get());
+    }
+
+    @Test
+    public void parallelPolicy() throws InterruptedException {
+        CronTask task = newTask(this::blockingTask, OverlapPolicy.PARALLEL, MissedRunsPolicy.RUN_ALL, System.currentTimeMillis());
+        runThreeTimes(task);
+        awaitUntil(() -> started.get() == 3);
+        assertEquals(0, task.metrics.getSkippedOverlaps());
+        assertEquals(0, task.metrics.getQueuedOverlaps());
+        assertEquals(0, task.metrics.getRunCount());
+
+        release.countDown();
+        awaitUntil(() -> task.metrics.getRunCount() == 3);
+    }
+
+    @Test
+    public void maxConcurrentRuns() throws InterruptedException {
+        CronScheduler.setMaxConcurrentRuns(1);
+        CronTask task = newTask(this::blockingTask, OverlapPolicy.PARALLEL, MissedRunsPolicy.RUN_ALL, System.currentTimeMillis());
+        runThreeTimes(task);
+        awaitUntil(() -> started.get() == 1);
+        Thread.sleep(200);
+        assertEquals(1, started.get());
+
+        release.countDown();
+        awaitUntil(() -> task.metrics.getRunCount() == 3);
+    }
+
+    @Test
+    public void failuresAreCounted() throws InterruptedException {
+        CronTask task = newTask(() -> {
+            started.incrementAndGet();
+            throw new IllegalStateException("expected by the test");
+        }, OverlapPolicy.SKIP, MissedRunsPolicy.RUN_ALL, System.currentTimeMillis());
+        task.runAsync(System.currentTimeMillis());
+        awaitUntil(() -> task.metrics.getRunCount() == 1);
+        assertEquals(1, task.metrics.getFailedRunCount());
+
+        // the task is not considered running anymore
+        task.runAsync(System.currentTimeMillis());
+        awaitUntil(() -> task.metrics.getRunCount() == 2);
+        assertEquals(0, task.metrics.getSkippedOverlaps());
+    }
+
+
+
+    private void blockingTask() {
+        started.incrementAndGet();
+        try {
+            release.await();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void runThreeTimes(CronTask task) {
+        for (int i = 0; i < 3; i++)
+            task.runAsync(System.currentTimeMillis());
+    }
+
+    private static CronTask newTask(Runnable runnable, OverlapPolicy overlapPolicy, MissedRunsPolicy missedRunsPolicy, long lastRun) {
+        return new CronTask("test", runnable, EVERY_SECOND, overlapPolicy, missedRunsPolicy, new CronTaskMetrics(), 0, lastRun);
+    }
+
+    /* package */ static void awaitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue("condition not met in time", System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+}
@@ -0,0 +1,72 @@
+package fr.pandacube.lib.core.search;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+
+public class KeywordNGramIndexTest {
+
+	/**
+	 * Small alphabet, so the random keywords often share their n-grams.
+	 */
+	private static final String ALPHABET = "abcé_";
+
+	@Test
+	public void randomEquivalence() {
+		Random random = new Random(42);
+		KeywordNGramIndex index = new KeywordNGramIndex();
+		Set<String> keywords = new HashSet<>();
+
+		for (int iteration = 0; iteration < 2000; iteration++) {
+			List<String> modified = new ArrayList<>();
+			int count = 1 + random.nextInt(10);
+			for (int i = 0; i < count; i++)
+				modified.add(randomString(random, 1, 8));
+			if (random.nextInt(3) == 0) {
+				// remove existing keywords too, not only random ones
+				keywords.stream().limit(random.nextInt(10)).forEach(modified::add);
+				index.removeAll(modified);
+				modified.forEach(keywords::remove);
+			}
+			else {
+				index.addAll(modified);
+				keywords.addAll(modified);
+			}
+
+			List<String> terms = new ArrayList<>();
+			for (int i = 0; i < 5; i++)
+				terms.add(randomString(random, 1, 5));
+			for (String keyword : keywords.stream().limit(5).toList()) {
+				int start = random.nextInt(keyword.length());
+				terms.add(keyword.substring(start, start + 1 + random.nextInt(keyword.length() - start)));
+			}
+
+			for (String term : terms) {
+				Set<String> expected = keywords.stream()
+						.filter(k -> k.contains(term))
+						.collect(Collectors.toSet());
+				List<String> found = new ArrayList<>();
+				index.forEachKeywordContaining(term, found::add);
+				assertEquals("term \"" + term + "\"", expected, new HashSet<>(found));
+				assertEquals("duplicate keywords for term \"" + term + "\"", expected.size(), found.size());
+				assertEquals("term \"" + term + "\"", !expected.isEmpty(), index.containsAnyKeywordContaining(term));
+			}
+		}
+	}
+
+	private static String randomString(Random random, int minLength, int maxLength) {
+		int length = minLength + random.nextInt(maxLength - minLength + 1);
+		StringBuilder sb = new StringBuilder(length);
+		for (int i = 0; i < length; i++)
+			sb.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,216 @@
+package fr.pandacube.lib.core.search;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SearchEngineTest {
+
+	/**
+	 * Small alphabet, so the random keywords often contain the random search terms.
+	 */
+	private static final String ALPHABET = "abcdAB";
+
+	@Test
+	public void rankedSearchOrder() {
+		SearchEngine<Entry> engine = new SearchEngine<>(10);
+		Entry exact = new Entry(Set.of("stone"), Set.of());
+		Entry prefix = new Entry(Set.of("stonebrick"), Set.of());
+		Entry substring = new Entry(Set.of("cobblestone"), Set.of());
+		engine.addResults(List.of(substring, prefix, exact, new Entry(Set.of("dirt"), Set.of())));
+
+		assertEquals(List.of(exact, prefix, substring), engine.search(Set.of("Stone"), 10));
+		assertEquals(List.of(exact, prefix), engine.search(Set.of("stone"), 2));
+		// the approximate matches only consider the keyword prefixes, with the same score for the same distance
+		assertEquals(Set.of(exact, prefix), new HashSet<>(engine.search(Set.of("stine"), 10, 1)));
+		// no approximate matches when some results match exactly
+		assertEquals(List.of(exact, prefix, substring), engine.search(Set.of("stone"), 10, 1));
+	}
+
+	@Test
+	public void randomEquivalence() {
+		Random random = new Random(42);
+		SearchEngine<Entry> engine = new SearchEngine<>(100);
+		Set<Entry> entries = new HashSet<>();
+
+		for (int iteration = 0; iteration < 1000; iteration++) {
+			if (random.nextInt(3) == 0 && !entries.isEmpty()) {
+				List<Entry> removed = entries.stream().limit(1 + random.nextInt(5)).toList();
+				if (removed.size() == 1)
+					engine.removeResult(removed.getFirst());
+				else
+					engine.removeResults(removed);
+				removed.forEach(entries::remove);
+			}
+			else {
+				List<Entry> added = new ArrayList<>();
+				int count = 1 + random.nextInt(5);
+				for (int i = 0; i < count; i++)
+					added.add(new Entry(randomKeywords(random), randomKeywords(random)));
+				if (added.size() == 1)
+					engine.addResult(added.getFirst());
+				else
+					engine.addResults(added);
+				entries.addAll(added);
+			}
+
+			for (int i = 0; i < 5; i++) {
+				Set<String> terms = new HashSet<>();
+				int termCount = random.nextInt(3);
+				for (int t = 0; t < termCount; t++)
+					terms.add(randomString(random, 1, 3));
+				String message = "terms " + terms;
+
+				Set<Entry> expected = entries.stream()
+						.filter(e -> matchesAll(e, terms))
+						.collect(Collectors.toSet());
+				assertEquals(message, expected, engine.search(terms));
+				if (terms.size() == 1)
+					assertEquals(message, expected, engine.search(terms.iterator().next()));
+
+				List<Entry> ranked = engine.search(terms, Integer.MAX_VALUE);
+				assertEquals(message, expected, new HashSet<>(ranked));
+				assertEquals(message, expected.size(), ranked.size());
+				List<Entry> top = engine.search(terms, 3);
+				assertEquals(message, Math.min(3, ranked.size()), top.size());
+				assertTrue(message, expected.containsAll(top));
+
+				if (!terms.isEmpty()) // also checks the invalidation of the cached suggestions
+					assertEquals(message, expectedSuggestions(expected, terms), new HashSet<>(engine.suggestKeywords(new ArrayList<>(terms))));
+			}
+		}
+	}
+
+	@Test
+	public void bulkModificationsInvalidateAllTheSuggestions() {
+		SearchEngine<Entry> engine = new SearchEngine<>(10);
+		engine.addResult(new Entry(Set.of("stone"), Set.of("block")));
+		assertEquals(List.of("block"), engine.suggestKeywords(List.of("sto")));
+		assertEquals(List.of(), engine.suggestKeywords(List.of("dirt")));
+
+		// more entries than the limit of the scoped invalidation
+		List<Entry> added = new ArrayList<>();
+		for (int i = 0; i < 100; i++)
+			added.add(new Entry(Set.of("stone" + i, "dirt"), Set.of("item" + i)));
+		engine.addResults(added);
+		assertEquals(101, new HashSet<>(engine.suggestKeywords(List.of("sto"))).size());
+		assertEquals(100, new HashSet<>(engine.suggestKeywords(List.of("dirt"))).size());
+
+		engine.removeResults(added);
+		assertEquals(List.of("block"), engine.suggestKeywords(List.of("sto")));
+		assertEquals(List.of(), engine.suggestKeywords(List.of("dirt")));
+	}
+
+	@Test(timeout = 30_000)
+	public void concurrentReadsAndWrites() throws Exception {
+		SearchEngine<Entry> engine = new SearchEngine<>(100);
+		List<Entry> stable = new ArrayList<>();
+		for (int i = 0; i < 50; i++)
+			stable.add(new Entry(Set.of("stable_" + i + "_"), Set.of("s" + i)));
+		engine.addResults(stable);
+
+		AtomicBoolean writing = new AtomicBoolean(true);
+		Thread writer = Thread.ofPlatform().start(() -> {
+			Random random = new Random(1);
+			for (int iteration = 0; iteration < 2000; iteration++) {
+				List<Entry> batch = new ArrayList<>();
+				for (int i = 0; i < 1 + random.nextInt(10); i++)
+					batch.add(new Entry(randomKeywords(random), Set.of("volatile")));
+				engine.addResults(batch);
+				engine.removeResults(batch);
+			}
+			writing.set(false);
+		});
+
+		List<CompletableFuture<Void>> readers = new ArrayList<>();
+		for (int r = 0; r < 4; r++) {
+			int seed = r;
+			readers.add(CompletableFuture.runAsync(() -> {
+				Random random = new Random(seed);
+				while (writing.get()) {
+					String term = randomString(random, 1, 2);
+					for (Entry e : engine.search(term))
+						assertTrue(matchesAll(e, Set.of(term)));
+					// the stable entries are always found
+					assertEquals(Set.of(stable.get(seed)), engine.search("_" + seed + "_"));
+					assertTrue(engine.suggestKeywords(List.of("_" + seed + "_")).contains("s" + seed));
+				}
+			}));
+		}
+		writer.join();
+		for (CompletableFuture<Void> reader : readers)
+			reader.get();
+
+		assertEquals(new HashSet<>(stable), engine.search("stable"));
+		assertEquals(Set.of(), engine.search(Set.of("c")));
+		assertEquals(Set.of(), new HashSet<>(engine.suggestKeywords(List.of("c"))));
+	}
+
+	private static Set<String> expectedSuggestions(Set<Entry> results, Set<String> terms) {
+		Set<String> suggestions = new HashSet<>();
+		for (Entry e : results)
+			suggestions.addAll(e.suggestionKeywords);
+		suggestions.removeIf(s -> terms.stream().anyMatch(t -> s.contains(t.toLowerCase())));
+		return suggestions;
+	}
+
+	private static boolean matchesAll(Entry entry, Set<String> terms) {
+		for (String term : terms) {
+			if (entry.searchKeywords.stream().noneMatch(k -> k.toLowerCase().contains(term.toLowerCase())))
+				return false;
+		}
+		return true;
+	}
+
+	private static Set<String> randomKeywords(Random random) {
+		Set<String> keywords = new HashSet<>();
+		int count = random.nextInt(4);
+		for (int i = 0; i < count; i++)
+			keywords.add(randomString(random, 1, 6));
+		return keywords;
+	}
+
+	private static String randomString(Random random, int minLength, int maxLength) {
+		int length = minLength + random.nextInt(maxLength - minLength + 1);
+		StringBuilder sb = new StringBuilder(length);
+		for (int i = 0; i < length; i++)
+			sb.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+		return sb.toString();
+	}
+
+	/**
+	 * A search result compared by identity, like most of the actual implementations.
+	 */
+	private record Entry(Set<String> searchKeywords, Set<String> suggestionKeywords) implements SearchResult {
+		@Override
+		public Set<String> getSearchKeywords() {
+			return searchKeywords;
+		}
+
+		@Override
+		public Set<String> getSuggestionKeywords() {
+			return suggestionKeywords;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return this == o;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(this);
+		}
+	}
+
+}
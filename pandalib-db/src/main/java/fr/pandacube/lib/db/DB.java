@@ -5,16 +5,37 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Objects;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
-import fr.pandacube.lib.reflect.Reflect;
 import fr.pandacube.lib.util.log.Log;
 
 /**
@@ -28,9 +49,42 @@ import fr.pandacube.lib.util.log.Log;
 public final class DB {
 
     private static final List<Class<? extends SQLElement<?>>> tables = new ArrayList<>();
+    private static final Set<Class<? extends SQLElement<?>>> initializedTables = ConcurrentHashMap.newKeySet();
     private static final Map<Class<? extends SQLElement<?>>, String> tableNames = new HashMap<>();
 
+    /**
+     * The default maximum number of entries sent in a single query or batch by the bulk operations, like
+     * {@link #insertAll(Collection)} and {@link #updateAll(Collection)}.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    /**
+     * The maximum number of values in the {@code IN} clause of a single query, used by the methods of
+     * {@link SQLElementList} that fetch the foreign entries of the listed entries. Longer collections of values are
+     * split into several queries, some of them executed in parallel.
+     */
+    public static final int IN_CHUNK_SIZE = 1000;
+
+    /**
+     * The number of connections of the pool divided by this value gives the maximum number of threads that help the
+     * threads fetching entries for more than {@link #IN_CHUNK_SIZE} values, all calls together.
+     */
+    /* package */ static final int IN_CHUNK_HELPERS_POOL_DIVISOR = 4;
+
+    /**
+     * The fetch size that tells the MySQL driver to stream the rows of a result set one by one instead of loading them
+     * all in memory.
+     */
+    private static final int STREAMING_FETCH_SIZE = Integer.MIN_VALUE;
+
+    private static final SQLQueryCache queryCache = new SQLQueryCache();
+    private static final DBMetrics metrics = new DBMetrics();
+    private static final Map<Class<? extends SQLElement<?>>, SQLElementCache<?>> elementCaches = new ConcurrentHashMap<>();
+    /* package */ static final AtomicInteger inChunkHelpers = new AtomicInteger();
+
     private static DBConnection connection;
+    private static DBAsync async;
+    private static volatile SQLWriteBehindQueue writeBehindQueue;
     /* package */ static String tablePrefix = "";
 
     /**
@@ -41,6 +95,124 @@ public final class DB {
         return connection;
     }
 
+    /**
+     * Gets the asynchronous version of the most common operations of this class.
+     * @return the {@link DBAsync} instance.
+     * @throws IllegalStateException if the database connection is not yet initialized.
+     */
+    public static DBAsync async() {
+        DBAsync a = async;
+        if (a == null)
+            throw new IllegalStateException("Database connection is not yet initialized.");
+        return a;
+    }
+
+    /**
+     * Enables the write-behind queue, used by {@link SQLElement#saveLater()}.
+     * If the queue is already enabled, it is closed and replaced by the new one.
+     * @param flushInterval the interval between the automatic flushes of the queue.
+     * @param sizeThreshold the number of queued entries that triggers a flush before the end of the interval.
+     * @return the write-behind queue.
+     * @throws DBException if the previous queue cannot be flushed.
+     */
+    public static synchronized SQLWriteBehindQueue enableWriteBehind(Duration flushInterval, int sizeThreshold) throws DBException {
+        disableWriteBehind();
+        return writeBehindQueue = new SQLWriteBehindQueue(flushInterval, sizeThreshold);
+    }
+
+    /**
+     * Disables the write-behind queue, after saving synchronously all the entries still in the queue.
+     * This method should be called when shutting down the application.
+     * @throws DBException if the queued entries cannot be saved.
+     */
+    public static synchronized void disableWriteBehind() throws DBException {
+        SQLWriteBehindQueue queue = writeBehindQueue;
+        if (queue == null)
+            return;
+        writeBehindQueue = null;
+        queue.close();
+    }
+
+    /**
+     * Gets the write-behind queue, used by {@link SQLElement#saveLater()}.
+     * @return the write-behind queue, or null if it is not enabled.
+     */
+    public static SQLWriteBehindQueue getWriteBehindQueue() {
+        return writeBehindQueue;
+    }
+
+    /**
+     * Gets the metrics of the queries executed by this class, and of the connection pool.
+     * @return the metrics of the queries executed by this class.
+     */
+    public static DBMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Gets the cache of the SQL text of the queries generated by this class.
+     * It can be used to read the hit and miss counters of the cache.
+     * @return the cache of the SQL text of the queries generated by this class.
+     */
+    public static SQLQueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    /**
+     * Enables the cache of the entries of the provided table.
+     * See {@link SQLElementCache} for the operations that use and update the cache.
+     * If the cache is already enabled for this table, it is replaced by a new empty one.
+     * @param elemClass the class representing a table.
+     * @param maximumSize the maximum number of entries in the cache.
+     * @param expireAfterWrite the duration after which a cached entry is removed from the cache.
+     * @return the cache of the entries of the provided table.
+     * @param <E> the type representing the table.
+     * @throws DBException if the cache cannot be created for this table.
+     */
+    public static <E extends SQLElement<E>> SQLElementCache<E> enableCache(Class<E> elemClass, long maximumSize, Duration expireAfterWrite) throws DBException {
+        initTable(elemClass);
+        SQLElementCache<E> cache = new SQLElementCache<>(elemClass, maximumSize, expireAfterWrite);
+        elementCaches.put(elemClass, cache);
+        return cache;
+    }
+
+    /**
+     * Disables the cache of the entries of the provided table.
+     * @param elemClass the class representing a table.
+     * @param <E> the type representing the table.
+     */
+    public static <E extends SQLElement<E>> void disableCache(Class<E> elemClass) {
+        elementCaches.remove(elemClass);
+    }
+
+    /**
+     * Gets the cache of the entries of the provided table.
+     * @param elemClass the class representing a table.
+     * @return the cache of the entries of the provided table, or null if it is not enabled for this table.
+     * @param <E> the type representing the table.
+     */
+    @SuppressWarnings("unchecked")
+    public static <E extends SQLElement<E>> SQLElementCache<E> getCache(Class<E> elemClass) {
+        return (SQLElementCache<E>) elementCaches.get(elemClass);
+    }
+
+    /* package */ static <E extends SQLElement<E>> void updateCachedEntry(E element) {
+        SQLElementCache<E> cache = getCache(element.getCheckedClass());
+        if (cache != null)
+            cache.put(element);
+    }
+
+    /* package */ static <E extends SQLElement<E>> void invalidateCachedEntries(Class<E> elemClass, SQLWhere<E> where) {
+        SQLElementCache<E> cache = getCache(elemClass);
+        if (cache == null)
+            return;
+        Collection<Integer> ids = where == null ? null : where.getTargetedIds();
+        if (ids != null)
+            cache.invalidate(ids);
+        else
+            cache.invalidateAll();
+    }
+
     /**
      * Initialize with the provided connection.
      * @param conn the database connection.
@@ -49,6 +221,21 @@ public final class DB {
     public synchronized static void init(DBConnection conn, String tablePrefix) {
         connection = conn;
         DB.tablePrefix = Objects.requireNonNull(tablePrefix);
+        if (async == null)
+            async = new DBAsync(() -> connection.getMaxPoolSize());
+        else
+            async.onMaxConcurrentOperationsChanged();
+    }
+
+    /**
+     * Called when the size of the pool of the provided connection changes, so the limit of the asynchronous
+     * operations follows it.
+     * @param conn the database connection.
+     */
+    /* package */ static void onPoolSizeChanged(DBConnection conn) {
+        DBAsync a = async;
+        if (a != null && conn == connection)
+            a.onMaxConcurrentOperationsChanged();
     }
 
     /**
@@ -57,7 +244,13 @@ public final class DB {
      * @param <E> the type representing the table.
      * @throws DBInitTableException if the table failed to initialize.
      */
-    public static synchronized <E extends SQLElement<E>> void initTable(Class<E> elemClass) throws DBInitTableException {
+    public static <E extends SQLElement<E>> void initTable(Class<E> elemClass) throws DBInitTableException {
+        // fast path without locking, since this method is called each time a table entry is instantiated
+        if (initializedTables.contains(elemClass)) return;
+        initTableSync(elemClass);
+    }
+
+    private static synchronized <E extends SQLElement<E>> void initTableSync(Class<E> elemClass) throws DBInitTableException {
         if (connection == null) {
             throw new DBInitTableException(elemClass, "Database connection is not yet initialized.");
         }
@@ -69,6 +262,7 @@ public final class DB {
             String tableName = tablePrefix + instance.tableName();
             tableNames.put(elemClass, tableName);
             if (!tableExistInDB(tableName)) createTable(instance);
+            initializedTables.add(elemClass);
             Log.debug("[DB] End init SQL table "+elemClass.getSimpleName());
         } catch (Exception|ExceptionInInitializerError e) {
             throw new DBInitTableException(elemClass, e);
@@ -102,7 +296,9 @@ public final class DB {
             for (Object val : params)
                 ps.setObject(i++, val);
             Log.info("Creating table " + elem.tableName() + ":\n" + ps.toString());
+            long start = System.nanoTime();
             ps.executeUpdate();
+            metrics.recordQuery(sql.toString(), ps, System.nanoTime() - start, 0);
         }
     }
 
@@ -226,8 +422,23 @@ public final class DB {
      * @throws DBException if an error occurs when interacting with the database.
      */
     public static <E extends SQLElement<E>> E getFirst(Class<E> elemClass, SQLWhere<E> where, SQLOrderBy<E> orderBy, Integer offset) throws DBException {
+        SQLElementCache<E> cache = getCache(elemClass);
+        Collection<Integer> targetedIds = (cache == null || where == null || offset != null) ? null : where.getTargetedIds();
+        boolean useCache = targetedIds != null && targetedIds.size() == 1
+                && where instanceof SQLWhere.SQLWhereComp; // only a single "id = ?" condition
+        long loadVersion = 0;
+        if (useCache) {
+            E cached = cache.get(targetedIds.iterator().next());
+            if (cached != null)
+                return cached;
+            loadVersion = cache.getWriteVersion();
+        }
+
         SQLElementList<E> elements = getAll(elemClass, where, orderBy, 1, offset);
-        return (elements.isEmpty()) ? null : elements.getFirst();
+        E element = (elements.isEmpty()) ? null : elements.getFirst();
+        if (useCache && element != null)
+            cache.putIfNotWritten(element, loadVersion);
+        return element;
     }
 
     /**
@@ -294,15 +505,211 @@ public final class DB {
      * @throws DBException if an error occurs when interacting with the database.
      */
     public static <E extends SQLElement<E>> SQLElementList<E> getAll(Class<E> elemClass, SQLWhere<E> where, SQLOrderBy<E> orderBy, Integer limit, Integer offset) throws DBException {
-        SQLElementList<E> elements = new SQLElementList<>();
-        forEach(elemClass, where, orderBy, limit, offset, elements::add);
-        return elements;
+        ParameterizedSQLString query = selectQuery(elemClass, where, orderBy, limit, offset);
+
+        return queryStatement(query.sqlString(), query.parameters(), set -> {
+            SQLElementList<E> elements = new SQLElementList<>();
+            SQLRowMapper<E> mapper = SQLRowMapper.of(elemClass, set.getMetaData());
+            while (set.next()) {
+                elements.add(mapper.map(set));
+            }
+            return elements;
+        }, SQLElementList::size);
+    }
+
+    /**
+     * Fetches the page of entries following the provided value of a field, using the keyset pagination.
+     * The provided field must have unique and non-null values, like the {@code id} field.
+     * @param elemClass the class representing a table.
+     * @param orderField the field used to sort the entries in the ascending order.
+     * @param lastValue the value of the field for the last entry of the previous page, or null to get the first page.
+     * @param pageSize the maximum number of entries in the page.
+     * @return the page of entries.
+     * @param <E> the type representing the table.
+     * @param <T> the Java type of the order field.
+     * @throws DBException if an error occurs when interacting with the database.
+     * @see #pageAfter(Class, SQLWhere, SQLField, boolean, SQLPage.Token, int)
+     */
+    public static <E extends SQLElement<E>, T> SQLPage<E, T> pageAfter(Class<E> elemClass, SQLField<E, T> orderField, T lastValue, int pageSize) throws DBException {
+        return pageAfter(elemClass, null, orderField, false, lastValue == null ? null : new SQLPage.Token<>(lastValue, null), pageSize);
+    }
+
+    /**
+     * Fetches the page of entries following the provided continuation token, using the keyset pagination.
+     * <p>
+     * The entries are sorted by the provided field, then by their id, and only the entries after the token are
+     * selected, so the query does not read the entries of the previous pages, unlike a query using the {@code OFFSET}
+     * clause. The order field should not have null values, and should be indexed in the database.
+     * @param elemClass the class representing a table.
+     * @param where the {@code WHERE} clause of the query, or null to fetch all the entries.
+     * @param orderField the field used to sort the entries.
+     * @param descending true to sort the entries in the descending order, false for the ascending order.
+     * @param after the continuation token returned by {@link SQLPage#getContinuationToken()} for the previous page, or
+     *              null to get the first page.
+     * @param pageSize the maximum number of entries in the page.
+     * @return the page of entries.
+     * @param <E> the type representing the table.
+     * @param <T> the Java type of the order field.
+     * @throws DBException if an error occurs when interacting with the database.
+     */
+    public static <E extends SQLElement<E>, T> SQLPage<E, T> pageAfter(Class<E> elemClass, SQLWhere<E> where, SQLField<E, T> orderField, boolean descending, SQLPage.Token<T> after, int pageSize) throws DBException {
+        if (pageSize < 1)
+            throw new IllegalArgumentException("pageSize must be strictly positive");
+        SQLField<E, Integer> idField = getSQLIdField(elemClass);
+        boolean orderById = orderField.getName().equals(idField.getName());
+
+        SQLWhere<E> pageWhere = where;
+        if (after != null) {
+            SQLWhere<E> keysetWhere;
+            if (orderById) {
+                @SuppressWarnings("unchecked")
+                SQLField<E, Integer> orderIdField = (SQLField<E, Integer>) orderField;
+                Integer lastId = after.id() != null ? after.id() : (Integer) after.value();
+                keysetWhere = descending ? orderIdField.lt(lastId) : orderIdField.gt(lastId);
+            }
+            else {
+                keysetWhere = descending ? orderField.lt(after.value()) : orderField.gt(after.value());
+                if (after.id() != null) {
+                    keysetWhere = keysetWhere.or(orderField.eq(after.value())
+                            .and(descending ? idField.lt(after.id()) : idField.gt(after.id())));
+                }
+            }
+            pageWhere = where == null ? keysetWhere : where.and(keysetWhere);
+        }
+
+        SQLOrderBy<E> orderBy = descending ? SQLOrderBy.desc(orderField) : SQLOrderBy.asc(orderField);
+        if (!orderById)
+            orderBy = descending ? orderBy.thenDesc(idField) : orderBy.thenAsc(idField);
+
+        // fetch one more entry to know if there is a next page
+        SQLElementList<E> entries = getAll(elemClass, pageWhere, orderBy, pageSize + 1, null);
+        boolean hasNext = entries.size() > pageSize;
+        if (hasNext)
+            entries.removeLast();
+        return new SQLPage<>(elemClass, where, orderField, descending, pageSize, entries, hasNext);
+    }
+
+    /**
+     * Fetches the entries from the provided table, where the value of a field is in the provided collection.
+     * <p>
+     * The duplicate values are ignored. If there are more than {@link #IN_CHUNK_SIZE} distinct values, the collection
+     * is split into chunks that are queried separately, then the results are merged, sorted in memory following the
+     * {@code ORDER BY} clause, and the {@code LIMIT} and {@code OFFSET} clauses are applied to the merged result. In
+     * this case, the values of the {@code ORDER BY} fields are compared in Java, so the order of the strings may differ
+     * from the collation of the database.
+     * <p>
+     * The calling thread queries the chunks itself, helped by other threads when possible: all the calls of this
+     * method together use at most a quarter of the connection pool for these helper threads (see
+     * {@link #IN_CHUNK_HELPERS_POOL_DIVISOR}). The calling thread never waits for a helper thread to start, so a
+     * caller already holding a connection, for instance in a transaction, only needs one more free connection to
+     * complete.
+     * @param elemClass the class representing a table.
+     * @param values the values to search.
+     * @param whereIn creates the {@code WHERE ... IN ...} clause for a chunk of values.
+     * @param orderBy the {@code ORDER BY} clause of the query.
+     * @param limit the {@code LIMIT} clause of the query.
+     * @param offset the {@code OFFSET} clause of the query.
+     * @return the entries from the provided table.
+     * @param <E> the type representing the table.
+     * @param <T> the Java type of the values.
+     * @throws DBException if an error occurs when interacting with the database.
+     */
+    /* package */ static <E extends SQLElement<E>, T> SQLElementList<E> getAllIn(Class<E> elemClass, Collection<T> values, Function<Collection<T>, SQLWhere<E>> whereIn, SQLOrderBy<E> orderBy, Integer limit, Integer offset) throws DBException {
+        // a repeated value would return the same entries once per chunk containing it
+        List<T> valueList = new ArrayList<>(new LinkedHashSet<>(values));
+        if (valueList.size() <= IN_CHUNK_SIZE)
+            return getAll(elemClass, whereIn.apply(valueList), orderBy, limit, offset);
+
+        // each chunk may contain all the entries of the requested page
+        Integer chunkLimit = limit == null ? null : limit + (offset == null ? 0 : offset);
+        List<SQLWhere<E>> chunkWheres = new ArrayList<>();
+        for (int from = 0; from < valueList.size(); from += IN_CHUNK_SIZE) {
+            chunkWheres.add(whereIn.apply(valueList.subList(from, Math.min(from + IN_CHUNK_SIZE, valueList.size()))));
+        }
+        List<SQLElementList<E>> chunkResults = new ArrayList<>(Collections.nCopies(chunkWheres.size(), null));
+        AtomicInteger nextChunk = new AtomicInteger();
+        Callable<Void> queryChunks = () -> {
+            int i;
+            while ((i = nextChunk.getAndIncrement()) < chunkWheres.size()) {
+                SQLElementList<E> result = getAll(elemClass, chunkWheres.get(i), orderBy, chunkLimit, null);
+                synchronized (chunkResults) {
+                    chunkResults.set(i, result);
+                }
+            }
+            return null;
+        };
+
+        List<Future<Void>> helpers = new ArrayList<>();
+        try (ExecutorService executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("Pandalib DB IN chunk #", 0).factory())) {
+            for (int h = 1; h < chunkWheres.size() && tryAcquireInChunkHelper(); h++) {
+                helpers.add(executor.submit(() -> {
+                    try {
+                        return queryChunks.call();
+                    } finally {
+                        inChunkHelpers.decrementAndGet();
+                    }
+                }));
+            }
+            try {
+                queryChunks.call();
+            } finally {
+                nextChunk.set(chunkWheres.size()); // on failure, the helpers stop after their current chunk
+            }
+            for (Future<Void> helper : helpers) {
+                helper.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof DBException dbe)
+                throw dbe;
+            throw new DBException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DBException(e);
+        } catch (DBException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new DBException(e);
+        }
+
+        SQLElementList<E> merged = new SQLElementList<>();
+        for (SQLElementList<E> chunkResult : chunkResults) {
+            merged.addAll(chunkResult);
+        }
+        if (orderBy != null)
+            merged.sort(orderBy.toComparator());
+        int from = offset == null ? 0 : Math.min(offset, merged.size());
+        int to = limit == null ? merged.size() : Math.min(merged.size(), from + limit);
+        if (from == 0 && to == merged.size())
+            return merged;
+        SQLElementList<E> page = new SQLElementList<>();
+        page.addAll(merged.subList(from, to));
+        return page;
+    }
+
+    /**
+     * Reserves a helper thread for {@link #getAllIn(Class, Collection, Function, SQLOrderBy, Integer, Integer)}, if
+     * the limit derived from the current size of the connection pool is not reached. The helper must be released by
+     * decrementing {@link #inChunkHelpers}.
+     * @return true if a helper thread can be started.
+     */
+    private static boolean tryAcquireInChunkHelper() {
+        DBConnection conn = connection;
+        int poolSize = conn == null ? 0 : conn.getMaxPoolSize();
+        // a negative pool size means no limit
+        int maxHelpers = poolSize < 0 ? Runtime.getRuntime().availableProcessors() : poolSize / IN_CHUNK_HELPERS_POOL_DIVISOR;
+        int current;
+        do {
+            current = inChunkHelpers.get();
+            if (current >= maxHelpers)
+                return false;
+        } while (!inChunkHelpers.compareAndSet(current, current + 1));
+        return true;
     }
 
     /**
      * Iterate through all the entries from the provided table.
      * @param elemClass the class representing a table.
-     * @param action the action to perform on each entry.
+     * @param action the action to perform on each entry. It must not use the database.
      * @param <E> the type representing the table.
      * @throws DBException if an error occurs when interacting with the database.
      */
@@ -314,7 +721,7 @@ public final class DB {
      * Iterate through the entries from the provided table, using the provided {@code WHERE} clause.
      * @param elemClass the class representing a table.
      * @param where the {@code WHERE} clause of the query.
-     * @param action the action to perform on each entry.
+     * @param action the action to perform on each entry. It must not use the database.
      * @param <E> the type representing the table.
      * @throws DBException if an error occurs when interacting with the database.
      */
@@ -328,7 +735,7 @@ public final class DB {
      * @param elemClass the class representing a table.
      * @param where the {@code WHERE} clause of the query.
      * @param orderBy the {@code ORDER BY} clause of the query.
-     * @param action the action to perform on each entry.
+     * @param action the action to perform on each entry. It must not use the database.
      * @param <E> the type representing the table.
      * @throws DBException if an error occurs when interacting with the database.
      */
@@ -343,7 +750,7 @@ public final class DB {
      * @param where the {@code WHERE} clause of the query.
      * @param orderBy the {@code ORDER BY} clause of the query.
      * @param limit the {@code LIMIT} clause of the query.
-     * @param action the action to perform on each entry.
+     * @param action the action to perform on each entry. It must not use the database.
      * @param <E> the type representing the table.
      * @throws DBException if an error occurs when interacting with the database.
      */
@@ -354,46 +761,227 @@ public final class DB {
     /**
      * Iterate through the entries from the provided table, using the provided {@code WHERE}, {@code ORDER BY},
      * {@code LIMIT} and {@code OFFSET} clauses.
+     * <p>
+     * The entries are streamed from the database while iterating (see {@link #stream(Class, SQLWhere, SQLOrderBy,
+     * Integer, Integer)}), so the memory usage does not depend on the number of entries. The database connection used
+     * by this method is kept busy until all the entries are consumed by the {@code action}.
+     * <p>
+     * For this reason, the {@code action} must not use the database, even indirectly (for instance by saving the
+     * entry): each query would need another connection from the pool while this one is held, which is slow, and
+     * waits forever when all the connections are held by iterations. To use the database for each entry, get the
+     * entries in memory first using {@link #getAll(Class, SQLWhere, SQLOrderBy, Integer, Integer)}, or page through
+     * them using {@link #pageAfter(Class, SQLField, Object, int)}.
      * @param elemClass the class representing a table.
      * @param where the {@code WHERE} clause of the query.
      * @param orderBy the {@code ORDER BY} clause of the query.
      * @param limit the {@code LIMIT} clause of the query.
      * @param offset the {@code OFFSET} clause of the query.
-     * @param action the action to perform on each entry.
+     * @param action the action to perform on each entry. It must not use the database.
      * @param <E> the type representing the table.
      * @throws DBException if an error occurs when interacting with the database.
      */
     public static <E extends SQLElement<E>> void forEach(Class<E> elemClass, SQLWhere<E> where, SQLOrderBy<E> orderBy, Integer limit, Integer offset, Consumer<E> action) throws DBException {
-        initTable(elemClass);
+        try (SQLElementCursor<E> cursor = openCursor(elemClass, where, orderBy, limit, offset)) {
+            while (cursor.hasNext()) {
+                action.accept(cursor.next());
+            }
+        } catch (UncheckedDBException e) {
+            throw e.getCause();
+        }
+    }
 
-        String sql = "SELECT * FROM " + getTableName(elemClass);
 
-        List<Object> params = new ArrayList<>();
 
-        if (where != null) {
-            ParameterizedSQLString ret = where.toSQL();
-            sql += " WHERE " + ret.sqlString();
-            params.addAll(ret.parameters());
-        }
-        if (orderBy != null)
-            sql += " ORDER BY " + orderBy.toSQL();
+
+    /**
+     * Creates a lazy stream of all the entries from the provided table.
+     * @param elemClass the class representing a table.
+     * @return a stream of the entries from the provided table, that must be closed after use.
+     * @param <E> the type representing the table.
+     * @throws DBException if an error occurs when interacting with the database.
+     * @see #stream(Class, SQLWhere, SQLOrderBy, Integer, Integer)
+     */
+    public static <E extends SQLElement<E>> Stream<E> stream(Class<E> elemClass) throws DBException {
+        return stream(elemClass, null, null, null, null);
+    }
+
+    /**
+     * Creates a lazy stream of the entries from the provided table, using the provided {@code WHERE} clause.
+     * @param elemClass the class representing a table.
+     * @param where the {@code WHERE} clause of the query.
+     * @return a stream of the entries from the provided table, that must be closed after use.
+     * @param <E> the type representing the table.
+     * @throws DBException if an error occurs when interacting with the database.
+     * @see #stream(Class, SQLWhere, SQLOrderBy, Integer, Integer)
+     */
+    public static <E extends SQLElement<E>> Stream<E> stream(Class<E> elemClass, SQLWhere<E> where) throws DBException {
+        return stream(elemClass, where, null, null, null);
+    }
+
+    /**
+     * Creates a lazy stream of the entries from the provided table, using the provided {@code WHERE} and
+     * {@code ORDER BY} clauses.
+     * @param elemClass the class representing a table.
+     * @param where the {@code WHERE} clause of the query.
+     * @param orderBy the {@code ORDER BY} clause of the query.
+     * @return a stream of the entries from the provided table, that must be closed after use.
+     * @param <E> the type representing the table.
+     * @throws DBException if an error occurs when interacting with the database.
+     * @see #stream(Class, SQLWhere, SQLOrderBy, Integer, Integer)
+     */
+    public static <E extends SQLElement<E>> Stream<E> stream(Class<E> elemClass, SQLWhere<E> where, SQLOrderBy<E> orderBy) throws DBException {
+        return stream(elemClass, where, orderBy, null, null);
+    }
+
+    /**
+     * Creates a lazy stream of the entries from the provided table, using the provided {@code WHERE},
+     * {@code ORDER BY}, {@code LIMIT} and {@code OFFSET} clauses.
+     * <p>
+     * The query is executed with a forward-only and read-only statement, and the rows are streamed from the database
+     * server one at a time while the returned stream is consumed, instead of being all loaded in memory first.
+     * The returned stream holds a database connection until it is closed, so it must be used in a
+     * try-with-resources statement:
+     * <pre>{@code
+     * try (Stream<MyElement> elements = DB.stream(MyElement.class, where, orderBy, null, null)) {
+     *     elements.forEach(e -> ...);
+     * }
+     * }</pre>
+     * Due to the behaviour of the MySQL driver, closing the stream before reaching its end still reads the remaining
+     * rows from the network. Use a {@code LIMIT} clause if only the first entries are needed.
+     * <p>
+     * The database must not be used while consuming the stream, for the reasons explained in
+     * {@link #forEach(Class, SQLWhere, SQLOrderBy, Integer, Integer, Consumer)}.
+     * <p>
+     * If an error occurs while reading the entries, an {@link UncheckedDBException} is thrown by the stream operation.
+     * @param elemClass the class representing a table.
+     * @param where the {@code WHERE} clause of the query.
+     * @param orderBy the {@code ORDER BY} clause of the query.
+     * @param limit the {@code LIMIT} clause of the query.
+     * @param offset the {@code OFFSET} clause of the query.
+     * @return a stream of the entries from the provided table, that must be closed after use.
+     * @param <E> the type representing the table.
+     * @throws DBException if an error occurs when interacting with the database.
+     */
+    public static <E extends SQLElement<E>> Stream<E> stream(Class<E> elemClass, SQLWhere<E> where, SQLOrderBy<E> orderBy, Integer limit, Integer offset) throws DBException {
+        SQLElementCursor<E> cursor = openCursor(elemClass, where, orderBy, limit, offset);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(cursor, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(cursor::close);
+    }
+
+
+
+    private static <E extends SQLElement<E>> ParameterizedSQLString selectQuery(Class<E> elemClass, SQLWhere<E> where, SQLOrderBy<E> orderBy, Integer limit, Integer offset) throws DBException {
+        initTable(elemClass);
+
+        String sql = queryCache.get("SELECT *", getTableName(elemClass), where, orderBy, limit != null, offset != null);
+        List<Object> params = new ArrayList<>();
+        if (where != null)
+            where.collectParameters(params);
         if (limit != null)
-            sql += " LIMIT " + limit;
+            params.add(limit);
         if (offset != null)
-            sql += " OFFSET " + offset;
-        sql += ";";
+            params.add(offset);
 
-        customQueryStatement(sql, params, set -> {
-            while (set.next()) {
-                E elm = getElementInstance(set, elemClass);
-                action.accept(elm);
+        return new ParameterizedSQLString(sql, params);
+    }
+
+    private static <E extends SQLElement<E>> SQLElementCursor<E> openCursor(Class<E> elemClass, SQLWhere<E> where, SQLOrderBy<E> orderBy, Integer limit, Integer offset) throws DBException {
+        ParameterizedSQLString query = selectQuery(elemClass, where, orderBy, limit, offset);
+
+        Connection c = null;
+        PreparedStatement ps = null;
+        try {
+            c = connection.getConnection();
+            ps = c.prepareStatement(query.sqlString(), ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(STREAMING_FETCH_SIZE);
+
+            int i = 1;
+            for (Object val : query.parameters()) {
+                if (val instanceof Enum<?>) val = ((Enum<?>) val).name();
+                ps.setObject(i++, val);
             }
-            return null;
-        });
+            long start = System.nanoTime();
+            // closing the statement on failure also closes its result set
+            ResultSet rs = ps.executeQuery();
+            return new SQLElementCursor<>(SQLRowMapper.of(elemClass, rs.getMetaData()), query.sqlString(), start, c, ps, rs);
+        } catch (SQLException | DBException e) {
+            try {
+                if (ps != null) ps.close();
+                if (c != null) c.close();
+            } catch (SQLException closeException) {
+                e.addSuppressed(closeException);
+            }
+            throw e instanceof DBException dbException ? dbException : new DBException(e);
+        }
+    }
+
+    /**
+     * An iterator over the entries read from a streamed {@link ResultSet}, holding the database resources until it is
+     * closed.
+     */
+    private static class SQLElementCursor<E extends SQLElement<E>> implements Iterator<E>, AutoCloseable {
+        private final SQLRowMapper<E> mapper;
+        private final String sql;
+        private final long startNanos;
+        private long rowCount = 0;
+        private final Connection connection;
+        private final PreparedStatement statement;
+        private final ResultSet resultSet;
+        private Boolean hasNext = null;
+        private boolean closed = false;
+
+        private SQLElementCursor(SQLRowMapper<E> mapper, String sql, long startNanos, Connection c, PreparedStatement ps, ResultSet rs) {
+            this.mapper = mapper;
+            this.sql = sql;
+            this.startNanos = startNanos;
+            connection = c;
+            statement = ps;
+            resultSet = rs;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (hasNext == null) {
+                try {
+                    hasNext = !closed && resultSet.next();
+                } catch (SQLException e) {
+                    throw new UncheckedDBException(new DBException(e));
+                }
+            }
+            return hasNext;
+        }
+
+        @Override
+        public E next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            hasNext = null;
+            rowCount++;
+            try {
+                return mapper.map(resultSet);
+            } catch (DBException e) {
+                throw new UncheckedDBException(e);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (closed)
+                return;
+            closed = true;
+            // the duration includes the time the rows were consumed by the caller
+            metrics.recordQuery(sql, statement, System.nanoTime() - startNanos, rowCount);
+            try (connection; statement; resultSet) {
+                // only closing the resources
+            } catch (SQLException e) {
+                Log.warning("Error while closing a database cursor.", e);
+            }
+        }
     }
 
 
 
+
     /**
      * Counts the number of entries in the provided table.
      * @param elemClass the class representing a table.
@@ -416,23 +1004,17 @@ public final class DB {
     public static <E extends SQLElement<E>> long count(Class<E> elemClass, SQLWhere<E> where) throws DBException {
         initTable(elemClass);
 
-        String sql = "SELECT COUNT(*) AS count FROM " + getTableName(elemClass);
-
+        String sql = queryCache.get("SELECT COUNT(*) AS count", getTableName(elemClass), where, null, false, false);
         List<Object> params = new ArrayList<>();
+        if (where != null)
+            where.collectParameters(params);
 
-        if (where != null) {
-            ParameterizedSQLString ret = where.toSQL();
-            sql += " WHERE " + ret.sqlString();
-            params.addAll(ret.parameters());
-        }
-        sql += ";";
-
-        return customQueryStatement(sql, params, rs -> {
+        return queryStatement(sql, params, rs -> {
             if (rs.next()) {
                 return rs.getLong(1);
             }
             throw new DBException("Can’t retrieve element count from database (the ResultSet is empty).");
-        });
+        }, count -> 1);
     }
 
 
@@ -448,6 +1030,14 @@ public final class DB {
      * @throws DBException if an error occurs when interacting with the database.
      */
     public static <R> R customQueryStatement(String sql, List<Object> params, ResultSetFunction<R> rsFunction) throws DBException {
+        return queryStatement(sql, params, rsFunction, null);
+    }
+
+    /**
+     * Same as {@link #customQueryStatement(String, List, ResultSetFunction)}, with a function that counts the rows
+     * read by {@code rsFunction} for the metrics.
+     */
+    private static <R> R queryStatement(String sql, List<Object> params, ResultSetFunction<R> rsFunction, ToLongFunction<R> rowCounter) throws DBException {
         try (Connection c = connection.getConnection();
              PreparedStatement ps = c.prepareStatement(sql)) {
 
@@ -456,11 +1046,13 @@ public final class DB {
                 if (val instanceof Enum<?>) val = ((Enum<?>) val).name();
                 ps.setObject(i++, val);
             }
-            Log.debug(ps.toString());
-
+            long start = System.nanoTime();
+            R result;
             try (ResultSet set = ps.executeQuery()) {
-                return rsFunction.apply(set);
+                result = rsFunction.apply(set);
             }
+            metrics.recordQuery(sql, ps, System.nanoTime() - start, rowCounter == null ? -1 : rowCounter.applyAsLong(result));
+            return result;
         } catch (SQLException e) {
             throw new DBException(e);
         }
@@ -503,6 +1095,205 @@ public final class DB {
     }
 
 
+
+    /**
+     * Inserts all the provided entries that are not yet stored in the database, using multi-row {@code INSERT}
+     * queries of at most {@link #DEFAULT_BATCH_SIZE} entries each.
+     * @param elements the entries to insert. The entries that are already stored in the database are ignored.
+     * @param <E> the type representing the table.
+     * @throws DBException if an error occurs when interacting with the database.
+     * @see #insertAll(Collection, int)
+     */
+    public static <E extends SQLElement<E>> void insertAll(Collection<E> elements) throws DBException {
+        insertAll(elements, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Inserts all the provided entries that are not yet stored in the database, using multi-row {@code INSERT}
+     * queries of at most {@code batchSize} entries each.
+     * <p>
+     * The ids generated by the database are read back and set into each entry, so they are all marked as stored after
+     * this method returns successfully. If an error occurs, the entries of the batches that were already sent are
+     * still marked as stored, and the other ones are untouched.
+     * <p>
+     * The values modified in an entry while it is inserted stay marked as modified, so they are sent by the next save.
+     * @param elements the entries to insert. The entries that are already stored in the database are ignored.
+     * @param batchSize the maximum number of entries inserted by each query.
+     * @param <E> the type representing the table.
+     * @throws DBException if an error occurs when interacting with the database.
+     * @throws IllegalStateException if at least one entry is not valid for save (see
+     *         {@link SQLElement#isValidForSave()}).
+     */
+    public static <E extends SQLElement<E>> void insertAll(Collection<E> elements, int batchSize) throws DBException {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("batchSize must be strictly positive");
+
+        List<E> toInsert = elements.stream()
+                .filter(e -> e != null && !e.isStored())
+                .toList();
+        if (toInsert.isEmpty())
+            return;
+        for (E e : toInsert) {
+            if (!e.isValidForSave())
+                throw new IllegalStateException(e + " has at least one undefined value and can't be saved.");
+        }
+
+        Class<E> elemClass = toInsert.getFirst().getCheckedClass();
+        initTable(elemClass);
+
+        List<SQLField<E, ?>> fields = new ArrayList<>(toInsert.getFirst().getFields().values());
+        String columns = fields.stream()
+                .map(f -> "`" + f.getName() + "`")
+                .collect(Collectors.joining(", "));
+        String rowPlaceholders = "(" + String.join(", ", Collections.nCopies(fields.size(), "?")) + ")";
+
+        for (int from = 0; from < toInsert.size(); from += batchSize) {
+            List<E> batch = toInsert.subList(from, Math.min(from + batchSize, toInsert.size()));
+
+            String sql = "INSERT INTO " + getTableName(elemClass) + " (" + columns + ") VALUES "
+                    + String.join(", ", Collections.nCopies(batch.size(), rowPlaceholders)) + ";";
+
+            try (Connection c = connection.getConnection();
+                 PreparedStatement ps = c.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+
+                List<Map<SQLField<E, ?>, Object>> insertedValues = new ArrayList<>(batch.size());
+                int i = 1;
+                for (E e : batch) {
+                    Map<SQLField<E, ?>, Object> values;
+                    synchronized (e) {
+                        values = new HashMap<>(e.getValues());
+                    }
+                    insertedValues.add(values);
+                    for (SQLField<E, ?> f : fields) {
+                        // the id is always generated by the database, whatever was set in the entry
+                        ps.setObject(i++, f.getName().equals("id") ? null : f.fromJavaTypeToJDBCType(values.get(f)));
+                    }
+                }
+                long start = System.nanoTime();
+                ps.executeUpdate();
+                metrics.recordQuery(sql, ps, System.nanoTime() - start, batch.size());
+
+                try (ResultSet rs = ps.getGeneratedKeys()) {
+                    for (int j = 0; j < batch.size(); j++) {
+                        if (!rs.next())
+                            throw new DBException("The database returned less generated ids than the number of inserted entries.");
+                        E e = batch.get(j);
+                        synchronized (e) {
+                            e.markAsStored(rs.getInt(1), insertedValues.get(j));
+                            updateCachedEntry(e);
+                        }
+                    }
+                }
+            } catch (SQLException e) {
+                throw new DBException(e);
+            }
+        }
+    }
+
+    /**
+     * Saves the modifications of all the provided entries that are already stored in the database, using batched
+     * {@code UPDATE} queries of at most {@link #DEFAULT_BATCH_SIZE} entries each.
+     * @param elements the entries to update. The entries that are not stored in the database or that are not modified
+     *                 are ignored.
+     * @param <E> the type representing the table.
+     * @throws DBException if an error occurs when interacting with the database.
+     * @see #updateAll(Collection, int)
+     */
+    public static <E extends SQLElement<E>> void updateAll(Collection<E> elements) throws DBException {
+        updateAll(elements, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Saves the modifications of all the provided entries that are already stored in the database, using batched
+     * {@code UPDATE} queries of at most {@code batchSize} entries each.
+     * <p>
+     * The entries are grouped by the set of fields that were modified, so each group shares the same
+     * {@code UPDATE ... WHERE id = ?} statement, executed as a JDBC batch.
+     * @param elements the entries to update. The entries that are not stored in the database or that are not modified
+     *                 are ignored.
+     * @param batchSize the maximum number of entries updated by each batch.
+     * @param <E> the type representing the table.
+     * @throws DBException if an error occurs when interacting with the database.
+     */
+    public static <E extends SQLElement<E>> void updateAll(Collection<E> elements, int batchSize) throws DBException {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("batchSize must be strictly positive");
+
+        Map<E, Map<SQLField<E, ?>, Object>> modifiedValuesByElement = new IdentityHashMap<>();
+        for (E e : elements) {
+            if (e == null || !e.isStored())
+                continue;
+            Map<SQLField<E, ?>, Object> modifiedValues = e.prepareForUpdate();
+            if (!modifiedValues.isEmpty())
+                modifiedValuesByElement.put(e, modifiedValues);
+        }
+
+        updateModifiedValues(modifiedValuesByElement, batchSize, batch -> {
+            for (E e : batch) {
+                e.modifiedSinceLastSave.clear();
+                updateCachedEntry(e);
+            }
+        });
+    }
+
+    /**
+     * Sends the provided modified values of entries already stored in the database, using batched {@code UPDATE}
+     * queries of at most {@code batchSize} entries each.
+     * This method does not change the modification state of the entries.
+     * @param modifiedValuesByElement the entries to update, mapped to the values to send. They must all be from the
+     *                                same table.
+     * @param batchSize the maximum number of entries updated by each batch.
+     * @param onBatchSaved called with the entries of each batch, after the batch is successfully executed.
+     * @param <E> the type representing the table.
+     * @throws DBException if an error occurs when interacting with the database.
+     */
+    /* package */ static <E extends SQLElement<E>> void updateModifiedValues(Map<E, Map<SQLField<E, ?>, Object>> modifiedValuesByElement, int batchSize, Consumer<List<E>> onBatchSaved) throws DBException {
+        if (modifiedValuesByElement.isEmpty())
+            return;
+
+        Map<Set<SQLField<E, ?>>, List<E>> toUpdateByFields = new LinkedHashMap<>();
+        modifiedValuesByElement.forEach((e, modifiedValues) ->
+                toUpdateByFields.computeIfAbsent(modifiedValues.keySet(), k -> new ArrayList<>()).add(e));
+
+        Class<E> elemClass = modifiedValuesByElement.keySet().iterator().next().getCheckedClass();
+        initTable(elemClass);
+
+        for (Map.Entry<Set<SQLField<E, ?>>, List<E>> group : toUpdateByFields.entrySet()) {
+            List<SQLField<E, ?>> fields = new ArrayList<>(group.getKey());
+            String sql = "UPDATE " + getTableName(elemClass) + " SET "
+                    + fields.stream()
+                            .map(f -> "`" + f.getName() + "` = ?")
+                            .collect(Collectors.joining(", "))
+                    + " WHERE `id` = ?;";
+
+            List<E> groupElements = group.getValue();
+            for (int from = 0; from < groupElements.size(); from += batchSize) {
+                List<E> batch = groupElements.subList(from, Math.min(from + batchSize, groupElements.size()));
+
+                try (Connection c = connection.getConnection();
+                     PreparedStatement ps = c.prepareStatement(sql)) {
+                    for (E e : batch) {
+                        Map<SQLField<E, ?>, Object> modifiedValues = modifiedValuesByElement.get(e);
+                        int i = 1;
+                        for (SQLField<E, ?> f : fields)
+                            ps.setObject(i++, f.fromJavaTypeToJDBCType(modifiedValues.get(f)));
+                        ps.setObject(i, e.getId());
+                        ps.addBatch();
+                    }
+                    long start = System.nanoTime();
+                    ps.executeBatch();
+                    metrics.recordQuery(sql, null, System.nanoTime() - start, batch.size());
+                } catch (SQLException e) {
+                    invalidateCachedEntries(elemClass, null);
+                    throw new DBException(e);
+                }
+
+                onBatchSaved.accept(batch);
+            }
+        }
+    }
+
+
     /**
      * Delete the entries from the provided table, using the provided {@code WHERE} clause.
      * @param elemClass the class representing a table.
@@ -519,14 +1310,15 @@ public final class DB {
             return truncateTable(elemClass);
         }
 
-        ParameterizedSQLString whereData = where.toSQL();
-
-        String sql = "DELETE FROM " + getTableName(elemClass)
-                + " WHERE " + whereData.sqlString()
-                + ";";
-        List<Object> params = new ArrayList<>(whereData.parameters());
+        String sql = queryCache.get("DELETE", getTableName(elemClass), where, null, false, false);
+        List<Object> params = new ArrayList<>();
+        where.collectParameters(params);
 
-        return customUpdateStatement(sql, params);
+        try {
+            return customUpdateStatement(sql, params);
+        } finally {
+            invalidateCachedEntries(elemClass, where);
+        }
 
     }
 
@@ -548,9 +1340,10 @@ public final class DB {
                 if (val instanceof Enum<?>) val = ((Enum<?>) val).name();
                 ps.setObject(i++, val);
             }
-            Log.debug(ps.toString());
-
-            return ps.executeUpdate();
+            long start = System.nanoTime();
+            int affectedRows = ps.executeUpdate();
+            metrics.recordQuery(sql, ps, System.nanoTime() - start, affectedRows);
+            return affectedRows;
         } catch (SQLException e) {
             throw new DBException(e);
         }
@@ -568,62 +1361,15 @@ public final class DB {
     public static <E extends SQLElement<E>> int truncateTable(Class<E> elemClass) throws DBException {
         try (Connection c = connection.getConnection();
              Statement stmt = c.createStatement()) {
-            return stmt.executeUpdate("TRUNCATE `" + getTableName(elemClass) + "`");
+            String sql = "TRUNCATE `" + getTableName(elemClass) + "`";
+            long start = System.nanoTime();
+            int affectedRows = stmt.executeUpdate(sql);
+            metrics.recordQuery(sql, null, System.nanoTime() - start, affectedRows);
+            return affectedRows;
         } catch(SQLException e) {
             throw new DBException(e);
-        }
-    }
-
-    @SuppressWarnings("unchecked")
-    private static <E extends SQLElement<E>> E getElementInstance(ResultSet set, Class<E> elemClass) throws DBException {
-        try {
-            E instance = Reflect.ofClass(elemClass).constructor(int.class).instantiate(set.getInt("id"));
-
-            int fieldCount = set.getMetaData().getColumnCount();
-
-            for (int c = 1; c <= fieldCount; c++) {
-                String fieldName = set.getMetaData().getColumnLabel(c);
-
-                // ignore when field is present in database but not handled by SQLElement instance
-                if (!instance.getFields().containsKey(fieldName)) continue;
-
-                SQLField<E, Object> sqlField = (SQLField<E, Object>) instance.getFields().get(fieldName);
-
-                boolean customType = sqlField.type instanceof SQLCustomType;
-
-                Object val = set.getObject(c,
-                        (Class<?>)(customType ? ((SQLCustomType<?, ?>)sqlField.type).intermediateJavaType
-                                : sqlField.type.getJavaType()));
-
-                if (val == null || set.wasNull()) {
-                    instance.set(sqlField, null, false);
-                }
-                else {
-                    if (customType) {
-                        try {
-                            val = ((SQLCustomType<Object, Object>)sqlField.type).dbToJavaConv.apply(val);
-                        } catch (Exception e) {
-                            throw new DBException("Error while converting value of field '"+sqlField.getName()+"' with SQLCustomType from "+((SQLCustomType<Object, Object>)sqlField.type).intermediateJavaType
-                                    +"(JDBC source) to "+sqlField.type.getJavaType()+"(java destination). The original value is '"+ val +"'", e);
-                        }
-                    }
-
-                    /*
-                     * The value from the DB is marked as not-modified in the entry instance since this boolean is set
-                     * only when the value differs from the DB.
-                     */
-                    instance.set(sqlField, val, false);
-                    instance.modifiedSinceLastSave.remove(sqlField.getName());
-
-                }
-            }
-
-            if (!instance.isValidForSave()) throw new DBException(
-                    "This SQLElement representing a database entry is not valid for save : " + instance);
-
-            return instance;
-        } catch (ReflectiveOperationException | IllegalArgumentException | SecurityException | SQLException e) {
-            throw new DBException("Can't instantiate " + elemClass.getName(), e);
+        } finally {
+            invalidateCachedEntries(elemClass, null);
         }
     }
 
@@ -0,0 +1,291 @@
+package fr.pandacube.lib.db;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntSupplier;
+
+import fr.pandacube.lib.util.function.SupplierException;
+
+/**
+ * Asynchronous version of the most common operations of {@link DB}.
+ * <p>
+ * Get the instance using {@link DB#async()}. Each operation is executed in a virtual thread, and returns a
+ * {@link CompletableFuture} completed with the result of the operation, or completed exceptionally with the
+ * {@link DBException} thrown by the operation. The number of operations executed at the same time is limited to the
+ * maximum size of the connection pool (see {@link DBConnection#getMaxPoolSize()}), so the waiting operations do not
+ * hold a thread of the pool. The limit follows the changes of the size of the pool
+ * (see {@link DBConnection#setPoolSize(int, int, int)}).
+ * <p>
+ * The write operations of a table are executed in any order by default, like the read operations. Use
+ * {@link #enableWriteOrdering(Class)} so the write operations of a table are executed one after the other, in the
+ * order they are submitted.
+ */
+public final class DBAsync {
+
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("Pandalib DB async #", 0).factory());
+    private final IntSupplier maxConcurrentOperations;
+    // not a synchronized block, that would pin the waiting virtual threads to their carrier thread
+    private final Lock runningOperationsLock = new ReentrantLock();
+    private final Condition runningOperationsChanged = runningOperationsLock.newCondition();
+    private int runningOperations = 0;
+
+    private final Set<Class<?>> orderedTables = ConcurrentHashMap.newKeySet();
+    private final Map<Class<?>, CompletableFuture<?>> lastOrderedWrites = new ConcurrentHashMap<>();
+
+    /**
+     * Creates the asynchronous operations executor.
+     * @param maxConcurrentOperations provides the current maximum number of operations executed at the same time.
+     *                                A negative value means no limit.
+     */
+    /* package */ DBAsync(IntSupplier maxConcurrentOperations) {
+        this.maxConcurrentOperations = maxConcurrentOperations;
+    }
+
+    /**
+     * Enables the ordering of the write operations of the provided table.
+     * The operations {@link #update(SQLUpdateBuilder)}, {@link #delete(Class, SQLWhere)}, {@link #save(SQLElement)}
+     * and {@link #saveAll(Collection)} targeting this table will be executed one after the other, in the order they
+     * are submitted, so consecutive modifications of the same entries are applied in the right order.
+     * @param elemClass the class representing a table.
+     * @param <E> the type representing the table.
+     */
+    public <E extends SQLElement<E>> void enableWriteOrdering(Class<E> elemClass) {
+        orderedTables.add(elemClass);
+    }
+
+    /**
+     * Disables the ordering of the write operations of the provided table.
+     * @param elemClass the class representing a table.
+     * @param <E> the type representing the table.
+     */
+    public <E extends SQLElement<E>> void disableWriteOrdering(Class<E> elemClass) {
+        orderedTables.remove(elemClass);
+        lastOrderedWrites.remove(elemClass);
+    }
+
+
+
+    /**
+     * Asynchronous version of {@link DB#getAll(Class, SQLWhere)}.
+     * @param elemClass the class representing a table.
+     * @param where the {@code WHERE} clause of the query.
+     * @return a future of the entries from the provided table.
+     * @param <E> the type representing the table.
+     */
+    public <E extends SQLElement<E>> CompletableFuture<SQLElementList<E>> getAll(Class<E> elemClass, SQLWhere<E> where) {
+        return read(() -> DB.getAll(elemClass, where));
+    }
+
+    /**
+     * Asynchronous version of {@link DB#getAll(Class, SQLWhere, SQLOrderBy, Integer, Integer)}.
+     * @param elemClass the class representing a table.
+     * @param where the {@code WHERE} clause of the query.
+     * @param orderBy the {@code ORDER BY} clause of the query.
+     * @param limit the {@code LIMIT} clause of the query.
+     * @param offset the {@code OFFSET} clause of the query.
+     * @return a future of the entries from the provided table.
+     * @param <E> the type representing the table.
+     */
+    public <E extends SQLElement<E>> CompletableFuture<SQLElementList<E>> getAll(Class<E> elemClass, SQLWhere<E> where, SQLOrderBy<E> orderBy, Integer limit, Integer offset) {
+        return read(() -> DB.getAll(elemClass, where, orderBy, limit, offset));
+    }
+
+    /**
+     * Asynchronous version of {@link DB#getById(Class, int)}.
+     * @param elemClass the class representing a table.
+     * @param id the id of the element entry.
+     * @return a future of the entry from the provided table, completed with null if none was found.
+     * @param <E> the type representing the table.
+     */
+    public <E extends SQLElement<E>> CompletableFuture<E> getById(Class<E> elemClass, int id) {
+        return read(() -> DB.getById(elemClass, id));
+    }
+
+    /**
+     * Asynchronous version of {@link DB#getFirst(Class, SQLWhere)}.
+     * @param elemClass the class representing a table.
+     * @param where the {@code WHERE} clause of the query.
+     * @return a future of the entry from the provided table, completed with null if none was found.
+     * @param <E> the type representing the table.
+     */
+    public <E extends SQLElement<E>> CompletableFuture<E> getFirst(Class<E> elemClass, SQLWhere<E> where) {
+        return read(() -> DB.getFirst(elemClass, where));
+    }
+
+    /**
+     * Asynchronous version of {@link DB#getFirst(Class, SQLWhere, SQLOrderBy, Integer)}.
+     * @param elemClass the class representing a table.
+     * @param where the {@code WHERE} clause of the query.
+     * @param orderBy the {@code ORDER BY} clause of the query.
+     * @param offset the {@code OFFSET} clause of the query.
+     * @return a future of the entry from the provided table, completed with null if none was found.
+     * @param <E> the type representing the table.
+     */
+    public <E extends SQLElement<E>> CompletableFuture<E> getFirst(Class<E> elemClass, SQLWhere<E> where, SQLOrderBy<E> orderBy, Integer offset) {
+        return read(() -> DB.getFirst(elemClass, where, orderBy, offset));
+    }
+
+    /**
+     * Asynchronous version of {@link DB#count(Class, SQLWhere)}.
+     * @param elemClass the class representing a table.
+     * @param where the {@code WHERE} clause of the query.
+     * @return a future of the number of entries from the provided table, that meet the {@code WHERE} clause
+     *         conditions.
+     * @param <E> the type representing the table.
+     */
+    public <E extends SQLElement<E>> CompletableFuture<Long> count(Class<E> elemClass, SQLWhere<E> where) {
+        return read(() -> DB.count(elemClass, where));
+    }
+
+    /**
+     * Asynchronous version of {@link SQLUpdateBuilder#execute()}.
+     * <p>
+     * The builder must not be modified after calling this method.
+     * @param update the update query, prepared using {@link DB#update(Class, SQLWhere)}.
+     * @return a future of the value returned by {@link SQLUpdateBuilder#execute()}.
+     * @param <E> the type representing the table.
+     */
+    public <E extends SQLElement<E>> CompletableFuture<Integer> update(SQLUpdateBuilder<E> update) {
+        return write(update.getElemClass(), update::execute);
+    }
+
+    /**
+     * Asynchronous version of {@link DB#delete(Class, SQLWhere)}.
+     * @param elemClass the class representing a table.
+     * @param where the condition to meet for an element to be deleted from the table.
+     * @return a future of the value returned by {@link DB#delete(Class, SQLWhere)}.
+     * @param <E> the type representing the table.
+     */
+    public <E extends SQLElement<E>> CompletableFuture<Integer> delete(Class<E> elemClass, SQLWhere<E> where) {
+        return write(elemClass, () -> DB.delete(elemClass, where));
+    }
+
+    /**
+     * Asynchronous version of {@link SQLElement#save()}.
+     * <p>
+     * The entry must not be modified until the returned future is completed.
+     * @param element the entry to save.
+     * @return a future of the saved entry.
+     * @param <E> the type representing the table.
+     */
+    public <E extends SQLElement<E>> CompletableFuture<E> save(E element) {
+        return write(element.getCheckedClass(), element::save);
+    }
+
+    /**
+     * Asynchronous version of {@link DB#insertAll(Collection)} followed by {@link DB#updateAll(Collection)}, that
+     * saves all the provided entries.
+     * <p>
+     * The entries must not be modified until the returned future is completed.
+     * @param elements the entries to save. They must all be from the same table.
+     * @return a future completed when all the entries are saved.
+     * @param <E> the type representing the table.
+     */
+    public <E extends SQLElement<E>> CompletableFuture<Void> saveAll(Collection<E> elements) {
+        if (elements.isEmpty())
+            return CompletableFuture.completedFuture(null);
+        return write(elements.iterator().next().getCheckedClass(), () -> {
+            DB.updateAll(elements);
+            DB.insertAll(elements);
+            return null;
+        });
+    }
+
+    /**
+     * Executes a custom database operation asynchronously.
+     * @param operation the operation to execute.
+     * @return a future of the value returned by the operation.
+     * @param <R> the return type of the operation.
+     */
+    public <R> CompletableFuture<R> supply(SupplierException<R, DBException> operation) {
+        return read(operation);
+    }
+
+    /**
+     * Waits for all the submitted operations to complete, then stops the threads used by this instance.
+     * No more operation can be submitted after calling this method.
+     */
+    public void shutdown() {
+        executor.close();
+    }
+
+
+
+    /**
+     * Wakes up the operations waiting to be executed, so they check the new maximum number of operations.
+     */
+    /* package */ void onMaxConcurrentOperationsChanged() {
+        runningOperationsLock.lock();
+        try {
+            runningOperationsChanged.signalAll();
+        } finally {
+            runningOperationsLock.unlock();
+        }
+    }
+
+    private void acquireOperation() throws InterruptedException {
+        runningOperationsLock.lock();
+        try {
+            while (true) {
+                int max = maxConcurrentOperations.getAsInt();
+                // a negative pool size means no limit
+                if (max <= 0 || runningOperations < max)
+                    break;
+                runningOperationsChanged.await();
+            }
+            runningOperations++;
+        } finally {
+            runningOperationsLock.unlock();
+        }
+    }
+
+    private void releaseOperation() {
+        runningOperationsLock.lock();
+        try {
+            runningOperations--;
+            runningOperationsChanged.signal();
+        } finally {
+            runningOperationsLock.unlock();
+        }
+    }
+
+    private <R> CompletableFuture<R> read(SupplierException<R, DBException> operation) {
+        CompletableFuture<R> future = new CompletableFuture<>();
+        executor.execute(() -> {
+            try {
+                acquireOperation();
+            } catch (InterruptedException e) {
+                future.completeExceptionally(e);
+                return;
+            }
+            try {
+                future.complete(operation.get());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            } finally {
+                releaseOperation();
+            }
+        });
+        return future;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <R> CompletableFuture<R> write(Class<?> elemClass, SupplierException<R, DBException> operation) {
+        if (!orderedTables.contains(elemClass))
+            return read(operation);
+        // chain the operation after the previous write on the same table, whatever its outcome
+        return (CompletableFuture<R>) lastOrderedWrites.compute(elemClass, (k, previous) -> previous == null
+                ? read(operation)
+                : previous.handle((r, t) -> null).thenCompose(v -> read(operation)));
+    }
+
+}
@@ -11,10 +11,19 @@ import org.apache.commons.dbcp2.BasicDataSource;
  */
 public class DBConnection {
 
+    /**
+     * The default maximum number of prepared statements kept open for each connection of the pool.
+     */
+    public static final int DEFAULT_MAX_OPEN_PREPARED_STATEMENTS = 256;
+
     private final BasicDataSource connSource;
+    private final LatencyHistogram borrowWait = new LatencyHistogram();
 
     /**
      * Create a new connection with the provided settings.
+     * <p>
+     * The prepared statements are prepared on the MySQL server and cached by the driver, so the queries with the same
+     * SQL text (see {@link SQLQueryCache}) are parsed only once per connection.
      * @param host the MySQL DB host.
      * @param port the MySQL DB port.
      * @param dbname the MySQL DB name.
@@ -29,7 +38,10 @@ public class DBConnection {
                         + "&characterEncoding=utf8"
                         + "&characterSetResults=utf8"
                         + "&character_set_server=utf8mb4"
-                        + "&character_set_connection=utf8mb4",
+                        + "&character_set_connection=utf8mb4"
+                        + "&rewriteBatchedStatements=true"
+                        + "&useServerPrepStmts=true"
+                        + "&cachePrepStmts=true",
                 login, password);
     }
 
@@ -50,13 +62,82 @@ public class DBConnection {
         connSource.setValidationQueryTimeout(Duration.ofSeconds(1));
         connSource.setDurationBetweenEvictionRuns(Duration.ofMinutes(1));
 
+        // keeps the prepared statements of each connection, so the most frequent queries are not parsed again
+        connSource.setPoolPreparedStatements(true);
+        connSource.setMaxOpenPreparedStatements(DEFAULT_MAX_OPEN_PREPARED_STATEMENTS);
+
         connSource.setUrl(url);
         connSource.setUsername(login);
         connSource.setPassword(password);
     }
 
     /* package */ Connection getConnection() throws SQLException {
-        return connSource.getConnection();
+        long start = System.nanoTime();
+        try {
+            return connSource.getConnection();
+        } finally {
+            borrowWait.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Gets the number of connections of the pool currently in use.
+     * @return the number of active connections.
+     */
+    public int getActiveConnections() {
+        return connSource.getNumActive();
+    }
+
+    /**
+     * Gets the number of connections of the pool currently idle.
+     * @return the number of idle connections.
+     */
+    public int getIdleConnections() {
+        return connSource.getNumIdle();
+    }
+
+    /**
+     * Gets the histogram of the time spent waiting to get a connection from the pool, including the time needed to
+     * open a new connection when needed.
+     * @return the histogram of the borrow wait time.
+     */
+    public LatencyHistogram getBorrowWaitHistogram() {
+        return borrowWait;
+    }
+
+    /**
+     * Sets the size of the connection pool.
+     * @param minIdle the minimum number of idle connections kept in the pool.
+     * @param maxIdle the maximum number of idle connections kept in the pool.
+     * @param maxTotal the maximum number of connections, idle or in use, that the pool can hold at the same time.
+     * @throws IllegalArgumentException if the values are not consistent.
+     */
+    public void setPoolSize(int minIdle, int maxIdle, int maxTotal) {
+        if (minIdle < 0 || maxIdle < minIdle || maxTotal < 1 || maxTotal < maxIdle)
+            throw new IllegalArgumentException("Must have 0 <= minIdle <= maxIdle <= maxTotal and 1 <= maxTotal");
+        connSource.setMaxTotal(maxTotal);
+        connSource.setMaxIdle(maxIdle);
+        connSource.setMinIdle(minIdle);
+        DB.onPoolSizeChanged(this);
+    }
+
+    /**
+     * Gets the maximum number of connections, idle or in use, that the pool can hold at the same time.
+     * @return the maximum number of connections of the pool.
+     */
+    public int getMaxPoolSize() {
+        return connSource.getMaxTotal();
+    }
+
+    /**
+     * Sets the maximum number of prepared statements kept open for each connection of the pool.
+     * Defaults to {@link #DEFAULT_MAX_OPEN_PREPARED_STATEMENTS}.
+     * <p>
+     * This method must be called before the first use of this connection.
+     * @param maxOpenPreparedStatements the maximum number of prepared statements kept open for each connection.
+     */
+    public void setMaxOpenPreparedStatements(int maxOpenPreparedStatements) {
+        connSource.setMaxOpenPreparedStatements(maxOpenPreparedStatements);
     }
 
     /**
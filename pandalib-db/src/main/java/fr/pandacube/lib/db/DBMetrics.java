@@ -0,0 +1,222 @@
+package fr.pandacube.lib.db;
+
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import fr.pandacube.lib.util.log.Log;
+
+/**
+ * The metrics of the queries executed by the {@link DB} class and of its connection pool.
+ * <p>
+ * The queries are grouped by table and by {@link Operation}, each group having a latency histogram and a counter of
+ * the rows returned (for {@code SELECT} queries) or affected (for the other queries). A query slower than
+ * {@link #getSlowQueryThreshold()} is logged as a warning, and every query is logged with its duration when the debug
+ * mode of {@link Log} is enabled.
+ * <p>
+ * Get the instance using {@link DB#getMetrics()}.
+ */
+public final class DBMetrics {
+
+    /**
+     * The default duration above which a query is logged as slow.
+     */
+    public static final Duration DEFAULT_SLOW_QUERY_THRESHOLD = Duration.ofMillis(500);
+
+    private static final int MAX_PARSED_QUERIES = 4096;
+    private static final Pattern TABLE_PATTERN = Pattern.compile(
+            "\\b(?:FROM|INTO|UPDATE|TRUNCATE(?:\\s+TABLE)?|TABLE(?:\\s+IF\\s+NOT\\s+EXISTS)?)\\s+`?([\\w$]+)`?", Pattern.CASE_INSENSITIVE);
+
+    private final Map<QueryKey, QueryStats> queryStats = new ConcurrentHashMap<>();
+    private final Map<String, QueryKey> parsedQueries = new ConcurrentHashMap<>();
+    private volatile long slowQueryThresholdNanos = DEFAULT_SLOW_QUERY_THRESHOLD.toNanos();
+
+    /* package */ DBMetrics() {}
+
+    /**
+     * Sets the duration above which a query is logged as slow.
+     * @param threshold the new threshold.
+     */
+    public void setSlowQueryThreshold(Duration threshold) {
+        slowQueryThresholdNanos = threshold.toNanos();
+    }
+
+    /**
+     * Gets the duration above which a query is logged as slow.
+     * @return the current threshold.
+     */
+    public Duration getSlowQueryThreshold() {
+        return Duration.ofNanos(slowQueryThresholdNanos);
+    }
+
+    /**
+     * Gets the metrics of the queries, grouped by table and operation.
+     * @return an unmodifiable view of the metrics of the queries.
+     */
+    public Map<QueryKey, QueryStats> getQueryStats() {
+        return Collections.unmodifiableMap(queryStats);
+    }
+
+    /**
+     * Gets the metrics of the queries of the provided table and operation.
+     * @param table the name of the table in the database, including the prefix.
+     * @param operation the operation.
+     * @return the metrics of the queries, or null if no query was recorded for this table and operation.
+     */
+    public QueryStats getQueryStats(String table, Operation operation) {
+        return queryStats.get(new QueryKey(table, operation));
+    }
+
+    /**
+     * Removes all the recorded query metrics. The metrics of the connection pool are not reset.
+     */
+    public void reset() {
+        queryStats.clear();
+    }
+
+    /**
+     * Formats the metrics of the connection pool and of the queries, into human-readable lines of text.
+     * @return the lines of text.
+     */
+    public List<String> dump() {
+        List<String> lines = new ArrayList<>();
+        DBConnection connection = DB.getConnection();
+        if (connection != null) {
+            lines.add("Connection pool: active=" + connection.getActiveConnections()
+                    + " idle=" + connection.getIdleConnections()
+                    + " max=" + connection.getMaxPoolSize());
+            lines.add("  borrow wait: " + connection.getBorrowWaitHistogram());
+        }
+        lines.add("Query cache: " + DB.getQueryCache());
+        lines.add("Queries (slow query threshold: " + formatDuration(getSlowQueryThreshold()) + "):");
+        queryStats.entrySet().stream()
+                .sorted(Map.Entry.comparingByValue(Comparator.comparing((QueryStats s) -> s.getLatency().getTotal()).reversed()))
+                .forEach(e -> lines.add("  " + e.getKey().table() + " " + e.getKey().operation() + ": "
+                        + e.getValue().getLatency() + " rows=" + e.getValue().getRowCount()));
+        return lines;
+    }
+
+    @Override
+    public String toString() {
+        return String.join("\n", dump());
+    }
+
+
+
+    /**
+     * Records the execution of a query.
+     * @param sql the SQL text of the query, used to find its table and operation.
+     * @param statement the executed statement, used for logging.
+     * @param durationNanos the duration of the query, in nanoseconds.
+     * @param rows the number of rows returned or affected by the query, or -1 if unknown.
+     */
+    /* package */ void recordQuery(String sql, Statement statement, long durationNanos, long rows) {
+        QueryStats stats = queryStats.computeIfAbsent(parse(sql), k -> new QueryStats());
+        stats.latency.record(durationNanos);
+        if (rows > 0)
+            stats.rows.add(rows);
+
+        if (durationNanos >= slowQueryThresholdNanos)
+            Log.warning("[DB] Slow query (" + formatDuration(Duration.ofNanos(durationNanos)) + ", "
+                    + rows + " rows): " + (statement == null ? sql : statement.toString()));
+        else if (Log.isDebugEnabled())
+            Log.debug("[DB] " + formatDuration(Duration.ofNanos(durationNanos)) + ", " + rows + " rows: "
+                    + (statement == null ? sql : statement.toString()));
+    }
+
+    private QueryKey parse(String sql) {
+        QueryKey key = parsedQueries.get(sql);
+        if (key != null)
+            return key;
+        Matcher m = TABLE_PATTERN.matcher(sql);
+        key = new QueryKey(m.find() ? m.group(1) : "?", Operation.of(sql));
+        if (parsedQueries.size() >= MAX_PARSED_QUERIES)
+            parsedQueries.clear();
+        parsedQueries.put(sql, key);
+        return key;
+    }
+
+    /* package */ static String formatDuration(Duration d) {
+        long nanos = d.toNanos();
+        if (nanos < 1_000_000)
+            return String.format(Locale.ROOT, "%.1fµs", nanos / 1_000d);
+        if (nanos < 1_000_000_000)
+            return String.format(Locale.ROOT, "%.1fms", nanos / 1_000_000d);
+        return String.format(Locale.ROOT, "%.2fs", nanos / 1_000_000_000d);
+    }
+
+
+
+    /**
+     * The type of SQL queries.
+     */
+    public enum Operation {
+        /** A {@code SELECT} query. */
+        SELECT,
+        /** An {@code INSERT} query. */
+        INSERT,
+        /** An {@code UPDATE} query. */
+        UPDATE,
+        /** A {@code DELETE} or {@code TRUNCATE} query. */
+        DELETE,
+        /** Any other query. */
+        OTHER;
+
+        private static Operation of(String sql) {
+            String s = sql.stripLeading();
+            int end = 0;
+            while (end < s.length() && Character.isLetter(s.charAt(end)))
+                end++;
+            return switch (s.substring(0, end).toUpperCase(Locale.ROOT)) {
+                case "SELECT" -> SELECT;
+                case "INSERT", "REPLACE" -> INSERT;
+                case "UPDATE" -> UPDATE;
+                case "DELETE", "TRUNCATE" -> DELETE;
+                default -> OTHER;
+            };
+        }
+    }
+
+    /**
+     * Identifies a group of queries in the metrics.
+     * @param table the name of the table in the database, including the prefix, or {@code "?"} if it is unknown.
+     * @param operation the type of query.
+     */
+    public record QueryKey(String table, Operation operation) { }
+
+    /**
+     * The metrics of a group of queries.
+     */
+    public static final class QueryStats {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder rows = new LongAdder();
+
+        private QueryStats() {}
+
+        /**
+         * Gets the latency histogram of the queries.
+         * @return the latency histogram of the queries.
+         */
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        /**
+         * Gets the total number of rows returned or affected by the queries.
+         * @return the total number of rows returned or affected by the queries.
+         */
+        public long getRowCount() {
+            return rows.sum();
+        }
+    }
+
+}
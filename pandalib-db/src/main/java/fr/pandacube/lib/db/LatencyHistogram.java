@@ -0,0 +1,122 @@
+package fr.pandacube.lib.db;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread-safe histogram of durations, with buckets of exponentially growing size.
+ * <p>
+ * The bucket {@code i} counts the durations between 2<sup>i-1</sup> (inclusive) and 2<sup>i</sup> (exclusive)
+ * microseconds, so the percentiles returned by {@link #getPercentile(double)} are approximated by the upper bound of
+ * the bucket they fall into.
+ */
+public final class LatencyHistogram {
+
+    private static final int BUCKET_COUNT = 40;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKET_COUNT];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    /* package */ LatencyHistogram() {
+        for (int i = 0; i < BUCKET_COUNT; i++)
+            buckets[i] = new LongAdder();
+    }
+
+    /**
+     * Adds a duration to this histogram.
+     * @param nanos the duration, in nanoseconds.
+     */
+    /* package */ void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        int bucket = Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(micros));
+        buckets[bucket].increment();
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+    }
+
+    /**
+     * Gets the number of durations added to this histogram.
+     * @return the number of durations added to this histogram.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Gets the sum of all the durations added to this histogram.
+     * @return the sum of all the durations added to this histogram.
+     */
+    public Duration getTotal() {
+        return Duration.ofNanos(totalNanos.sum());
+    }
+
+    /**
+     * Gets the average of the durations added to this histogram.
+     * @return the average duration, or {@link Duration#ZERO} if this histogram is empty.
+     */
+    public Duration getMean() {
+        long c = count.sum();
+        return c == 0 ? Duration.ZERO : Duration.ofNanos(totalNanos.sum() / c);
+    }
+
+    /**
+     * Gets the longest duration added to this histogram.
+     * @return the longest duration added to this histogram.
+     */
+    public Duration getMax() {
+        return Duration.ofNanos(maxNanos.get());
+    }
+
+    /**
+     * Gets an approximation of the provided percentile of the durations added to this histogram.
+     * @param percentile the percentile, between 0 and 100.
+     * @return the upper bound of the bucket containing the percentile, or {@link Duration#ZERO} if this histogram is
+     *         empty.
+     */
+    public Duration getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100)
+            throw new IllegalArgumentException("percentile must be between 0 and 100");
+        long[] counts = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets[i].sum();
+            total += counts[i];
+        }
+        if (total == 0)
+            return Duration.ZERO;
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long cumulated = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            cumulated += counts[i];
+            if (cumulated >= rank && counts[i] > 0)
+                return Duration.ofNanos(Math.min(maxNanos.get(), (1L << i) * 1000));
+        }
+        return getMax();
+    }
+
+    /**
+     * Removes all the durations from this histogram.
+     */
+    public void reset() {
+        for (LongAdder bucket : buckets)
+            bucket.reset();
+        count.reset();
+        totalNanos.reset();
+        maxNanos.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount()
+                + " mean=" + DBMetrics.formatDuration(getMean())
+                + " p50=" + DBMetrics.formatDuration(getPercentile(50))
+                + " p95=" + DBMetrics.formatDuration(getPercentile(95))
+                + " p99=" + DBMetrics.formatDuration(getPercentile(99))
+                + " max=" + DBMetrics.formatDuration(getMax());
+    }
+
+}
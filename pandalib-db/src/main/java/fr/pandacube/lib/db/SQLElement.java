@@ -92,8 +92,8 @@ public abstract class SQLElement<E extends SQLElement<E>> {
         else
             fields = (SQLFieldMap<E>) fieldsCache.get(getClass());
 
-        values = new LinkedHashMap<>(fields.size());
-        modifiedSinceLastSave = new HashSet<>(fields.size());
+        values = LinkedHashMap.newLinkedHashMap(fields.size());
+        modifiedSinceLastSave = HashSet.newHashSet(fields.size());
 
         initDefaultValues(defaultValuesSetModified);
     }
@@ -220,10 +220,10 @@ public abstract class SQLElement<E extends SQLElement<E>> {
         return (E) this;
     }
 
-    /* package */ <T> void set(SQLField<E, T> sqlField, T value, boolean setModified) {
+    /* package */ synchronized <T> void set(SQLField<E, T> sqlField, T value, boolean setModified) {
         if (sqlField == null)
             throw new IllegalArgumentException("sqlField can't be null");
-        if (!fields.containsValue(sqlField)) // should not append at runtime because of generic type check at compilation
+        if (!sqlField.equals(fields.get(sqlField.getName()))) // should not append at runtime because of generic type check at compilation
             throw new IllegalStateException("In the table "+getClass().getName()+ ": the field asked for modification is not initialized properly.");
 
         if (value == null) {
@@ -253,6 +253,27 @@ public abstract class SQLElement<E extends SQLElement<E>> {
         }
     }
 
+    /**
+     * Sets a value read from the database, without marking it as modified.
+     * Unlike {@link #set(SQLField, Object, boolean)}, this method assumes that the field is from this table, which is
+     * ensured by {@link SQLRowMapper}.
+     * @param sqlField the field to set.
+     * @param value the value read from the database.
+     */
+    /* package */ void setFromDB(SQLField<E, ?> sqlField, Object value) {
+        if (value == null) {
+            if (!sqlField.nullable)
+                throw new IllegalArgumentException(
+                        "SQLField '" + sqlField.getName() + "' of " + getClass().getName() + " is a NOT NULL field");
+        }
+        else if (!sqlField.type.isInstance(value)) {
+            throw new IllegalArgumentException("SQLField '" + sqlField.getName() + "' of " + getClass().getName()
+                    + " type is '" + sqlField.type + "' and can't accept values of type "
+                    + value.getClass().getName());
+        }
+        values.put(sqlField, value);
+    }
+
     /**
      * Gets the value of the provided field in this entry.
      * @param field the field to get the value from.
@@ -318,7 +339,7 @@ public abstract class SQLElement<E extends SQLElement<E>> {
         return values.keySet().containsAll(fields.values());
     }
 
-    private Map<SQLField<E, ?>, Object> getOnlyModifiedValues() {
+    /* package */ Map<SQLField<E, ?>, Object> getOnlyModifiedValues() {
         Map<SQLField<E, ?>, Object> modifiedValues = new LinkedHashMap<>();
         values.forEach((k, v) -> {
             if (modifiedSinceLastSave.contains(k.getName())) modifiedValues.put(k, v);
@@ -350,11 +371,7 @@ public abstract class SQLElement<E extends SQLElement<E>> {
         try {
 
             if (stored) { // update in database
-                // restore the id field to its real value in case it was modified using #set(...)
-                values.put(fields.get("id"), id);
-                modifiedSinceLastSave.remove("id");
-
-                Map<SQLField<E, ?>, Object> modifiedValues = getOnlyModifiedValues();
+                Map<SQLField<E, ?>, Object> modifiedValues = prepareForUpdate();
 
                 if (modifiedValues.isEmpty()) return (E) this;
 
@@ -380,31 +397,79 @@ public abstract class SQLElement<E extends SQLElement<E>> {
                     psValues.add(entry.getKey().fromJavaTypeToJDBCType(entry.getValue()));
                 }
 
+                String sql = "INSERT INTO " + DB.tablePrefix + tableName() + "  (" + concatFields + ") VALUES (" + concatValues + ")";
                 try (Connection c = db.getConnection();
-                     PreparedStatement ps = c.prepareStatement("INSERT INTO " + DB.tablePrefix + tableName() + "  (" + concatFields + ") VALUES (" + concatValues + ")",
-                             Statement.RETURN_GENERATED_KEYS)) {
+                     PreparedStatement ps = c.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
 
                     int i = 1;
                     for (Object val : psValues)
                         ps.setObject(i++, val);
 
+                    long start = System.nanoTime();
                     ps.executeUpdate();
+                    DB.getMetrics().recordQuery(sql, ps, System.nanoTime() - start, 1);
 
                     try (ResultSet rs = ps.getGeneratedKeys()) {
                         if (rs.next()) id = rs.getInt(1);
                         stored = true;
+                        values.put(fields.get("id"), id);
                     }
                 }
 
             }
 
             modifiedSinceLastSave.clear();
+            DB.updateCachedEntry((E) this);
         } catch (SQLException e) {
             throw new DBException("Error while saving data", e);
         }
         return (E) this;
     }
 
+    /**
+     * Queues this entry to be saved later by the write-behind queue, instead of saving it now.
+     * The modifications of this entry done until it is actually saved are merged and sent in a single query.
+     * See {@link SQLWriteBehindQueue} for more details.
+     * @return this.
+     * @throws IllegalStateException if the write-behind queue is not enabled (see
+     *         {@link DB#enableWriteBehind(java.time.Duration, int)}).
+     */
+    @SuppressWarnings("unchecked")
+    public E saveLater() {
+        if (!isValidForSave())
+            throw new IllegalStateException(this + " has at least one undefined value and can't be saved.");
+        SQLWriteBehindQueue queue = DB.getWriteBehindQueue();
+        if (queue == null)
+            throw new IllegalStateException("The write-behind queue is not enabled.");
+        queue.add(this);
+        return (E) this;
+    }
+
+    /**
+     * Restores the id field to its real value, in case it was modified using {@link #set(SQLField, Object)}, then
+     * returns the values that have to be sent in an {@code UPDATE} query.
+     * @return the values modified since the last save.
+     */
+    /* package */ Map<SQLField<E, ?>, Object> prepareForUpdate() {
+        values.put(fields.get("id"), id);
+        modifiedSinceLastSave.remove("id");
+        return getOnlyModifiedValues();
+    }
+
+    /**
+     * Marks this entry as stored in the database, with the provided id.
+     * Used by bulk insertions that retrieve the generated ids by themselves.
+     * @param newId the id generated by the database.
+     * @param insertedValues the values that were inserted. The fields whose value changed since are kept as modified.
+     */
+    /* package */ void markAsStored(int newId, Map<SQLField<E, ?>, Object> insertedValues) {
+        id = newId;
+        stored = true;
+        values.put(fields.get("id"), newId);
+        modifiedSinceLastSave.removeIf(name -> name.equals("id")
+                || Objects.equals(values.get(fields.get(name)), insertedValues.get(fields.get(name))));
+    }
+
     /**
      * Tells if this entry is currently stored in DB or not.
      * @return true if this entry is currently stored in DB, or false otherwise.
@@ -435,6 +500,9 @@ public abstract class SQLElement<E extends SQLElement<E>> {
      * @throws DBException if an error occurs when interacting with the database.
      */
     public void delete() throws DBException {
+        SQLWriteBehindQueue queue = DB.getWriteBehindQueue();
+        if (queue != null)
+            queue.remove(this);
         if (stored) {
             DB.delete(getCheckedClass(), getIdField().eq(id));
             markAsNotStored();
@@ -0,0 +1,143 @@
+package fr.pandacube.lib.db;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+/**
+ * A read cache of the entries of a table, mapped from their id.
+ * <p>
+ * The cache stores an immutable snapshot of the values of each entry, and a new instance is created from the snapshot
+ * each time the entry is read from the cache, so the modifications of an instance are not visible in the cache until
+ * it is saved.
+ * <p>
+ * Use {@link DB#enableCache(Class, long, Duration)} to enable the cache of a table. Then, {@link DB#getById(Class, int)}
+ * and {@link DB#getFirst(Class, SQLWhere)} with a condition on the id (like {@code idField.eq(id)}) use the cache.
+ * The cache entries are updated by {@link SQLElement#save()} and the other save methods, and invalidated by
+ * {@link SQLElement#delete()}, {@link DB#delete(Class, SQLWhere)} and {@link SQLUpdateBuilder#execute()}. The queries
+ * executed with {@link DB#customUpdateStatement(String, java.util.List)} are not tracked, so {@link #invalidateAll()} must be
+ * called after modifying a cached table this way.
+ * <p>
+ * An entry read from the database by {@link DB#getFirst(Class, SQLWhere)} is only added to the cache if no entry of
+ * the table was updated or invalidated during the query, so a concurrent save is not overwritten by the value read
+ * before it.
+ * @param <E> the table type.
+ */
+public final class SQLElementCache<E extends SQLElement<E>> {
+
+    private final SQLRowMapper.IdConstructor<E> constructor;
+    private final Cache<Integer, Map<SQLField<E, ?>, Object>> snapshots;
+    private long writeVersion = 0; // guarded by this
+
+    /* package */ SQLElementCache(Class<E> elemClass, long maximumSize, Duration expireAfterWrite) throws DBException {
+        constructor = SQLRowMapper.IdConstructor.of(elemClass);
+        snapshots = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWrite)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Gets a new instance of the entry with the provided id, from its cached snapshot.
+     * @param id the id of the entry.
+     * @return a new instance of the entry, or null if the entry is not in the cache.
+     * @throws DBException if the entry cannot be instantiated.
+     */
+    /* package */ E get(int id) throws DBException {
+        Map<SQLField<E, ?>, Object> snapshot = snapshots.getIfPresent(id);
+        if (snapshot == null)
+            return null;
+        E instance = constructor.newInstance(id);
+        try {
+            snapshot.forEach(instance::setFromDB);
+        } catch (IllegalArgumentException e) {
+            throw new DBException("Can't instantiate " + instance.getClass().getName() + " from the cache", e);
+        }
+        return instance;
+    }
+
+    /**
+     * Gets the current write version of this cache, to be provided to {@link #putIfNotWritten(SQLElement, long)} after
+     * reading an entry from the database.
+     * @return the current write version of this cache.
+     */
+    /* package */ synchronized long getWriteVersion() {
+        return writeVersion;
+    }
+
+    /**
+     * Puts a snapshot of the values of the provided entry in the cache.
+     * @param element the entry, that must be stored in the database.
+     */
+    /* package */ synchronized void put(E element) {
+        writeVersion++;
+        putSnapshot(element);
+    }
+
+    /**
+     * Puts a snapshot of the values of the provided entry in the cache, if no entry was put or invalidated since
+     * {@link #getWriteVersion()} returned the provided version, and if the entry is not already in the cache.
+     * @param element the entry, that was read from the database.
+     * @param loadVersion the write version of this cache before reading the entry from the database.
+     */
+    /* package */ synchronized void putIfNotWritten(E element, long loadVersion) {
+        Integer id = element.getId();
+        if (writeVersion != loadVersion || id == null)
+            return;
+        snapshots.asMap().putIfAbsent(id, snapshotOf(element));
+    }
+
+    private void putSnapshot(E element) {
+        Integer id = element.getId();
+        if (id == null)
+            return;
+        snapshots.put(id, snapshotOf(element));
+    }
+
+    private Map<SQLField<E, ?>, Object> snapshotOf(E element) {
+        Map<SQLField<E, ?>, Object> snapshot = new HashMap<>(element.getValues());
+        snapshot.remove(element.getIdField());
+        return Collections.unmodifiableMap(snapshot);
+    }
+
+    /**
+     * Removes the entries with the provided ids from the cache.
+     * @param ids the ids of the entries to remove.
+     */
+    /* package */ synchronized void invalidate(Collection<Integer> ids) {
+        writeVersion++;
+        snapshots.invalidateAll(ids);
+    }
+
+    /**
+     * Removes all the entries from the cache.
+     */
+    public synchronized void invalidateAll() {
+        writeVersion++;
+        snapshots.invalidateAll();
+    }
+
+    /**
+     * Gets the approximate number of entries in this cache.
+     * @return the approximate number of entries in this cache.
+     */
+    public long size() {
+        return snapshots.size();
+    }
+
+    /**
+     * Gets the statistics of this cache, including the hit, miss and eviction counts.
+     * @return the statistics of this cache.
+     */
+    public CacheStats stats() {
+        return snapshots.stats();
+    }
+
+}
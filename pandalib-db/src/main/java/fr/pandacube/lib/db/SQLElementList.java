@@ -2,6 +2,7 @@ package fr.pandacube.lib.db;
 
 import java.sql.PreparedStatement;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -86,6 +87,40 @@ public class SQLElementList<E extends SQLElement<E>> extends ArrayList<E> {
         return ret;
     }
 
+    /**
+     * Saves all the entries of this list into the database, using as few queries as possible.
+     * <p>
+     * The entries that are not yet stored in the database are inserted using multi-row {@code INSERT} queries (see
+     * {@link DB#insertAll(Collection, int)}), and the stored entries that have been modified are updated using batched
+     * {@code UPDATE} queries (see {@link DB#updateAll(Collection, int)}). Each query or batch contains at most
+     * {@link DB#DEFAULT_BATCH_SIZE} entries.
+     * <p>
+     * The changes made with {@link #setCommon(SQLField, Object)} are not applied by this method. Use
+     * {@link #saveCommon()} instead.
+     * @throws DBException if an error occurs when interacting with the database.
+     */
+    public synchronized void saveAll() throws DBException {
+        saveAll(DB.DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Saves all the entries of this list into the database, using as few queries as possible.
+     * <p>
+     * The entries that are not yet stored in the database are inserted using multi-row {@code INSERT} queries (see
+     * {@link DB#insertAll(Collection, int)}), and the stored entries that have been modified are updated using batched
+     * {@code UPDATE} queries (see {@link DB#updateAll(Collection, int)}).
+     * <p>
+     * The changes made with {@link #setCommon(SQLField, Object)} are not applied by this method. Use
+     * {@link #saveCommon()} instead.
+     * @param batchSize the maximum number of entries sent in each query or batch.
+     * @throws DBException if an error occurs when interacting with the database.
+     */
+    public synchronized void saveAll(int batchSize) throws DBException {
+        // updates first, so the newly inserted entries are not considered for update
+        DB.updateAll(this, batchSize);
+        DB.insertAll(this, batchSize);
+    }
+
     @SuppressWarnings("unchecked")
     private void applyNewValuesToElements(List<E> storedEl) {
         // applique les valeurs dans chaque objet de la liste
@@ -129,6 +164,8 @@ public class SQLElementList<E extends SQLElement<E>> extends ArrayList<E> {
 
     /**
      * Get all the entries targeted by the foreign key of all the entries in this list.
+     * If the entries of this list reference more than {@link DB#IN_CHUNK_SIZE} distinct values, the foreign entries are
+     * fetched using several queries, some of them executed in parallel.
      * @param foreignKey a foreign key of this table.
      * @param orderBy the {@code ORDER BY} clause of the query.
      * @return a list of foreign table entries targeted by the provided foreign key of this table.
@@ -143,7 +180,7 @@ public class SQLElementList<E extends SQLElement<E>> extends ArrayList<E> {
                 .collect(Collectors.toSet());
         return values.isEmpty()
                 ? new SQLElementList<>()
-                : DB.getAll(foreignKey.getForeignElementClass(), foreignKey.getPrimaryField().in(values), orderBy, null, null);
+                : DB.getAllIn(foreignKey.getForeignElementClass(), values, foreignKey.getPrimaryField()::in, orderBy, null, null);
     }
 
 
@@ -168,6 +205,8 @@ public class SQLElementList<E extends SQLElement<E>> extends ArrayList<E> {
     /**
      * Gets all the original table’s entries which the provided foreign key is targeting the entries of this list, and
      * following the provided {@code ORDER BY}, {@code LIMIT} and {@code OFFSET} clauses.
+     * If the entries of this list have more than {@link DB#IN_CHUNK_SIZE} distinct values for the referenced field, the
+     * original table’s entries are fetched using several queries, some of them executed in parallel.
      * @param foreignKey a foreign key in the original table.
      * @param orderBy the {@code ORDER BY} clause of the query.
      * @param limit the {@code LIMIT} clause of the query.
@@ -184,7 +223,7 @@ public class SQLElementList<E extends SQLElement<E>> extends ArrayList<E> {
                 .collect(Collectors.toSet());
         return values.isEmpty()
                 ? new SQLElementList<>()
-                : DB.getAll(foreignKey.getSQLElementType(), foreignKey.in(values), orderBy, limit, offset);
+                : DB.getAllIn(foreignKey.getSQLElementType(), values, foreignKey::in, orderBy, limit, offset);
     }
 
 
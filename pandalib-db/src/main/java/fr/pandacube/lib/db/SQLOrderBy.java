@@ -1,6 +1,7 @@
 package fr.pandacube.lib.db;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -68,6 +69,32 @@ public class SQLOrderBy<E extends SQLElement<E>> {
                 .collect(Collectors.joining(", "));
     }
 
+    /**
+     * Gets a value identifying the SQL text generated by {@link #toSQL()}, without building it.
+     * @return the shape of this expression, to be used as a key in {@link SQLQueryCache}.
+     */
+    /* package */ Object getShape() {
+        return List.copyOf(orderByFields);
+    }
+
+    /**
+     * Creates a comparator that sorts the entries like this {@code ORDER BY} expression, using the natural order of the
+     * values. The null values are sorted first in the ascending order, like in MySQL.
+     * @return a comparator of entries.
+     */
+    /* package */ Comparator<E> toComparator() {
+        Comparator<E> comparator = null;
+        for (OBField<E> f : orderByFields) {
+            @SuppressWarnings("unchecked")
+            Comparator<E> fieldComparator = Comparator.comparing(e -> (Comparable<Object>) e.get(f.field),
+                    Comparator.nullsFirst(Comparator.naturalOrder()));
+            if (f.direction == Direction.DESC)
+                fieldComparator = fieldComparator.reversed();
+            comparator = comparator == null ? fieldComparator : comparator.thenComparing(fieldComparator);
+        }
+        return comparator == null ? (a, b) -> 0 : comparator;
+    }
+
     @Override
     public String toString() {
         return toSQL();
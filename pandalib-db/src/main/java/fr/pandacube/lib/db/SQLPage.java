@@ -0,0 +1,84 @@
+package fr.pandacube.lib.db;
+
+import java.util.NoSuchElementException;
+
+/**
+ * A page of entries returned by {@link DB#pageAfter(Class, SQLWhere, SQLField, boolean, Token, int)}.
+ * <p>
+ * Unlike the pagination using the {@code LIMIT} and {@code OFFSET} clauses, the next page is selected using the values
+ * of the last entry of this page (the continuation token), so the database does not have to read and skip all the
+ * previous entries, and the cost of fetching a page does not depend on its position.
+ * @param <E> the table type.
+ * @param <T> the Java type of the field used to order the entries.
+ */
+public final class SQLPage<E extends SQLElement<E>, T> {
+
+    private final Class<E> elemClass;
+    private final SQLWhere<E> where;
+    private final SQLField<E, T> orderField;
+    private final boolean descending;
+    private final int pageSize;
+
+    private final SQLElementList<E> entries;
+    private final boolean hasNext;
+
+    /* package */ SQLPage(Class<E> elemClass, SQLWhere<E> where, SQLField<E, T> orderField, boolean descending, int pageSize, SQLElementList<E> entries, boolean hasNext) {
+        this.elemClass = elemClass;
+        this.where = where;
+        this.orderField = orderField;
+        this.descending = descending;
+        this.pageSize = pageSize;
+        this.entries = entries;
+        this.hasNext = hasNext;
+    }
+
+    /**
+     * Gets the entries of this page.
+     * @return the entries of this page.
+     */
+    public SQLElementList<E> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Tells if there are more entries after this page.
+     * @return true if there are more entries after this page, false otherwise.
+     */
+    public boolean hasNext() {
+        return hasNext;
+    }
+
+    /**
+     * Gets the token to use to get the page following this page.
+     * @return the continuation token, or null if there is no more entries after this page.
+     */
+    public Token<T> getContinuationToken() {
+        if (!hasNext)
+            return null;
+        E last = entries.getLast();
+        return new Token<>(last.get(orderField), last.getId());
+    }
+
+    /**
+     * Fetches the page following this page, with the same parameters.
+     * @return the next page.
+     * @throws DBException if an error occurs when interacting with the database.
+     * @throws NoSuchElementException if there is no more entries after this page.
+     */
+    public SQLPage<E, T> next() throws DBException {
+        if (!hasNext)
+            throw new NoSuchElementException("There is no more entries after this page.");
+        return DB.pageAfter(elemClass, where, orderField, descending, getContinuationToken(), pageSize);
+    }
+
+
+    /**
+     * The position of the last entry of a page, used to get the following page.
+     * @param value the value of the order field of the last entry.
+     * @param id the id of the last entry, used to order the entries having the same value. If null, the entries having
+     *           the same value as the last entry are skipped, which is correct only if the order field is unique.
+     * @param <T> the Java type of the field used to order the entries.
+     */
+    public record Token<T>(T value, Integer id) { }
+
+}
@@ -0,0 +1,119 @@
+package fr.pandacube.lib.db;
+
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * A cache of the SQL text of the queries generated by the {@link DB} class.
+ * <p>
+ * The queries are identified by their shape: the kind of query, the table, the structure of the {@code WHERE} and
+ * {@code ORDER BY} expressions (see {@link SQLWhere#getShape()} and {@link SQLOrderBy#getShape()}), and the presence of
+ * the {@code LIMIT} and {@code OFFSET} clauses, whose values are bound as parameters. On a cache hit, the SQL text is
+ * not built at all, and the same {@link String} instance is reused, so the pooled prepared statements of
+ * {@link DBConnection} are found efficiently, whatever the values of the parameters (including the page requested
+ * with {@code LIMIT} and {@code OFFSET}).
+ * <p>
+ * The cache is bounded to {@link #MAX_SIZE} entries, the least recently used ones being evicted first.
+ */
+public final class SQLQueryCache {
+
+    /**
+     * The maximum number of query shapes kept in this cache.
+     */
+    public static final int MAX_SIZE = 4096;
+
+    private final Cache<QueryShape, String> queries = CacheBuilder.newBuilder()
+            .maximumSize(MAX_SIZE)
+            .build();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /* package */ SQLQueryCache() {}
+
+    /**
+     * Gets the SQL text of a query with the provided shape, building it if it is not cached yet.
+     * The parameters of the query are those provided by {@link SQLWhere#collectParameters(List)}, followed by the
+     * {@code LIMIT} value and the {@code OFFSET} value, if present.
+     * @param operation the SQL operation, like {@code "SELECT *"}, {@code "SELECT COUNT(*) AS count"} or
+     *                  {@code "DELETE"}.
+     * @param tableName the name of the table in the database.
+     * @param where the {@code WHERE} expression, or null if none.
+     * @param orderBy the {@code ORDER BY} expression, or null if none.
+     * @param limit true if the query has a {@code LIMIT} clause.
+     * @param offset true if the query has an {@code OFFSET} clause.
+     * @return the SQL text of the query.
+     * @throws DBException if the {@code WHERE} expression is invalid.
+     */
+    /* package */ String get(String operation, String tableName, SQLWhere<?> where, SQLOrderBy<?> orderBy, boolean limit, boolean offset) throws DBException {
+        QueryShape shape = new QueryShape(operation, tableName,
+                where == null ? null : where.getShape(),
+                orderBy == null ? null : orderBy.getShape(),
+                limit, offset);
+        String sql = queries.getIfPresent(shape);
+        if (sql != null) {
+            hits.increment();
+            return sql;
+        }
+        misses.increment();
+        sql = toSQL(operation, tableName, where, orderBy, limit, offset);
+        String concurrentSql = queries.asMap().putIfAbsent(shape, sql);
+        return concurrentSql != null ? concurrentSql : sql;
+    }
+
+    private static String toSQL(String operation, String tableName, SQLWhere<?> where, SQLOrderBy<?> orderBy, boolean limit, boolean offset) throws DBException {
+        StringBuilder sql = new StringBuilder(operation).append(" FROM ").append(tableName);
+        if (where != null)
+            sql.append(" WHERE ").append(where.toSQL().sqlString());
+        if (orderBy != null)
+            sql.append(" ORDER BY ").append(orderBy.toSQL());
+        if (limit)
+            sql.append(" LIMIT ?");
+        if (offset)
+            sql.append(" OFFSET ?");
+        return sql.append(";").toString();
+    }
+
+    /**
+     * Gets the number of queries that were found in this cache.
+     * @return the number of cache hits.
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Gets the number of queries that had to be built because they were not in this cache.
+     * @return the number of cache misses.
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Gets the number of query shapes currently in this cache.
+     * @return the number of query shapes currently in this cache.
+     */
+    public int size() {
+        return (int) queries.size();
+    }
+
+    /**
+     * Removes all the queries from this cache. The hit and miss counters are not reset.
+     */
+    public void clear() {
+        queries.invalidateAll();
+    }
+
+    @Override
+    public String toString() {
+        return "SQLQueryCache{size=" + size() + ", hits=" + getHitCount() + ", misses=" + getMissCount() + "}";
+    }
+
+
+
+    private record QueryShape(String operation, String tableName, Object where, Object orderBy, boolean limit, boolean offset) { }
+
+}
@@ -0,0 +1,178 @@
+package fr.pandacube.lib.db;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Converts the rows of a {@link ResultSet} into instances of a {@link SQLElement} subclass.
+ * <p>
+ * A mapper is created only once for each table class and each column layout of the result sets. All the work that
+ * does not depend on the row itself (getting the column labels, finding the corresponding {@link SQLField}s, resolving
+ * the {@link SQLCustomType} conversions and the constructor to call) is done at that time, so the mapping of each row
+ * only reads the values by column index and puts them into the new instance.
+ * @param <E> the table type.
+ */
+/* package */ final class SQLRowMapper<E extends SQLElement<E>> {
+
+    private static final Map<MapperKey, SQLRowMapper<?>> mappers = new ConcurrentHashMap<>();
+
+    /**
+     * Gets the mapper for the provided table class and the column layout of the provided result set metadata.
+     * @param elemClass the class representing a table.
+     * @param metaData the metadata of the result set to map.
+     * @return the mapper.
+     * @param <E> the table type.
+     * @throws DBException if the mapper cannot be created for the provided table.
+     * @throws SQLException if an error occurs when reading the metadata.
+     */
+    @SuppressWarnings("unchecked")
+    /* package */ static <E extends SQLElement<E>> SQLRowMapper<E> of(Class<E> elemClass, ResultSetMetaData metaData) throws DBException, SQLException {
+        int columnCount = metaData.getColumnCount();
+        List<String> columnLabels = new ArrayList<>(columnCount);
+        for (int c = 1; c <= columnCount; c++) {
+            columnLabels.add(metaData.getColumnLabel(c));
+        }
+
+        MapperKey key = new MapperKey(elemClass, columnLabels);
+        SQLRowMapper<E> mapper = (SQLRowMapper<E>) mappers.get(key);
+        if (mapper == null) {
+            mapper = new SQLRowMapper<>(elemClass, columnLabels);
+            SQLRowMapper<E> concurrentMapper = (SQLRowMapper<E>) mappers.putIfAbsent(key, mapper);
+            if (concurrentMapper != null)
+                mapper = concurrentMapper;
+        }
+        return mapper;
+    }
+
+    private record MapperKey(Class<?> elemClass, List<String> columnLabels) { }
+
+
+
+
+
+    private final IdConstructor<E> constructor;
+    private final int idColumnIndex;
+    private final List<ColumnMapping<E>> columns;
+
+    @SuppressWarnings("unchecked")
+    private SQLRowMapper(Class<E> elemClass, List<String> columnLabels) throws DBException {
+        constructor = IdConstructor.of(elemClass);
+
+        DB.initTable(elemClass);
+        Map<String, SQLField<E, ?>> fields = (Map<String, SQLField<E, ?>>) (Map<String, ?>) SQLElement.fieldsCache.get(elemClass);
+
+        int idIndex = -1;
+        List<ColumnMapping<E>> columnList = new ArrayList<>(columnLabels.size());
+        for (int c = 0; c < columnLabels.size(); c++) {
+            String fieldName = columnLabels.get(c);
+            if (fieldName.equals("id"))
+                idIndex = c + 1;
+
+            // ignore when field is present in database but not handled by SQLElement instance
+            SQLField<E, Object> field = (SQLField<E, Object>) fields.get(fieldName);
+            if (field == null)
+                continue;
+
+            columnList.add(field.type instanceof SQLCustomType<?, ?> customType
+                    ? new ColumnMapping<>(c + 1, field, customType.intermediateJavaType, ((SQLCustomType<Object, Object>) customType).dbToJavaConv)
+                    : new ColumnMapping<>(c + 1, field, field.type.getJavaType(), null));
+        }
+        if (idIndex == -1)
+            throw new DBException("The result set does not contain the column 'id', needed to instantiate " + elemClass.getName());
+
+        idColumnIndex = idIndex;
+        columns = List.copyOf(columnList);
+    }
+
+    /**
+     * Creates a new instance of the table class, from the current row of the provided result set.
+     * @param set the result set, with its cursor on the row to convert.
+     * @return a new instance of the table class.
+     * @throws DBException if the row cannot be converted.
+     */
+    /* package */ E map(ResultSet set) throws DBException {
+        E instance;
+        try {
+            instance = constructor.newInstance(set.getInt(idColumnIndex));
+        } catch (SQLException e) {
+            throw new DBException("Can't instantiate " + constructor.elemClass.getName(), e);
+        }
+
+        try {
+            for (ColumnMapping<E> column : columns) {
+                instance.setFromDB(column.field, column.read(set));
+            }
+        } catch (SQLException | IllegalArgumentException e) {
+            throw new DBException("Can't instantiate " + constructor.elemClass.getName(), e);
+        }
+
+        if (!instance.isValidForSave()) throw new DBException(
+                "This SQLElement representing a database entry is not valid for save : " + instance);
+
+        return instance;
+    }
+
+
+
+    /**
+     * Calls the constructor of a table class that creates an entry already stored in the database, from its id (see
+     * {@link SQLElement#SQLElement(int)}).
+     * @param elemClass the class representing a table.
+     * @param handle the method handle of the constructor.
+     * @param <E> the table type.
+     */
+    /* package */ record IdConstructor<E extends SQLElement<E>>(Class<E> elemClass, MethodHandle handle) {
+
+        /* package */ static <E extends SQLElement<E>> IdConstructor<E> of(Class<E> elemClass) throws DBException {
+            try {
+                Constructor<E> c = elemClass.getDeclaredConstructor(int.class);
+                c.setAccessible(true);
+                return new IdConstructor<>(elemClass, MethodHandles.lookup().unreflectConstructor(c)
+                        .asType(MethodType.methodType(SQLElement.class, int.class)));
+            } catch (ReflectiveOperationException | SecurityException e) {
+                throw new DBException("Can't find the constructor " + elemClass.getName() + "(int)", e);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        /* package */ E newInstance(int id) throws DBException {
+            try {
+                return (E) (SQLElement<?>) handle.invokeExact(id);
+            } catch (Throwable e) {
+                throw new DBException("Can't instantiate " + elemClass.getName(), e);
+            }
+        }
+
+    }
+
+
+
+    private record ColumnMapping<E extends SQLElement<E>>(int index, SQLField<E, Object> field, Class<?> jdbcType, Function<Object, Object> dbToJavaConv) {
+
+        private Object read(ResultSet set) throws SQLException, DBException {
+            Object val = set.getObject(index, jdbcType);
+            if (val == null || set.wasNull())
+                return null;
+            if (dbToJavaConv == null)
+                return val;
+            try {
+                return dbToJavaConv.apply(val);
+            } catch (Exception e) {
+                throw new DBException("Error while converting value of field '" + field.getName() + "' with SQLCustomType from " + jdbcType
+                        + "(JDBC source) to " + field.type.getJavaType() + "(java destination). The original value is '" + val + "'", e);
+            }
+        }
+
+    }
+
+}
@@ -30,6 +30,10 @@ public class SQLUpdateBuilder<E extends SQLElement<E>> {
         values = v;
     }
 
+    /* package */ Class<E> getElemClass() {
+        return elemClass;
+    }
+
     /**
      * Sets the value for the specified field.
      * @param field the field to set.
@@ -86,7 +90,11 @@ public class SQLUpdateBuilder<E extends SQLElement<E>> {
 
         sql.append(";");
 
-        return DB.customUpdateStatement(sql.toString(), params);
+        try {
+            return DB.customUpdateStatement(sql.toString(), params);
+        } finally {
+            DB.invalidateCachedEntries(elemClass, where);
+        }
     }
 
 }
@@ -20,6 +20,30 @@ public abstract class SQLWhere<E extends SQLElement<E>> {
 
     /* package */ abstract ParameterizedSQLString toSQL() throws DBException;
 
+    /**
+     * Gets a value identifying the SQL text generated by {@link #toSQL()}, without building it. Two expressions with
+     * equal shapes generate the same SQL text, with possibly different parameters.
+     * @return the shape of this expression, to be used as a key in {@link SQLQueryCache}.
+     * @throws DBException if this expression is invalid.
+     */
+    /* package */ abstract Object getShape() throws DBException;
+
+    /**
+     * Adds the parameters generated by {@link #toSQL()} to the provided list, without building the SQL text.
+     * @param params the list to add the parameters to.
+     * @throws DBException if this expression is invalid.
+     */
+    /* package */ abstract void collectParameters(List<Object> params) throws DBException;
+
+    /**
+     * Gets the ids of the entries that this expression can be true for, if it can be determined without querying the
+     * database (for instance for {@code id = ?} or {@code id IN (...)}).
+     * @return the ids targeted by this expression, or null if this expression is not limited to specific ids.
+     */
+    /* package */ Collection<Integer> getTargetedIds() {
+        return null;
+    }
+
     @Override
     public String toString() {
         try {
@@ -172,6 +196,40 @@ public abstract class SQLWhere<E extends SQLElement<E>> {
             return new ParameterizedSQLString(sql.toString(), params);
         }
 
+        @Override
+        /* package */ Object getShape() throws DBException {
+            if (conditions.isEmpty()) {
+                throw new DBException("SQLWhereChainBuilder needs at least one element inside !");
+            }
+            List<Object> shape = new ArrayList<>(conditions.size() + 1);
+            shape.add(operator);
+            for (SQLWhere<E> w : conditions)
+                shape.add(w.getShape());
+            return shape;
+        }
+
+        @Override
+        /* package */ void collectParameters(List<Object> params) throws DBException {
+            if (conditions.isEmpty()) {
+                throw new DBException("SQLWhereChainBuilder needs at least one element inside !");
+            }
+            for (SQLWhere<E> w : conditions)
+                w.collectParameters(params);
+        }
+
+        @Override
+        /* package */ Collection<Integer> getTargetedIds() {
+            if (operator != SQLBoolOp.AND)
+                return null;
+            // all the conditions must be true, so the targeted ids of any of them are a superset of the targeted ids
+            for (SQLWhere<E> w : conditions) {
+                Collection<Integer> ids = w.getTargetedIds();
+                if (ids != null)
+                    return ids;
+            }
+            return null;
+        }
+
         /* package */ enum SQLBoolOp {
             /** Equivalent to SQL {@code "AND"}. */
             AND("AND"),
@@ -267,6 +325,25 @@ public abstract class SQLWhere<E extends SQLElement<E>> {
                     List.of(left.fromJavaTypeToJDBCType(right)));
         }
 
+        @Override
+        /* package */ Object getShape() {
+            return new Shape(left.getName(), comp);
+        }
+
+        @Override
+        /* package */ void collectParameters(List<Object> params) throws DBException {
+            params.add(left.fromJavaTypeToJDBCType(right));
+        }
+
+        private record Shape(String fieldName, SQLComparator comp) { }
+
+        @Override
+        /* package */ Collection<Integer> getTargetedIds() {
+            return comp == SQLComparator.EQ && left.getName().equals("id") && right instanceof Integer id
+                    ? List.of(id)
+                    : null;
+        }
+
         /* package */ enum SQLComparator {
             /** Equivalent to SQL {@code "="}. */
             EQ("="),
@@ -331,6 +408,21 @@ public abstract class SQLWhere<E extends SQLElement<E>> {
             return new ParameterizedSQLString("(" + leftExpression + ") IN (" + new String(questions) + ") ", params);
         }
 
+        @Override
+        /* package */ Object getShape() {
+            return new Shape(leftExpression, collectionIn.size());
+        }
+
+        @Override
+        /* package */ void collectParameters(List<Object> params) throws DBException {
+            if (collectionIn.isEmpty())
+                return;
+            params.addAll(leftExpressionParameters);
+            params.addAll(collectionIn);
+        }
+
+        private record Shape(String leftExpression, int size) { }
+
     }
 
 
@@ -351,11 +443,28 @@ public abstract class SQLWhere<E extends SQLElement<E>> {
 
         @Override
         ParameterizedSQLString toSQL() throws DBException {
+            filterCollection();
+            return super.toSQL();
+        }
+
+        @Override
+        /* package */ void collectParameters(List<Object> params) throws DBException {
+            filterCollection();
+            super.collectParameters(params);
+        }
+
+        private void filterCollection() throws DBException {
             if (!collectionFiltered) {
                 collectionIn = field.fromListJavaTypeToJDBCType(collectionIn);
                 collectionFiltered = true;
             }
-            return super.toSQL();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        /* package */ Collection<Integer> getTargetedIds() {
+            // the id field has no custom type, so the values are the same before and after the conversion by toSQL()
+            return field.getName().equals("id") ? (Collection<Integer>) collectionIn : null;
         }
     }
 
@@ -385,6 +494,18 @@ public abstract class SQLWhere<E extends SQLElement<E>> {
             return new ParameterizedSQLString("`" + field.getName() + "` LIKE ? ", params);
         }
 
+        @Override
+        /* package */ Object getShape() {
+            return new Shape(field.getName());
+        }
+
+        @Override
+        /* package */ void collectParameters(List<Object> params) {
+            params.add(likeExpr);
+        }
+
+        private record Shape(String fieldName) { }
+
     }
 
 
@@ -413,6 +534,18 @@ public abstract class SQLWhere<E extends SQLElement<E>> {
             return new ParameterizedSQLString("`" + field.getName() + "` IS " + ((isNull) ? "NULL" : "NOT NULL"), new ArrayList<>());
         }
 
+        @Override
+        /* package */ Object getShape() {
+            return new Shape(field.getName(), isNull);
+        }
+
+        @Override
+        /* package */ void collectParameters(List<Object> params) {
+            // no parameters
+        }
+
+        private record Shape(String fieldName, boolean isNull) { }
+
     }
 
 
@@ -440,6 +573,18 @@ public abstract class SQLWhere<E extends SQLElement<E>> {
             return new ParameterizedSQLString(sqlExpression, parameters);
         }
 
+        @Override
+        /* package */ Object getShape() {
+            return new Shape(sqlExpression);
+        }
+
+        @Override
+        /* package */ void collectParameters(List<Object> params) {
+            params.addAll(parameters);
+        }
+
+        private record Shape(String sqlExpression) { }
+
     }
 
 
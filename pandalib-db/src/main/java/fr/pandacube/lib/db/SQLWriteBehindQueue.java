@@ -0,0 +1,213 @@
+package fr.pandacube.lib.db;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import fr.pandacube.lib.util.log.Log;
+
+/**
+ * A write-behind queue for the entries saved using {@link SQLElement#saveLater()}.
+ * <p>
+ * The queued entries are saved by a background thread, at a fixed interval or as soon as the number of queued entries
+ * reaches a threshold. An entry queued several times before being flushed is saved only once, with all the fields
+ * modified since its last save (see {@link SQLElement#isModified(SQLField)}), so frequent modifications of the same
+ * entries are merged into a few batched {@code UPDATE} queries (see {@link DB#updateAll(java.util.Collection)}).
+ * The new entries are inserted using batched multi-row {@code INSERT} queries (see
+ * {@link DB#insertAll(java.util.Collection)}).
+ * <p>
+ * The entries are tracked by instance, so the modifications of distinct instances of the same database entry are not
+ * merged together. The values of an entry are read by the background thread only while holding the monitor of the
+ * entry, like {@link SQLElement#set(SQLField, Object)} does, so the entry can still be modified while it is queued.
+ * If a flush fails, the entries are kept in the queue and are saved again at the next flush.
+ * <p>
+ * Use {@link DB#enableWriteBehind(Duration, int)} to create the queue, and {@link DB#disableWriteBehind()} when
+ * shutting down the application, to save the queued entries synchronously.
+ */
+public final class SQLWriteBehindQueue implements AutoCloseable {
+
+    private final int sizeThreshold;
+    private final ScheduledExecutorService flusher;
+
+    private final Object queueLock = new Object();
+    private Map<Class<?>, Set<SQLElement<?>>> queue = new LinkedHashMap<>();
+    private int queueSize = 0;
+
+    private final Object flushLock = new Object();
+    private final AtomicBoolean thresholdFlushScheduled = new AtomicBoolean();
+    private volatile boolean closed = false;
+
+    /* package */ SQLWriteBehindQueue(Duration flushInterval, int sizeThreshold) {
+        if (sizeThreshold < 1)
+            throw new IllegalArgumentException("sizeThreshold must be strictly positive");
+        this.sizeThreshold = sizeThreshold;
+        flusher = Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual().name("Pandalib DB write-behind").factory());
+        long intervalMillis = flushInterval.toMillis();
+        flusher.scheduleWithFixedDelay(this::backgroundFlush, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Adds the provided entry to this queue, if it is not already in it.
+     * @param element the entry to save later.
+     * @throws IllegalStateException if this queue is closed.
+     */
+    /* package */ void add(SQLElement<?> element) {
+        if (closed)
+            throw new IllegalStateException("This write-behind queue is closed.");
+        boolean thresholdReached;
+        synchronized (queueLock) {
+            if (queue.computeIfAbsent(element.getClass(), c -> Collections.newSetFromMap(new IdentityHashMap<>())).add(element))
+                queueSize++;
+            thresholdReached = queueSize >= sizeThreshold;
+        }
+        if (thresholdReached && thresholdFlushScheduled.compareAndSet(false, true)) {
+            flusher.execute(() -> {
+                thresholdFlushScheduled.set(false);
+                backgroundFlush();
+            });
+        }
+    }
+
+    /**
+     * Removes the provided entry from this queue, so its pending modifications are not saved.
+     * @param element the entry to remove.
+     */
+    /* package */ void remove(SQLElement<?> element) {
+        synchronized (queueLock) {
+            Set<SQLElement<?>> tableQueue = queue.get(element.getClass());
+            if (tableQueue != null && tableQueue.remove(element))
+                queueSize--;
+        }
+    }
+
+    /**
+     * Gets the number of entries currently waiting to be saved.
+     * @return the number of entries currently waiting to be saved.
+     */
+    public int size() {
+        synchronized (queueLock) {
+            return queueSize;
+        }
+    }
+
+    /**
+     * Saves all the queued entries now, in the current thread.
+     * @throws DBException if an error occurs when interacting with the database. The entries that were not saved are
+     *         kept in the queue.
+     */
+    public void flush() throws DBException {
+        synchronized (flushLock) {
+            Map<Class<?>, Set<SQLElement<?>>> toFlush;
+            synchronized (queueLock) {
+                if (queueSize == 0)
+                    return;
+                toFlush = queue;
+                queue = new LinkedHashMap<>();
+                queueSize = 0;
+            }
+
+            DBException exception = null;
+            for (Set<SQLElement<?>> tableQueue : toFlush.values()) {
+                try {
+                    flushTable(tableQueue);
+                } catch (DBException e) {
+                    if (exception == null)
+                        exception = e;
+                    else
+                        exception.addSuppressed(e);
+                }
+            }
+            if (exception != null)
+                throw exception;
+        }
+    }
+
+    /**
+     * Stops the background thread, then saves all the queued entries in the current thread.
+     * No more entries can be queued after calling this method.
+     * @throws DBException if an error occurs when interacting with the database.
+     */
+    @Override
+    public void close() throws DBException {
+        closed = true;
+        flusher.close();
+        flush();
+    }
+
+
+
+    private void backgroundFlush() {
+        try {
+            flush();
+        } catch (DBException e) {
+            Log.severe("Error while saving the entries of the write-behind queue. They will be saved again at the next flush.", e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <E extends SQLElement<E>> void flushTable(Set<SQLElement<?>> tableQueue) throws DBException {
+        Map<E, Map<SQLField<E, ?>, Object>> modifiedValuesByElement = new IdentityHashMap<>();
+        List<E> newElements = new ArrayList<>();
+        for (SQLElement<?> element : tableQueue) {
+            E e = (E) element;
+            synchronized (e) {
+                if (!e.isStored()) {
+                    newElements.add(e);
+                    continue;
+                }
+                Map<SQLField<E, ?>, Object> modifiedValues = e.prepareForUpdate();
+                if (modifiedValues.isEmpty())
+                    continue;
+                // cleared now so the modifications done during the flush are kept for the next save
+                e.modifiedSinceLastSave.clear();
+                modifiedValuesByElement.put(e, modifiedValues);
+            }
+        }
+
+        Set<E> saved = Collections.newSetFromMap(new IdentityHashMap<>());
+        try {
+            DB.updateModifiedValues(modifiedValuesByElement, DB.DEFAULT_BATCH_SIZE, batch -> {
+                for (E e : batch) {
+                    synchronized (e) {
+                        DB.updateCachedEntry(e);
+                    }
+                }
+                saved.addAll(batch);
+            });
+            DB.insertAll(newElements);
+            saved.addAll(newElements);
+        } catch (DBException ex) {
+            // the batches inserted before the error are marked as stored
+            for (E e : newElements) {
+                if (e.isStored())
+                    saved.add(e);
+            }
+            // mark the unsaved values as modified again, and put the entries back in the queue
+            for (Map.Entry<E, Map<SQLField<E, ?>, Object>> entry : modifiedValuesByElement.entrySet()) {
+                E e = entry.getKey();
+                if (saved.contains(e))
+                    continue;
+                synchronized (e) {
+                    entry.getValue().keySet().forEach(f -> e.modifiedSinceLastSave.add(f.getName()));
+                }
+            }
+            synchronized (queueLock) {
+                for (SQLElement<?> e : tableQueue) {
+                    if (!saved.contains(e) && queue.computeIfAbsent(e.getClass(), c -> Collections.newSetFromMap(new IdentityHashMap<>())).add(e))
+                        queueSize++;
+                }
+            }
+            throw ex;
+        }
+    }
+
+}
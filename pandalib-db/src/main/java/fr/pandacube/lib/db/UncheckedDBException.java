@@ -0,0 +1,24 @@
+package fr.pandacube.lib.db;
+
+/**
+ * Wraps a {@link DBException} with an unchecked exception.
+ * <p>
+ * It is thrown by the API methods that cannot throw a checked exception, like the operations of the streams returned
+ * by {@link DB#stream(Class, SQLWhere, SQLOrderBy, Integer, Integer)}.
+ */
+public class UncheckedDBException extends RuntimeException {
+
+    /* package */ UncheckedDBException(DBException cause) {
+        super(cause);
+    }
+
+    /**
+     * Returns the cause of this exception.
+     * @return the {@link DBException} which is the cause of this exception.
+     */
+    @Override
+    public DBException getCause() {
+        return (DBException) super.getCause();
+    }
+
+}
@@ -0,0 +1,124 @@
+package fr.pandacube.lib.db;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the limit of the asynchronous operations follows the size of the connection pool.
+ */
+public class DBAsyncTest {
+
+    private static DBConnection connection;
+
+    private final AtomicInteger running = new AtomicInteger();
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @BeforeClass
+    public static void initDB() throws DBException {
+        connection = new DBConnection("jdbc:h2:mem:asynctest;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1", "sa", "");
+        DB.init(connection, "asynctest_");
+    }
+
+    @After
+    public void resetPoolSize() {
+        release.countDown();
+        connection.setPoolSize(0, 8, 8);
+    }
+
+    @Test(timeout = 30_000)
+    public void limitFollowsThePoolSize() throws Exception {
+        connection.setPoolSize(0, 2, 2);
+        List<CompletableFuture<Integer>> operations = new ArrayList<>();
+        for (int i = 0; i < 6; i++)
+            operations.add(DB.async().supply(this::blockingOperation));
+        awaitRunning(2);
+
+        connection.setPoolSize(0, 4, 4); // the waiting operations start without waiting for the running ones
+        awaitRunning(4);
+
+        connection.setPoolSize(0, 1, 1); // the running operations are not interrupted
+        Thread.sleep(100);
+        assertEquals(4, running.get());
+
+        release.countDown();
+        for (CompletableFuture<Integer> operation : operations)
+            assertTrue(operation.get(10, TimeUnit.SECONDS) <= 4);
+    }
+
+    @Test(timeout = 30_000)
+    public void smallerPoolLimitsTheNextOperations() throws Exception {
+        connection.setPoolSize(0, 1, 1);
+        List<CompletableFuture<Integer>> operations = new ArrayList<>();
+        for (int i = 0; i < 4; i++)
+            operations.add(DB.async().supply(this::blockingOperation));
+        awaitRunning(1);
+        Thread.sleep(100);
+        assertEquals(1, running.get());
+
+        release.countDown();
+        for (CompletableFuture<Integer> operation : operations)
+            assertEquals(1, (int) operation.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test(timeout = 30_000)
+    public void reInitWithAnotherConnection() throws Exception {
+        DBConnection other = new DBConnection("jdbc:h2:mem:asynctest2;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1", "sa", "");
+        other.setPoolSize(0, 3, 3);
+        List<CompletableFuture<Integer>> operations = new ArrayList<>();
+        try {
+            DB.init(other, "asynctest_");
+            for (int i = 0; i < 5; i++)
+                operations.add(DB.async().supply(this::blockingOperation));
+            awaitRunning(3);
+            connection.setPoolSize(0, 1, 1); // not the current connection anymore
+            other.setPoolSize(0, 5, 5);
+            awaitRunning(5);
+        } finally {
+            release.countDown();
+            DB.init(connection, "asynctest_");
+        }
+        for (CompletableFuture<Integer> operation : operations)
+            operation.get(10, TimeUnit.SECONDS);
+    }
+
+
+
+    /**
+     * Waits for the release of the operations.
+     * @return the number of operations running at the same time, including this one.
+     */
+    private int blockingOperation() throws DBException {
+        int concurrent = running.incrementAndGet();
+        try {
+            if (!release.await(20, TimeUnit.SECONDS))
+                throw new IllegalStateException("Operation not released");
+            return concurrent;
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            running.decrementAndGet();
+        }
+    }
+
+    private void awaitRunning(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (running.get() < count) {
+            assertTrue(running.get() + " operations running instead of " + count, System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+        Thread.sleep(50); // no more than expected
+        assertEquals(count, running.get());
+    }
+
+}
@@ -0,0 +1,204 @@
+package fr.pandacube.lib.db;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the keyset pagination and the chunked {@code IN} queries with the same operations done in memory, on an
+ * in-memory H2 database.
+ */
+public class DBQueryTest {
+
+    private static final int ROW_COUNT = 2500;
+
+    private static DBConnection connection;
+    private static SQLField<Row, Integer> id;
+    private static List<Row> allRows;
+
+    @BeforeClass
+    public static void initDB() throws DBException {
+        connection = new DBConnection("jdbc:h2:mem:querytest;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1", "sa", "");
+        DB.init(connection, "querytest_");
+        DB.customUpdateStatement("CREATE TABLE IF NOT EXISTS querytest_row (`id` INT NOT NULL AUTO_INCREMENT PRIMARY KEY,"
+                + " `score` INT NOT NULL, `label` VARCHAR(16) NOT NULL);", List.of());
+        id = DB.getSQLIdField(Row.class);
+
+        Random random = new Random(42);
+        List<Row> rows = new ArrayList<>();
+        for (int i = 0; i < ROW_COUNT; i++) {
+            rows.add(new Row()
+                    .set(Row.score, random.nextInt(50)) // many entries with the same score
+                    .set(Row.label, "r" + random.nextInt(1000)));
+        }
+        DB.insertAll(rows);
+        allRows = DB.getAll(Row.class, null, SQLOrderBy.asc(id), null, null);
+        assertEquals(ROW_COUNT, allRows.size());
+    }
+
+    @After
+    public void resetPoolSize() {
+        connection.setPoolSize(0, 8, 8);
+        assertEquals(0, DB.inChunkHelpers.get());
+    }
+
+    @Test
+    public void pagesById() throws DBException {
+        List<Integer> seen = new ArrayList<>();
+        SQLPage<Row, Integer> page = DB.pageAfter(Row.class, id, null, 100);
+        while (true) {
+            page.getEntries().forEach(r -> seen.add(r.getId()));
+            if (!page.hasNext())
+                break;
+            page = page.next();
+        }
+        assertEquals(ids(allRows), seen);
+    }
+
+    @Test
+    public void pagesByNonUniqueField() throws DBException {
+        SQLWhere<Row> where = Row.score.lt(10);
+        Comparator<Row> ascending = Comparator.comparing((Row r) -> r.get(Row.score)).thenComparing(Row::getId);
+        for (boolean descending : new boolean[] { false, true }) {
+            List<Row> expected = allRows.stream()
+                    .filter(r -> r.get(Row.score) < 10)
+                    .sorted(descending ? ascending.reversed() : ascending)
+                    .toList();
+            for (int pageSize : new int[] { 1, 7, 100, expected.size(), expected.size() + 1 }) {
+                List<Integer> seen = new ArrayList<>();
+                SQLPage<Row, Integer> page = DB.pageAfter(Row.class, where, Row.score, descending, null, pageSize);
+                while (true) {
+                    assertTrue(page.getEntries().size() <= pageSize);
+                    page.getEntries().forEach(r -> seen.add(r.getId()));
+                    if (!page.hasNext())
+                        break;
+                    assertEquals(pageSize, page.getEntries().size());
+                    page = page.next();
+                }
+                assertEquals("descending " + descending + ", page size " + pageSize, ids(expected), seen);
+            }
+        }
+    }
+
+    @Test
+    public void pageAfterContinuationToken() throws DBException {
+        SQLPage<Row, Integer> first = DB.pageAfter(Row.class, null, Row.score, false, null, 10);
+        SQLPage<Row, Integer> second = DB.pageAfter(Row.class, null, Row.score, false, first.getContinuationToken(), 10);
+        assertEquals(ids(first.next().getEntries()), ids(second.getEntries()));
+        assertEquals(first.getEntries().getLast().getId(), first.getContinuationToken().id());
+    }
+
+    @Test
+    public void chunkedInMatchesInMemoryFilter() throws DBException {
+        Random random = new Random(1);
+        List<Integer> values = new ArrayList<>();
+        for (int i = 0; i < 2 * DB.IN_CHUNK_SIZE + 300; i++)
+            values.add(1 + random.nextInt(ROW_COUNT + 500)); // some values are repeated, some do not exist
+
+        SQLOrderBy<Row> orderBy = SQLOrderBy.desc(Row.score).thenAsc(id);
+        List<Row> expected = allRows.stream()
+                .filter(r -> values.contains(r.getId()))
+                .sorted(orderBy.toComparator())
+                .toList();
+        assertTrue(expected.size() > DB.IN_CHUNK_SIZE);
+
+        assertEquals(ids(expected), ids(DB.getAllIn(Row.class, values, id::in, orderBy, null, null)));
+        assertEquals(ids(expected.subList(0, 50)), ids(DB.getAllIn(Row.class, values, id::in, orderBy, 50, null)));
+        assertEquals(ids(expected.subList(1200, 1300)), ids(DB.getAllIn(Row.class, values, id::in, orderBy, 100, 1200)));
+        assertEquals(List.of(), ids(DB.getAllIn(Row.class, values, id::in, orderBy, 10, expected.size())));
+    }
+
+    @Test
+    public void duplicateValuesAreIgnored() throws DBException {
+        List<Integer> few = List.of(1, 2, 2, 3, 1);
+        assertEquals(List.of(1, 2, 3), ids(DB.getAllIn(Row.class, few, id::in, SQLOrderBy.asc(id), null, null)));
+
+        // the same values in several chunks
+        List<Integer> many = new ArrayList<>();
+        for (int i = 0; i < 3; i++)
+            IntStream.rangeClosed(1, 900).forEach(many::add);
+        List<Row> found = DB.getAllIn(Row.class, many, id::in, SQLOrderBy.asc(id), null, null);
+        assertEquals(IntStream.rangeClosed(1, 900).boxed().toList(), ids(found));
+    }
+
+    @Test
+    public void chunkedInWithoutHelperThreads() throws DBException {
+        connection.setPoolSize(0, 1, 1); // a quarter of the pool is no helper at all
+        List<Integer> values = IntStream.rangeClosed(1, ROW_COUNT).boxed().collect(Collectors.toList());
+        Collections.shuffle(values, new Random(2));
+        assertEquals(ids(allRows), ids(DB.getAllIn(Row.class, values, id::in, SQLOrderBy.asc(id), null, null)));
+    }
+
+    @Test(timeout = 30_000)
+    public void chunkedInWhileHoldingAConnection() throws Exception {
+        // 3 connections held by the callers, like in a forEach action, and only one left for the queries of getAllIn
+        connection.setPoolSize(0, 4, 4);
+        List<Integer> values = IntStream.rangeClosed(1, ROW_COUNT).boxed().toList();
+        List<Integer> sizes = Collections.synchronizedList(new ArrayList<>());
+        CompletableFuture<?>[] callers = new CompletableFuture<?>[3];
+        for (int i = 0; i < callers.length; i++) {
+            callers[i] = CompletableFuture.runAsync(() -> {
+                try (Connection ignored = connection.getConnection()) {
+                    sizes.add(DB.getAllIn(Row.class, values, id::in, null, null, null).size());
+                } catch (DBException | SQLException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        }
+        CompletableFuture.allOf(callers).get(30, TimeUnit.SECONDS);
+        assertEquals(List.of(ROW_COUNT, ROW_COUNT, ROW_COUNT), sizes);
+    }
+
+    @Test
+    public void concurrentCallsShareTheHelperThreads() throws Exception {
+        connection.setPoolSize(0, 8, 8);
+        List<Integer> values = IntStream.rangeClosed(1, ROW_COUNT).boxed().toList();
+        List<CompletableFuture<Integer>> calls = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            calls.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return DB.getAllIn(Row.class, values, id::in, null, null, null).size();
+                } catch (DBException e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+        for (CompletableFuture<Integer> call : calls)
+            assertEquals(ROW_COUNT, (int) call.get(30, TimeUnit.SECONDS));
+        assertTrue(connection.getActiveConnections() <= 8);
+    }
+
+    private static List<Integer> ids(List<Row> rows) {
+        return rows.stream().map(SQLElement::getId).toList();
+    }
+
+
+
+    public static class Row extends SQLElement<Row> {
+        public Row() { super(); }
+        private Row(int id) { super(id); }
+        @Override
+        protected String tableName() {
+            return "row";
+        }
+
+        public static final SQLField<Row, Integer> score = field(INT, false);
+        public static final SQLField<Row, String> label = field(VARCHAR(16), false);
+    }
+
+}
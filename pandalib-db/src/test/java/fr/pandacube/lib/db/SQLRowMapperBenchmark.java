@@ -0,0 +1,219 @@
+package fr.pandacube.lib.db;
+
+import fr.pandacube.lib.reflect.Reflect;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the conversion of result set rows into {@link SQLElement} instances, between the reflective implementation
+ * previously used by {@link DB} and {@link SQLRowMapper}.
+ * <p>
+ * The rows are provided by an in-memory fake {@link ResultSet}, so only the mapping cost is measured. An in-memory H2
+ * database is only used to let {@link DB#initTable(Class)} succeed.
+ * <p>
+ * Run it with the {@link #main(String[])} method, using the test classpath of this module.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SQLRowMapperBenchmark {
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SQLRowMapperBenchmark.class.getSimpleName())
+                .build()
+        ).run();
+    }
+
+
+
+    public static class BenchElement extends SQLElement<BenchElement> {
+        public BenchElement() { super(); }
+        private BenchElement(int id) { super(id); }
+        @Override
+        protected String tableName() {
+            return "row";
+        }
+
+        public static final SQLField<BenchElement, UUID> playerId = field(CHAR36_UUID, false);
+        public static final SQLField<BenchElement, String> name = field(VARCHAR(16), false);
+        public static final SQLField<BenchElement, Long> time = field(BIGINT, false);
+        public static final SQLField<BenchElement, Integer> amount = field(INT, false);
+        public static final SQLField<BenchElement, Double> ratio = field(DOUBLE, true);
+        public static final SQLField<BenchElement, Boolean> enabled = field(BOOLEAN, false);
+        public static final SQLField<BenchElement, String> comment = field(TEXT, true);
+    }
+
+    private static final String[] COLUMN_LABELS = { "id", "playerId", "name", "time", "amount", "ratio", "enabled",
+            "comment", "notMappedColumn" };
+
+
+
+    @Param({ "100", "10000" })
+    public int rowCount;
+
+    private Object[][] rows;
+
+    @Setup
+    public void setup() throws Exception {
+        DB.init(new DBConnection("jdbc:h2:mem:bench;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1", "sa", ""), "bench_");
+        DB.customUpdateStatement("CREATE TABLE IF NOT EXISTS bench_row (`id` INT NOT NULL AUTO_INCREMENT PRIMARY KEY,"
+                + " `playerId` CHAR(36) NOT NULL, `name` VARCHAR(16) NOT NULL, `time` BIGINT NOT NULL, `amount` INT NOT NULL,"
+                + " `ratio` DOUBLE NULL, `enabled` BOOLEAN NOT NULL, `comment` TEXT NULL, `notMappedColumn` INT NULL);", List.of());
+        DB.initTable(BenchElement.class);
+
+        rows = new Object[rowCount][];
+        for (int i = 0; i < rowCount; i++) {
+            rows[i] = new Object[] { i + 1, UUID.randomUUID().toString(), "player" + i, System.currentTimeMillis(), i * 3,
+                    i % 2 == 0 ? null : i / 7d, i % 3 == 0, i % 5 == 0 ? "some comment" : null, 42 };
+        }
+    }
+
+
+
+    @Benchmark
+    public void reflectiveMapping(Blackhole bh) throws Exception {
+        ResultSet set = FakeResultSet.create(COLUMN_LABELS, rows);
+        while (set.next()) {
+            bh.consume(getElementInstanceReflective(set, BenchElement.class));
+        }
+    }
+
+    @Benchmark
+    public void compiledMapping(Blackhole bh) throws Exception {
+        ResultSet set = FakeResultSet.create(COLUMN_LABELS, rows);
+        SQLRowMapper<BenchElement> mapper = SQLRowMapper.of(BenchElement.class, set.getMetaData());
+        while (set.next()) {
+            bh.consume(mapper.map(set));
+        }
+    }
+
+
+
+    /*
+     * Copy of the previous implementation of DB.getElementInstance(ResultSet, Class), used as the reference.
+     */
+    @SuppressWarnings("unchecked")
+    private static <E extends SQLElement<E>> E getElementInstanceReflective(ResultSet set, Class<E> elemClass) throws Exception {
+        E instance = Reflect.ofClass(elemClass).constructor(int.class).instantiate(set.getInt("id"));
+
+        int fieldCount = set.getMetaData().getColumnCount();
+
+        for (int c = 1; c <= fieldCount; c++) {
+            String fieldName = set.getMetaData().getColumnLabel(c);
+
+            if (!instance.getFields().containsKey(fieldName)) continue;
+
+            SQLField<E, Object> sqlField = (SQLField<E, Object>) instance.getFields().get(fieldName);
+
+            boolean customType = sqlField.type instanceof SQLCustomType;
+
+            Object val = set.getObject(c,
+                    (Class<?>)(customType ? ((SQLCustomType<?, ?>)sqlField.type).intermediateJavaType
+                            : sqlField.type.getJavaType()));
+
+            if (val == null || set.wasNull()) {
+                instance.set(sqlField, null, false);
+            }
+            else {
+                if (customType) {
+                    val = ((SQLCustomType<Object, Object>)sqlField.type).dbToJavaConv.apply(val);
+                }
+                instance.set(sqlField, val, false);
+                instance.modifiedSinceLastSave.remove(sqlField.getName());
+            }
+        }
+
+        if (!instance.isValidForSave()) throw new DBException(
+                "This SQLElement representing a database entry is not valid for save : " + instance);
+
+        return instance;
+    }
+
+
+
+    /**
+     * A minimal read-only {@link ResultSet} over an in-memory array of rows.
+     */
+    private static class FakeResultSet implements InvocationHandler {
+
+        private static ResultSet create(String[] labels, Object[][] rows) {
+            return (ResultSet) Proxy.newProxyInstance(FakeResultSet.class.getClassLoader(),
+                    new Class<?>[] { ResultSet.class }, new FakeResultSet(labels, rows));
+        }
+
+        private final String[] labels;
+        private final Object[][] rows;
+        private final ResultSetMetaData metaData;
+        private int cursor = -1;
+        private boolean lastWasNull = false;
+
+        private FakeResultSet(String[] labels, Object[][] rows) {
+            this.labels = labels;
+            this.rows = rows;
+            metaData = (ResultSetMetaData) Proxy.newProxyInstance(FakeResultSet.class.getClassLoader(),
+                    new Class<?>[] { ResultSetMetaData.class }, (proxy, method, args) -> switch (method.getName()) {
+                        case "getColumnCount" -> labels.length;
+                        case "getColumnLabel", "getColumnName" -> labels[(int) args[0] - 1];
+                        default -> throw new UnsupportedOperationException(method.getName());
+                    });
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            return switch (method.getName()) {
+                case "next" -> ++cursor < rows.length;
+                case "getMetaData" -> metaData;
+                case "wasNull" -> lastWasNull;
+                case "getInt" -> {
+                    Object val = read(args[0]);
+                    yield val == null ? 0 : val;
+                }
+                case "getObject" -> read(args[0]);
+                default -> throw new UnsupportedOperationException(method.getName());
+            };
+        }
+
+        private Object read(Object column) {
+            int index = -1;
+            if (column instanceof Integer i)
+                index = i - 1;
+            else {
+                for (int i = 0; i < labels.length; i++) {
+                    if (labels[i].equals(column))
+                        index = i;
+                }
+            }
+            Object val = rows[cursor][index];
+            lastWasNull = val == null;
+            return val;
+        }
+
+    }
+
+}
@@ -26,4 +26,16 @@ public abstract class AbstractRequest {
 		out.print(data);
 		out.flush();
 	}
+
+	/**
+	 * Envoie la requête sur une connexion multiplexée, sans le mot de passe, envoyé à l'ouverture de la connexion.
+	 * @param id l'identifiant de la requête, répété par le serveur devant la réponse correspondante.
+	 */
+	/* package */ void sendMultiplexedPacket(PrintStream out, long id) {
+		out.print(id + "\n");
+		out.print(command + "\n");
+		out.print(data.getBytes().length + "\n");
+		out.print(data);
+		out.flush();
+	}
 }
@@ -0,0 +1,286 @@
+package fr.pandacube.lib.netapi.client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Envoie des requêtes à un NetworkAPIListener à travers un ensemble de connexions persistantes.
+ * <p>
+ * Contrairement à {@link NetworkAPISender}, le mot de passe n'est envoyé qu'à l'ouverture de chaque connexion, et
+ * plusieurs requêtes peuvent être en cours en même temps sur une même connexion : chaque requête porte un identifiant,
+ * et les réponses sont reçues dans l'ordre où le serveur les termine.
+ * <p>
+ * Si le serveur ne connaît pas le mode multiplexé (ou refuse le mot de passe, ou a trop de connexions multiplexées
+ * ouvertes), cet objet se rabat sur {@link NetworkAPISender#sendRequest(InetSocketAddress, AbstractRequest)} pour les
+ * requêtes suivantes, et réessaie le mode multiplexé après {@link #DEFAULT_LEGACY_RETRY_DELAY_MS} millisecondes (par
+ * exemple si le serveur a été mis à jour entre temps).
+ * Les connexions fermées (par exemple lorsque le serveur ferme une connexion inutilisée) sont rouvertes à la requête
+ * suivante. Les requêtes en cours sur une connexion qui se ferme échouent avec une {@link IOException}, et ne sont
+ * pas renvoyées.
+ */
+public class NetworkAPIConnectionPool implements Closeable {
+
+	/**
+	 * Délai par défaut avant de réessayer le mode multiplexé, après un refus du serveur.
+	 */
+	public static final long DEFAULT_LEGACY_RETRY_DELAY_MS = 60_000;
+
+	private static final String HELLO = "#netapi-multiplexed-1";
+	private static final String ACCEPTED = "MULTIPLEXED-OK";
+
+	private final InetSocketAddress target;
+	private final String pass;
+	private final Connection[] connections;
+	private final AtomicInteger nextConnection = new AtomicInteger();
+	private final long legacyRetryDelayMs;
+	/**
+	 * Date jusqu'à laquelle les requêtes sont envoyées en mode classique, après un refus du mode multiplexé.
+	 */
+	private volatile long legacyModeUntil = 0;
+	private volatile boolean closed = false;
+
+	/**
+	 * Crée un ensemble de connexions vers un NetworkAPIListener. Les connexions ne sont ouvertes qu'à la première
+	 * requête qui les utilise.
+	 * @param target l'adresse du serveur.
+	 * @param pass le mot de passe réseau, utilisé pour toutes les connexions (le mot de passe des requêtes n'est
+	 *             utilisé que si le serveur ne connaît pas le mode multiplexé).
+	 * @param poolSize le nombre de connexions à utiliser.
+	 */
+	public NetworkAPIConnectionPool(InetSocketAddress target, String pass, int poolSize) {
+		this(target, pass, poolSize, DEFAULT_LEGACY_RETRY_DELAY_MS);
+	}
+
+	/**
+	 * Crée un ensemble de connexions vers un NetworkAPIListener. Les connexions ne sont ouvertes qu'à la première
+	 * requête qui les utilise.
+	 * @param target l'adresse du serveur.
+	 * @param pass le mot de passe réseau, utilisé pour toutes les connexions (le mot de passe des requêtes n'est
+	 *             utilisé que si le serveur ne connaît pas le mode multiplexé).
+	 * @param poolSize le nombre de connexions à utiliser.
+	 * @param legacyRetryDelayMs le délai avant de réessayer le mode multiplexé après un refus du serveur, en
+	 *                           millisecondes.
+	 */
+	public NetworkAPIConnectionPool(InetSocketAddress target, String pass, int poolSize, long legacyRetryDelayMs) {
+		if (poolSize <= 0)
+			throw new IllegalArgumentException("poolSize must be strictly positive");
+		if (legacyRetryDelayMs < 0)
+			throw new IllegalArgumentException("legacyRetryDelayMs must be positive");
+		this.target = target;
+		this.pass = pass;
+		connections = new Connection[poolSize];
+		this.legacyRetryDelayMs = legacyRetryDelayMs;
+	}
+
+	/**
+	 * Envoie une requête et attend sa réponse.
+	 * @param request la requête.
+	 * @return la réponse.
+	 * @throws IOException si la requête ne peut être envoyée ou si la connexion est fermée avant la réponse.
+	 */
+	public ResponseAnalyser sendRequest(AbstractRequest request) throws IOException {
+		try {
+			return sendRequestAsync(request).join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof IOException ioe)
+				throw ioe;
+			throw e;
+		}
+	}
+
+	/**
+	 * Envoie une requête sans attendre sa réponse.
+	 * @param request la requête.
+	 * @return un future complété par la réponse, ou complété exceptionnellement avec une {@link IOException} si la
+	 *         requête ne peut être envoyée ou si la connexion est fermée avant la réponse.
+	 */
+	public CompletableFuture<ResponseAnalyser> sendRequestAsync(AbstractRequest request) {
+		if (closed)
+			return CompletableFuture.failedFuture(new IOException("Connection pool closed"));
+		if (System.currentTimeMillis() >= legacyModeUntil) {
+			try {
+				Connection connection = getConnection();
+				if (connection != null)
+					return connection.send(request);
+			} catch (IOException e) {
+				return CompletableFuture.failedFuture(e);
+			}
+		}
+		CompletableFuture<ResponseAnalyser> future = new CompletableFuture<>();
+		Thread.ofVirtual().name("NetworkAPI request to " + target).start(() -> {
+			try {
+				future.complete(NetworkAPISender.sendRequest(target, request));
+			} catch (Throwable e) {
+				future.completeExceptionally(e);
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * Ferme toutes les connexions. Les requêtes en cours échouent.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		synchronized (connections) {
+			for (int i = 0; i < connections.length; i++) {
+				if (connections[i] != null)
+					connections[i].close(new IOException("Connection pool closed"));
+				connections[i] = null;
+			}
+		}
+	}
+
+	/**
+	 * @return une connexion ouverte, ou null si le serveur refuse le mode multiplexé.
+	 */
+	private Connection getConnection() throws IOException {
+		int i = Math.floorMod(nextConnection.getAndIncrement(), connections.length);
+		synchronized (connections) {
+			Connection connection = connections[i];
+			if (connection != null && !connection.isClosed())
+				return connection;
+		}
+		// ouverture hors du verrou, pour ne pas bloquer les requêtes sur les autres connexions
+		Connection connection = Connection.open(target, pass);
+		if (connection == null) {
+			legacyModeUntil = System.currentTimeMillis() + legacyRetryDelayMs;
+			return null;
+		}
+		synchronized (connections) {
+			Connection current = connections[i];
+			if (closed || (current != null && !current.isClosed())) {
+				connection.close(new IOException("Connection not needed"));
+				if (closed)
+					throw new IOException("Connection pool closed");
+				return current;
+			}
+			connections[i] = connection;
+		}
+		connection.startReading();
+		return connection;
+	}
+
+
+
+	private static class Connection {
+		private final Socket socket;
+		private final InputStream in;
+		private final PrintStream out;
+		private final Map<Long, CompletableFuture<ResponseAnalyser>> pending = new ConcurrentHashMap<>();
+		private final AtomicLong nextId = new AtomicLong();
+		private volatile boolean closed = false;
+
+		/**
+		 * Ouvre une connexion en mode multiplexé.
+		 * @return la connexion, ou null si le serveur ne connaît pas le mode multiplexé ou refuse le mot de passe.
+		 */
+		private static Connection open(InetSocketAddress target, String pass) throws IOException {
+			Socket socket = new Socket(target.getAddress(), target.getPort());
+			try {
+				Connection connection = new Connection(socket);
+				connection.out.print(HELLO + "\n");
+				connection.out.print(pass + "\n");
+				connection.out.flush();
+				if (ACCEPTED.equals(readLine(connection.in)))
+					return connection;
+			} catch (IOException e) {
+				socket.close();
+				throw e;
+			}
+			socket.close();
+			return null;
+		}
+
+		private Connection(Socket socket) throws IOException {
+			this.socket = socket;
+			in = new BufferedInputStream(socket.getInputStream());
+			out = new PrintStream(new BufferedOutputStream(socket.getOutputStream()));
+		}
+
+		private void startReading() {
+			Thread.ofVirtual().name("NetworkAPI connection to " + socket.getRemoteSocketAddress()).start(() -> {
+				try {
+					String id;
+					while ((id = readLine(in)) != null) {
+						String status = readLine(in);
+						String size = readLine(in);
+						if (status == null || size == null)
+							break;
+						int dataSize;
+						try {
+							dataSize = Integer.parseInt(size);
+						} catch (NumberFormatException e) {
+							throw new IOException("Réponse mal formée : la taille des données doit-être un nombre entier");
+						}
+						byte[] data = in.readNBytes(dataSize);
+						if (data.length != dataSize)
+							break;
+						CompletableFuture<ResponseAnalyser> future = pending.remove(Long.parseLong(id));
+						if (future != null)
+							future.complete(new ResponseAnalyser(status.equalsIgnoreCase("OK"), new String(data)));
+					}
+					close(new IOException("Connection closed by the server"));
+				} catch (IOException | NumberFormatException e) {
+					close(e instanceof IOException ioe ? ioe : new IOException("Réponse mal formée", e));
+				}
+			});
+		}
+
+		private CompletableFuture<ResponseAnalyser> send(AbstractRequest request) {
+			long id = nextId.getAndIncrement();
+			CompletableFuture<ResponseAnalyser> future = new CompletableFuture<>();
+			pending.put(id, future);
+			synchronized (out) {
+				request.sendMultiplexedPacket(out, id);
+			}
+			if (out.checkError())
+				close(new IOException("Unable to send the request to " + socket.getRemoteSocketAddress()));
+			else if (closed && pending.remove(id) != null) // fermée pendant l'envoi
+				future.completeExceptionally(new IOException("Connection closed"));
+			return future;
+		}
+
+		private boolean isClosed() {
+			return closed;
+		}
+
+		private void close(IOException cause) {
+			closed = true;
+			try {
+				socket.close();
+			} catch (IOException ignored) {}
+			for (Long id : pending.keySet()) {
+				CompletableFuture<ResponseAnalyser> future = pending.remove(id);
+				if (future != null)
+					future.completeExceptionally(cause);
+			}
+		}
+
+		private static String readLine(InputStream in) throws IOException {
+			ByteArrayOutputStream line = new ByteArrayOutputStream();
+			int b;
+			while ((b = in.read()) != -1 && b != '\n')
+				line.write(b);
+			if (b == -1 && line.size() == 0)
+				return null;
+			return line.toString(StandardCharsets.UTF_8);
+		}
+	}
+
+}
@@ -14,6 +14,11 @@ public class ResponseAnalyser {
 
 	public final String data;
 
+	/* package */ ResponseAnalyser(boolean good, String data) {
+		this.good = good;
+		this.data = data;
+	}
+
 	public ResponseAnalyser(Socket socket) throws IOException {
 		if (socket == null || socket.isClosed() || socket.isInputShutdown())
 			throw new IllegalArgumentException("le socket doit être non null et doit être ouvert sur le flux d'entrée");
@@ -32,6 +32,19 @@ public abstract class AbstractRequestExecutor {
 
 	}
 
+	/**
+	 * Exécute une requête reçue par une connexion multiplexée, sur laquelle la réponse ne peut pas être écrite
+	 * directement. {@link #execute(String, Socket)} n'est pas appelée dans ce cas.
+	 */
+	/* package */ Response handle(InetAddress source, String data) {
+		try {
+			return run(source, data);
+		} catch (Exception e) {
+			Log.severe(e);
+			return new Response(false, e.toString());
+		}
+	}
+
 	/**
 	 *
 	 * @param data The String representation of the request data.
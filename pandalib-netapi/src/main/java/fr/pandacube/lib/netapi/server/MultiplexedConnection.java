@@ -0,0 +1,139 @@
+package fr.pandacube.lib.netapi.server;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.Semaphore;
+
+import fr.pandacube.lib.netapi.server.RequestAnalyser.BadRequestException;
+import fr.pandacube.lib.util.log.Log;
+
+/**
+ * Prend en charge une connexion persistante ouverte par un client utilisant le mode multiplexé du NetworkAPI.
+ * <p>
+ * Le client commence par envoyer la ligne {@link #HELLO} puis le mot de passe. Un serveur ne connaissant pas ce mode
+ * considère la première ligne comme un mauvais mot de passe, et répond avec une réponse d'erreur classique, ce qui
+ * permet au client de revenir au mode d'une requête par connexion. Si le mot de passe est correct, le serveur répond
+ * {@link #ACCEPTED}, puis chaque requête est envoyée sous la forme :
+ * <pre>
+ * id
+ * commande
+ * taille des données
+ * données</pre>
+ * Les requêtes sont exécutées en parallèle, et chaque réponse est envoyée dès qu'elle est prête, précédée de la ligne
+ * {@code id} de la requête correspondante, puis dans le même format qu'en mode classique.
+ * <p>
+ * Une fois la connexion acceptée, elle rend la place qu'elle occupait dans la limite de requêtes traitées en même temps
+ * par le {@link NetworkAPIListener}, et chaque requête en cours y occupe ensuite une place. Le nombre de connexions
+ * multiplexées ouvertes en même temps est limité séparément : au-delà, le serveur répond par une réponse d'erreur
+ * classique, comme pour un mauvais mot de passe.
+ * <p>
+ * Une requête mal formée sur une connexion acceptée ne peut pas recevoir de réponse, le client attendant une ligne
+ * {@code id} devant chaque réponse : la connexion est alors fermée, après l'envoi des réponses des requêtes en cours.
+ */
+/* package */ class MultiplexedConnection {
+
+	/* package */ static final String HELLO = "#netapi-multiplexed-1";
+	/* package */ static final String ACCEPTED = "MULTIPLEXED-OK";
+
+	private static final int MAX_REQUESTS_IN_PROGRESS = 32;
+
+	private final Socket socket;
+	private final NetworkAPIListener networkAPIListener;
+	private final RequestReader in;
+	private final Runnable releaseConnectionPermit;
+	private final Semaphore requestsInProgress = new Semaphore(MAX_REQUESTS_IN_PROGRESS);
+	private PrintStream out;
+	private volatile boolean accepted = false;
+
+	/* package */ MultiplexedConnection(Socket socket, NetworkAPIListener nAPIListener, RequestReader in, Runnable releaseConnectionPermit) {
+		this.socket = socket;
+		networkAPIListener = nAPIListener;
+		this.in = in;
+		this.releaseConnectionPermit = releaseConnectionPermit;
+	}
+
+	/**
+	 * Lit et exécute les requêtes du client jusqu'à la fermeture de la connexion ou l'expiration du délai de lecture,
+	 * puis attend la fin de l'exécution des requêtes en cours.
+	 */
+	/* package */ void run() throws IOException, BadRequestException {
+		String password = in.readLine();
+		if (password == null || !password.equals(networkAPIListener.pass))
+			throw new BadRequestException("wrong_password");
+		if (!networkAPIListener.tryAcquireMultiplexedConnection())
+			throw new BadRequestException("too_many_connections");
+
+		try {
+			out = new PrintStream(new BufferedOutputStream(socket.getOutputStream()));
+			out.print(ACCEPTED + "\n");
+			out.flush();
+			accepted = true;
+
+			// les requêtes prennent chacune une place dans la limite du listener
+			releaseConnectionPermit.run();
+
+			readRequests();
+		} finally {
+			networkAPIListener.releaseMultiplexedConnection();
+		}
+	}
+
+	/**
+	 * Indique si le serveur a accepté le mode multiplexé. Les erreurs ne peuvent alors plus être envoyées au client sous
+	 * la forme d'une réponse classique.
+	 */
+	/* package */ boolean isAccepted() {
+		return accepted;
+	}
+
+	private void readRequests() {
+		try {
+			String id;
+			while ((id = in.readLine()) != null) {
+				String command = in.readLine();
+				String data = in.readData(in.readLine());
+				requestsInProgress.acquire();
+				try {
+					networkAPIListener.acquireRequestPermit();
+				} catch (InterruptedException e) {
+					requestsInProgress.release();
+					throw e;
+				}
+				String requestId = id;
+				Thread.ofVirtual().name(Thread.currentThread().getName() + " #" + requestId).start(() -> {
+					try {
+						execute(requestId, command, data);
+					} finally {
+						networkAPIListener.releaseRequestPermit();
+						requestsInProgress.release();
+					}
+				});
+			}
+		} catch (SocketTimeoutException ignored) {
+			// connexion inutilisée, le client en ouvrira une autre si besoin
+		} catch (IOException | BadRequestException e) {
+			Log.warning("Invalid request on the multiplexed connection " + socket + ", closing it: " + e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			requestsInProgress.acquireUninterruptibly(MAX_REQUESTS_IN_PROGRESS);
+		}
+	}
+
+	private void execute(String id, String command, String data) {
+		AbstractRequestExecutor executor = command == null ? null : networkAPIListener.getRequestExecutor(command);
+		Response rep = executor == null
+				? new Response(false, new BadRequestException("command_not_exists").toString())
+				: executor.handle(socket.getInetAddress(), data);
+		synchronized (out) {
+			out.print(id + "\n");
+			rep.sendPacket(out);
+		}
+		if (out.checkError())
+			Log.warning("Unable to send response " + id + " to socket " + socket);
+	}
+
+}
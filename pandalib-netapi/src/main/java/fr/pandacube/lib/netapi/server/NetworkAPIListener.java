@@ -5,17 +5,32 @@ import fr.pandacube.lib.util.log.Log;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.ServerSocket;
+import java.net.Socket;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
 
 public class NetworkAPIListener implements Runnable {
 
+	/**
+	 * Nombre maximal de requêtes traitées en même temps, par défaut.
+	 */
+	public static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 64;
+
+	private static final int BUFFER_SIZE = 8192;
+	private static final int READ_TIMEOUT_MS = 30_000;
+
 	private final InetAddress host;
 	private final int port;
 	final String pass;
 	private ServerSocket serverSocket;
 	private final HashMap<String, AbstractRequestExecutor> requestExecutors = new HashMap<>();
 	private final String name;
+	private final Semaphore workers;
+	private final Semaphore multiplexedConnections;
+	private final BlockingQueue<byte[]> buffers;
 
 	/**
 	 * Instancie le côté serveur du NetworkAPI.
@@ -36,10 +51,34 @@ public class NetworkAPIListener implements Runnable {
 	 * @param pa le mot de passe réseau
 	 */
 	public NetworkAPIListener(String n, InetAddress h, int p, String pa) {
+		this(n, h, p, pa, DEFAULT_MAX_CONCURRENT_REQUESTS);
+	}
+
+	/**
+	 * Instancie le côté serveur du NetworkAPI.
+	 * <p>
+	 * Chaque connexion est traitée dans un thread virtuel. Lorsque {@code maxConcurrentRequests} requêtes sont en cours
+	 * de traitement, les nouvelles connexions ne sont acceptées qu'à la fin du traitement de l'une d'entre elles.
+	 * Une connexion multiplexée (voir {@link MultiplexedConnection}) ne compte pas pour elle-même une fois ouverte, mais
+	 * chacune de ses requêtes en cours compte dans cette limite. Au plus {@code maxConcurrentRequests} connexions
+	 * multiplexées peuvent être ouvertes en même temps.
+	 *
+	 * @param n nom du networkAPI (permet l'identification dans les logs)
+	 * @param h l'adresse d'écoute, ou null pour écouter sur toutes les adresses
+	 * @param p le port d'écoute
+	 * @param pa le mot de passe réseau
+	 * @param maxConcurrentRequests le nombre maximal de requêtes traitées en même temps
+	 */
+	public NetworkAPIListener(String n, InetAddress h, int p, String pa, int maxConcurrentRequests) {
+		if (maxConcurrentRequests <= 0)
+			throw new IllegalArgumentException("maxConcurrentRequests must be strictly positive");
 		name = n;
 		host = h;
 		port = p;
 		pass = pa;
+		workers = new Semaphore(maxConcurrentRequests);
+		multiplexedConnections = new Semaphore(maxConcurrentRequests);
+		buffers = new ArrayBlockingQueue<>(maxConcurrentRequests);
 	}
 
 	@Override
@@ -57,11 +96,23 @@ public class NetworkAPIListener implements Runnable {
 
 		try {
 			while (!serverSocket.isClosed()) {
-				Thread t = new Thread(new PacketExecutor(serverSocket.accept(), this));
-				t.setDaemon(true);
-				t.start();
+				Socket socket = serverSocket.accept();
+				// la place est réservée après l'acceptation : en attente de connexion, le listener n'occupe aucune
+				// place qu'une requête d'une connexion multiplexée pourrait attendre
+				try {
+					socket.setSoTimeout(READ_TIMEOUT_MS);
+					workers.acquire();
+				} catch (IOException | InterruptedException e) {
+					socket.close();
+					throw e;
+				}
+				Thread.ofVirtual().name("NetworkAPI '" + name + "' " + socket.getRemoteSocketAddress())
+						.start(new PacketExecutor(socket, this, true));
 			}
-		} catch (IOException ignored) {}
+		} catch (IOException ignored) {
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
 
 		synchronized (this) {
 			try {
@@ -100,4 +151,42 @@ public class NetworkAPIListener implements Runnable {
 		return Arrays.toString(requestExecutors.keySet().toArray());
 	}
 
+	/**
+	 * Attend qu'une requête de plus puisse être traitée, dans la limite du nombre de requêtes traitées en même temps.
+	 * La place doit être rendue avec {@link #releaseRequestPermit()} à la fin du traitement.
+	 */
+	/* package */ void acquireRequestPermit() throws InterruptedException {
+		workers.acquire();
+	}
+
+	/* package */ void releaseRequestPermit() {
+		workers.release();
+	}
+
+	/**
+	 * Réserve une place pour une connexion multiplexée, si le nombre maximal de connexions multiplexées n'est pas
+	 * atteint. La place doit être rendue avec {@link #releaseMultiplexedConnection()} à la fermeture de la connexion.
+	 * @return true si la place est réservée.
+	 */
+	/* package */ boolean tryAcquireMultiplexedConnection() {
+		return multiplexedConnections.tryAcquire();
+	}
+
+	/* package */ void releaseMultiplexedConnection() {
+		multiplexedConnections.release();
+	}
+
+	/**
+	 * Fournit un tampon de lecture réutilisé d'une requête à l'autre.
+	 * Il doit être rendu avec {@link #returnBuffer(byte[])} à la fin de la lecture.
+	 */
+	/* package */ byte[] borrowBuffer() {
+		byte[] buffer = buffers.poll();
+		return buffer != null ? buffer : new byte[BUFFER_SIZE];
+	}
+
+	/* package */ void returnBuffer(byte[] buffer) {
+		buffers.offer(buffer);
+	}
+
 }
@@ -10,7 +10,8 @@ import fr.pandacube.lib.util.log.Log;
 /**
  * Prends en charge un socket client et le transmet au gestionnaire de paquet
  * correspondant.<br/>
- * La connexion est fermée après chaque requête du client.
+ * La connexion est fermée après chaque requête du client, sauf si le client utilise le mode multiplexé (voir
+ * {@link MultiplexedConnection}).
  *
  * @author Marc Baloup
  *
@@ -18,35 +19,68 @@ import fr.pandacube.lib.util.log.Log;
 public class PacketExecutor implements Runnable {
 	private final Socket socket;
 	private final NetworkAPIListener networkAPIListener;
+	private boolean holdsRequestPermit;
 
 	public PacketExecutor(Socket s, NetworkAPIListener nAPIListener) {
+		this(s, nAPIListener, false);
+	}
+
+	/**
+	 * @param holdsPermit true si une place a été réservée pour cette connexion avec
+	 *                    {@link NetworkAPIListener#acquireRequestPermit()}, et doit être rendue à la fin du traitement.
+	 */
+	/* package */ PacketExecutor(Socket s, NetworkAPIListener nAPIListener, boolean holdsPermit) {
 		socket = s;
 		networkAPIListener = nAPIListener;
+		holdsRequestPermit = holdsPermit;
 	}
 
 	@Override
 	public void run() {
+		MultiplexedConnection multiplexed = null;
 		try {
 
-			// analyse de la requête
-			RequestAnalyser analyse = new RequestAnalyser(socket, networkAPIListener);
+			RequestAnalyser analyse;
+			byte[] buffer = networkAPIListener.borrowBuffer();
+			try {
+				RequestReader in = new RequestReader(socket.getInputStream(), buffer);
+				String firstLine = in.readLine();
+				if (MultiplexedConnection.HELLO.equals(firstLine)) {
+					multiplexed = new MultiplexedConnection(socket, networkAPIListener, in, this::releaseRequestPermit);
+					multiplexed.run();
+					analyse = null;
+				}
+				else {
+					// analyse de la requête
+					analyse = new RequestAnalyser(socket, networkAPIListener, in, firstLine);
+				}
+			} finally {
+				networkAPIListener.returnBuffer(buffer);
+			}
 
-			AbstractRequestExecutor executor = networkAPIListener.getRequestExecutor(analyse.command);
+			if (analyse != null) {
+				AbstractRequestExecutor executor = networkAPIListener.getRequestExecutor(analyse.command);
 
-			executor.execute(analyse.data, socket);
+				executor.execute(analyse.data, socket);
+			}
 
 		} catch (Throwable e) {
-			Response rep = new Response();
-			rep.good = false;
-			rep.data = e.toString();
-			try {
-				rep.sendPacket(new PrintStream(socket.getOutputStream()));
-			} catch (IOException ignored) {}
+			// en mode multiplexé, le client ne comprendrait pas une réponse sans identifiant
+			if (multiplexed == null || !multiplexed.isAccepted()) {
+				Response rep = new Response();
+				rep.good = false;
+				rep.data = e.toString();
+				try {
+					rep.sendPacket(new PrintStream(socket.getOutputStream()));
+				} catch (IOException ignored) {}
+			}
 			if (e instanceof IOException)
 				Log.warning("Unable to read packet from socket " + socket + ": " + e);
 			else if(e instanceof BadRequestException) {
 				if (e.getMessage().equals("wrong_password"))
 					Log.warning("Wrong password received from socket " + socket);
+				else if (e.getMessage().equals("too_many_connections"))
+					Log.warning("Too many multiplexed connections, refused the one from socket " + socket);
 				else if (e.getMessage().equals("command_not_exists"))
 					Log.severe("The command requested from the socket " + socket + " does not exist");
 				else
@@ -59,5 +93,14 @@ public class PacketExecutor implements Runnable {
 		try {
 			socket.close();
 		} catch (Exception ignored) {}
+
+		releaseRequestPermit();
+	}
+
+	private void releaseRequestPermit() {
+		if (holdsRequestPermit) {
+			holdsRequestPermit = false;
+			networkAPIListener.releaseRequestPermit();
+		}
 	}
 }
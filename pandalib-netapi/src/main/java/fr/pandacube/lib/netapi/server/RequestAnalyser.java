@@ -1,8 +1,6 @@
 package fr.pandacube.lib.netapi.server;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.net.Socket;
 
 public class RequestAnalyser {
@@ -15,45 +13,49 @@ public class RequestAnalyser {
 			throw new IllegalArgumentException(
 					"le socket doit être non null et doit être ouvert sur le flux d'entrée et nAPIListener ne doit pas être null");
 
-		// on lit la réponse
-		BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+		byte[] buffer = nAPIListener.borrowBuffer();
+		try {
+			RequestReader in = new RequestReader(socket.getInputStream(), buffer);
+			Request request = read(in, in.readLine(), nAPIListener);
+			command = request.command();
+			data = request.data();
+		} finally {
+			nAPIListener.returnBuffer(buffer);
+		}
+
+		socket.shutdownInput();
+	}
 
+	/**
+	 * Analyse une requête dont la première ligne a déjà été lue.
+	 */
+	/* package */ RequestAnalyser(Socket socket, NetworkAPIListener nAPIListener, RequestReader in, String firstLine) throws IOException, BadRequestException {
+		Request request = read(in, firstLine, nAPIListener);
+		command = request.command();
+		data = request.data();
+
+		socket.shutdownInput();
+	}
+
+	private static Request read(RequestReader in, String firstLine, NetworkAPIListener nAPIListener) throws IOException, BadRequestException {
 		String line;
 
 		// lecture de la première ligne
-		line = in.readLine();
+		line = firstLine;
 		if (line == null || !line.equals(nAPIListener.pass)) throw new BadRequestException("wrong_password");
 
 		// lecture de la deuxième ligne
 		line = in.readLine();
 		if (line == null || nAPIListener.getRequestExecutor(line) == null)
 			throw new BadRequestException("command_not_exists");
-		command = line;
+		String command = line;
 
-		// lecture de la troisième ligne
-		line = in.readLine();
-
-		int data_size;
-		try {
-			data_size = Integer.parseInt(line);
-		} catch (NumberFormatException e) {
-			throw new BadRequestException("wrong_data_size_format");
-		}
-
-		// lecture du reste
-		StringBuilder sB_data = new StringBuilder();
-		char[] c = new char[100];
-		int nbC;
-		while ((nbC = in.read(c)) != -1)
-			sB_data.append(c, 0, nbC);
-
-		data = sB_data.toString();
-
-		if (data.getBytes().length != data_size) throw new BadRequestException("wrong_data_size");
-
-		socket.shutdownInput();
+		// lecture de la troisième ligne et des données
+		return new Request(command, in.readData(in.readLine()));
 	}
 
+	private record Request(String command, String data) { }
+
 	public static class BadRequestException extends Exception {
 
 		public BadRequestException(String message) {
@@ -0,0 +1,107 @@
+package fr.pandacube.lib.netapi.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import fr.pandacube.lib.netapi.server.RequestAnalyser.BadRequestException;
+
+/**
+ * Lit les lignes d'entête puis les données d'une requête, à travers un tampon fourni par le
+ * {@link NetworkAPIListener}.
+ */
+/* package */ class RequestReader {
+
+	/**
+	 * Taille maximale des données d'une requête, au-delà de laquelle la requête est refusée sans être lue.
+	 */
+	/* package */ static final int MAX_DATA_SIZE = 16 * 1024 * 1024;
+
+	private final InputStream in;
+	private final byte[] buffer;
+	private int pos = 0;
+	private int limit = 0;
+
+	/* package */ RequestReader(InputStream in, byte[] buffer) {
+		this.in = in;
+		this.buffer = buffer;
+	}
+
+	/**
+	 * Lit une ligne terminée par {@code \n} ou {@code \r\n}.
+	 * @return la ligne, sans le caractère de fin de ligne, ou null si la fin du flux est atteinte.
+	 */
+	/* package */ String readLine() throws IOException, BadRequestException {
+		int scanned = 0; // nombre d'octets déjà parcourus après pos
+		while (true) {
+			for (int i = pos + scanned; i < limit; i++) {
+				if (buffer[i] == '\n') {
+					int end = i > pos && buffer[i - 1] == '\r' ? i - 1 : i;
+					String line = new String(buffer, pos, end - pos, StandardCharsets.UTF_8);
+					pos = i + 1;
+					return line;
+				}
+			}
+			scanned = limit - pos;
+			if (!fill()) {
+				if (pos == limit)
+					return null;
+				String line = new String(buffer, pos, limit - pos, StandardCharsets.UTF_8);
+				pos = limit;
+				return line;
+			}
+		}
+	}
+
+	/**
+	 * Lit la ligne indiquant la taille des données, puis exactement ce nombre d'octets, sans attendre la fin du flux.
+	 * @param sizeLine la ligne indiquant la taille des données, déjà lue avec {@link #readLine()}.
+	 * @return les données décodées en UTF-8.
+	 */
+	/* package */ String readData(String sizeLine) throws IOException, BadRequestException {
+		int size;
+		try {
+			size = Integer.parseInt(sizeLine);
+		} catch (NumberFormatException e) {
+			throw new BadRequestException("wrong_data_size_format");
+		}
+		if (size < 0 || size > MAX_DATA_SIZE)
+			throw new BadRequestException("wrong_data_size");
+
+		if (size <= buffer.length) {
+			while (limit - pos < size) {
+				if (!fill())
+					throw new BadRequestException("wrong_data_size");
+			}
+			String d = new String(buffer, pos, size, StandardCharsets.UTF_8);
+			pos += size;
+			return d;
+		}
+		byte[] bytes = new byte[size];
+		int available = limit - pos;
+		System.arraycopy(buffer, pos, bytes, 0, available);
+		pos = limit;
+		if (in.readNBytes(bytes, available, size - available) != size - available)
+			throw new BadRequestException("wrong_data_size");
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Lit de nouveaux octets à la suite de ceux du tampon, en déplaçant au début du tampon ceux non consommés.
+	 * @return false si la fin du flux est atteinte.
+	 */
+	private boolean fill() throws IOException, BadRequestException {
+		if (pos > 0) {
+			System.arraycopy(buffer, pos, buffer, 0, limit - pos);
+			limit -= pos;
+			pos = 0;
+		}
+		if (limit == buffer.length)
+			throw new BadRequestException("line_too_long");
+		int n = in.read(buffer, limit, buffer.length - limit);
+		if (n < 0)
+			return false;
+		limit += n;
+		return true;
+	}
+}
@@ -0,0 +1,205 @@
+package fr.pandacube.lib.netapi.client;
+
+import fr.pandacube.lib.netapi.server.AbstractRequestExecutor;
+import fr.pandacube.lib.netapi.server.NetworkAPIListener;
+import fr.pandacube.lib.netapi.server.Response;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class NetworkAPIConnectionPoolTest {
+
+	private static final String PASS = "secret";
+
+	private NetworkAPIListener listener;
+	private InetSocketAddress address;
+
+	@After
+	public void closeListener() {
+		if (listener != null)
+			listener.closeServerSocket();
+	}
+
+	@Test(timeout = 10_000)
+	public void handshakeAndRequest() throws Exception {
+		startListener(4);
+		try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+			PrintStream out = new PrintStream(socket.getOutputStream(), false, StandardCharsets.UTF_8);
+			BufferedReader in = reader(socket);
+			out.print("#netapi-multiplexed-1\n" + PASS + "\n");
+			out.flush();
+			assertEquals("MULTIPLEXED-OK", in.readLine());
+
+			out.print("7\necho\n5\nhello");
+			out.flush();
+			assertEquals("7", in.readLine());
+			assertEquals("OK", in.readLine());
+			assertEquals("5", in.readLine());
+			assertEquals("hello", readChars(in, 5));
+		}
+	}
+
+	@Test(timeout = 10_000)
+	public void wrongPasswordGetsAClassicResponse() throws Exception {
+		startListener(4);
+		try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+			PrintStream out = new PrintStream(socket.getOutputStream(), false, StandardCharsets.UTF_8);
+			out.print("#netapi-multiplexed-1\nwrong\n");
+			out.flush();
+			assertEquals("ERROR", reader(socket).readLine());
+		}
+	}
+
+	@Test(timeout = 10_000)
+	public void responsesAreReceivedOutOfOrder() throws Exception {
+		startListener(4);
+		try (NetworkAPIConnectionPool pool = new NetworkAPIConnectionPool(address, PASS, 1)) {
+			CompletableFuture<ResponseAnalyser> slow = pool.sendRequestAsync(new TestRequest("sleep", "500"));
+			CompletableFuture<ResponseAnalyser> fast = pool.sendRequestAsync(new TestRequest("sleep", "0"));
+
+			ResponseAnalyser fastResponse = fast.get(5, TimeUnit.SECONDS);
+			assertFalse("the slow request should still be running", slow.isDone());
+			assertTrue(fastResponse.good);
+			assertTrue(fastResponse.data, fastResponse.data.startsWith("0 "));
+			ResponseAnalyser slowResponse = slow.get(5, TimeUnit.SECONDS);
+			assertTrue(slowResponse.data, slowResponse.data.startsWith("500 "));
+			assertTrue("multiplexed request", slowResponse.data.contains("#"));
+			// both requests on the same connection
+			assertEquals(fastResponse.data.substring(2, fastResponse.data.indexOf('#')),
+					slowResponse.data.substring(4, slowResponse.data.indexOf('#')));
+
+			ResponseAnalyser unknown = pool.sendRequest(new TestRequest("unknown", ""));
+			assertFalse(unknown.good);
+		}
+	}
+
+	@Test(timeout = 10_000)
+	public void malformedRequestClosesTheConnection() throws Exception {
+		startListener(4);
+		try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+			socket.setSoTimeout(5000);
+			PrintStream out = new PrintStream(socket.getOutputStream(), false, StandardCharsets.UTF_8);
+			BufferedReader in = reader(socket);
+			out.print("#netapi-multiplexed-1\n" + PASS + "\n");
+			out.flush();
+			assertEquals("MULTIPLEXED-OK", in.readLine());
+
+			out.print("1\nsleep\n3\n200");
+			out.print("2\necho\nnot a size\nxyz");
+			out.flush();
+			// the request in progress is answered, then the connection is closed without a response without id
+			assertEquals("1", in.readLine());
+			assertEquals("OK", in.readLine());
+			String size = in.readLine();
+			readChars(in, Integer.parseInt(size));
+			assertNull(in.readLine());
+		}
+	}
+
+	@Test(timeout = 10_000)
+	public void refusedConnectionFallsBackThenRetries() throws Exception {
+		startListener(1); // only one multiplexed connection
+		try (Socket blocking = new Socket(address.getAddress(), address.getPort());
+				NetworkAPIConnectionPool pool = new NetworkAPIConnectionPool(address, PASS, 1, 200)) {
+			PrintStream out = new PrintStream(blocking.getOutputStream(), false, StandardCharsets.UTF_8);
+			out.print("#netapi-multiplexed-1\n" + PASS + "\n");
+			out.flush();
+			assertEquals("MULTIPLEXED-OK", reader(blocking).readLine());
+
+			ResponseAnalyser legacy = pool.sendRequest(new TestRequest("sleep", "0"));
+			assertTrue(legacy.good);
+			assertFalse("classic request", legacy.data.contains("#"));
+
+			blocking.close();
+			Thread.sleep(400); // the server closes its side, and the retry delay expires
+
+			ResponseAnalyser multiplexed = pool.sendRequest(new TestRequest("sleep", "0"));
+			assertTrue(multiplexed.good);
+			assertTrue("multiplexed request", multiplexed.data.contains("#"));
+		}
+	}
+
+
+
+	private void startListener(int maxConcurrentRequests) throws Exception {
+		int port;
+		try (ServerSocket s = new ServerSocket(0)) {
+			port = s.getLocalPort();
+		}
+		InetAddress host = InetAddress.getLoopbackAddress();
+		listener = new NetworkAPIListener("test", host, port, PASS, maxConcurrentRequests);
+		new AbstractRequestExecutor("echo", listener) {
+			@Override
+			protected Response run(InetAddress source, String data) {
+				return new Response(true, data);
+			}
+		};
+		new AbstractRequestExecutor("sleep", listener) {
+			@Override
+			protected Response run(InetAddress source, String data) {
+				try {
+					Thread.sleep(Long.parseLong(data));
+				} catch (InterruptedException e) {
+					return new Response(false, e.toString());
+				}
+				// the thread name tells the connection, and the request id for the multiplexed requests
+				return new Response(true, data + " " + Thread.currentThread().getName());
+			}
+		};
+		Thread t = new Thread(listener, "NetworkAPI test listener");
+		t.setDaemon(true);
+		t.start();
+		address = new InetSocketAddress(host, port);
+
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (true) {
+			try (Socket ignored = new Socket(host, port)) {
+				return; // the listener reads an empty request, and logs a wrong password
+			} catch (IOException e) {
+				if (System.nanoTime() > deadline)
+					throw new IllegalStateException("Listener not started", e);
+				Thread.sleep(10);
+			}
+		}
+	}
+
+	private static BufferedReader reader(Socket socket) throws IOException {
+		return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+	}
+
+	private static String readChars(BufferedReader in, int count) throws IOException {
+		char[] chars = new char[count];
+		int read = 0;
+		while (read < count) {
+			int n = in.read(chars, read, count - read);
+			if (n < 0)
+				throw new IOException("End of stream");
+			read += n;
+		}
+		return new String(chars);
+	}
+
+	private static class TestRequest extends AbstractRequest {
+		private TestRequest(String command, String data) {
+			super(command, PASS);
+			setData(data);
+		}
+	}
+
+}
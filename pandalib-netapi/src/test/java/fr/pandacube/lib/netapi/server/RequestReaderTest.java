@@ -0,0 +1,136 @@
+package fr.pandacube.lib.netapi.server;
+
+import fr.pandacube.lib.netapi.server.RequestAnalyser.BadRequestException;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class RequestReaderTest {
+
+	@Test
+	public void lineEndings() throws Exception {
+		RequestReader in = reader("lf\ncrlf\r\n\r\nlone\rcr\nlast", 64, false);
+		assertEquals("lf", in.readLine());
+		assertEquals("crlf", in.readLine());
+		assertEquals("", in.readLine());
+		assertEquals("lone\rcr", in.readLine());
+		assertEquals("last", in.readLine()); // no line ending before the end of the stream
+		assertNull(in.readLine());
+		assertNull(in.readLine());
+	}
+
+	@Test
+	public void linesSpanningRefills() throws Exception {
+		// a buffer of 8 bytes, and a stream giving one byte at a time
+		RequestReader in = reader("cmd\r\npasswo\r\nabcdefg\n12345\r\n€€\r\n", 8, true);
+		assertEquals("cmd", in.readLine());
+		assertEquals("passwo", in.readLine()); // the \r and the \n read after moving the line to the start of the buffer
+		assertEquals("abcdefg", in.readLine()); // fills the whole buffer with its line ending
+		assertEquals("12345", in.readLine());
+		assertEquals("€€", in.readLine()); // a multibyte character split by a refill
+		assertNull(in.readLine());
+	}
+
+	@Test
+	public void lineTooLong() throws Exception {
+		RequestReader in = reader("short\n" + "x".repeat(20) + "\n", 16, false);
+		assertEquals("short", in.readLine());
+		assertBadRequest("line_too_long", in::readLine);
+
+		// exactly the buffer size, including the line ending
+		RequestReader fits = reader("x".repeat(15) + "\n", 16, true);
+		assertEquals("x".repeat(15), fits.readLine());
+	}
+
+	@Test
+	public void dataSizeCountedInBytes() throws Exception {
+		String data = "é€😀a"; // 2 + 3 + 4 + 1 bytes, but 5 chars
+		int size = data.getBytes(StandardCharsets.UTF_8).length;
+		for (boolean slow : new boolean[] { false, true }) {
+			RequestReader in = reader("cmd\n" + size + "\n" + data + "next\n", 32, slow);
+			assertEquals("cmd", in.readLine());
+			assertEquals(data, in.readData(in.readLine()));
+			assertEquals("next", in.readLine()); // the data is not followed by a line ending
+		}
+	}
+
+	@Test
+	public void dataLargerThanTheBuffer() throws Exception {
+		String data = "€".repeat(1000);
+		int size = data.getBytes(StandardCharsets.UTF_8).length;
+		for (boolean slow : new boolean[] { false, true }) {
+			RequestReader in = reader(size + "\n" + data + "0\n\n", 64, slow);
+			assertEquals(data, in.readData(in.readLine()));
+			assertEquals("", in.readData(in.readLine()));
+			assertEquals("", in.readLine());
+			assertNull(in.readLine());
+		}
+	}
+
+	@Test
+	public void wrongDataSizes() throws Exception {
+		assertBadRequest("wrong_data_size", () -> reader("", 16, false).readData("-1"));
+		assertBadRequest("wrong_data_size", () -> reader("", 16, false).readData(Integer.toString(RequestReader.MAX_DATA_SIZE + 1)));
+		assertBadRequest("wrong_data_size", () -> reader("", 16, false).readData(Integer.toString(Integer.MAX_VALUE)));
+		assertBadRequest("wrong_data_size_format", () -> reader("", 16, false).readData("abc"));
+		assertBadRequest("wrong_data_size_format", () -> reader("", 16, false).readData(""));
+		assertBadRequest("wrong_data_size_format", () -> reader("", 16, false).readData("99999999999"));
+		assertBadRequest("wrong_data_size_format", () -> reader("", 16, false).readData(" 5"));
+	}
+
+	@Test
+	public void truncatedStreams() throws Exception {
+		// data shorter than announced, smaller, then larger than the buffer
+		assertBadRequest("wrong_data_size", () -> reader("abc", 16, true).readData("5"));
+		assertBadRequest("wrong_data_size", () -> reader("x".repeat(100), 16, false).readData("200"));
+		assertBadRequest("wrong_data_size", () -> reader("", 16, false).readData("1"));
+
+		RequestReader in = reader("cmd\npass", 16, true);
+		assertEquals("cmd", in.readLine());
+		assertEquals("pass", in.readLine());
+		assertNull(in.readLine());
+		assertEquals("", in.readData("0"));
+	}
+
+
+
+	private static RequestReader reader(String content, int bufferSize, boolean oneByteAtATime) {
+		InputStream stream = new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+		if (oneByteAtATime) {
+			InputStream source = stream;
+			stream = new InputStream() {
+				@Override
+				public int read() throws IOException {
+					return source.read();
+				}
+
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException {
+					return source.read(b, off, Math.min(len, 1));
+				}
+			};
+		}
+		return new RequestReader(stream, new byte[bufferSize]);
+	}
+
+	private static void assertBadRequest(String expectedMessage, ReaderAction action) throws IOException {
+		try {
+			action.run();
+			fail("expected " + expectedMessage);
+		} catch (BadRequestException e) {
+			assertEquals(expectedMessage, e.getMessage());
+		}
+	}
+
+	private interface ReaderAction {
+		void run() throws IOException, BadRequestException;
+	}
+
+}
@@ -325,7 +325,8 @@ public sealed abstract class PermEntity permits PermPlayer, PermGroup {
 	 */
 	public Boolean hasPermission(String permission, String server, String world) {
 		Boolean ret = Permissions.resolver.getEffectivePermission(name, type, permission, server, world);
-		Log.debug("[Perm] For " + type.toString().toLowerCase() + " " + getName() + ", '" + permission + "' is " + ret);
+		if (Log.isDebugEnabled())
+			Log.debug("[Perm] For " + type.toString().toLowerCase() + " " + getName() + ", '" + permission + "' is " + ret);
 		return ret;
 	}
 
@@ -0,0 +1,162 @@
+package fr.pandacube.lib.permissions;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The self permissions of an entity for a specific server and world, compiled into a prefix tree of their lowercase
+ * characters.
+ * <p>
+ * {@link #match(String)} tells which kind of self permissions match a permission, in a single walk of the tree and
+ * without allocating anything. The result is the same as testing each self permission as follows, stopping at the first
+ * matching rule:
+ * <ol>
+ *     <li>{@code p} is equal to the permission: explicitly granted;</li>
+ *     <li>{@code p} is equal to {@code "-"} followed by the permission: explicitly revoked;</li>
+ *     <li>{@code p} ends with {@code *} and the permission starts with {@code p} without the {@code *}: granted by
+ *         wildcard;</li>
+ *     <li>{@code p} starts with {@code -}, ends with {@code *} and the permission starts with {@code p} without the
+ *         {@code -} and the {@code *}: revoked by wildcard.</li>
+ * </ol>
+ * Each node counts the self permissions matching a permission that ends or passes on this node. Since a self
+ * permission can only match one rule, the self permissions matching a previous rule are counted on the node where the
+ * rule applies, and subtracted from the wildcard counters.
+ */
+/* package */ final class PermissionTrie {
+
+	/* package */ static final int EXPLICIT_GRANTED = 1;
+	/* package */ static final int EXPLICIT_REVOKED = 1 << 1;
+	/* package */ static final int WILDCARD_GRANTED = 1 << 2;
+	/* package */ static final int WILDCARD_REVOKED = 1 << 3;
+
+	/* package */ static final PermissionTrie EMPTY = new PermissionTrie(List.of());
+
+	private final Node root = new Node();
+
+	/* package */ PermissionTrie(List<String> selfPermissions) {
+		for (String p : selfPermissions) {
+			String lp = p.toLowerCase();
+			// rules 1 and 2
+			node(lp).explicitGranted++;
+			if (lp.startsWith("-"))
+				node(lp.substring(1)).explicitRevoked++;
+			if (!lp.endsWith("*"))
+				continue;
+
+			// rule 3. Rule 2 never applies to a permission also matched by this rule
+			String grantPrefix = lp.substring(0, lp.length() - 1);
+			node(grantPrefix).wildcardGranted++;
+			node(lp).wildcardGrantedExcludedHere++; // rule 1
+
+			if (!lp.startsWith("-"))
+				continue;
+			// rule 4
+			String revokePrefix = lp.substring(1, lp.length() - 1);
+			node(revokePrefix).wildcardRevoked++;
+			node(revokePrefix + "*").wildcardRevokedExcludedHere++; // rule 2
+			// The permissions matched by rule 3 (and by rule 1) also start with the prefix of rule 4 only if this prefix
+			// is only made of '-'
+			if (revokePrefix.chars().allMatch(c -> c == '-'))
+				node(grantPrefix).wildcardRevokedExcludedBelow++;
+		}
+		root.compact();
+	}
+
+	/**
+	 * Tells which kind of self permissions match the provided permission.
+	 * @param permission the lowercase permission.
+	 * @return a combination of the {@code EXPLICIT_*} and {@code WILDCARD_*} flags of this class.
+	 */
+	/* package */ int match(String permission) {
+		Node n = root;
+		int wildcardGranted = 0, wildcardRevoked = 0;
+		int i = 0;
+		while (true) {
+			wildcardGranted += n.wildcardGranted;
+			wildcardRevoked += n.wildcardRevoked - n.wildcardRevokedExcludedBelow;
+			if (i == permission.length())
+				break;
+			n = n.child(permission.charAt(i++));
+			if (n == null)
+				break;
+		}
+
+		int result = 0;
+		if (n != null) {
+			if (n.explicitGranted > 0)
+				result |= EXPLICIT_GRANTED;
+			if (n.explicitRevoked > 0)
+				result |= EXPLICIT_REVOKED;
+			wildcardGranted -= n.wildcardGrantedExcludedHere;
+			wildcardRevoked -= n.wildcardRevokedExcludedHere;
+		}
+		if (wildcardGranted > 0)
+			result |= WILDCARD_GRANTED;
+		if (wildcardRevoked > 0)
+			result |= WILDCARD_REVOKED;
+		return result;
+	}
+
+	private Node node(String key) {
+		Node n = root;
+		for (int i = 0; i < key.length(); i++)
+			n = n.getOrCreateChild(key.charAt(i));
+		return n;
+	}
+
+
+
+	private static final class Node {
+		private char[] keys = new char[0];
+		private Node[] children = new Node[0];
+		private int explicitGranted, explicitRevoked;
+		private int wildcardGranted, wildcardGrantedExcludedHere;
+		private int wildcardRevoked, wildcardRevokedExcludedHere, wildcardRevokedExcludedBelow;
+
+		private Node child(char c) {
+			int i = Arrays.binarySearch(keys, c);
+			return i < 0 ? null : children[i];
+		}
+
+		private Node getOrCreateChild(char c) {
+			int i = Arrays.binarySearch(keys, c);
+			if (i >= 0)
+				return children[i];
+			i = -i - 1;
+			char[] newKeys = new char[keys.length + 1];
+			Node[] newChildren = new Node[children.length + 1];
+			System.arraycopy(keys, 0, newKeys, 0, i);
+			System.arraycopy(children, 0, newChildren, 0, i);
+			newKeys[i] = c;
+			newChildren[i] = new Node();
+			System.arraycopy(keys, i, newKeys, i + 1, keys.length - i);
+			System.arraycopy(children, i, newChildren, i + 1, children.length - i);
+			keys = newKeys;
+			children = newChildren;
+			return newChildren[i];
+		}
+
+		/**
+		 * Removes the nodes that do not count any self permission.
+		 * @return true if this node and all its children are empty.
+		 */
+		private boolean compact() {
+			int kept = 0;
+			for (int i = 0; i < keys.length; i++) {
+				if (!children[i].compact()) {
+					keys[kept] = keys[i];
+					children[kept] = children[i];
+					kept++;
+				}
+			}
+			if (kept < keys.length) {
+				keys = Arrays.copyOf(keys, kept);
+				children = Arrays.copyOf(children, kept);
+			}
+			return kept == 0 && explicitGranted == 0 && explicitRevoked == 0
+					&& wildcardGranted == 0 && wildcardGrantedExcludedHere == 0
+					&& wildcardRevoked == 0 && wildcardRevokedExcludedHere == 0 && wildcardRevokedExcludedBelow == 0;
+		}
+	}
+
+}
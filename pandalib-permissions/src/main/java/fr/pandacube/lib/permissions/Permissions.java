@@ -1,13 +1,21 @@
 package fr.pandacube.lib.permissions;
 
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
 import java.util.function.Function;
 
 import fr.pandacube.lib.db.DB;
 import fr.pandacube.lib.db.DBConnection;
 import fr.pandacube.lib.db.DBException;
+import fr.pandacube.lib.permissions.PermissionsBackendWriter.ChangedEntity;
+import fr.pandacube.lib.permissions.SQLPermissions.EntityType;
 import fr.pandacube.lib.util.log.Log;
 
 /**
@@ -22,7 +30,9 @@ public class Permissions {
 	/* package */ static PermissionsCachedBackendReader backendReader;
 	/* package */ static PermissionsResolver resolver;
 	/* package */ static PermissionsBackendWriter backendWriter;
+	/* package */ static PermissionsPlayerPreloader playerPreloader;
 	/* package */ static Function<UUID, String> playerNameGetter = UUID::toString;
+	private static BiConsumer<Set<String>, Set<UUID>> changesPublisher = null;
 	
 	/**
 	 * Initialize the permission system.
@@ -41,10 +51,12 @@ public class Permissions {
 			backendReader = new PermissionsCachedBackendReader();
 			resolver = new PermissionsResolver(backendReader);
 			backendWriter = new PermissionsBackendWriter();
+			playerPreloader = new PermissionsPlayerPreloader(backendReader);
 		} catch (Exception e) {
 			backendReader = null;
 			resolver = null;
 			backendWriter = null;
+			playerPreloader = null;
 			throw e;
 		}
 	}
@@ -81,11 +93,20 @@ public class Permissions {
 	/**
 	 * Clears all the cached data (players and groups) and fetch all the groups' data from the database.
 	 * The clearing and fetching of the data is made asynchronously in a new thread.
+	 * <p>
+	 * This method should be used when the permission data was modified outside of this permission system (for
+	 * instance, by another server). To apply the modifications made using the {@link PermEntity} methods, use
+	 * {@link #refreshChangedEntities(Runnable)} instead.
+	 * <p>
+	 * The entities modified using the {@link PermEntity} methods since the last call of
+	 * {@link #refreshChangedEntities(Runnable)} are reloaded with all the other data, and published to the other
+	 * instances (see {@link #setChangesPublisher(BiConsumer)}), so they are not refreshed again later.
 	 * @param then the action to perform after the cache has been updated.
 	 * @throws IllegalStateException if the permission system was not initialized properly.
 	 */
 	public static void clearCache(Runnable then) {
 		checkInitialized();
+		publishChanges(backendWriter.pollChangedEntities());
 		backendReader.clearAndResetCacheAsync(() -> {
 			resolver.clearCache();
 			if (then != null)
@@ -93,6 +114,128 @@ public class Permissions {
 		});
 	}
 
+	/**
+	 * Reloads the cached data of the entities modified using the {@link PermEntity} methods since the last call of this
+	 * method, of the groups inheriting from the modified groups, and of the players inheriting from any of these
+	 * groups. The data of the other entities is kept in cache.
+	 * The fetching of the data is made asynchronously in a new thread. If it fails, all the cached data is reloaded,
+	 * like {@link #clearCache(Runnable)} does.
+	 * @param then the action to perform after the cache has been updated.
+	 * @throws IllegalStateException if the permission system was not initialized properly.
+	 */
+	public static void refreshChangedEntities(Runnable then) {
+		checkInitialized();
+		Set<ChangedEntity> changes = backendWriter.pollChangedEntities();
+		publishChanges(changes);
+		refreshEntities(changes, then);
+	}
+
+	private static void publishChanges(Set<ChangedEntity> changes) {
+		if (changes.isEmpty() || changesPublisher == null)
+			return;
+		Set<String> groups = new LinkedHashSet<>();
+		Set<UUID> players = new LinkedHashSet<>();
+		for (ChangedEntity change : changes) {
+			if (change.type() == EntityType.Group)
+				groups.add(change.name());
+			else {
+				try {
+					players.add(UUID.fromString(change.name()));
+				} catch (IllegalArgumentException e) {
+					Log.warning("Invalid player UUID in the changed permission entities, not published: " + change.name());
+				}
+			}
+		}
+		try {
+			changesPublisher.accept(Collections.unmodifiableSet(groups), Collections.unmodifiableSet(players));
+		} catch (Exception e) {
+			Log.severe("Error while publishing the permission changes", e);
+		}
+	}
+
+	/**
+	 * Sets the action that publishes the entities modified using the {@link PermEntity} methods to the other instances
+	 * of this permission system, for instance through a websocket connection.
+	 * <p>
+	 * The publisher is called by {@link #refreshChangedEntities(Runnable)}, with the lowercase name of the modified
+	 * groups and the UUID of the modified players, before the local cache is refreshed. The other instances should then
+	 * call {@link #applyRemoteChanges(Collection, Collection, Runnable)} with the same data.
+	 * @param publisher the publisher, or null to not publish the changes.
+	 * @throws IllegalStateException if the permission system was not initialized properly.
+	 */
+	public static void setChangesPublisher(BiConsumer<Set<String>, Set<UUID>> publisher) {
+		checkInitialized();
+		changesPublisher = publisher;
+	}
+
+	/**
+	 * Reloads the cached data of entities modified by another instance of this permission system, as provided to the
+	 * publisher of the other instance (see {@link #setChangesPublisher(BiConsumer)}).
+	 * Like {@link #refreshChangedEntities(Runnable)}, the groups inheriting from the modified groups and the players
+	 * inheriting from any of these groups are also reloaded, the data of the other entities is kept in cache, and all the
+	 * cached data is reloaded if the fetching fails. The changes applied by this method are not published again.
+	 * @param groups the name of the modified groups.
+	 * @param players the UUID of the modified players.
+	 * @param then the action to perform after the cache has been updated.
+	 * @throws IllegalStateException if the permission system was not initialized properly.
+	 */
+	public static void applyRemoteChanges(Collection<String> groups, Collection<UUID> players, Runnable then) {
+		checkInitialized();
+		Set<ChangedEntity> changes = new LinkedHashSet<>();
+		if (groups != null)
+			groups.forEach(g -> changes.add(new ChangedEntity(g.toLowerCase(), EntityType.Group)));
+		if (players != null)
+			players.forEach(p -> changes.add(new ChangedEntity(p.toString(), EntityType.User)));
+		refreshEntities(changes, then);
+	}
+
+	private static void refreshEntities(Set<ChangedEntity> changes, Runnable then) {
+		if (changes.isEmpty()) {
+			if (then != null)
+				then.run();
+			return;
+		}
+		backendReader.refreshEntitiesAsync(changes, refreshed -> {
+			if (refreshed == null)
+				resolver.clearCache();
+			else
+				resolver.clearEntitiesFromCache(refreshed.groups(),
+						// the data of a player not in the backend cache may be based on the old data of a group
+						p -> refreshed.players().contains(p) || !backendReader.isPlayerCached(p));
+			if (then != null)
+				then.run();
+		});
+	}
+
+	/**
+	 * Enables or disables the flattened permission snapshots of the players.
+	 * <p>
+	 * When enabled, the first permission check of a player in a server and world resolves at once all the permissions
+	 * defined in the player's inheritance tree, into an immutable snapshot. The following permission checks in this
+	 * context are answered from this snapshot, instead of being resolved and cached one by one. The snapshot is rebuilt
+	 * only when the cached data of the player or of one of its groups is cleared.
+	 * The special permissions are still resolved for each check, and the conflicts are not logged when resolved from a
+	 * snapshot (use {@link PermEntity#debugPermission(String)} to see them).
+	 * <p>
+	 * This mode is disabled by default.
+	 * @param enabled true to enable the snapshots, false to disable them.
+	 * @throws IllegalStateException if the permission system was not initialized properly.
+	 */
+	public static void setPlayerSnapshotsEnabled(boolean enabled) {
+		checkInitialized();
+		resolver.setPlayerSnapshotsEnabled(enabled);
+	}
+
+	/**
+	 * Gets the metrics of the permission resolution and of its caches.
+	 * @return the metrics of the permission resolution.
+	 * @throws IllegalStateException if the permission system was not initialized properly.
+	 */
+	public static PermissionsMetrics getMetrics() {
+		checkInitialized();
+		return resolver.metrics;
+	}
+
 	/**
 	 * Gets the permission player object.
 	 * @param playerId the UUID of the player.
@@ -133,20 +276,29 @@ public class Permissions {
 	 * Asks the permission system to preventively and asynchronously cache the data of the provided player.
 	 * This can be called as soon as possible when a player connects, so the permission data of the player are
 	 * accessible as soon as possible when they are needed.
+	 * <p>
+	 * The players requested within a few milliseconds are loaded together by a background thread, using a single
+	 * query, so a lot of players connecting at the same time do not create as many threads and queries.
+	 * <p>
+	 * Use {@link #loadPlayerAsync(UUID)} to be notified when the data is cached.
 	 * @param playerId the UUID of the player.
 	 * @throws IllegalStateException if the permission system was not initialized properly.
 	 */
 	public static void precachePlayerAsync(UUID playerId) {
+		loadPlayerAsync(playerId);
+	}
+
+	/**
+	 * Asks the permission system to preventively and asynchronously cache the data of the provided player, like
+	 * {@link #precachePlayerAsync(UUID)}, and provides the permission player object when its data is cached.
+	 * @param playerId the UUID of the player.
+	 * @return a future completed when the data of the player is cached, that can be awaited before the player finishes
+	 *         to log in. It is completed exceptionally if an error occurs when loading the data.
+	 * @throws IllegalStateException if the permission system was not initialized properly.
+	 */
+	public static CompletableFuture<PermPlayer> loadPlayerAsync(UUID playerId) {
 		checkInitialized();
-		Thread t = new Thread(() -> {
-			try {
-				backendReader.getCachedPlayer(playerId);
-			} catch (RuntimeException e) {
-				Log.warning("Can’t init player cache asynchronously: " + e.getMessage());
-			}
-		}, "Async permissions player cache loader");
-		t.setDaemon(true);
-		t.start();
+		return playerPreloader.preload(playerId).thenApply(v -> getPlayer(playerId));
 	}
 
 	/**
@@ -1,6 +1,8 @@
 package fr.pandacube.lib.permissions;
 
+import java.util.LinkedHashSet;
 import java.util.Objects;
+import java.util.Set;
 
 import com.google.common.base.Preconditions;
 
@@ -10,6 +12,29 @@ import fr.pandacube.lib.permissions.SQLPermissions.EntityType;
 
 /* package */ class PermissionsBackendWriter {
 	
+	private final Set<ChangedEntity> changedEntities = new LinkedHashSet<>();
+	
+	/**
+	 * Gets and forgets the entities modified through this writer since the last call of this method.
+	 * @return the modified entities.
+	 */
+	/* package */ synchronized Set<ChangedEntity> pollChangedEntities() {
+		Set<ChangedEntity> changes = new LinkedHashSet<>(changedEntities);
+		changedEntities.clear();
+		return changes;
+	}
+	
+	private synchronized void markChanged(String name, EntityType type) {
+		changedEntities.add(new ChangedEntity(name, type));
+	}
+	
+	/**
+	 * An entity modified through this writer.
+	 * @param name the lowercase name of the entity.
+	 * @param type the type of the entity.
+	 */
+	/* package */ record ChangedEntity(String name, EntityType type) { }
+	
 	
 	/* package */ void addSelfPermission(String name, EntityType type, String permission, String server, String world) {
 		Objects.requireNonNull(name, "name cannot be null");
@@ -24,6 +49,7 @@ import fr.pandacube.lib.permissions.SQLPermissions.EntityType;
 		if (hasEntry(name, type, "permissions", permission, server, world))
 			throw new IllegalStateException("Permission already set");
 		addEntry(name, type, "permissions", permission, server, world);
+		markChanged(name, type);
 	}
 	
 	/* package */ void removeSelfPermission(String name, EntityType type, String permission, String server, String world) {
@@ -38,6 +64,7 @@ import fr.pandacube.lib.permissions.SQLPermissions.EntityType;
 		
 		if (!deleteEntry(name, type, "permissions", permission, server, world))
 			throw new IllegalStateException("Permission was not set");
+		markChanged(name, type);
 	}
 	
 	
@@ -76,6 +103,8 @@ import fr.pandacube.lib.permissions.SQLPermissions.EntityType;
 			}
 		} catch (DBException e) {
 			throw new RuntimeException(e);
+		} finally {
+			markChanged(name, EntityType.Group);
 		}
 	}
 	
@@ -112,6 +141,8 @@ import fr.pandacube.lib.permissions.SQLPermissions.EntityType;
 			}
 		} catch (DBException e) {
 			throw new RuntimeException(e);
+		} finally {
+			markChanged(name, type);
 		}
 	}
 	
@@ -143,6 +174,8 @@ import fr.pandacube.lib.permissions.SQLPermissions.EntityType;
 			}
 		} catch (DBException e) {
 			throw new RuntimeException(e);
+		} finally {
+			markChanged(name, type);
 		}
 	}
 	
@@ -171,6 +204,7 @@ import fr.pandacube.lib.permissions.SQLPermissions.EntityType;
 		} catch (DBException e) {
 			throw new RuntimeException(e);
 		}
+		markChanged(name, type);
 		
 	}
 	
@@ -194,6 +228,7 @@ import fr.pandacube.lib.permissions.SQLPermissions.EntityType;
 		} catch (DBException e) {
 			throw new RuntimeException(e);
 		}
+		markChanged(name, type);
 	}
 	
 	/* package */ void setInheritance(String name, EntityType type, String inheritance) {
@@ -213,6 +248,8 @@ import fr.pandacube.lib.permissions.SQLPermissions.EntityType;
 			addEntry(name, type, key, inheritance, null, null);
 		} catch (DBException e) {
 			throw new RuntimeException(e);
+		} finally {
+			markChanged(name, type);
 		}
 	}
 	
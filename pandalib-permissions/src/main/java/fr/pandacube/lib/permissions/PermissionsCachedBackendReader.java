@@ -1,6 +1,11 @@
 package fr.pandacube.lib.permissions;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -8,8 +13,11 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import com.google.common.cache.Cache;
@@ -18,6 +26,8 @@ import com.google.common.cache.CacheBuilder;
 import fr.pandacube.lib.db.DB;
 import fr.pandacube.lib.db.DBException;
 import fr.pandacube.lib.db.SQLElementList;
+import fr.pandacube.lib.db.SQLWhere;
+import fr.pandacube.lib.permissions.PermissionsBackendWriter.ChangedEntity;
 import fr.pandacube.lib.permissions.SQLPermissions.EntityType;
 import fr.pandacube.lib.util.log.Log;
 
@@ -36,39 +46,91 @@ import fr.pandacube.lib.util.log.Log;
 	
 	
 	
+	// The read methods of this class are not synchronized: the players are loaded by the cache, without blocking the
+	// loading of the other players, and the groups are replaced all at once by an immutable snapshot.
 	private final Cache<UUID, CachedPlayer> usersCache = CacheBuilder.newBuilder()
 			.expireAfterAccess(10, TimeUnit.MINUTES)
 			.build();
-	private Set<String> fullPermissionsList = new TreeSet<>();
+	// The invalidation of a player is ignored by the cache while the player is loading, so each loaded player keeps the
+	// generation of its data, that is compared after the loading. The counter of a player is kept as long as a loaded or
+	// loading player references it.
+	private final Cache<UUID, AtomicLong> playerGenerations = CacheBuilder.newBuilder()
+			.weakValues()
+			.build();
+	private final AtomicLong playersInvalidationCount = new AtomicLong();
+	private volatile Set<String> fullPermissionsList = new ConcurrentSkipListSet<>();
 	
-	/* package */ synchronized List<String> getFullPermissionsList() {
+	/* package */ List<String> getFullPermissionsList() {
 		return new ArrayList<>(fullPermissionsList);
 	}
 	
-	/* package */ synchronized void clearPlayerCache(UUID playerId) {
-		usersCache.invalidate(playerId);
+	/* package */ void clearPlayerCache(UUID playerId) {
+		invalidatePlayers(List.of(playerId));
 	}
-
-	/* package */ synchronized CachedPlayer getCachedPlayer(UUID playerId) {
+	
+	private void invalidatePlayers(Collection<UUID> playerIds) {
+		playersInvalidationCount.incrementAndGet();
+		for (UUID playerId : playerIds) {
+			AtomicLong generation = playerGenerations.getIfPresent(playerId);
+			if (generation != null)
+				generation.incrementAndGet();
+		}
+		usersCache.invalidateAll(playerIds);
+	}
+	
+	private void invalidateAllPlayers() {
+		playersInvalidationCount.incrementAndGet();
+		playerGenerations.asMap().values().forEach(AtomicLong::incrementAndGet);
+		usersCache.invalidateAll();
+	}
+	
+	private AtomicLong getPlayerGeneration(UUID playerId) {
 		try {
-			return usersCache.get(playerId, () -> {
-				try {
-					return initPlayer(playerId);
-				} catch (DBException e) {
-					throw new RuntimeException(e);
-				}
-			});
+			return playerGenerations.get(playerId, AtomicLong::new);
 		} catch (ExecutionException e) {
 			throw new RuntimeException(e);
 		}
 	}
 
-	/* package */ synchronized List<CachedPlayer> getAllCachedPlayers() {
+	/* package */ CachedPlayer getCachedPlayer(UUID playerId) {
+		while (true) {
+			CachedPlayer player;
+			try {
+				player = usersCache.get(playerId, () -> {
+					try {
+						return initPlayer(playerId);
+					} catch (DBException e) {
+						throw new RuntimeException(e);
+					}
+				});
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e);
+			}
+			if (player != DEFAULT_PLAYER && player.generationCounter.get() != player.generation) {
+				// the player was invalidated while loading
+				usersCache.asMap().remove(playerId, player);
+				continue;
+			}
+			GroupsSnapshot current = groupsSnapshot;
+			if (player.groupsSnapshot == current || player == DEFAULT_PLAYER)
+				return player;
+			// The groups were reloaded since the player was loaded. If the player still references the current
+			// instances of its groups, it is up to date. Otherwise, it was loaded during the update of the groups.
+			if (current.isUpToDate(player)) {
+				player.groupsSnapshot = current;
+				return player;
+			}
+			usersCache.asMap().remove(playerId, player);
+		}
+	}
+
+	/* package */ List<CachedPlayer> getAllCachedPlayers() {
 		return new ArrayList<>(usersCache.asMap().values());
 	}
 
-	/* package */ synchronized void precacheAllPlayers() {
+	/* package */ void precacheAllPlayers() {
 		try {
+			long invalidationCount = playersInvalidationCount.get();
             DB.getAll(SQLPermissions.class, SQLPermissions.type.eq(EntityType.User.getCode()))
 					.stream()
 					.collect(Collectors.groupingBy(el -> el.get(SQLPermissions.name))
@@ -76,7 +138,11 @@ import fr.pandacube.lib.util.log.Log;
 					.forEach((idStr, pData) -> {
 						try {
 							UUID pId = UUID.fromString(idStr);
-							usersCache.put(pId, initPlayer(pId, pData));
+							AtomicLong generation = getPlayerGeneration(pId);
+							long loadedGeneration = generation.get();
+							// the data of the players invalidated during the query are loaded again when needed
+							if (playersInvalidationCount.get() == invalidationCount)
+								usersCache.put(pId, initPlayer(pId, pData, generation, loadedGeneration));
 						} catch (Exception e) {
 							Log.severe("Error caching player permission data (name=\"" + idStr + "\")", e);
 						}
@@ -86,19 +152,69 @@ import fr.pandacube.lib.util.log.Log;
 		}
 	}
 
+	/**
+	 * Loads the data of the provided players that are not already cached, using one query for all of them.
+	 * @param playerIds the ids of the players to load.
+	 * @throws DBException if an error occurs when interacting with the database.
+	 */
+	/* package */ void precachePlayers(Collection<UUID> playerIds) throws DBException {
+		Set<String> toLoad = new HashSet<>();
+		for (UUID playerId : playerIds) {
+			if (!playerId.equals(DEFAULT_PLAYER.playerId) && usersCache.getIfPresent(playerId) == null)
+				toLoad.add(playerId.toString());
+		}
+		if (toLoad.isEmpty())
+			return;
+		
+		Map<String, AtomicLong> generations = new HashMap<>();
+		Map<String, Long> loadedGenerations = new HashMap<>();
+		for (String idStr : toLoad) {
+			AtomicLong generation = getPlayerGeneration(UUID.fromString(idStr));
+			generations.put(idStr, generation);
+			loadedGenerations.put(idStr, generation.get());
+		}
+		
+		Map<String, List<SQLPermissions>> playersData = loadPlayersData(toLoad);
+		
+		for (String idStr : toLoad) {
+			UUID pId = UUID.fromString(idStr);
+			// does not replace the data loaded in the meantime by getCachedPlayer()
+			usersCache.asMap().putIfAbsent(pId, initPlayer(pId, playersData.getOrDefault(idStr, List.of()),
+					generations.get(idStr), loadedGenerations.get(idStr)));
+		}
+	}
+
 	private CachedPlayer initPlayer(UUID playerId) throws DBException {
 		if (playerId.equals(DEFAULT_PLAYER.playerId))
 			return DEFAULT_PLAYER;
 		
-		SQLElementList<SQLPermissions> playerData = DB.getAll(SQLPermissions.class,
-				SQLPermissions.type.eq(EntityType.User.getCode())
-						.and(SQLPermissions.name.like(playerId.toString()))
-		);
+		AtomicLong generation = getPlayerGeneration(playerId);
+		long loadedGeneration = generation.get();
+		
+		List<SQLPermissions> playerData = loadPlayersData(Set.of(playerId.toString()))
+				.getOrDefault(playerId.toString(), List.of());
 
-		return initPlayer(playerId, playerData);
+		return initPlayer(playerId, playerData, generation, loadedGeneration);
+	}
+	
+	/**
+	 * Fetches the permission data of the provided players from the database.
+	 * @param playerIds the ids of the players, as strings.
+	 * @return the data of the players, by player id. The players without data are absent.
+	 * @throws DBException if an error occurs when interacting with the database.
+	 */
+	/* package */ Map<String, List<SQLPermissions>> loadPlayersData(Set<String> playerIds) throws DBException {
+		return DB.getAll(SQLPermissions.class,
+				SQLPermissions.type.eq(EntityType.User.getCode())
+						.and(playerIds.size() == 1
+								? SQLPermissions.name.eq(playerIds.iterator().next())
+								: SQLPermissions.name.in(playerIds))
+				)
+				.stream()
+				.collect(Collectors.groupingBy(el -> el.get(SQLPermissions.name)));
 	}
 
-	private CachedPlayer initPlayer(UUID playerId, List<SQLPermissions> playerData) {
+	private CachedPlayer initPlayer(UUID playerId, List<SQLPermissions> playerData, AtomicLong generation, long loadedGeneration) {
 		
 		Map<String, List<SQLPermissions>> playerRawData = playerData.stream()
 				.collect(
@@ -138,16 +254,20 @@ import fr.pandacube.lib.util.log.Log;
 		}
 		
 		CachedPlayer player = new CachedPlayer(playerId, playerSelfPrefix, playerSelfSuffix, playerSelfPerms);
+		player.generationCounter = generation;
+		player.generation = loadedGeneration;
 		
+		GroupsSnapshot snapshot = groupsSnapshot;
+		player.groupsSnapshot = snapshot;
 		if (playerRawData.containsKey("groups")) {
-			playerRawData.get("groups").stream()
-					.map(e -> e.get(SQLPermissions.value))
-					.forEach(g -> player.groups.add(getCachedGroup(g)));
+			player.groups = playerRawData.get("groups").stream()
+					.map(e -> snapshot.getOrEmpty(e.get(SQLPermissions.value)))
+					.toList();
 		}
 		
 		if (player.groups.isEmpty()) {
 			player.usingDefaultGroups = true;
-			player.groups.addAll(getDefaultGroups());
+			player.groups = snapshot.defaultGroups();
 		}
 		
 		return player;
@@ -163,32 +283,77 @@ import fr.pandacube.lib.util.log.Log;
 	
 	
 	
-	private final Map<String, CachedGroup> groupsCache = new LinkedHashMap<>();
+	private volatile GroupsSnapshot groupsSnapshot = new GroupsSnapshot(Map.of());
 	private boolean cacheIsUpdating = false;
+	// the number of full reloads started and completed, so a reload requested during another one is not skipped
+	private long startedCacheUpdates = 0;
+	private long completedCacheUpdates = 0;
+	// prevents a full reload and an incremental refresh of the groups to run at the same time
+	private final Object groupsUpdateLock = new Object();
 	
 	
-	/* package */ synchronized CachedGroup getCachedGroup(String group) {
-		return groupsCache.getOrDefault(group, new CachedGroup(group, null, null, false, new LinkedHashMap<>()));
+	/* package */ CachedGroup getCachedGroup(String group) {
+		return groupsSnapshot.getOrEmpty(group);
 	}
 	
-	/* package */ synchronized List<CachedGroup> getDefaultGroups() {
-		return groupsCache.values().stream()
-				.filter(g -> g.deflt)
-				.collect(Collectors.toList());
+	/* package */ List<CachedGroup> getDefaultGroups() {
+		return groupsSnapshot.defaultGroups();
 	}
 
 	public List<CachedGroup> getGroups() {
-		return new ArrayList<>(groupsCache.values());
+		return new ArrayList<>(groupsSnapshot.groups().values());
+	}
+	
+	/**
+	 * Replaces the cached groups and updates the default player. Must be called while holding the groupsUpdateLock.
+	 */
+	private void publishGroups(Map<String, CachedGroup> newGroups) {
+		GroupsSnapshot snapshot = new GroupsSnapshot(newGroups);
+		groupsSnapshot = snapshot;
+		DEFAULT_PLAYER.groups = snapshot.defaultGroups();
+		DEFAULT_PLAYER.groupsSnapshot = snapshot;
+	}
+	
+	/**
+	 * An immutable view of all the cached groups.
+	 * @param groups the groups, by name.
+	 * @param defaultGroups the default groups.
+	 */
+	private record GroupsSnapshot(Map<String, CachedGroup> groups, List<CachedGroup> defaultGroups) {
+		private GroupsSnapshot(Map<String, CachedGroup> groups) {
+			this(Collections.unmodifiableMap(new LinkedHashMap<>(groups)),
+					groups.values().stream().filter(g -> g.deflt).toList());
+		}
+		
+		private CachedGroup getOrEmpty(String name) {
+			CachedGroup group = groups.get(name);
+			return group != null ? group : new CachedGroup(name, null, null, false, new LinkedHashMap<>());
+		}
+		
+		private boolean isUpToDate(CachedPlayer player) {
+			if (player.usingDefaultGroups)
+				return player.groups.equals(defaultGroups);
+			for (CachedGroup g : player.groups) {
+				if (groups.get(g.name) != g)
+					return false;
+			}
+			return true;
+		}
 	}
 	
+	/**
+	 * Reloads asynchronously all the data. If a reload is already in progress, it may have read the data before the
+	 * request, so another reload is done after it, unless a reload started after the request completes in the meantime.
+	 * @param then the action to perform after the cache has been updated, even if the reload failed.
+	 */
 	/* package */ void clearAndResetCacheAsync(Runnable then) {
+		long requestedAfter;
 		synchronized (this) {
-			if (cacheIsUpdating)
-				return;
+			requestedAfter = startedCacheUpdates;
 		}
 		Thread t = new Thread(() -> {
 			try {
-				clearAndResetCache();
+				clearAndResetCache(requestedAfter);
 			} catch (Throwable e) {
 				Log.severe(e);
 			}
@@ -200,48 +365,205 @@ import fr.pandacube.lib.util.log.Log;
 	}
 	
 	private void clearAndResetCache() throws DBException {
+		long requestedAfter;
 		synchronized (this) {
-			if (cacheIsUpdating)
+			requestedAfter = startedCacheUpdates;
+		}
+		clearAndResetCache(requestedAfter);
+	}
+	
+	/**
+	 * Reloads all the data, after waiting for the end of the reload in progress.
+	 * @param requestedAfter the number of reloads started when this reload was requested. If a later reload completes
+	 *                       while waiting, the data is already up to date and is not reloaded again.
+	 */
+	private void clearAndResetCache(long requestedAfter) throws DBException {
+		synchronized (this) {
+			boolean interrupted = false;
+			while (cacheIsUpdating && completedCacheUpdates <= requestedAfter) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+			if (completedCacheUpdates > requestedAfter)
 				return;
 			cacheIsUpdating = true;
+			startedCacheUpdates++;
 		}
 		
 		try {
-			Map<String, CachedGroup> newData = new LinkedHashMap<>();
-			Set<String> newFullPermissionsList = new TreeSet<>();
-			
-			SQLElementList<SQLPermissions> groupData = DB.getAll(SQLPermissions.class, SQLPermissions.type.eq(EntityType.Group.getCode()));
-			
-			Map<String, Map<String, List<SQLPermissions>>> groupsRawData = groupData.stream()
-					.collect(
-							Collectors.groupingBy(e -> e.get(SQLPermissions.name),
-									LinkedHashMap::new,
-									Collectors.groupingBy(e -> e.get(SQLPermissions.key),
-											LinkedHashMap::new,
-											Collectors.toList())
-									)
-							);
-			
-			for (String groupName : groupsRawData.keySet()) {
-				initGroup(groupName, groupsRawData, newData, newFullPermissionsList);
-			}
-			
-			synchronized (this) {
-				groupsCache.clear();
-				groupsCache.putAll(newData);
-				cacheIsUpdating = false;
-				usersCache.invalidateAll();
-				fullPermissionsList = newFullPermissionsList;
-				DEFAULT_PLAYER.groups.clear();
-				DEFAULT_PLAYER.groups.addAll(getDefaultGroups());
+			synchronized (groupsUpdateLock) {
+				Map<String, CachedGroup> newData = new LinkedHashMap<>();
+				Set<String> newFullPermissionsList = new TreeSet<>();
+				
+				SQLElementList<SQLPermissions> groupData = loadGroupsData(null);
+				
+				Map<String, Map<String, List<SQLPermissions>>> groupsRawData = groupData.stream()
+						.collect(
+								Collectors.groupingBy(e -> e.get(SQLPermissions.name),
+										LinkedHashMap::new,
+										Collectors.groupingBy(e -> e.get(SQLPermissions.key),
+												LinkedHashMap::new,
+												Collectors.toList())
+										)
+								);
+				
+				for (String groupName : groupsRawData.keySet()) {
+					initGroup(groupName, groupsRawData, newData, newFullPermissionsList);
+				}
+				
+				fullPermissionsList = new ConcurrentSkipListSet<>(newFullPermissionsList);
+				publishGroups(newData);
+				invalidateAllPlayers();
 			}
 		} finally {
 			synchronized (this) {
 				cacheIsUpdating = false;
+				completedCacheUpdates++;
+				notifyAll();
+			}
+		}
+	}
+	
+	/**
+	 * Fetches the permission data of the provided groups from the database.
+	 * @param groupNames the names of the groups, or null to fetch the data of all the groups.
+	 * @return the data of the groups.
+	 * @throws DBException if an error occurs when interacting with the database.
+	 */
+	/* package */ SQLElementList<SQLPermissions> loadGroupsData(Set<String> groupNames) throws DBException {
+		SQLWhere<SQLPermissions> where = SQLPermissions.type.eq(EntityType.Group.getCode());
+		return DB.getAll(SQLPermissions.class, groupNames == null ? where : where.and(SQLPermissions.name.in(groupNames)));
+	}
+	
+	
+	
+	/**
+	 * Reloads asynchronously the data of the provided entities, of the groups inheriting from the modified groups and
+	 * of the players inheriting from any of these groups, keeping the cached data of the other entities.
+	 * @param changes the modified entities.
+	 * If the refresh fails, all the data is reloaded (see {@link #clearAndResetCacheAsync(Runnable)}).
+	 * @param then the action to perform after the cache has been updated, with the entities that were reloaded, or null
+	 *             if all the data was reloaded.
+	 */
+	/* package */ void refreshEntitiesAsync(Set<ChangedEntity> changes, Consumer<RefreshedEntities> then) {
+		Thread t = new Thread(() -> {
+			RefreshedEntities refreshed;
+			try {
+				refreshed = refreshEntities(changes);
+			} catch (Throwable e) {
+				Log.severe("Error while refreshing the permission data of " + changes + ". Reloading all the data.", e);
+				clearAndResetCacheAsync(() -> then.accept(null));
+				return;
+			}
+			then.accept(refreshed);
+		}, "Permissions Backend Entity Cache Updater");
+		t.setDaemon(true);
+		t.start();
+	}
+	
+	private RefreshedEntities refreshEntities(Set<ChangedEntity> changes) throws DBException {
+		Set<String> changedGroups = new HashSet<>();
+		Set<UUID> affectedPlayers = new HashSet<>();
+		for (ChangedEntity change : changes) {
+			if (change.type() == EntityType.Group)
+				changedGroups.add(change.name().toLowerCase());
+			else {
+				try {
+					affectedPlayers.add(UUID.fromString(change.name()));
+				} catch (IllegalArgumentException e) {
+					Log.warning("Invalid player UUID in permission data: " + change.name());
+				}
 			}
 		}
 		
+		Set<String> affectedGroups = new HashSet<>();
+		synchronized (groupsUpdateLock) {
+			if (!changedGroups.isEmpty()) {
+				Map<String, CachedGroup> oldData = groupsSnapshot.groups();
+				
+				// the modified groups and all the groups inheriting from them, directly or not
+				Map<String, Set<String>> dependants = new HashMap<>();
+				for (CachedGroup g : oldData.values()) {
+					for (CachedGroup inherited : g.inheritances)
+						dependants.computeIfAbsent(inherited.name.toLowerCase(), k -> new HashSet<>()).add(g.name.toLowerCase());
+				}
+				Deque<String> toVisit = new ArrayDeque<>(changedGroups);
+				while (!toVisit.isEmpty()) {
+					String g = toVisit.poll();
+					if (affectedGroups.add(g))
+						toVisit.addAll(dependants.getOrDefault(g, Set.of()));
+				}
+				
+				Map<String, Map<String, List<SQLPermissions>>> groupsRawData = loadGroupsData(affectedGroups)
+						.stream()
+						.collect(
+								Collectors.groupingBy(e -> e.get(SQLPermissions.name),
+										LinkedHashMap::new,
+										Collectors.groupingBy(e -> e.get(SQLPermissions.key),
+												LinkedHashMap::new,
+												Collectors.toList())
+										)
+								);
+				
+				// keep the instances of the other groups, so they are still referenced by the other cached entities
+				Map<String, CachedGroup> newData = new LinkedHashMap<>();
+				oldData.forEach((name, group) -> {
+					if (!affectedGroups.contains(name.toLowerCase()))
+						newData.put(name, group);
+				});
+				Set<String> newPermissions = new TreeSet<>();
+				for (String groupName : groupsRawData.keySet()) {
+					initGroup(groupName, groupsRawData, newData, newPermissions);
+				}
+				// an affected group without data is kept only if it is still inherited by another group
+				for (String groupName : oldData.keySet()) {
+					if (affectedGroups.contains(groupName.toLowerCase()) && !newData.containsKey(groupName)
+							&& newData.values().stream().anyMatch(g -> g.inheritances.stream().anyMatch(i -> i.name.equals(groupName))))
+						initGroup(groupName, groupsRawData, newData, newPermissions);
+				}
+				
+				// keeps the previous order of the groups
+				Map<String, CachedGroup> orderedData = new LinkedHashMap<>();
+				oldData.keySet().forEach(name -> {
+					if (newData.containsKey(name))
+						orderedData.put(name, newData.get(name));
+				});
+				orderedData.putAll(newData);
+				
+				boolean defaultGroupsChanged = oldData.values().stream().anyMatch(g -> g.deflt && affectedGroups.contains(g.name.toLowerCase()))
+						|| orderedData.values().stream().anyMatch(g -> g.deflt && affectedGroups.contains(g.name.toLowerCase()));
+				
+				fullPermissionsList.addAll(newPermissions);
+				publishGroups(orderedData);
+				for (CachedPlayer player : usersCache.asMap().values()) {
+					if ((defaultGroupsChanged && player.usingDefaultGroups)
+							|| player.groups.stream().anyMatch(g -> affectedGroups.contains(g.name.toLowerCase())))
+						affectedPlayers.add(player.playerId);
+				}
+				if (defaultGroupsChanged)
+					affectedPlayers.add(DEFAULT_PLAYER.playerId);
+			}
+			
+			invalidatePlayers(affectedPlayers);
+		}
 		
+		return new RefreshedEntities(affectedGroups, affectedPlayers);
+	}
+	
+	/**
+	 * The entities reloaded by an incremental refresh of the cache.
+	 * @param groups the lowercase names of the reloaded groups.
+	 * @param players the ids of the reloaded players.
+	 */
+	/* package */ record RefreshedEntities(Set<String> groups, Set<UUID> players) { }
+	
+	/* package */ boolean isPlayerCached(UUID playerId) {
+		return usersCache.getIfPresent(playerId) != null;
 	}
 	
 	private void initGroup(String groupName, Map<String, Map<String, List<SQLPermissions>>> groupsRawData, Map<String, CachedGroup> newData, Set<String> newFullPermissionsList) {
@@ -303,16 +625,22 @@ import fr.pandacube.lib.util.log.Log;
 		public final String name;
 		private final String selfPrefix, selfSuffix;
 		private final Map<ServerWorldKey, List<String>> selfPermissions;
+		private final Map<ServerWorldKey, PermissionTrie> selfPermissionTries = new HashMap<>();
 		
 		private CachedEntity(String n, String p, String s,
 				Map<ServerWorldKey, List<String>> perms) {
 			name = n; selfPrefix = p; selfSuffix = s; selfPermissions = perms;
+			perms.forEach((key, list) -> selfPermissionTries.put(key, new PermissionTrie(list)));
 		}
 		
 		/* package */ List<String> getSelfPermissions(String server, String world) {
 			return selfPermissions.getOrDefault(new ServerWorldKey(server, world), new ArrayList<>());
 		}
 		
+		/* package */ PermissionTrie getSelfPermissionTrie(String server, String world) {
+			return selfPermissionTries.getOrDefault(new ServerWorldKey(server, world), PermissionTrie.EMPTY);
+		}
+		
 		/* package */ Set<ServerWorldKey> getSelfPermissionsServerWorldKeys() {
 			return new TreeSet<>(selfPermissions.keySet());
 		}
@@ -328,8 +656,11 @@ import fr.pandacube.lib.util.log.Log;
 	
 	/* package */ static class CachedPlayer extends CachedEntity {
 		public final UUID playerId;
-		public final List<CachedGroup> groups = new ArrayList<>();
+		public volatile List<CachedGroup> groups = List.of();
 		public boolean usingDefaultGroups = false;
+		private volatile GroupsSnapshot groupsSnapshot;
+		private AtomicLong generationCounter;
+		private long generation;
 		private CachedPlayer(UUID pl, String p, String s,
 				Map<ServerWorldKey, List<String>> perms) {
 			super(pl.toString(), p, s, perms);
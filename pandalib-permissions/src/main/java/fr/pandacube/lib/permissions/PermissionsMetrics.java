@@ -0,0 +1,158 @@
+package fr.pandacube.lib.permissions;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.cache.CacheStats;
+
+/**
+ * The metrics of the permission resolution, to monitor the efficiency of the caches of the permission system.
+ * <p>
+ * The statistics of the caches are provided by Guava (see {@link CacheStats}). The resolution time counts the time
+ * spent resolving permissions, prefixes and suffixes that were not found in the caches, including the building of the
+ * player snapshots (see {@link Permissions#setPlayerSnapshotsEnabled(boolean)}).
+ * <p>
+ * Get the instance using {@link Permissions#getMetrics()}.
+ */
+public final class PermissionsMetrics {
+
+	private final PermissionsResolver resolver;
+
+	private final LongAdder resolutionCount = new LongAdder();
+	private final LongAdder resolutionNanos = new LongAdder();
+	private final LongAdder conflictsLogged = new LongAdder();
+
+	private final Object resetLock = new Object();
+	private CacheStats permissionCacheBaseline = new CacheStats(0, 0, 0, 0, 0, 0);
+	private CacheStats permissionListCacheBaseline = new CacheStats(0, 0, 0, 0, 0, 0);
+	private CacheStats dataCacheBaseline = new CacheStats(0, 0, 0, 0, 0, 0);
+	private CacheStats playerSnapshotCacheBaseline = new CacheStats(0, 0, 0, 0, 0, 0);
+
+	/* package */ PermissionsMetrics(PermissionsResolver resolver) {
+		this.resolver = resolver;
+	}
+
+	/**
+	 * Gets the statistics of the cache of the permission checks ({@link PermEntity#hasPermission(String)}).
+	 * @return the statistics of the cache of the permission checks.
+	 */
+	public CacheStats getPermissionCacheStats() {
+		synchronized (resetLock) {
+			return resolver.getPermissionCacheStats().minus(permissionCacheBaseline);
+		}
+	}
+
+	/**
+	 * Gets the statistics of the cache of the effective permission lists
+	 * ({@link PermEntity#listEffectivePermissions()}).
+	 * @return the statistics of the cache of the effective permission lists.
+	 */
+	public CacheStats getPermissionListCacheStats() {
+		synchronized (resetLock) {
+			return resolver.getPermissionListCacheStats().minus(permissionListCacheBaseline);
+		}
+	}
+
+	/**
+	 * Gets the statistics of the cache of the prefixes and suffixes.
+	 * @return the statistics of the cache of the prefixes and suffixes.
+	 */
+	public CacheStats getDataCacheStats() {
+		synchronized (resetLock) {
+			return resolver.getDataCacheStats().minus(dataCacheBaseline);
+		}
+	}
+
+	/**
+	 * Gets the statistics of the cache of the player snapshots. It is only used when the player snapshots are enabled.
+	 * @return the statistics of the cache of the player snapshots.
+	 */
+	public CacheStats getPlayerSnapshotCacheStats() {
+		synchronized (resetLock) {
+			return resolver.getPlayerSnapshotCacheStats().minus(playerSnapshotCacheBaseline);
+		}
+	}
+
+	/**
+	 * Gets the number of resolutions of permissions, prefixes, suffixes and player snapshots, that were not found in
+	 * the caches.
+	 * @return the number of resolutions.
+	 */
+	public long getResolutionCount() {
+		return resolutionCount.sum();
+	}
+
+	/**
+	 * Gets the total time spent in the resolutions counted by {@link #getResolutionCount()}.
+	 * @return the total time spent in the resolutions.
+	 */
+	public Duration getResolutionTime() {
+		return Duration.ofNanos(resolutionNanos.sum());
+	}
+
+	/**
+	 * Gets the number of conflicts logged as a warning during the resolution of permissions, prefixes and suffixes.
+	 * @return the number of conflicts logged.
+	 */
+	public long getConflictsLogged() {
+		return conflictsLogged.sum();
+	}
+
+	/**
+	 * Resets all the metrics.
+	 */
+	public void reset() {
+		synchronized (resetLock) {
+			permissionCacheBaseline = resolver.getPermissionCacheStats();
+			permissionListCacheBaseline = resolver.getPermissionListCacheStats();
+			dataCacheBaseline = resolver.getDataCacheStats();
+			playerSnapshotCacheBaseline = resolver.getPlayerSnapshotCacheStats();
+			resolutionCount.reset();
+			resolutionNanos.reset();
+			conflictsLogged.reset();
+		}
+	}
+
+	/**
+	 * Formats the metrics into human-readable lines of text.
+	 * @return the lines of text.
+	 */
+	public List<String> dump() {
+		List<String> lines = new ArrayList<>();
+		lines.add("Permission cache: " + formatStats(getPermissionCacheStats()));
+		lines.add("Permission list cache: " + formatStats(getPermissionListCacheStats()));
+		lines.add("Prefix/suffix cache: " + formatStats(getDataCacheStats()));
+		lines.add("Player snapshot cache: " + formatStats(getPlayerSnapshotCacheStats()));
+		long count = getResolutionCount();
+		Duration time = getResolutionTime();
+		lines.add("Resolutions: count=" + count + " total=" + time.toMillis() + "ms"
+				+ " mean=" + (count == 0 ? 0 : time.toNanos() / count / 1000) + "µs"
+				+ " conflicts=" + getConflictsLogged());
+		return lines;
+	}
+
+	@Override
+	public String toString() {
+		return String.join("\n", dump());
+	}
+
+	private static String formatStats(CacheStats stats) {
+		return "hits=" + stats.hitCount() + " misses=" + stats.missCount()
+				+ " hitRate=" + Math.round(stats.hitRate() * 1000) / 10d + "%"
+				+ " evictions=" + stats.evictionCount();
+	}
+
+
+
+	/* package */ void recordResolution(long nanos) {
+		resolutionCount.increment();
+		resolutionNanos.add(nanos);
+	}
+
+	/* package */ void recordConflictLogged() {
+		conflictsLogged.increment();
+	}
+
+}
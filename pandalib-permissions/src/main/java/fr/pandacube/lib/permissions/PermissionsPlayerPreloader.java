@@ -0,0 +1,74 @@
+package fr.pandacube.lib.permissions;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import fr.pandacube.lib.util.log.Log;
+
+/**
+ * Loads the permission data of the players in the background, before they are needed.
+ * <p>
+ * The requests are not executed immediately: the players requested during a short delay are loaded together, by a
+ * single background thread, with one query per batch of players. Concurrent requests for the same player share the
+ * same future.
+ */
+/* package */ class PermissionsPlayerPreloader {
+
+	private static final long BATCH_DELAY_MS = 50;
+	private static final int MAX_BATCH_SIZE = 500;
+
+	private final PermissionsCachedBackendReader backendReader;
+	private final ScheduledExecutorService loader = Executors.newSingleThreadScheduledExecutor(
+			Thread.ofVirtual().name("Async permissions player cache loader").factory());
+
+	private final Map<UUID, CompletableFuture<Void>> pending = new LinkedHashMap<>();
+	private boolean batchScheduled = false;
+
+	/* package */ PermissionsPlayerPreloader(PermissionsCachedBackendReader backendReader) {
+		this.backendReader = backendReader;
+	}
+
+	/**
+	 * Requests the loading of the permission data of the provided player.
+	 * @param playerId the id of the player.
+	 * @return a future completed when the data of the player is in the cache, or completed exceptionally if the
+	 *         loading failed.
+	 */
+	/* package */ synchronized CompletableFuture<Void> preload(UUID playerId) {
+		CompletableFuture<Void> future = pending.computeIfAbsent(playerId, id -> new CompletableFuture<>());
+		if (!batchScheduled) {
+			batchScheduled = true;
+			loader.schedule(this::loadPending, BATCH_DELAY_MS, TimeUnit.MILLISECONDS);
+		}
+		return future;
+	}
+
+	private void loadPending() {
+		Map<UUID, CompletableFuture<Void>> batch;
+		synchronized (this) {
+			batch = new LinkedHashMap<>(pending);
+			pending.clear();
+			batchScheduled = false;
+		}
+
+		List<UUID> ids = new ArrayList<>(batch.keySet());
+		for (int i = 0; i < ids.size(); i += MAX_BATCH_SIZE) {
+			List<UUID> subBatch = ids.subList(i, Math.min(ids.size(), i + MAX_BATCH_SIZE));
+			try {
+				backendReader.precachePlayers(subBatch);
+				subBatch.forEach(id -> batch.get(id).complete(null));
+			} catch (Throwable e) {
+				Log.warning("Can’t init players cache asynchronously: " + e.getMessage());
+				subBatch.forEach(id -> batch.get(id).completeExceptionally(e));
+			}
+		}
+	}
+
+}
@@ -3,6 +3,7 @@ package fr.pandacube.lib.permissions;
 import com.google.common.base.Preconditions;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import fr.pandacube.lib.chat.Chat;
 import fr.pandacube.lib.chat.ChatTreeNode;
 import fr.pandacube.lib.chat.LegacyChatFormat;
@@ -13,26 +14,53 @@ import fr.pandacube.lib.permissions.SQLPermissions.EntityType;
 import fr.pandacube.lib.util.log.Log;
 import net.kyori.adventure.text.format.NamedTextColor;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.UUID;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 /* package */ class PermissionsResolver {
 
 	private final PermissionsCachedBackendReader backendReader;
 	
+	/* package */ final PermissionsMetrics metrics = new PermissionsMetrics(this);
+	
 	/* package */ PermissionsResolver(PermissionsCachedBackendReader b) {
 		backendReader = b;
 	}
 	
+	/* package */ CacheStats getPermissionCacheStats() {
+		return effectivePermissionsCache.stats();
+	}
+	
+	/* package */ CacheStats getPermissionListCacheStats() {
+		return effectivePermissionsListCache.stats();
+	}
+	
+	/* package */ CacheStats getDataCacheStats() {
+		return effectiveDataCache.stats();
+	}
+	
+	/* package */ CacheStats getPlayerSnapshotCacheStats() {
+		return playerSnapshotCache.stats();
+	}
+	
 	/* package */ void clearPlayerFromCache(UUID player) {
 		String playerId = player.toString();
 		synchronized (effectivePermissionsCache) {
@@ -44,12 +72,41 @@ import java.util.stream.Collectors;
 		synchronized (effectiveDataCache) {
 			effectiveDataCache.asMap().keySet().removeIf(k -> k.type == EntityType.User && playerId.equals(k.name));
 		}
+		synchronized (playerSnapshotCache) {
+			playerSnapshotCache.asMap().keySet().removeIf(k -> playerId.equals(k.name));
+		}
+	}
+	
+	/* package */ void clearEntitiesFromCache(Set<String> groupNames, Predicate<UUID> playerFilter) {
+		synchronized (effectivePermissionsCache) {
+			effectivePermissionsCache.asMap().keySet().removeIf(k -> isEntityAffected(k.type, k.name, groupNames, playerFilter));
+		}
+		synchronized (effectivePermissionsListCache) {
+			effectivePermissionsListCache.asMap().keySet().removeIf(k -> isEntityAffected(k.type, k.name, groupNames, playerFilter));
+		}
+		synchronized (effectiveDataCache) {
+			effectiveDataCache.asMap().keySet().removeIf(k -> isEntityAffected(k.type, k.name, groupNames, playerFilter));
+		}
+		synchronized (playerSnapshotCache) {
+			playerSnapshotCache.asMap().keySet().removeIf(k -> isEntityAffected(EntityType.User, k.name, groupNames, playerFilter));
+		}
+	}
+	
+	private static boolean isEntityAffected(EntityType type, String name, Set<String> groupNames, Predicate<UUID> playerFilter) {
+		if (type == EntityType.Group)
+			return groupNames.contains(name.toLowerCase());
+		try {
+			return playerFilter.test(UUID.fromString(name));
+		} catch (IllegalArgumentException e) {
+			return true;
+		}
 	}
 	
 	/* package */ void clearCache() {
 		effectivePermissionsCache.invalidateAll();
 		effectivePermissionsListCache.invalidateAll();
 		effectiveDataCache.invalidateAll();
+		playerSnapshotCache.invalidateAll();
 	}
 	
 	
@@ -74,6 +131,7 @@ import java.util.stream.Collectors;
 
 	private final Cache<DataCacheKey, String> effectiveDataCache = CacheBuilder.newBuilder()
 			.expireAfterAccess(10, TimeUnit.MINUTES)
+			.recordStats()
 			.build();
 	
 	private String getEffectiveData(String name, EntityType type, DataType dataType) {
@@ -96,12 +154,15 @@ import java.util.stream.Collectors;
 	}
 	
 	private String resolveData(String name, EntityType type, DataType dataType) {
+		long start = System.nanoTime();
 		CachedEntity entity = (type == EntityType.User)
 				? backendReader.getCachedPlayer(UUID.fromString(name))
 				: backendReader.getCachedGroup(name);
 		DataResolutionNode resolutionResult = resolveData(entity, dataType);
+		metrics.recordResolution(System.nanoTime() - start);
 		
 		if (resolutionResult.conflict) {
+			metrics.recordConflictLogged();
 			Log.warning("For data " + dataType + ":\n"
 					+ resolutionResult.toDisplayTreeNode().render(true).stream()
 					.map(Chat::getLegacyText)
@@ -223,6 +284,7 @@ import java.util.stream.Collectors;
 	
 	private final Cache<PermCacheKey, Map<String, Boolean>> effectivePermissionsListCache = CacheBuilder.newBuilder()
 			.expireAfterAccess(10, TimeUnit.MINUTES)
+			.recordStats()
 			.build();
 	
 	/* package */ Map<String, Boolean> getEffectivePermissionList(String name, EntityType type, String server, String world) {
@@ -255,6 +317,7 @@ import java.util.stream.Collectors;
 
 	private final Cache<PermCacheKey, PermState> effectivePermissionsCache = CacheBuilder.newBuilder()
 			.expireAfterAccess(10, TimeUnit.MINUTES)
+			.recordStats()
 			.build();
 	
 	/* package */ Boolean getEffectivePermission(String name, EntityType type, String permission, String server, String world) {
@@ -273,6 +336,12 @@ import java.util.stream.Collectors;
 		String fServer = server == null ? null : server.toLowerCase();
 		String fWorld = world == null ? null : world.toLowerCase();
 		try {
+			if (playerSnapshotsEnabled && type == EntityType.User && !isSpecialPermission(fPermission)) {
+				Boolean resolved = playerSnapshotCache.get(new PlayerSnapshotKey(name, fServer, fWorld),
+						() -> buildPlayerSnapshot(name, fServer, fWorld)
+				).get(fPermission).value;
+				return resolved == null ? null : (reversed != resolved);
+			}
 			Boolean resolved = effectivePermissionsCache.get(new PermCacheKey(name, type, fPermission, fServer, fWorld),
 					() -> resolvePermission(name, type, fPermission, fServer, fWorld)
 			).value;
@@ -283,21 +352,107 @@ import java.util.stream.Collectors;
 		}
 	}
 	
+	private boolean isSpecialPermission(String permission) {
+		for (SpecialPermission spePerm : specialPermissions) {
+			if (spePerm.matcher().match(permission))
+				return true;
+		}
+		return false;
+	}
+	
+	
+	
+	private volatile boolean playerSnapshotsEnabled = false;
+	
+	private final Cache<PlayerSnapshotKey, PlayerPermissionSnapshot> playerSnapshotCache = CacheBuilder.newBuilder()
+			.expireAfterAccess(10, TimeUnit.MINUTES)
+			.recordStats()
+			.build();
+	
+	/* package */ void setPlayerSnapshotsEnabled(boolean enabled) {
+		playerSnapshotsEnabled = enabled;
+		if (!enabled)
+			playerSnapshotCache.invalidateAll();
+	}
+	
+	private PlayerPermissionSnapshot buildPlayerSnapshot(String name, String server, String world) {
+		long start = System.nanoTime();
+		CachedPlayer player = backendReader.getCachedPlayer(UUID.fromString(name));
+		
+		// all the self permissions that may be used to resolve a permission of the player in this context
+		List<ServerWorldKey> contexts = new ArrayList<>(3);
+		contexts.add(new ServerWorldKey(server, world));
+		if (world != null)
+			contexts.add(new ServerWorldKey(server, null));
+		if (server != null)
+			contexts.add(new ServerWorldKey(null, null));
+		Set<String> explicitPermissions = new HashSet<>();
+		Set<String> wildcardPrefixes = new TreeSet<>();
+		Set<CachedEntity> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+		Deque<CachedEntity> toVisit = new ArrayDeque<>();
+		toVisit.add(player);
+		while (!toVisit.isEmpty()) {
+			CachedEntity entity = toVisit.poll();
+			if (!visited.add(entity))
+				continue;
+			for (ServerWorldKey context : contexts) {
+				for (String p : entity.getSelfPermissions(context.server(), context.world())) {
+					String lp = p.toLowerCase();
+					explicitPermissions.add(lp);
+					if (lp.startsWith("-"))
+						explicitPermissions.add(lp.substring(1));
+					if (lp.endsWith("*")) {
+						wildcardPrefixes.add(lp.substring(0, lp.length() - 1));
+						if (lp.startsWith("-"))
+							wildcardPrefixes.add(lp.substring(1, lp.length() - 1));
+					}
+				}
+			}
+			toVisit.addAll(entity instanceof CachedPlayer cp ? cp.groups : ((CachedGroup) entity).inheritances);
+		}
+		
+		Map<String, PermState> explicitResults = new HashMap<>();
+		for (String permission : explicitPermissions) {
+			explicitResults.put(permission, resolvePermission(player, permission, server, world, true, false).result);
+		}
+		
+		// A permission that is not in explicitResults can only be matched by wildcard permissions, so its result only
+		// depends on the longest wildcard prefix it starts with. This prefix is resolved using a permission that starts
+		// with it, but that can't be equal to or start with any other self permission.
+		String[] prefixes = wildcardPrefixes.toArray(new String[0]);
+		PermState[] prefixResults = new PermState[prefixes.length];
+		int[] parentPrefixes = new int[prefixes.length];
+		for (int i = 0; i < prefixes.length; i++) {
+			prefixResults[i] = resolvePermission(player, prefixes[i] + '\0', server, world, true, false).result;
+			int parent = i - 1;
+			while (parent >= 0 && !prefixes[i].startsWith(prefixes[parent]))
+				parent = parentPrefixes[parent];
+			parentPrefixes[i] = parent;
+		}
+		PermState noPrefixResult = resolvePermission(player, "\0", server, world, true, false).result;
+		
+		metrics.recordResolution(System.nanoTime() - start);
+		return new PlayerPermissionSnapshot(Map.copyOf(explicitResults), prefixes, prefixResults, parentPrefixes, noPrefixResult);
+	}
+	
 	/* package */ ChatTreeNode debugPermission(String name, EntityType type, String permission, String server, String world) {
 		CachedEntity entity = (type == EntityType.User)
 				? backendReader.getCachedPlayer(UUID.fromString(name))
 				: backendReader.getCachedGroup(name);
-		return resolvePermission(entity, permission, server, world, true).toDisplayTreeNode();
+		return resolvePermission(entity, permission.toLowerCase(), server == null ? null : server.toLowerCase(),
+				world == null ? null : world.toLowerCase(), true, true).toDisplayTreeNode();
 	}
 	
 	private PermState resolvePermission(String name, EntityType type, String permission, String server, String world) {
-		
+		long start = System.nanoTime();
 		CachedEntity entity = (type == EntityType.User)
 				? backendReader.getCachedPlayer(UUID.fromString(name))
 				: backendReader.getCachedGroup(name);
-		PermResolutionNode resolutionResult = resolvePermission(entity, permission, server, world, true);
+		PermResolutionNode resolutionResult = resolvePermission(entity, permission, server, world, true, true);
+		metrics.recordResolution(System.nanoTime() - start);
 		
 		if (resolutionResult.conflict) {
+			metrics.recordConflictLogged();
 			Log.warning("For permission " + permission + ":\n"
 					+ resolutionResult.toDisplayTreeNode().render(true).stream()
 					.map(Chat::getLegacyText)
@@ -312,10 +467,10 @@ import java.util.stream.Collectors;
 	
 	
 	
-	private PermResolutionNode resolvePermission(CachedEntity entity, String permission, String server, String world, boolean checkInheritance) {
+	private PermResolutionNode resolvePermission(CachedEntity entity, String permission, String server, String world, boolean checkInheritance, boolean checkSpecial) {
 		
 		// self and special permissions
-		PermResolutionNode resolutionNode = resolveSelfPermission(entity, permission, server, world);
+		PermResolutionNode resolutionNode = resolveSelfPermission(entity, permission, server, world, checkSpecial);
 		if (resolutionNode.result != PermState.UNDEFINED) {
 			return resolutionNode;
 		}
@@ -327,7 +482,7 @@ import java.util.stream.Collectors;
 				
 		// check no-world/no-server permissions
 		if (server != null) {
-			PermResolutionNode noWNoSNode = resolvePermission(entity, permission, world != null ? server : null, null, false);
+			PermResolutionNode noWNoSNode = resolvePermission(entity, permission, world != null ? server : null, null, false, checkSpecial);
 			resolutionNode.inheritances.add(noWNoSNode);
 			if (noWNoSNode.conflict)
 				resolutionNode.conflict = true;
@@ -345,7 +500,7 @@ import java.util.stream.Collectors;
 		List<PermResolutionNode> inheritedResults = new ArrayList<>(inheritances.size() + 1);
 		
 		for (CachedGroup inherited : inheritances) {
-			inheritedResults.add(resolvePermission(inherited, permission, server, world, true));
+			inheritedResults.add(resolvePermission(inherited, permission, server, world, true, checkSpecial));
 		}
 		
 		resolutionNode.inheritances.addAll(inheritedResults);
@@ -380,7 +535,7 @@ import java.util.stream.Collectors;
 	
 	
 	
-	private PermResolutionNode resolveSelfPermission(CachedEntity entity, String permission, String server, String world) {
+	private PermResolutionNode resolveSelfPermission(CachedEntity entity, String permission, String server, String world, boolean checkSpecial) {
 		// special permissions
 		PermState result = PermState.UNDEFINED;
 		String conflict = null;
@@ -389,12 +544,12 @@ import java.util.stream.Collectors;
 		/*
 		 * Check for special permissions
 		 */
-		if (entity instanceof CachedPlayer) {
-			PermPlayer permP = Permissions.getPlayer(((CachedPlayer) entity).playerId);
+		if (checkSpecial && entity instanceof CachedPlayer) {
 			ParsedSelfPermission specialPerm = null;
 			
 			for (SpecialPermission spePerm : specialPermissions) {
 				if (spePerm.matcher().match(permission)) {
+					PermPlayer permP = Permissions.getPlayer(((CachedPlayer) entity).playerId);
 					boolean res = spePerm.tester().test(permP, permission, server, world);
 					specialPerm = new ParsedSelfPermission(permission, res, PermType.SPECIAL);
 					break;
@@ -411,31 +566,13 @@ import java.util.stream.Collectors;
 		
 		
 		if (result == PermState.UNDEFINED) {
-			foundPerms = entity.getSelfPermissions(server, world).stream()
-					.map(p -> {
-						ParsedSelfPermission resNode = null;
-						if (p.equalsIgnoreCase(permission))
-							resNode = new ParsedSelfPermission(p, true, PermType.EXPLICIT);
-						else if (p.equalsIgnoreCase("-" + permission))
-							resNode = new ParsedSelfPermission(p, false, PermType.EXPLICIT);
-						else if (p.endsWith("*") && permission.startsWith(p.substring(0, p.length() - 1)))
-							resNode = new ParsedSelfPermission(p, true, PermType.WILDCARD);
-						else if (p.endsWith("*") && p.startsWith("-") && permission.startsWith(p.substring(1, p.length() - 1)))
-							resNode = new ParsedSelfPermission(p, false, PermType.WILDCARD);
-						return resNode;
-					})
-					.filter(Objects::nonNull)
-					.collect(Collectors.toList());
-
-				boolean explicitGranted = foundPerms.stream()
-						.anyMatch(n -> n.type == PermType.EXPLICIT && n.result);
-				boolean explicitRevoked = foundPerms.stream()
-						.anyMatch(n -> n.type == PermType.EXPLICIT && !n.result);
+				int matched = entity.getSelfPermissionTrie(server, world).match(permission);
+				
+				boolean explicitGranted = (matched & PermissionTrie.EXPLICIT_GRANTED) != 0;
+				boolean explicitRevoked = (matched & PermissionTrie.EXPLICIT_REVOKED) != 0;
 				
-				boolean wildcardGranted = foundPerms.stream()
-						.anyMatch(n -> n.type == PermType.WILDCARD && n.result);
-				boolean wildcardRevoked = foundPerms.stream()
-						.anyMatch(n -> n.type == PermType.WILDCARD && !n.result);
+				boolean wildcardGranted = (matched & PermissionTrie.WILDCARD_GRANTED) != 0;
+				boolean wildcardRevoked = (matched & PermissionTrie.WILDCARD_REVOKED) != 0;
 				
 				if (explicitGranted != explicitRevoked) {
 					result = PermState.of(explicitGranted);
@@ -458,22 +595,44 @@ import java.util.stream.Collectors;
 				}
 		}
 		
-		PermResolutionNode node = new PermResolutionNode(entity, server, world, result, conflict);
+		PermResolutionNode node = new PermResolutionNode(entity, permission, server, world, result, conflict);
 		node.selfPermissions = foundPerms;
 		
 		return node;
 	}
 	
+	/**
+	 * Lists the self permissions of the entity matching the provided permission, for display purpose.
+	 * This method gives the same result as {@link PermissionTrie#match(String)}, but much slower.
+	 */
+	private static List<ParsedSelfPermission> parseSelfPermissions(CachedEntity entity, String permission, String server, String world) {
+		return entity.getSelfPermissions(server, world).stream()
+				.map(p -> {
+					ParsedSelfPermission resNode = null;
+					if (p.equalsIgnoreCase(permission))
+						resNode = new ParsedSelfPermission(p, true, PermType.EXPLICIT);
+					else if (p.equalsIgnoreCase("-" + permission))
+						resNode = new ParsedSelfPermission(p, false, PermType.EXPLICIT);
+					else if (p.endsWith("*") && permission.startsWith(p.substring(0, p.length() - 1).toLowerCase()))
+						resNode = new ParsedSelfPermission(p, true, PermType.WILDCARD);
+					else if (p.endsWith("*") && p.startsWith("-") && permission.startsWith(p.substring(1, p.length() - 1).toLowerCase()))
+						resNode = new ParsedSelfPermission(p, false, PermType.WILDCARD);
+					return resNode;
+				})
+				.filter(Objects::nonNull)
+				.collect(Collectors.toList());
+	}
+	
 	private static class PermResolutionNode {
 		final CachedEntity entity;
-		final String server, world;
+		final String permission, server, world;
 		PermState result;
 		String conflictMessage;
 		boolean conflict;
-		List<ParsedSelfPermission> selfPermissions = new ArrayList<>();
+		List<ParsedSelfPermission> selfPermissions; // null until needed for display, except for special permissions
 		final List<PermResolutionNode> inheritances = new ArrayList<>();
-		public PermResolutionNode(CachedEntity e, String s, String w, PermState r, String c) {
-			entity = e; server = s; world = w; result = r; conflictMessage = c;
+		public PermResolutionNode(CachedEntity e, String p, String s, String w, PermState r, String c) {
+			entity = e; permission = p; server = s; world = w; result = r; conflictMessage = c;
 			conflict = c != null;
 		}
 		
@@ -491,6 +650,8 @@ import java.util.stream.Collectors;
 				c.then(Chat.failureText(" " + conflictMessage));
 			ChatTreeNode node = new ChatTreeNode(c);
 			
+			if (selfPermissions == null)
+				selfPermissions = parseSelfPermissions(entity, permission, server, world);
 			selfPermissions.forEach(p -> node.children.add(p.toDisplayTreeNode()));
 			
 			if (result == PermState.UNDEFINED && !conflict && !inheritances.isEmpty()) {
@@ -529,6 +690,37 @@ import java.util.stream.Collectors;
 			}
 		}
 	
+	private record PlayerSnapshotKey(String name, String server, String world) {
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof PlayerSnapshotKey(String oName, String oServer, String oWorld)
+					&& Objects.equals(name, oName)
+					&& Objects.equals(server, oServer)
+					&& Objects.equals(world, oWorld);
+		}
+	}
+	
+	/**
+	 * The effective permissions of a player in a server and world, with all the inheritances already resolved.
+	 * The wildcard prefixes are sorted, and each one has the index of the longest other prefix it starts with, so the
+	 * longest prefix of a permission is found with a binary search followed by a few steps up in the prefixes.
+	 */
+	private record PlayerPermissionSnapshot(Map<String, PermState> explicitResults, String[] prefixes,
+	                                        PermState[] prefixResults, int[] parentPrefixes, PermState noPrefixResult) {
+		private PermState get(String permission) {
+			PermState explicit = explicitResults.get(permission);
+			if (explicit != null)
+				return explicit;
+			int i = Arrays.binarySearch(prefixes, permission);
+			if (i < 0)
+				i = -i - 2; // the greatest prefix lower than the permission
+			// a prefix of the permission is between this prefix and the permission, so it is a prefix of this prefix
+			while (i >= 0 && !permission.startsWith(prefixes[i]))
+				i = parentPrefixes[i];
+			return i < 0 ? noPrefixResult : prefixResults[i];
+		}
+	}
+	
 	private enum PermType {
 		EXPLICIT, WILDCARD, SPECIAL
 	}
@@ -0,0 +1,97 @@
+package fr.pandacube.lib.permissions;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class PermissionTrieTest {
+
+	/**
+	 * Small alphabet, so the random permissions often share prefixes, and contain the special characters.
+	 */
+	private static final String ALPHABET = "ab.-*A";
+
+	@Test
+	public void emptyMatchesNothing() {
+		assertEquals(0, PermissionTrie.EMPTY.match("a.b"));
+		assertEquals(0, PermissionTrie.EMPTY.match(""));
+	}
+
+	@Test
+	public void simpleRules() {
+		PermissionTrie trie = new PermissionTrie(List.of("a.b", "-a.c", "x.*", "-y.*"));
+		assertEquals(PermissionTrie.EXPLICIT_GRANTED, trie.match("a.b"));
+		assertEquals(PermissionTrie.EXPLICIT_REVOKED, trie.match("a.c"));
+		assertEquals(PermissionTrie.WILDCARD_GRANTED, trie.match("x.z"));
+		assertEquals(PermissionTrie.WILDCARD_REVOKED, trie.match("y.z"));
+		assertEquals(0, trie.match("a"));
+		assertEquals(0, trie.match("a.b.c"));
+	}
+
+	@Test
+	public void randomEquivalence() {
+		Random random = new Random(42);
+		for (int iteration = 0; iteration < 20000; iteration++) {
+			List<String> selfPermissions = new ArrayList<>();
+			int count = random.nextInt(8);
+			for (int i = 0; i < count; i++)
+				selfPermissions.add(randomString(random, 6));
+			PermissionTrie trie = new PermissionTrie(selfPermissions);
+
+			List<String> permissions = new ArrayList<>();
+			for (int i = 0; i < 10; i++)
+				permissions.add(randomString(random, 7).toLowerCase());
+			// permissions close to the self permissions, to test the matching cases
+			for (String p : selfPermissions) {
+				String lp = p.toLowerCase();
+				permissions.add(lp);
+				if (lp.startsWith("-"))
+					permissions.add(lp.substring(1));
+				if (lp.endsWith("*")) {
+					String prefix = lp.substring(0, lp.length() - 1);
+					permissions.add(prefix);
+					permissions.add(prefix + randomString(random, 3).toLowerCase());
+					if (prefix.startsWith("-"))
+						permissions.add(prefix.substring(1) + randomString(random, 3).toLowerCase());
+				}
+			}
+
+			for (String permission : permissions) {
+				assertEquals("self permissions " + selfPermissions + ", permission \"" + permission + "\"",
+						naiveMatch(selfPermissions, permission), trie.match(permission));
+			}
+		}
+	}
+
+	/**
+	 * Applies the rules documented in {@link PermissionTrie} to each self permission.
+	 */
+	private static int naiveMatch(List<String> selfPermissions, String permission) {
+		int result = 0;
+		for (String p : selfPermissions) {
+			String lp = p.toLowerCase();
+			if (lp.equals(permission))
+				result |= PermissionTrie.EXPLICIT_GRANTED;
+			else if (lp.equals("-" + permission))
+				result |= PermissionTrie.EXPLICIT_REVOKED;
+			else if (lp.endsWith("*") && permission.startsWith(lp.substring(0, lp.length() - 1)))
+				result |= PermissionTrie.WILDCARD_GRANTED;
+			else if (lp.endsWith("*") && lp.startsWith("-") && permission.startsWith(lp.substring(1, lp.length() - 1)))
+				result |= PermissionTrie.WILDCARD_REVOKED;
+		}
+		return result;
+	}
+
+	private static String randomString(Random random, int maxLength) {
+		int length = random.nextInt(maxLength + 1);
+		StringBuilder sb = new StringBuilder(length);
+		for (int i = 0; i < length; i++)
+			sb.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+		return sb.toString();
+	}
+
+}
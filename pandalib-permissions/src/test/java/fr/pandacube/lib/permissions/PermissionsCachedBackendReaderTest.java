@@ -0,0 +1,218 @@
+package fr.pandacube.lib.permissions;
+
+import fr.pandacube.lib.db.DB;
+import fr.pandacube.lib.db.DBConnection;
+import fr.pandacube.lib.db.DBException;
+import fr.pandacube.lib.db.SQLElementList;
+import fr.pandacube.lib.permissions.PermissionsBackendWriter.ChangedEntity;
+import fr.pandacube.lib.permissions.PermissionsCachedBackendReader.CachedPlayer;
+import fr.pandacube.lib.permissions.PermissionsCachedBackendReader.RefreshedEntities;
+import fr.pandacube.lib.permissions.SQLPermissions.EntityType;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PermissionsCachedBackendReaderTest {
+
+	private static final UUID PLAYER = UUID.randomUUID();
+	private static final String GROUP = "testgroup";
+
+	@BeforeClass
+	public static void initDB() throws DBException {
+		DB.init(new DBConnection("jdbc:h2:mem:readertest;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1", "sa", ""), "readertest_");
+		DB.customUpdateStatement("CREATE TABLE IF NOT EXISTS readertest_permissions (`id` INT NOT NULL AUTO_INCREMENT PRIMARY KEY,"
+				+ " `name` VARCHAR(64) NOT NULL, `type` TINYINT NOT NULL, `key` VARCHAR(256) NOT NULL,"
+				+ " `value` VARCHAR(256) NOT NULL, `server` VARCHAR(64) NULL, `world` VARCHAR(64) NULL);", List.of());
+	}
+
+	@Test
+	public void invalidationDuringGetIsNotLost() throws Exception {
+		setPlayerPermission("old.perm");
+		BlockingReader reader = new BlockingReader();
+
+		CompletableFuture<CachedPlayer> loading = CompletableFuture.supplyAsync(() -> reader.getCachedPlayer(PLAYER));
+		reader.loaded.await();
+		setPlayerPermission("new.perm");
+		reader.clearPlayerCache(PLAYER);
+		reader.resume.countDown();
+
+		assertEquals(List.of("new.perm"), loading.get(10, TimeUnit.SECONDS).getSelfPermissions(null, null));
+		assertEquals(List.of("new.perm"), reader.getCachedPlayer(PLAYER).getSelfPermissions(null, null));
+	}
+
+	@Test
+	public void invalidationDuringPrecacheIsNotLost() throws Exception {
+		setPlayerPermission("old.perm");
+		BlockingReader reader = new BlockingReader();
+
+		CompletableFuture<Void> loading = CompletableFuture.runAsync(() -> {
+			try {
+				reader.precachePlayers(List.of(PLAYER));
+			} catch (DBException e) {
+				throw new RuntimeException(e);
+			}
+		});
+		reader.loaded.await();
+		setPlayerPermission("new.perm");
+		reader.clearPlayerCache(PLAYER);
+		reader.resume.countDown();
+		loading.get(10, TimeUnit.SECONDS);
+
+		assertEquals(List.of("new.perm"), reader.getCachedPlayer(PLAYER).getSelfPermissions(null, null));
+	}
+
+	@Test
+	public void failedRefreshRunsItsActionDuringAReload() throws Exception {
+		setGroupPermission("old.perm");
+		GroupsBlockingReader reader = new GroupsBlockingReader();
+		reader.failRefresh = true;
+
+		CompletableFuture<RefreshedEntities> refreshed = new CompletableFuture<>();
+		reader.refreshEntitiesAsync(Set.of(new ChangedEntity(GROUP, EntityType.Group)), refreshed::complete);
+		assertTrue(reader.refreshing.await(10, TimeUnit.SECONDS));
+		// a full reload is requested, and waits for the end of the refresh
+		CountDownLatch reloaded = new CountDownLatch(1);
+		reader.clearAndResetCacheAsync(reloaded::countDown);
+		Thread.sleep(200);
+		reader.resumeRefresh.countDown();
+		// the refresh fails while the full reload is in progress, and falls back to another full reload
+		assertTrue(reader.loaded.await(10, TimeUnit.SECONDS));
+		setGroupPermission("new.perm");
+		Thread.sleep(200);
+		assertFalse("the fallback should wait for the reload in progress", refreshed.isDone());
+		reader.resume.countDown();
+
+		assertNull(refreshed.get(10, TimeUnit.SECONDS));
+		assertTrue(reloaded.await(10, TimeUnit.SECONDS));
+		assertEquals(List.of("new.perm"), reader.getCachedGroup(GROUP).getSelfPermissions(null, null));
+	}
+
+	@Test
+	public void reloadsRequestedDuringAReloadAreMerged() throws Exception {
+		setGroupPermission("old.perm");
+		GroupsBlockingReader reader = new GroupsBlockingReader();
+		reader.clearAndResetCacheAsync(null);
+		assertTrue(reader.loaded.await(10, TimeUnit.SECONDS));
+		setGroupPermission("new.perm");
+
+		CountDownLatch done = new CountDownLatch(2);
+		reader.clearAndResetCacheAsync(done::countDown);
+		reader.clearAndResetCacheAsync(done::countDown);
+		Thread.sleep(200);
+		assertEquals(2, done.getCount());
+		reader.resume.countDown();
+
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		assertEquals(List.of("new.perm"), reader.getCachedGroup(GROUP).getSelfPermissions(null, null));
+		// the blocked reload, and a single reload for both requests
+		assertEquals(2, reader.fullReloads.get());
+	}
+
+	private static void setGroupPermission(String permission) throws DBException {
+		DB.delete(SQLPermissions.class, SQLPermissions.name.eq(GROUP));
+		new SQLPermissions()
+				.set(SQLPermissions.name, GROUP)
+				.set(SQLPermissions.type, EntityType.Group.getCode())
+				.set(SQLPermissions.key, "permissions")
+				.set(SQLPermissions.value, permission)
+				.set(SQLPermissions.server, null)
+				.set(SQLPermissions.world, null)
+				.save();
+	}
+
+	private static void setPlayerPermission(String permission) throws DBException {
+		DB.delete(SQLPermissions.class, SQLPermissions.name.eq(PLAYER.toString()));
+		new SQLPermissions()
+				.set(SQLPermissions.name, PLAYER.toString())
+				.set(SQLPermissions.type, EntityType.User.getCode())
+				.set(SQLPermissions.key, "permissions")
+				.set(SQLPermissions.value, permission)
+				.set(SQLPermissions.server, null)
+				.set(SQLPermissions.world, null)
+				.save();
+	}
+
+	/**
+	 * Pauses the first loading of player data after the query, until {@link #resume} is released.
+	 */
+	private static class BlockingReader extends PermissionsCachedBackendReader {
+		private final AtomicBoolean blocking = new AtomicBoolean(true);
+		private final CountDownLatch loaded = new CountDownLatch(1);
+		private final CountDownLatch resume = new CountDownLatch(1);
+
+		private BlockingReader() throws DBException {
+			super();
+		}
+
+		@Override
+		Map<String, List<SQLPermissions>> loadPlayersData(Set<String> playerIds) throws DBException {
+			Map<String, List<SQLPermissions>> data = super.loadPlayersData(playerIds);
+			if (blocking.compareAndSet(true, false)) {
+				loaded.countDown();
+				try {
+					resume.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			return data;
+		}
+	}
+
+	/**
+	 * Pauses the first full reload after the construction, after the query, until {@link #resume} is released. If
+	 * {@link #failRefresh} is set, also pauses the incremental refreshes until {@link #resumeRefresh} is released, then
+	 * fails them.
+	 */
+	private static class GroupsBlockingReader extends PermissionsCachedBackendReader {
+		private final AtomicInteger fullReloads = new AtomicInteger();
+		private final CountDownLatch loaded = new CountDownLatch(1);
+		private final CountDownLatch resume = new CountDownLatch(1);
+		private final CountDownLatch refreshing = new CountDownLatch(1);
+		private final CountDownLatch resumeRefresh = new CountDownLatch(1);
+		private volatile boolean failRefresh = false;
+
+		private GroupsBlockingReader() throws DBException {
+			super();
+		}
+
+		@Override
+		SQLElementList<SQLPermissions> loadGroupsData(Set<String> groupNames) throws DBException {
+			if (groupNames != null && failRefresh) {
+				refreshing.countDown();
+				await(resumeRefresh);
+				throw new IllegalStateException("Refresh failure for the test");
+			}
+			SQLElementList<SQLPermissions> data = super.loadGroupsData(groupNames);
+			// the fields are not yet initialized during the first reload, called by the super constructor
+			if (groupNames == null && fullReloads != null && fullReloads.incrementAndGet() == 1) {
+				loaded.countDown();
+				await(resume);
+			}
+			return data;
+		}
+
+		private static void await(CountDownLatch latch) {
+			try {
+				latch.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,182 @@
+package fr.pandacube.lib.permissions;
+
+import fr.pandacube.lib.db.DB;
+import fr.pandacube.lib.db.DBConnection;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of the permission checks and of the resolution of the prefixes and effective permission lists,
+ * with and without the caches of {@link PermissionsResolver}.
+ * <p>
+ * The permission data is stored in an in-memory H2 database. It contains a chain of rank groups, each inheriting from
+ * the previous rank and from a side group, with explicit, negated, wildcard, server and world scoped permissions, and
+ * players in the different ranks.
+ * <p>
+ * Run it with the {@link #main(String[])} method, using the test classpath of this module. The metrics of
+ * {@link Permissions#getMetrics()} are printed at the end of each trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PermissionsResolverBenchmark {
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder()
+				.include(PermissionsResolverBenchmark.class.getSimpleName())
+				.build()
+		).run();
+	}
+
+	private static final String SERVER = "survival";
+	private static final String WORLD = "world_nether";
+	private static final int PLUGINS = 20;
+	private static final int PLAYERS = 100;
+	private static final int CHECKS_PER_INVOCATION = 64;
+
+
+
+	@Param({ "2", "8" })
+	public int inheritanceDepth;
+
+	@Param({ "false", "true" })
+	public boolean playerSnapshots;
+
+	private final List<PermPlayer> players = new ArrayList<>();
+	private final List<String> checkedPermissions = new ArrayList<>();
+	private int next = 0;
+
+	@Setup
+	public void setup() throws Exception {
+		DB.init(new DBConnection("jdbc:h2:mem:bench;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1", "sa", ""), "bench_");
+		DB.customUpdateStatement("CREATE TABLE IF NOT EXISTS bench_permissions (`id` INT NOT NULL AUTO_INCREMENT PRIMARY KEY,"
+				+ " `name` VARCHAR(64) NOT NULL, `type` TINYINT NOT NULL, `key` VARCHAR(256) NOT NULL,"
+				+ " `value` VARCHAR(256) NOT NULL, `server` VARCHAR(64) NULL, `world` VARCHAR(64) NULL);", List.of());
+		Permissions.init(null);
+
+		Random random = new Random(42);
+		for (int rank = 0; rank < inheritanceDepth; rank++) {
+			PermGroup side = Permissions.getGroup("side" + rank);
+			side.addSelfPermission("plugin" + random.nextInt(PLUGINS) + ".*");
+			side.addSelfPermission("-plugin" + random.nextInt(PLUGINS) + ".admin.*", SERVER);
+			side.setSelfPrefix("[side" + rank + "]");
+
+			PermGroup group = Permissions.getGroup("rank" + rank);
+			if (rank == 0)
+				group.setDefault(true);
+			else
+				group.addInheritance("rank" + (rank - 1));
+			group.addInheritance(side);
+			group.setSelfPrefix("[rank" + rank + "]");
+			for (int i = 0; i < 30; i++)
+				group.addSelfPermission("plugin" + (i % PLUGINS) + ".cmd" + (rank * 30 + i));
+			for (int i = 0; i < 5; i++) {
+				group.addSelfPermission("-plugin" + random.nextInt(PLUGINS) + ".cmd" + (rank * 30 + i) + ".other", SERVER);
+				group.addSelfPermission("plugin" + random.nextInt(PLUGINS) + ".cmd" + (rank * 30 + i) + ".world", SERVER, WORLD);
+			}
+			group.addSelfPermission("plugin" + random.nextInt(PLUGINS) + ".feature.*", SERVER, WORLD);
+		}
+
+		for (int i = 0; i < PLAYERS; i++) {
+			PermPlayer player = Permissions.getPlayer(UUID.randomUUID());
+			if (i % 10 != 0)
+				player.setGroup("rank" + random.nextInt(inheritanceDepth));
+			if (i % 3 == 0)
+				player.addSelfPermission("plugin" + random.nextInt(PLUGINS) + ".cmd" + random.nextInt(200) + ".self");
+			players.add(player);
+		}
+
+		for (int i = 0; i < 256; i++) {
+			int plugin = random.nextInt(PLUGINS);
+			checkedPermissions.add(switch (i % 4) {
+				case 0 -> "plugin" + plugin + ".cmd" + random.nextInt(inheritanceDepth * 30); // explicit
+				case 1 -> "plugin" + plugin + ".admin.reload"; // wildcards
+				case 2 -> "plugin" + plugin + ".feature.fly"; // world scoped wildcard
+				default -> "unknown" + plugin + ".cmd" + i; // not defined
+			});
+		}
+
+		CountDownLatch reloaded = new CountDownLatch(1);
+		Permissions.clearCache(reloaded::countDown);
+		reloaded.await();
+		Permissions.setPlayerSnapshotsEnabled(playerSnapshots);
+		Permissions.getMetrics().reset();
+	}
+
+	@TearDown
+	public void printMetrics() {
+		System.out.println();
+		Permissions.getMetrics().dump().forEach(System.out::println);
+	}
+
+	/**
+	 * Clears all the caches of the resolver before each invocation of a benchmark, without including it in the
+	 * measurement.
+	 */
+	@State(Scope.Thread)
+	public static class ClearedCaches {
+		@Setup(Level.Invocation)
+		public void clear() {
+			Permissions.resolver.clearCache();
+		}
+	}
+
+
+
+	@Benchmark
+	public Boolean cachedCheck() {
+		int i = next++;
+		return players.get(i % PLAYERS).hasPermission(checkedPermissions.get(i & 255), SERVER, WORLD);
+	}
+
+	@Benchmark
+	public void uncachedChecks(ClearedCaches caches, Blackhole bh) {
+		for (int c = 0; c < CHECKS_PER_INVOCATION; c++) {
+			int i = next++;
+			bh.consume(players.get(i % PLAYERS).hasPermission(checkedPermissions.get(i & 255), SERVER, WORLD));
+		}
+	}
+
+	@Benchmark
+	public void uncachedEffectivePermissionList(ClearedCaches caches, Blackhole bh) {
+		bh.consume(players.get(next++ % PLAYERS).listEffectivePermissions(SERVER, WORLD));
+	}
+
+	@Benchmark
+	public String cachedPrefix() {
+		return players.get(next++ % PLAYERS).getPrefix();
+	}
+
+	@Benchmark
+	public void uncachedPrefixAndSuffix(ClearedCaches caches, Blackhole bh) {
+		PermPlayer player = players.get(next++ % PLAYERS);
+		bh.consume(player.getPrefix());
+		bh.consume(player.getSuffix());
+	}
+
+}
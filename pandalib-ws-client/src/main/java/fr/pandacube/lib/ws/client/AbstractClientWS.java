@@ -2,7 +2,10 @@ package fr.pandacube.lib.ws.client;
 
 import fr.pandacube.lib.util.ThrowableUtil;
 import fr.pandacube.lib.ws.AbstractWS;
+import fr.pandacube.lib.ws.SendQueue;
+import fr.pandacube.lib.ws.SendQueue.OverflowPolicy;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -11,9 +14,11 @@ import java.net.http.WebSocket;
 import java.net.http.WebSocket.Listener;
 import java.nio.ByteBuffer;
 import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 
 /**
  * Minimal implementation of a Websocket client endpoint using the java.net.http Websocket API.
@@ -25,6 +30,10 @@ public abstract class AbstractClientWS implements AbstractWS {
     private boolean isConnecting;
     private HttpClient httpClient = HttpClient.newHttpClient();
     private final AtomicReference<WebSocket> socket = new AtomicReference<>();
+    private volatile boolean remoteAcceptingBinary = false;
+
+    private volatile SendQueueSettings sendQueueSettings;
+    private volatile SendQueue sendQueue;
 
 
     private final Listener receiveListener = new Listener() {
@@ -35,7 +44,34 @@ public abstract class AbstractClientWS implements AbstractWS {
             synchronized (socket) {
                 socket.set(webSocket);
                 isConnecting = false;
+                remoteAcceptingBinary = false;
             }
+            closeSendQueue();
+            SendQueueSettings settings = sendQueueSettings;
+            if (settings != null)
+                sendQueue = SendQueue.start(getRemoteIdentifier(), new SendQueue.Transport() {
+                    @Override
+                    public void sendText(String message) throws IOException {
+                        send(ws -> ws.sendText(message, true));
+                    }
+
+                    @Override
+                    public void sendBinary(ByteBuffer data) throws IOException {
+                        send(ws -> ws.sendBinary(data, true));
+                    }
+
+                    @Override
+                    public boolean acceptsBatches() {
+                        return isBinaryEnabled() && isRemoteAcceptingBinary();
+                    }
+
+                    @Override
+                    public void disconnect(String reason) {
+                        webSocket.abort();
+                        AbstractClientWS.this.receiveListener.onError(webSocket, new IOException(reason));
+                    }
+                }, settings.capacity(), settings.flushWindow(), settings.overflowPolicy());
+            trySendBinaryHello();
             try {
                 AbstractClientWS.this.onConnect();
             } catch (Exception e) {
@@ -61,18 +97,27 @@ public abstract class AbstractClientWS implements AbstractWS {
             return Listener.super.onText(webSocket, data, last);
         }
 
+        ByteArrayOutputStream partialBinary = new ByteArrayOutputStream();
+
         @Override
         public CompletionStage<?> onBinary(WebSocket webSocket, ByteBuffer data, boolean last) {
-            try {
-                AbstractClientWS.this.handleReceivedBinary();
-            } catch (Exception e) {
-                logError("Error handling reception of binary.", e);
+            byte[] bytes = new byte[data.remaining()];
+            data.get(bytes);
+            partialBinary.writeBytes(bytes);
+            if (last) {
+                try {
+                    AbstractClientWS.this.handleReceivedBinary(ByteBuffer.wrap(partialBinary.toByteArray()));
+                } catch (Exception e) {
+                    logError("Error handling reception of binary.", e);
+                }
+                partialBinary = new ByteArrayOutputStream();
             }
             return Listener.super.onBinary(webSocket, data, last);
         }
 
         @Override
         public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+            closeSendQueue();
             try {
                 AbstractClientWS.this.onClose(statusCode, reason);
             } finally {
@@ -86,6 +131,7 @@ public abstract class AbstractClientWS implements AbstractWS {
 
         @Override
         public void onError(WebSocket webSocket, Throwable error) {
+            closeSendQueue();
             try {
                 AbstractClientWS.this.onError(error);
             } finally {
@@ -105,12 +151,63 @@ public abstract class AbstractClientWS implements AbstractWS {
      * @throws URISyntaxException if the provided URI is invalid.
      */
     public AbstractClientWS(String uri, boolean autoReconnect) throws URISyntaxException {
+        this(uri, autoReconnect, null);
+    }
+
+    /**
+     * Creates a new Websocket client that connect to the provided url, and sends its messages asynchronously through a
+     * {@link SendQueue} since the first connection (see {@link #useSendQueue(int, Duration, OverflowPolicy)}).
+     * @param uri the destination endpoint.
+     * @param autoReconnect if this websocket should automatically try to reconnect when disconnected.
+     * @param sendQueueCapacity the maximum number of queued messages.
+     * @param sendQueueFlushWindow how long to wait for other messages to coalesce in a single frame. See
+     *                            {@link SendQueue}.
+     * @param sendQueueOverflowPolicy what to do when a message is sent while the queue is full.
+     * @throws URISyntaxException if the provided URI is invalid.
+     */
+    public AbstractClientWS(String uri, boolean autoReconnect, int sendQueueCapacity, Duration sendQueueFlushWindow,
+                            OverflowPolicy sendQueueOverflowPolicy) throws URISyntaxException {
+        this(uri, autoReconnect, new SendQueueSettings(sendQueueCapacity, sendQueueFlushWindow, sendQueueOverflowPolicy));
+    }
+
+    private AbstractClientWS(String uri, boolean autoReconnect, SendQueueSettings sendQueueSettings) throws URISyntaxException {
         this.uri = new URI(uri);
         this.autoReconnect = autoReconnect;
+        this.sendQueueSettings = sendQueueSettings;
         connect();
     }
 
 
+    /**
+     * Sends the messages of this endpoint asynchronously, through a {@link SendQueue}, instead of blocking the sending
+     * thread until the message is sent. A new queue is created for each connection, so this method only applies from
+     * the next connection. The constructor of this class connects immediately, so use
+     * {@link #AbstractClientWS(String, boolean, int, Duration, OverflowPolicy)} to use a send queue since the first
+     * connection.
+     * @param capacity the maximum number of queued messages.
+     * @param flushWindow how long to wait for other messages to coalesce in a single frame. See {@link SendQueue}.
+     * @param overflowPolicy what to do when a message is sent while the queue is full.
+     */
+    public final void useSendQueue(int capacity, Duration flushWindow, OverflowPolicy overflowPolicy) {
+        sendQueueSettings = new SendQueueSettings(capacity, flushWindow, overflowPolicy);
+    }
+
+    /**
+     * Gets the send queue of the current connection, to monitor it.
+     * @return the send queue of the current connection, or null if this endpoint does not use a send queue or if the
+     *         connection is not established yet.
+     */
+    public final SendQueue getSendQueue() {
+        return sendQueue;
+    }
+
+    private void closeSendQueue() {
+        SendQueue queue = sendQueue;
+        if (queue != null)
+            queue.close();
+    }
+
+
     private void reconnectIfNecessary() {
         synchronized (socket) {
             if (autoReconnect && !isConnecting && socket.get() == null) {
@@ -163,12 +260,29 @@ public abstract class AbstractClientWS implements AbstractWS {
 
     @Override
     public final void sendString(String message) throws IOException {
+        SendQueue queue = sendQueue;
+        if (queue != null)
+            queue.sendText(message);
+        else
+            send(ws -> ws.sendText(message, true));
+    }
+
+    @Override
+    public final void sendBinary(ByteBuffer data) throws IOException {
+        SendQueue queue = sendQueue;
+        if (queue != null)
+            queue.sendBinary(data);
+        else
+            send(ws -> ws.sendBinary(data, true));
+    }
+
+    private void send(Function<WebSocket, CompletableFuture<WebSocket>> sender) throws IOException {
         try {
             try {
                 synchronized (socket) {
                     WebSocket ws = socket.get();
                     if (ws != null)
-                        ws.sendText(message, true).join();
+                        sender.apply(ws).join();
                     else
                         throw new IOException("Connection is currently closed");
                 }
@@ -184,6 +298,16 @@ public abstract class AbstractClientWS implements AbstractWS {
 
     }
 
+    @Override
+    public final boolean isRemoteAcceptingBinary() {
+        return remoteAcceptingBinary;
+    }
+
+    @Override
+    public final void setRemoteAcceptingBinary() {
+        remoteAcceptingBinary = true;
+    }
+
     @Override
     public String getRemoteIdentifier() {
         return uri.toString();
@@ -193,10 +317,32 @@ public abstract class AbstractClientWS implements AbstractWS {
     public final void sendClose(int code, String reason) {
         synchronized (socket) {
             autoReconnect = false; // if we ask for closing connection, don't reconnect automatically
+        }
+        SendQueue queue = sendQueue;
+        if (queue != null) {
+            try {
+                queue.sendClose(() -> closeSocket(code, reason)); // after the already queued messages
+                return;
+            } catch (IOException ignored) {
+                // queue already closed
+            }
+        }
+        closeSocket(code, reason);
+    }
+
+    private void closeSocket(int code, String reason) {
+        synchronized (socket) {
             WebSocket ws = socket.get();
             if (ws != null)
                 ws.sendClose(code, reason).join();
         }
     }
 
+    private record SendQueueSettings(int capacity, Duration flushWindow, OverflowPolicy overflowPolicy) {
+        private SendQueueSettings {
+            if (capacity <= 0)
+                throw new IllegalArgumentException("capacity must be strictly positive");
+        }
+    }
+
 }
@@ -1,10 +1,13 @@
 package fr.pandacube.lib.ws.server;
 
 import fr.pandacube.lib.ws.AbstractWS;
+import fr.pandacube.lib.ws.SendQueue;
+import fr.pandacube.lib.ws.SendQueue.OverflowPolicy;
 import org.eclipse.jetty.websocket.api.Session;
 import org.eclipse.jetty.websocket.api.WebSocketAdapter;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
 import java.time.Duration;
 
@@ -14,23 +17,71 @@ import java.time.Duration;
 public abstract class AbstractServerWS extends WebSocketAdapter implements AbstractWS {
 
 	private boolean isClosed = false;
+	private volatile boolean remoteAcceptingBinary = false;
+
+	private volatile SendQueueSettings sendQueueSettings;
+	private volatile SendQueue sendQueue;
 
 	/**
 	 * Creates a Websocket server endpoint.
 	 */
 	public AbstractServerWS() {}
+
+	/**
+	 * Sends the messages of this endpoint asynchronously, through a {@link SendQueue}, instead of blocking the sending
+	 * thread until the message is sent. Must be called before the connection is established, for instance in the
+	 * constructor of the subclass.
+	 * @param capacity the maximum number of queued messages.
+	 * @param flushWindow how long to wait for other messages to coalesce in a single frame. See {@link SendQueue}.
+	 * @param overflowPolicy what to do when a message is sent while the queue is full.
+	 */
+	public final void useSendQueue(int capacity, Duration flushWindow, OverflowPolicy overflowPolicy) {
+		sendQueueSettings = new SendQueueSettings(capacity, flushWindow, overflowPolicy);
+	}
+
+	/**
+	 * Gets the send queue of the current connection, to monitor it.
+	 * @return the send queue of the current connection, or null if this endpoint does not use a send queue.
+	 */
+	public final SendQueue getSendQueue() {
+		return sendQueue;
+	}
 	
 	@Override
 	public final void onWebSocketConnect(Session session)
 	{
 		super.onWebSocketConnect(session);
 		session.setIdleTimeout(Duration.ofDays(1000)); // practically infinite
+		SendQueueSettings settings = sendQueueSettings;
+		if (settings != null)
+			sendQueue = SendQueue.start(getRemoteIdentifier(), new SendQueue.Transport() {
+				@Override
+				public void sendText(String message) throws IOException {
+					getSession().getRemote().sendString(message);
+				}
+
+				@Override
+				public void sendBinary(ByteBuffer data) throws IOException {
+					getSession().getRemote().sendBytes(data);
+				}
+
+				@Override
+				public boolean acceptsBatches() {
+					return isBinaryEnabled() && isRemoteAcceptingBinary();
+				}
+
+				@Override
+				public void disconnect(String reason) {
+					closeSession(1008, reason);
+				}
+			}, settings.capacity(), settings.flushWindow(), settings.overflowPolicy());
+		trySendBinaryHello();
 		onConnect();
 	}
 
 	@Override
 	public final void onWebSocketBinary(byte[] payload, int offset, int len) {
-		handleReceivedBinary();
+		handleReceivedBinary(ByteBuffer.wrap(payload, offset, len));
 	}
 
 	@Override
@@ -40,11 +91,13 @@ public abstract class AbstractServerWS extends WebSocketAdapter implements Abstr
 
 	@Override
 	public final void onWebSocketClose(int statusCode, String reason) {
+		closeSendQueue();
 		onClose(statusCode, reason);
 	}
 
 	@Override
 	public final void onWebSocketError(Throwable cause) {
+		closeSendQueue();
 		if (isClosed && cause instanceof ClosedChannelException)
 			return; // ignore because this exception is expected when we just sent a close packet.
 		onError(cause);
@@ -57,17 +110,66 @@ public abstract class AbstractServerWS extends WebSocketAdapter implements Abstr
 
 
 	public final void sendString(String message) throws IOException {
-		getSession().getRemote().sendString(message);
+		SendQueue queue = sendQueue;
+		if (queue != null)
+			queue.sendText(message);
+		else
+			getSession().getRemote().sendString(message);
+	}
+
+	@Override
+	public final void sendBinary(ByteBuffer data) throws IOException {
+		SendQueue queue = sendQueue;
+		if (queue != null)
+			queue.sendBinary(data);
+		else
+			getSession().getRemote().sendBytes(data);
+	}
+
+	@Override
+	public final boolean isRemoteAcceptingBinary() {
+		return remoteAcceptingBinary;
+	}
+
+	@Override
+	public final void setRemoteAcceptingBinary() {
+		remoteAcceptingBinary = true;
 	}
 
 	@Override
 	public final void sendClose(int code, String reason) {
+		SendQueue queue = sendQueue;
+		if (queue != null) {
+			try {
+				queue.sendClose(() -> closeSession(code, reason)); // after the already queued messages
+				return;
+			} catch (IOException ignored) {
+				// queue already closed
+			}
+		}
+		closeSession(code, reason);
+	}
+
+	private void closeSession(int code, String reason) {
 		getSession().close(code, reason);
 		isClosed = true;
 	}
 
+	private void closeSendQueue() {
+		SendQueue queue = sendQueue;
+		if (queue != null)
+			queue.close();
+	}
+
 	@Override
 	public String getRemoteIdentifier() {
 		return getSession().getRemoteAddress().toString();
 	}
+
+	private record SendQueueSettings(int capacity, Duration flushWindow, OverflowPolicy overflowPolicy) {
+		private SendQueueSettings {
+			if (capacity <= 0)
+				throw new IllegalArgumentException("capacity must be strictly positive");
+		}
+	}
 }
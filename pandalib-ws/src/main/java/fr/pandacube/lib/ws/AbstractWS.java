@@ -7,6 +7,7 @@ import fr.pandacube.lib.ws.payloads.ErrorPayload;
 import fr.pandacube.lib.ws.payloads.Payload;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.logging.Level;
 
 /**
@@ -15,6 +16,11 @@ import java.util.logging.Level;
  */
 public interface AbstractWS {
 
+    /**
+     * The message of the {@link ErrorPayload} sent by an endpoint that does not accept binary data.
+     */
+    String BINARY_REJECTED_MESSAGE = "Cannot accept binary payload.";
+
     /*
      * Receiving
      */
@@ -32,7 +38,65 @@ public interface AbstractWS {
             return;
         }
 
+        handleReceivedPayload(payload);
+    }
+
+    /**
+     * Handles the reception of binary data.
+     * If binary payloads are enabled on this endpoint (see {@link #isBinaryEnabled()}), the data is deserialized using
+     * {@link PayloadRegistry#fromBinary(ByteBuffer)}, or split into the messages coalesced by the {@link SendQueue} of
+     * the remote endpoint. Otherwise, the data is passed to {@link #handleReceivedBinary()}, that rejects it by sending
+     * an {@link ErrorPayload} to the remote endpoint.
+     * <p>
+     * This method replaces {@link #handleReceivedBinary()}, that the implementations used to call without the data.
+     * @param data the raw binary data received.
+     */
+    default void handleReceivedBinary(ByteBuffer data) {
+        if (PayloadRegistry.isBinaryHello(data)) {
+            if (isBinaryEnabled())
+                setRemoteAcceptingBinary();
+            return;
+        }
+        if (PayloadRegistry.isBinaryBatch(data) && isBinaryEnabled()) {
+            // several messages coalesced by the send queue of the remote endpoint
+            try {
+                PayloadRegistry.splitBinaryBatch(data, this::handleReceivedMessage, this::handleReceivedBinary);
+            } catch (IllegalArgumentException e) {
+                logAndTrySendError(new ErrorPayload(e.getMessage()));
+            }
+            return;
+        }
+        if (!isBinaryEnabled()) {
+            handleReceivedBinary();
+            return;
+        }
+
+        Payload payload;
+        try {
+            payload = PayloadRegistry.fromBinary(data);
+        } catch (IllegalArgumentException e) {
+            logAndTrySendError(new ErrorPayload(e.getMessage())); // no need to log or send full exception stack trace
+            return;
+        }
+
+        handleReceivedPayload(payload);
+    }
+
+    /**
+     * Handles the reception of binary data when binary payloads are not enabled on this endpoint. The default
+     * implementation rejects the data by sending an {@link ErrorPayload} to the remote endpoint.
+     * @deprecated the implementations now call {@link #handleReceivedBinary(ByteBuffer)}, that calls this method only
+     * when binary payloads are disabled. It is kept for the subclasses that override it, and will be removed.
+     */
+    @Deprecated
+    default void handleReceivedBinary() {
+        trySendAsJson(new ErrorPayload(BINARY_REJECTED_MESSAGE));
+    }
+
+    private void handleReceivedPayload(Payload payload) {
         if (payload instanceof ErrorPayload errorPayload) {
+            if (BINARY_REJECTED_MESSAGE.equals(errorPayload.message) && isBinaryEnabled() && !isRemoteAcceptingBinary())
+                return; // the remote endpoint does not support binary payloads and rejected our hello message
             try {
                 onReceiveErrorPayload(errorPayload);
             } catch(Exception e) {
@@ -50,16 +114,39 @@ public interface AbstractWS {
                     throw t;
             }
         }
+    }
 
+    /**
+     * Tells if this endpoint accepts binary payloads, and sends them to remote endpoints that also accept them.
+     * <p>
+     * When enabled, this endpoint announces it to the remote endpoint as soon as the connection is established,
+     * using a one byte binary message. Remote endpoints that do not support binary payloads reply with an
+     * {@link ErrorPayload}, which is ignored, and keep receiving JSON payloads.
+     * @return true if this endpoint accepts binary payloads. The default implementation returns false.
+     */
+    default boolean isBinaryEnabled() {
+        return false;
+    }
 
+    /**
+     * Tells if the remote endpoint announced that it accepts binary payloads, since the connection is established.
+     * <p>
+     * The endpoints that enable binary payloads must override this method and {@link #setRemoteAcceptingBinary()}.
+     * Both have a default implementation, so the existing endpoints that do not use binary payloads are not affected.
+     * @return true if the remote endpoint accepts binary payloads. The default implementation returns false.
+     */
+    default boolean isRemoteAcceptingBinary() {
+        return false;
     }
 
     /**
-     * Handles the reception of binary data. The default implementation reject any binary data by sending an
-     * {@link ErrorPayload} to the remote endpoint.
+     * Called when the remote endpoint announced that it accepts binary payloads.
+     * Implementations must store this information until the connection is closed, and return it in
+     * {@link #isRemoteAcceptingBinary()}.
+     * The default implementation does nothing.
      */
-    default void handleReceivedBinary() {
-        trySendAsJson(new ErrorPayload("Cannot accept binary payload."));
+    default void setRemoteAcceptingBinary() {
+        // binary payloads not supported by default
     }
 
     /**
@@ -118,6 +205,63 @@ public interface AbstractWS {
      */
     void sendString(String message) throws IOException;
 
+    /**
+     * Send the provided raw binary data to the remote endpoint.
+     * <p>
+     * <b>It is not advised for subclasses to call directly this method.
+     * Please use {@link #sendPayload(Payload)} or {@link #sendAsBinary(Payload)} instead.</b>
+     * @param data the raw binary data to send.
+     * @throws IOException if an IO error occurs when sending the data.
+     */
+    void sendBinary(ByteBuffer data) throws IOException;
+
+    /**
+     * Announces to the remote endpoint that this endpoint accepts binary payloads, if it does.
+     * This is called by the implementations as soon as the connection is established.
+     * @return true if the data is sent successfully or if there is nothing to send, false if an IO error occurs.
+     */
+    default boolean trySendBinaryHello() {
+        if (!isBinaryEnabled())
+            return true;
+        return trySend(() -> sendBinary(PayloadRegistry.binaryHello()), "Error sending binary hello");
+    }
+
+    /**
+     * Send the provided {@link Payload} to the remote endpoint, as binary data if this endpoint and the remote
+     * endpoint accept binary payloads and if the payload type has a binary codec, or as JSON otherwise.
+     * @param payload the {@link Payload} to send.
+     * @throws IOException if an IO error occurs when sending the data.
+     * @throws JsonParseException if the JSON is invalid.
+     * @see PayloadRegistry#registerBinaryCodec(Class, BinaryPayloadCodec)
+     */
+    default void sendPayload(Payload payload) throws IOException, JsonParseException {
+        if (isBinaryEnabled() && isRemoteAcceptingBinary() && PayloadRegistry.hasBinaryCodec(payload.getClass()))
+            sendAsBinary(payload);
+        else
+            sendAsJson(payload);
+    }
+
+    /**
+     * Send the provided {@link Payload} to the remote endpoint, as binary data if this endpoint and the remote
+     * endpoint accept binary payloads and if the payload type has a binary codec, or as JSON otherwise.
+     * @param payload the {@link Payload} to send.
+     * @return true if the data is sent successfully, false if an IO error occurs.
+     * @see #sendPayload(Payload)
+     */
+    default boolean trySendPayload(Payload payload) {
+        return trySend(() -> sendPayload(payload), "Error sending payload");
+    }
+
+    /**
+     * Send the provided {@link Payload} to the remote endpoint as binary data.
+     * @param payload the {@link Payload} to send. Its type must have a binary codec.
+     * @throws IOException if an IO error occurs when sending the data, or if the codec fails to encode the payload.
+     * @see PayloadRegistry#toBinary(Payload)
+     */
+    default void sendAsBinary(Payload payload) throws IOException {
+        sendBinary(PayloadRegistry.toBinary(payload));
+    }
+
     /**
      * Send the provided type and object that will be serialized using
      * {@link PayloadRegistry#arbitraryToString(String, Object, boolean)}.
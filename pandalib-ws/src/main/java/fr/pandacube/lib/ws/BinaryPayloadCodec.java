@@ -0,0 +1,202 @@
+package fr.pandacube.lib.ws;
+
+import fr.pandacube.lib.ws.payloads.Payload;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Compact binary encoding of a {@link Payload} type, used instead of JSON when both endpoints support it.
+ * <p>
+ * The codec only writes the content of the payload: the type identifier, the framing and the compression are handled
+ * by {@link PayloadRegistry}. The decoder must read exactly the data written by the encoder.
+ * <p>
+ * The read methods of this interface check the lengths read from the data against the remaining bytes when the input
+ * is an {@link InputStream} (as provided by {@link PayloadRegistry#fromBinary(java.nio.ByteBuffer)}), so a malformed
+ * message cannot make them allocate more memory than its size.
+ * @param <P> the type of payload.
+ * @see PayloadRegistry#registerBinaryCodec(Class, BinaryPayloadCodec)
+ */
+public interface BinaryPayloadCodec<P extends Payload> {
+
+    /**
+     * Writes the content of the provided payload.
+     * @param payload the payload to encode.
+     * @param out the output to write to.
+     * @throws IOException if an error occurs when writing to the output.
+     */
+    void encode(P payload, DataOutput out) throws IOException;
+
+    /**
+     * Reads a payload written by {@link #encode(Payload, DataOutput)}.
+     * @param in the input to read from.
+     * @return the decoded payload.
+     * @throws IOException if the data is malformed or an error occurs when reading the input.
+     */
+    P decode(DataInput in) throws IOException;
+
+    /**
+     * Creates a codec from an encoding and a decoding function.
+     * @param encoder the encoding function.
+     * @param decoder the decoding function.
+     * @return a new codec.
+     * @param <P> the type of payload.
+     */
+    static <P extends Payload> BinaryPayloadCodec<P> of(Encoder<P> encoder, Decoder<P> decoder) {
+        return new BinaryPayloadCodec<>() {
+            @Override
+            public void encode(P payload, DataOutput out) throws IOException {
+                encoder.encode(payload, out);
+            }
+
+            @Override
+            public P decode(DataInput in) throws IOException {
+                return decoder.decode(in);
+            }
+        };
+    }
+
+    /**
+     * Writes a String that may be null or longer than what {@link DataOutput#writeUTF(String)} supports.
+     * @param out the output to write to.
+     * @param value the String to write, may be null.
+     * @throws IOException if an error occurs when writing to the output.
+     */
+    static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a String written by {@link #writeString(DataOutput, String)}.
+     * @param in the input to read from.
+     * @return the String, or null.
+     * @throws IOException if the data is malformed or an error occurs when reading the input.
+     */
+    static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < -1)
+            throw new IOException("Invalid String length " + length);
+        if (length == -1)
+            return null;
+        checkRemaining(in, length);
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a list of Strings that may be null, as well as its elements.
+     * @param out the output to write to.
+     * @param values the list to write, may be null.
+     * @throws IOException if an error occurs when writing to the output.
+     */
+    static void writeStringList(DataOutput out, List<String> values) throws IOException {
+        out.writeInt(values == null ? -1 : values.size());
+        if (values != null) {
+            for (String v : values)
+                writeString(out, v);
+        }
+    }
+
+    /**
+     * Reads a list of Strings written by {@link #writeStringList(DataOutput, List)}.
+     * @param in the input to read from.
+     * @return the list, or null.
+     * @throws IOException if the data is malformed or an error occurs when reading the input.
+     */
+    static List<String> readStringList(DataInput in) throws IOException {
+        int size = in.readInt();
+        if (size < -1)
+            throw new IOException("Invalid list size " + size);
+        if (size == -1)
+            return null;
+        checkRemaining(in, 4L * size); // at least the length of each element
+        List<String> values = new ArrayList<>(Math.min(size, 1024));
+        for (int i = 0; i < size; i++)
+            values.add(readString(in));
+        return values;
+    }
+
+    /**
+     * Writes a list of UUIDs that may be null. The elements must not be null.
+     * @param out the output to write to.
+     * @param values the list to write, may be null.
+     * @throws IOException if an error occurs when writing to the output.
+     */
+    static void writeUUIDList(DataOutput out, List<UUID> values) throws IOException {
+        out.writeInt(values == null ? -1 : values.size());
+        if (values != null) {
+            for (UUID v : values) {
+                out.writeLong(v.getMostSignificantBits());
+                out.writeLong(v.getLeastSignificantBits());
+            }
+        }
+    }
+
+    /**
+     * Reads a list of UUIDs written by {@link #writeUUIDList(DataOutput, List)}.
+     * @param in the input to read from.
+     * @return the list, or null.
+     * @throws IOException if the data is malformed or an error occurs when reading the input.
+     */
+    static List<UUID> readUUIDList(DataInput in) throws IOException {
+        int size = in.readInt();
+        if (size < -1)
+            throw new IOException("Invalid list size " + size);
+        if (size == -1)
+            return null;
+        checkRemaining(in, 16L * size);
+        List<UUID> values = new ArrayList<>(Math.min(size, 1024));
+        for (int i = 0; i < size; i++)
+            values.add(new UUID(in.readLong(), in.readLong()));
+        return values;
+    }
+
+    private static void checkRemaining(DataInput in, long length) throws IOException {
+        if (in instanceof InputStream stream && length > stream.available())
+            throw new IOException("Invalid length " + length + ", only " + stream.available() + " bytes remaining");
+    }
+
+    /**
+     * The encoding function of a {@link BinaryPayloadCodec}.
+     * @param <P> the type of payload.
+     */
+    @FunctionalInterface
+    interface Encoder<P extends Payload> {
+        /**
+         * Writes the content of the provided payload.
+         * @param payload the payload to encode.
+         * @param out the output to write to.
+         * @throws IOException if an error occurs when writing to the output.
+         */
+        void encode(P payload, DataOutput out) throws IOException;
+    }
+
+    /**
+     * The decoding function of a {@link BinaryPayloadCodec}.
+     * @param <P> the type of payload.
+     */
+    @FunctionalInterface
+    interface Decoder<P extends Payload> {
+        /**
+         * Reads a payload.
+         * @param in the input to read from.
+         * @return the decoded payload.
+         * @throws IOException if the data is malformed or an error occurs when reading the input.
+         */
+        P decode(DataInput in) throws IOException;
+    }
+
+}
@@ -8,8 +8,26 @@ import fr.pandacube.lib.ws.payloads.LoginPayload;
 import fr.pandacube.lib.ws.payloads.LoginSucceedPayload;
 import fr.pandacube.lib.ws.payloads.MessagePayload;
 import fr.pandacube.lib.ws.payloads.Payload;
+import fr.pandacube.lib.ws.payloads.PermissionsChangePayload;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 /**
  * Handles the registration of all the {@link Payload} types, the serialization and deserialization of the payload data.
@@ -20,6 +38,17 @@ public class PayloadRegistry {
 
     private static final BiMap<String, Class<? extends Payload>> payloadClasses = new BiMap<>();
 
+    private static final Map<Class<? extends Payload>, BinaryPayloadCodec<?>> binaryCodecs = new ConcurrentHashMap<>();
+
+    /**
+     * The minimum size of the content of a binary payload for it to be compressed.
+     */
+    public static final int BINARY_COMPRESSION_THRESHOLD = 1024;
+    private static final int BINARY_MAX_DECOMPRESSED_SIZE = 64 * 1024 * 1024;
+    private static final int BINARY_FLAG_HELLO = 1;
+    private static final int BINARY_FLAG_COMPRESSED = 1 << 1;
+    private static final int BINARY_FLAG_BATCH = 1 << 2;
+
 
     private static boolean isTypeValid(String type) {
         return !type.contains(PAYLOAD_TYPE_SEPARATOR);
@@ -93,11 +122,236 @@ public class PayloadRegistry {
 
 
 
+    /**
+     * Register a binary codec for a {@link Payload} type, so it can be sent as a compact binary message to the remote
+     * endpoints that support it, instead of JSON.
+     * <p>
+     * A binary message starts with a flag byte, followed by the type identifier (as written by
+     * {@link DataOutputStream#writeUTF(String)}) and the content written by the codec. The type identifier and the
+     * content are compressed using deflate when their size is above {@link #BINARY_COMPRESSION_THRESHOLD}.
+     * @param clazz the payload class, already registered using {@link #registerPayloadType(String, Class)}.
+     * @param codec the codec.
+     * @param <P> the type of payload.
+     */
+    public static <P extends Payload> void registerBinaryCodec(Class<P> clazz, BinaryPayloadCodec<P> codec) {
+        if (payloadClasses.getKey(clazz) == null)
+            throw new IllegalArgumentException(clazz + " is not a registered payload type.");
+        binaryCodecs.put(clazz, codec);
+    }
+
+    /**
+     * Tells if the provided {@link Payload} type has a binary codec.
+     * @param clazz the payload class.
+     * @return true if the provided {@link Payload} type has a binary codec, false otherwise.
+     */
+    public static boolean hasBinaryCodec(Class<? extends Payload> clazz) {
+        return binaryCodecs.containsKey(clazz);
+    }
+
+    /**
+     * Serialize the provided {@link Payload} into binary data, using its binary codec.
+     * @param p the {@link Payload} to serialize. Must be of a registered type that has a binary codec.
+     * @return the serialized data.
+     * @throws IOException if the codec fails to encode the payload.
+     */
+    public static ByteBuffer toBinary(Payload p) throws IOException {
+        String type = payloadClasses.getKey(p.getClass());
+        @SuppressWarnings("unchecked")
+        BinaryPayloadCodec<Payload> codec = (BinaryPayloadCodec<Payload>) binaryCodecs.get(p.getClass());
+        if (type == null || codec == null)
+            throw new IllegalArgumentException(p.getClass() + " is not a registered payload type with a binary codec.");
+
+        ByteArrayOutputStream bOut = new ByteArrayOutputStream();
+        bOut.write(0); // flags
+        DataOutputStream out = new DataOutputStream(bOut);
+        out.writeUTF(type);
+        codec.encode(p, out);
+        out.flush();
+        byte[] data = bOut.toByteArray();
+        if (data.length - 1 > BINARY_COMPRESSION_THRESHOLD) {
+            byte[] compressed = deflate(data);
+            if (compressed.length < data.length)
+                return ByteBuffer.wrap(compressed);
+        }
+        return ByteBuffer.wrap(data);
+    }
+
+    /**
+     * Deserialize the provided binary data into a valid Payload.
+     * @param message the serialized data.
+     * @return the {@link Payload}.
+     * @throws IllegalArgumentException if the serialized data does not have the proper format.
+     */
+    public static Payload fromBinary(ByteBuffer message) {
+        if (!message.hasRemaining())
+            throw new IllegalArgumentException("Malformed binary message: empty message.");
+        int flags = message.get(message.position()) & 0xFF;
+        byte[] data = new byte[message.remaining() - 1];
+        message.get(message.position() + 1, data);
+        if ((flags & BINARY_FLAG_HELLO) != 0)
+            throw new IllegalArgumentException("Malformed binary message: not a payload.");
+        if ((flags & BINARY_FLAG_COMPRESSED) != 0)
+            data = inflate(data);
+
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            String type = in.readUTF();
+            BinaryPayloadCodec<?> codec = null;
+            Class<? extends Payload> detectedClass = payloadClasses.get(type);
+            if (detectedClass != null)
+                codec = binaryCodecs.get(detectedClass);
+            if (codec == null)
+                throw new IllegalArgumentException("Unrecognized binary data type ‘" + type + "’.");
+            Payload payload = codec.decode(in);
+            if (in.available() > 0)
+                throw new IllegalArgumentException("Malformed binary message: " + in.available() + " unread bytes for type ‘" + type + "’.");
+            return payload;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Malformed binary message: " + e);
+        }
+    }
+
+    /**
+     * Gets the binary message sent by an endpoint to announce that it accepts binary payloads.
+     * @return the binary message.
+     */
+    /* package */ static ByteBuffer binaryHello() {
+        return ByteBuffer.wrap(new byte[] { BINARY_FLAG_HELLO });
+    }
+
+    /* package */ static boolean isBinaryHello(ByteBuffer message) {
+        return message.remaining() == 1 && (message.get(message.position()) & BINARY_FLAG_HELLO) != 0;
+    }
+
+    /**
+     * Coalesces several messages into a single binary message.
+     * @param messages the messages, either {@link String} for text messages, or {@link ByteBuffer} for binary
+     *                 messages.
+     * @return the binary message.
+     */
+    /* package */ static ByteBuffer toBinaryBatch(List<Object> messages) {
+        ByteArrayOutputStream bOut = new ByteArrayOutputStream();
+        bOut.write(BINARY_FLAG_BATCH);
+        DataOutputStream out = new DataOutputStream(bOut);
+        try {
+            for (Object message : messages) {
+                if (message instanceof String text) {
+                    byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+                    out.writeBoolean(false);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+                else {
+                    ByteBuffer binary = ((ByteBuffer) message).duplicate();
+                    out.writeBoolean(true);
+                    out.writeInt(binary.remaining());
+                    while (binary.hasRemaining())
+                        out.write(binary.get());
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // never thrown by ByteArrayOutputStream
+        }
+        return ByteBuffer.wrap(bOut.toByteArray());
+    }
+
+    /* package */ static boolean isBinaryBatch(ByteBuffer message) {
+        return message.hasRemaining() && (message.get(message.position()) & BINARY_FLAG_BATCH) != 0;
+    }
+
+    /**
+     * Splits a binary message created by {@link #toBinaryBatch(List)}.
+     * @param message the binary message.
+     * @param onText the action to perform for each text message.
+     * @param onBinary the action to perform for each binary message.
+     * @throws IllegalArgumentException if the binary message does not have the proper format.
+     */
+    /* package */ static void splitBinaryBatch(ByteBuffer message, Consumer<String> onText, Consumer<ByteBuffer> onBinary) {
+        ByteBuffer in = message.duplicate();
+        in.get(); // flags
+        List<Object> messages = new ArrayList<>();
+        try {
+            while (in.hasRemaining()) {
+                boolean binary = in.get() != 0;
+                int length = in.getInt();
+                if (length < 0 || length > in.remaining())
+                    throw new IllegalArgumentException("Malformed binary batch: invalid message length " + length + ".");
+                byte[] bytes = new byte[length];
+                in.get(bytes);
+                messages.add(binary ? ByteBuffer.wrap(bytes) : new String(bytes, StandardCharsets.UTF_8));
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Malformed binary batch: truncated message.");
+        }
+        for (Object m : messages) {
+            if (m instanceof String text)
+                onText.accept(text);
+            else
+                onBinary.accept((ByteBuffer) m);
+        }
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data, 1, data.length - 1);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2);
+            out.write(BINARY_FLAG_COMPRESSED);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] data) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 2);
+            byte[] buffer = new byte[4096];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    throw new IllegalArgumentException("Malformed binary message: truncated compressed data.");
+                out.write(buffer, 0, n);
+                if (out.size() > BINARY_MAX_DECOMPRESSED_SIZE)
+                    throw new IllegalArgumentException("Malformed binary message: decompressed data too large.");
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Malformed binary message: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+
+
     static {
         registerPayloadType("error", ErrorPayload.class);
         registerPayloadType("message", MessagePayload.class);
         registerPayloadType("login", LoginPayload.class);
         registerPayloadType("login-succeed", LoginSucceedPayload.class);
+        registerPayloadType("permissions-change", PermissionsChangePayload.class);
+
+        registerBinaryCodec(MessagePayload.class, BinaryPayloadCodec.of(
+                (p, out) -> BinaryPayloadCodec.writeString(out, p.message),
+                in -> new MessagePayload(BinaryPayloadCodec.readString(in))
+        ));
+        registerBinaryCodec(PermissionsChangePayload.class, BinaryPayloadCodec.of(
+                (p, out) -> {
+                    BinaryPayloadCodec.writeStringList(out, p.groups);
+                    BinaryPayloadCodec.writeUUIDList(out, p.players);
+                },
+                in -> new PermissionsChangePayload(BinaryPayloadCodec.readStringList(in), BinaryPayloadCodec.readUUIDList(in))
+        ));
     }
 
     private PayloadRegistry() {}
@@ -0,0 +1,387 @@
+package fr.pandacube.lib.ws;
+
+import fr.pandacube.lib.util.function.RunnableException;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Outbound queue of a websocket connection, that sends the messages asynchronously, in order, from a dedicated
+ * virtual thread. A slow remote endpoint then never blocks the threads sending messages, except if the
+ * {@link OverflowPolicy#BLOCK} policy is used.
+ * <p>
+ * If the remote endpoint accepts binary payloads (see {@link AbstractWS#isBinaryEnabled()}), the small messages
+ * queued during the flush window are coalesced into a single binary frame, that is split back into the original
+ * messages by {@link AbstractWS#handleReceivedBinary(ByteBuffer)}. Otherwise, each message is sent in its own frame.
+ * <p>
+ * The websocket endpoints create a new queue for each connection, if enabled (see
+ * {@code AbstractServerWS.useSendQueue(...)} and {@code AbstractClientWS.useSendQueue(...)}).
+ */
+public class SendQueue {
+
+    /**
+     * The maximum size of a frame coalescing several messages, including the framing added by the batch format. It is
+     * well below the default maximum message size of the websocket implementations (64 KiB for Jetty), so a batch is
+     * never rejected by a remote endpoint that would accept each of its messages sent alone.
+     */
+    public static final int MAX_BATCH_SIZE = 32 * 1024;
+    /**
+     * The size of the header of a batch frame (the flag byte).
+     */
+    private static final int BATCH_HEADER_SIZE = 1;
+    /**
+     * The size added for each message in a batch frame (the binary boolean and the length).
+     */
+    private static final int BATCH_MESSAGE_OVERHEAD = 5;
+
+    /**
+     * What to do when a message is sent while the queue is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * The message is silently dropped, and counted in {@link #getDroppedMessages()}.
+         */
+        DROP,
+        /**
+         * The sending thread waits until there is enough space in the queue.
+         */
+        BLOCK,
+        /**
+         * The queued messages are discarded and the connection is closed, to get rid of the slow remote endpoint.
+         * The sending method throws an {@link IOException}.
+         */
+        DISCONNECT
+    }
+
+    /**
+     * The actual sending operations of a websocket endpoint, used by the queue.
+     */
+    public interface Transport {
+        /**
+         * Sends a text message, blocking until it is sent.
+         * @param message the message.
+         * @throws IOException if an IO error occurs when sending the message.
+         */
+        void sendText(String message) throws IOException;
+
+        /**
+         * Sends a binary message, blocking until it is sent.
+         * @param data the message.
+         * @throws IOException if an IO error occurs when sending the message.
+         */
+        void sendBinary(ByteBuffer data) throws IOException;
+
+        /**
+         * Tells if the remote endpoint accepts the frames coalescing several messages.
+         * @return true if the remote endpoint accepts binary payloads.
+         */
+        boolean acceptsBatches();
+
+        /**
+         * Closes the connection because the messages cannot be sent anymore, either because the remote endpoint is
+         * too slow to receive them, or because an error occurred when sending them.
+         * @param reason the reason of the disconnection.
+         */
+        void disconnect(String reason);
+    }
+
+    private final Transport transport;
+    private final int capacity;
+    private final Duration flushWindow;
+    private final OverflowPolicy overflowPolicy;
+
+    private final Deque<Message> queue = new ArrayDeque<>();
+    private long queuedBytes = 0;
+    private int maxQueuedMessages = 0;
+    private boolean closed = false;
+
+    private final AtomicLong sentMessages = new AtomicLong();
+    private final AtomicLong sentFrames = new AtomicLong();
+    private final AtomicLong droppedMessages = new AtomicLong();
+
+    /**
+     * Creates a send queue and starts its sending thread.
+     * @param name the name of the connection, used to name the sending thread.
+     * @param transport the actual sending operations.
+     * @param capacity the maximum number of queued messages.
+     * @param flushWindow how long the sending thread waits for other messages to coalesce with the first queued one,
+     *                    when the remote endpoint accepts it. With {@link Duration#ZERO}, only the messages queued
+     *                    while the previous frame was being sent are coalesced.
+     * @param overflowPolicy what to do when a message is sent while the queue is full.
+     * @return the new send queue.
+     */
+    public static SendQueue start(String name, Transport transport, int capacity, Duration flushWindow, OverflowPolicy overflowPolicy) {
+        SendQueue queue = new SendQueue(transport, capacity, flushWindow, overflowPolicy);
+        Thread.ofVirtual().name("WS send queue " + name).start(queue::run);
+        return queue;
+    }
+
+    private SendQueue(Transport transport, int capacity, Duration flushWindow, OverflowPolicy overflowPolicy) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be strictly positive");
+        this.transport = transport;
+        this.capacity = capacity;
+        this.flushWindow = flushWindow;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Queues a text message.
+     * @param message the message.
+     * @throws IOException if the queue is closed, or if the queue is full and the policy is
+     *         {@link OverflowPolicy#DISCONNECT}.
+     */
+    public void sendText(String message) throws IOException {
+        enqueue(new Message(message, null, null, utf8Length(message)));
+    }
+
+    /**
+     * Queues a binary message.
+     * @param data the message.
+     * @throws IOException if the queue is closed, or if the queue is full and the policy is
+     *         {@link OverflowPolicy#DISCONNECT}.
+     */
+    public void sendBinary(ByteBuffer data) throws IOException {
+        enqueue(new Message(null, data, null, data.remaining()));
+    }
+
+    /**
+     * Queues the closing of the connection, that is executed after all the previously queued messages are sent.
+     * The queue does not accept any message after this call.
+     * @param closeAction the action that actually closes the connection.
+     * @throws IOException if the queue is already closed.
+     */
+    public void sendClose(RunnableException<IOException> closeAction) throws IOException {
+        synchronized (this) {
+            if (closed)
+                throw new IOException("Connection is currently closed");
+            queue.add(new Message(null, null, closeAction, 0));
+            closed = true; // no more messages, but the sending thread runs until the close action
+            notifyAll();
+        }
+    }
+
+    /**
+     * Discards the queued messages and stops the sending thread. Called when the connection is closed.
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            queue.clear();
+            queuedBytes = 0;
+            notifyAll();
+        }
+    }
+
+    private void enqueue(Message message) throws IOException {
+        synchronized (this) {
+            if (closed)
+                throw new IOException("Connection is currently closed");
+            if (queue.size() >= capacity) {
+                switch (overflowPolicy) {
+                    case DROP -> {
+                        droppedMessages.incrementAndGet();
+                        return;
+                    }
+                    case BLOCK -> {
+                        try {
+                            while (queue.size() >= capacity && !closed)
+                                wait();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new InterruptedIOException("Interrupted while waiting for space in the send queue");
+                        }
+                        if (closed)
+                            throw new IOException("Connection is currently closed");
+                    }
+                    case DISCONNECT -> {
+                        droppedMessages.addAndGet(queue.size() + 1);
+                        close();
+                        Thread.ofVirtual().start(() -> transport.disconnect("Too slow to receive the messages"));
+                        throw new IOException("Send queue full, disconnecting the slow remote endpoint");
+                    }
+                }
+            }
+            queue.add(message);
+            queuedBytes += message.size;
+            maxQueuedMessages = Math.max(maxQueuedMessages, queue.size());
+            notifyAll();
+        }
+    }
+
+
+
+    private void run() {
+        try {
+            List<Message> batch;
+            while ((batch = nextBatch()) != null) {
+                send(batch);
+            }
+        } catch (IOException e) {
+            boolean wasOpen;
+            synchronized (this) {
+                wasOpen = !closed;
+            }
+            close();
+            // the connection is not usable anymore, unless it was closed in the meantime
+            if (wasOpen)
+                transport.disconnect("Error while sending the messages: " + e);
+        } catch (InterruptedException e) {
+            close();
+        }
+    }
+
+    /**
+     * Waits for messages to send.
+     * @return the messages to send in a single frame, or null if the queue is closed.
+     */
+    private synchronized List<Message> nextBatch() throws InterruptedException {
+        while (queue.isEmpty()) {
+            if (closed)
+                return null;
+            wait();
+        }
+
+        boolean batching = transport.acceptsBatches();
+        if (batching && !flushWindow.isZero()) {
+            long deadline = System.nanoTime() + flushWindow.toNanos();
+            long remaining;
+            while (!queue.isEmpty() && batchSize(queue.size(), queuedBytes) < MAX_BATCH_SIZE && !closed
+                    && (remaining = deadline - System.nanoTime()) > 0) {
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            if (queue.isEmpty()) // cleared by close()
+                return null;
+        }
+
+        List<Message> batch = new ArrayList<>();
+        long messagesSize = 0;
+        do {
+            Message message = queue.poll();
+            batch.add(message);
+            messagesSize += message.size;
+            queuedBytes -= message.size;
+        } while (batching && batch.getLast().closeAction == null && !queue.isEmpty() && queue.peek().closeAction == null
+                && batchSize(batch.size() + 1, messagesSize + queue.peek().size) <= MAX_BATCH_SIZE);
+        notifyAll(); // senders waiting for space in the queue
+        return batch;
+    }
+
+    /**
+     * Gets the size of a batch frame.
+     * @param messageCount the number of messages in the batch.
+     * @param messagesSize the size of the messages.
+     */
+    private static long batchSize(int messageCount, long messagesSize) {
+        return BATCH_HEADER_SIZE + (long) messageCount * BATCH_MESSAGE_OVERHEAD + messagesSize;
+    }
+
+    /**
+     * Gets the length of the UTF-8 encoding of a string, as sent in a text frame or in a batch, without encoding it.
+     */
+    private static int utf8Length(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80)
+                length++;
+            else if (c < 0x800)
+                length += 2;
+            else if (!Character.isSurrogate(c))
+                length += 3;
+            else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 4;
+                i++;
+            }
+            else
+                length++; // lone surrogate, encoded as '?'
+        }
+        return length;
+    }
+
+    private void send(List<Message> batch) throws IOException {
+        if (batch.size() == 1) {
+            Message message = batch.getFirst();
+            if (message.closeAction != null) {
+                message.closeAction.run();
+                close();
+                return;
+            }
+            if (message.text != null)
+                transport.sendText(message.text);
+            else
+                transport.sendBinary(message.binary);
+        }
+        else {
+            List<Object> messages = new ArrayList<>(batch.size());
+            for (Message message : batch)
+                messages.add(message.text != null ? message.text : message.binary);
+            transport.sendBinary(PayloadRegistry.toBinaryBatch(messages));
+        }
+        sentMessages.addAndGet(batch.size());
+        sentFrames.incrementAndGet();
+    }
+
+
+
+    /**
+     * Gets the number of messages currently in the queue.
+     * @return the number of messages currently in the queue.
+     */
+    public synchronized int getQueuedMessages() {
+        return queue.size();
+    }
+
+    /**
+     * Gets the size of the messages currently in the queue, counting the UTF-8 encoded size of the text messages.
+     * @return the size of the messages currently in the queue.
+     */
+    public synchronized long getQueuedBytes() {
+        return queuedBytes;
+    }
+
+    /**
+     * Gets the highest number of messages that were in the queue at the same time.
+     * @return the highest number of messages that were in the queue at the same time.
+     */
+    public synchronized int getMaxQueuedMessages() {
+        return maxQueuedMessages;
+    }
+
+    /**
+     * Gets the number of messages sent.
+     * @return the number of messages sent.
+     */
+    public long getSentMessages() {
+        return sentMessages.get();
+    }
+
+    /**
+     * Gets the number of frames sent. It is lower than {@link #getSentMessages()} when messages are coalesced.
+     * @return the number of frames sent.
+     */
+    public long getSentFrames() {
+        return sentFrames.get();
+    }
+
+    /**
+     * Gets the number of messages dropped because the queue was full.
+     * @return the number of messages dropped.
+     */
+    public long getDroppedMessages() {
+        return droppedMessages.get();
+    }
+
+
+
+    private record Message(String text, ByteBuffer binary, RunnableException<IOException> closeAction, int size) { }
+
+}
@@ -0,0 +1,36 @@
+package fr.pandacube.lib.ws.payloads;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Payload used to inform the other instances of the Pandalib permission system that some permission data have been
+ * modified, so they can reload the cached data of the modified entities only.
+ * <p>
+ * The sending side is meant to be called by the publisher provided to
+ * {@code Permissions.setChangesPublisher(BiConsumer)}, and the receiving side should call
+ * {@code Permissions.applyRemoteChanges(groups, players, then)}.
+ */
+public class PermissionsChangePayload extends Payload {
+    /**
+     * The name of the modified groups.
+     */
+    public List<String> groups;
+    /**
+     * The UUID of the modified players.
+     */
+    public List<UUID> players;
+
+    /**
+     * Initialize a new PermissionsChangePayload with the provided modified entities.
+     * @param groups the name of the modified groups.
+     * @param players the UUID of the modified players.
+     */
+    public PermissionsChangePayload(List<String> groups, List<UUID> players) {
+        this.groups = groups;
+        this.players = players;
+    }
+
+    @SuppressWarnings("unused")
+    private PermissionsChangePayload() { } // for JSON deserialization
+}
@@ -0,0 +1,142 @@
+package fr.pandacube.lib.ws;
+
+import fr.pandacube.lib.ws.payloads.ErrorPayload;
+import fr.pandacube.lib.ws.payloads.MessagePayload;
+import fr.pandacube.lib.ws.payloads.Payload;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AbstractWSTest {
+
+    @Test
+    public void binaryIsRejectedWhenDisabled() throws IOException {
+        FakeWS ws = new FakeWS(false);
+        ws.handleReceivedBinary(PayloadRegistry.toBinary(new MessagePayload("hello")));
+        ws.handleReceivedBinary(PayloadRegistry.binaryHello());
+        assertEquals(List.of(), ws.received);
+        assertFalse(ws.isRemoteAcceptingBinary());
+        assertEquals(1, ws.sentStrings.size()); // the hello is ignored
+        assertTrue(ws.sentStrings.getFirst().contains(AbstractWS.BINARY_REJECTED_MESSAGE));
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void deprecatedHandlerIsStillCalled() throws IOException {
+        List<String> calls = new ArrayList<>();
+        FakeWS ws = new FakeWS(false) {
+            @Override
+            public void handleReceivedBinary() {
+                calls.add("legacy");
+            }
+        };
+        ws.handleReceivedBinary(PayloadRegistry.toBinary(new MessagePayload("hello")));
+        assertEquals(List.of("legacy"), calls);
+        assertEquals(List.of(), ws.sentStrings);
+    }
+
+    @Test
+    public void binaryIsDecodedWhenEnabled() throws IOException {
+        FakeWS ws = new FakeWS(true);
+        assertFalse(ws.isRemoteAcceptingBinary());
+        ws.handleReceivedBinary(PayloadRegistry.binaryHello());
+        assertTrue(ws.isRemoteAcceptingBinary());
+
+        ByteBuffer binary = PayloadRegistry.toBinary(new MessagePayload("binary"));
+        ws.handleReceivedBinary(binary);
+        String text = PayloadRegistry.toString(new MessagePayload("text"));
+        ws.handleReceivedBinary(PayloadRegistry.toBinaryBatch(List.of(text, binary)));
+        assertEquals(List.of("binary", "text", "binary"), ws.received);
+
+        ws.handleReceivedBinary(ByteBuffer.wrap(new byte[] { 0, 1, 2 }));
+        assertEquals(3, ws.received.size());
+        assertEquals(1, ws.sentStrings.size()); // malformed data answered with an error
+    }
+
+    @Test
+    public void rejectedHelloIsIgnored() {
+        FakeWS ws = new FakeWS(true);
+        ws.handleReceivedMessage(PayloadRegistry.toString(new ErrorPayload(AbstractWS.BINARY_REJECTED_MESSAGE)));
+        assertEquals(List.of(), ws.errors);
+        ws.handleReceivedMessage(PayloadRegistry.toString(new ErrorPayload("other")));
+        assertEquals(List.of("other"), ws.errors);
+    }
+
+
+
+    private static class FakeWS implements AbstractWS {
+        private final boolean binaryEnabled;
+        private boolean remoteAcceptingBinary;
+        private final List<String> received = new ArrayList<>();
+        private final List<String> errors = new ArrayList<>();
+        private final List<String> sentStrings = new ArrayList<>();
+
+        private FakeWS(boolean binaryEnabled) {
+            this.binaryEnabled = binaryEnabled;
+        }
+
+        @Override
+        public boolean isBinaryEnabled() {
+            return binaryEnabled;
+        }
+
+        @Override
+        public boolean isRemoteAcceptingBinary() {
+            return remoteAcceptingBinary;
+        }
+
+        @Override
+        public void setRemoteAcceptingBinary() {
+            remoteAcceptingBinary = true;
+        }
+
+        @Override
+        public void onConnect() { }
+
+        @Override
+        public void onReceivePayload(Payload payload) {
+            received.add(((MessagePayload) payload).message);
+        }
+
+        @Override
+        public void onReceiveErrorPayload(ErrorPayload error) {
+            errors.add(error.message);
+        }
+
+        @Override
+        public void onClose(int code, String reason) { }
+
+        @Override
+        public void onError(Throwable cause) { }
+
+        @Override
+        public void sendString(String message) {
+            sentStrings.add(message);
+        }
+
+        @Override
+        public void sendBinary(ByteBuffer data) { }
+
+        @Override
+        public void sendClose(int code, String reason) { }
+
+        @Override
+        public void log(String message) { }
+
+        @Override
+        public void logError(String message, Throwable t) { }
+
+        @Override
+        public String getRemoteIdentifier() {
+            return "test";
+        }
+    }
+
+}
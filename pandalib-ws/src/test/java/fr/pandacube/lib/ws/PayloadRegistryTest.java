@@ -0,0 +1,226 @@
+package fr.pandacube.lib.ws;
+
+import fr.pandacube.lib.ws.payloads.ErrorPayload;
+import fr.pandacube.lib.ws.payloads.MessagePayload;
+import fr.pandacube.lib.ws.payloads.Payload;
+import fr.pandacube.lib.ws.payloads.PermissionsChangePayload;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PayloadRegistryTest {
+
+    @Test
+    public void roundTrip() throws IOException {
+        MessagePayload message = (MessagePayload) PayloadRegistry.fromBinary(PayloadRegistry.toBinary(new MessagePayload("héllo €")));
+        assertEquals("héllo €", message.message);
+
+        MessagePayload nullMessage = (MessagePayload) PayloadRegistry.fromBinary(PayloadRegistry.toBinary(new MessagePayload(null)));
+        assertNull(nullMessage.message);
+
+        List<String> groups = Arrays.asList("admin", null, "");
+        List<UUID> players = List.of(UUID.randomUUID(), UUID.randomUUID());
+        PermissionsChangePayload permissions = (PermissionsChangePayload) PayloadRegistry.fromBinary(
+                PayloadRegistry.toBinary(new PermissionsChangePayload(groups, players)));
+        assertEquals(groups, permissions.groups);
+        assertEquals(players, permissions.players);
+
+        PermissionsChangePayload empty = (PermissionsChangePayload) PayloadRegistry.fromBinary(
+                PayloadRegistry.toBinary(new PermissionsChangePayload(null, List.of())));
+        assertNull(empty.groups);
+        assertEquals(List.of(), empty.players);
+    }
+
+    @Test
+    public void largePayloadsAreCompressed() throws IOException {
+        String small = "x".repeat(PayloadRegistry.BINARY_COMPRESSION_THRESHOLD - 20);
+        ByteBuffer smallData = PayloadRegistry.toBinary(new MessagePayload(small));
+        assertEquals(0, smallData.get(0)); // no flags
+        assertEquals(small, ((MessagePayload) PayloadRegistry.fromBinary(smallData)).message);
+
+        String large = "x".repeat(12_000);
+        ByteBuffer largeData = PayloadRegistry.toBinary(new MessagePayload(large));
+        assertTrue("compressed flag", (largeData.get(0) & 2) != 0);
+        assertTrue(largeData.remaining() + " bytes", largeData.remaining() < 1000);
+        assertEquals(large, ((MessagePayload) PayloadRegistry.fromBinary(largeData)).message);
+
+        // less repetitive data
+        byte[] random = new byte[4000];
+        new Random(42).nextBytes(random);
+        StringBuilder sb = new StringBuilder();
+        for (byte b : random)
+            sb.append((char) ('!' + (b & 0x3F)));
+        ByteBuffer randomData = PayloadRegistry.toBinary(new MessagePayload(sb.toString()));
+        assertEquals(sb.toString(), ((MessagePayload) PayloadRegistry.fromBinary(randomData)).message);
+    }
+
+    @Test
+    public void payloadWithoutCodecIsRejected() throws IOException {
+        assertFalse(PayloadRegistry.hasBinaryCodec(ErrorPayload.class));
+        try {
+            PayloadRegistry.toBinary(new ErrorPayload("error"));
+            fail("no binary codec for ErrorPayload");
+        } catch (IllegalArgumentException expected) { }
+    }
+
+    @Test
+    public void batchSplit() throws IOException {
+        ByteBuffer binary = PayloadRegistry.toBinary(new MessagePayload("binary"));
+        List<Object> messages = List.of("first", binary, "", "€ third");
+        ByteBuffer batch = PayloadRegistry.toBinaryBatch(messages);
+        assertTrue(PayloadRegistry.isBinaryBatch(batch));
+        assertFalse(PayloadRegistry.isBinaryBatch(binary));
+        assertFalse(PayloadRegistry.isBinaryHello(batch));
+
+        List<Object> received = new ArrayList<>();
+        PayloadRegistry.splitBinaryBatch(batch, received::add, received::add);
+        assertEquals(4, received.size());
+        assertEquals("first", received.get(0));
+        assertEquals("binary", ((MessagePayload) PayloadRegistry.fromBinary((ByteBuffer) received.get(1))).message);
+        assertEquals("", received.get(2));
+        assertEquals("€ third", received.get(3));
+        assertEquals(0, batch.position()); // not consumed
+    }
+
+    @Test
+    public void malformedBatchIsRejected() {
+        ByteBuffer batch = PayloadRegistry.toBinaryBatch(List.of("first", "second"));
+        byte[] truncated = Arrays.copyOf(batch.array(), batch.remaining() - 3);
+        assertMalformedBatch(truncated);
+
+        byte[] negativeLength = batch.array().clone();
+        negativeLength[2] = (byte) 0x80; // first byte of the length of the first message
+        assertMalformedBatch(negativeLength);
+
+        byte[] oversizedLength = batch.array().clone();
+        oversizedLength[5] = 100; // last byte of the length of the first message
+        assertMalformedBatch(oversizedLength);
+    }
+
+    @Test
+    public void malformedPayloadIsRejected() throws IOException {
+        assertMalformed(new byte[0]);
+        assertMalformed(PayloadRegistry.binaryHello().array());
+
+        byte[] valid = PayloadRegistry.toBinary(new MessagePayload("hello")).array();
+        assertMalformed(Arrays.copyOf(valid, valid.length - 1)); // truncated
+        assertMalformed(Arrays.copyOf(valid, valid.length + 1)); // unread byte
+
+        assertMalformed(frame(out -> {
+            out.writeUTF("unknown");
+            out.writeInt(-1);
+        }));
+        assertMalformed(frame(out -> {
+            out.writeUTF("error"); // registered, but no binary codec
+            out.writeInt(-1);
+        }));
+        assertMalformed(frame(out -> {
+            out.writeUTF("message");
+            out.writeInt(-2);
+        }));
+
+        // compressed flag with data that is not deflated
+        byte[] notCompressed = valid.clone();
+        notCompressed[0] = 2;
+        assertMalformed(notCompressed);
+        // truncated compressed data
+        byte[] compressed = PayloadRegistry.toBinary(new MessagePayload("x".repeat(12_000))).array();
+        assertMalformed(Arrays.copyOf(compressed, compressed.length / 2));
+    }
+
+    @Test
+    public void oversizedLengthsAreRejectedWithoutAllocation() throws IOException {
+        // each of these lengths would make the decoder allocate about 2 GiB if it was trusted
+        assertMalformed(frame(out -> {
+            out.writeUTF("message");
+            out.writeInt(Integer.MAX_VALUE - 8);
+        }));
+        assertMalformed(frame(out -> {
+            out.writeUTF("permissions-change");
+            out.writeInt(Integer.MAX_VALUE - 8);
+        }));
+        assertMalformed(frame(out -> {
+            out.writeUTF("permissions-change");
+            out.writeInt(-1);
+            out.writeInt(Integer.MAX_VALUE / 16);
+        }));
+    }
+
+    @Test
+    public void oversizedDecompressedDataIsRejected() {
+        // about 65 KiB of compressed data, that inflates above the 64 MiB limit
+        Deflater deflater = new Deflater();
+        ByteArrayOutputStream bOut = new ByteArrayOutputStream();
+        bOut.write(2); // compressed flag
+        byte[] zeros = new byte[1024 * 1024];
+        byte[] buffer = new byte[4096];
+        for (int i = 0; i < 65; i++) {
+            deflater.setInput(zeros);
+            while (!deflater.needsInput())
+                bOut.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.finish();
+        while (!deflater.finished())
+            bOut.write(buffer, 0, deflater.deflate(buffer));
+        deflater.end();
+
+        assertMalformed(bOut.toByteArray());
+    }
+
+    @Test
+    public void binaryHello() {
+        ByteBuffer hello = PayloadRegistry.binaryHello();
+        assertTrue(PayloadRegistry.isBinaryHello(hello));
+        assertArrayEquals(new byte[] { 1 }, hello.array());
+        assertFalse(PayloadRegistry.isBinaryHello(ByteBuffer.wrap(new byte[] { 1, 0 })));
+        assertFalse(PayloadRegistry.isBinaryHello(ByteBuffer.wrap(new byte[] { 0 })));
+    }
+
+
+
+    private static void assertMalformed(byte[] data) {
+        try {
+            Payload p = PayloadRegistry.fromBinary(ByteBuffer.wrap(data));
+            fail("malformed data decoded as " + p);
+        } catch (IllegalArgumentException expected) { }
+    }
+
+    private static void assertMalformedBatch(byte[] data) {
+        List<Object> received = new ArrayList<>();
+        try {
+            PayloadRegistry.splitBinaryBatch(ByteBuffer.wrap(data), received::add, received::add);
+            fail("malformed batch split into " + received);
+        } catch (IllegalArgumentException expected) { }
+        assertEquals("no message is handled from a malformed batch", List.of(), received);
+    }
+
+    private static byte[] frame(DataWriter writer) throws IOException {
+        ByteArrayOutputStream bOut = new ByteArrayOutputStream();
+        bOut.write(0); // flags
+        DataOutputStream out = new DataOutputStream(bOut);
+        writer.write(out);
+        out.flush();
+        return bOut.toByteArray();
+    }
+
+    private interface DataWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+}
@@ -0,0 +1,278 @@
+package fr.pandacube.lib.ws;
+
+import fr.pandacube.lib.ws.SendQueue.OverflowPolicy;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SendQueueTest {
+
+    @Test
+    public void dropPolicyDropsTheNewMessages() throws Exception {
+        FakeTransport transport = new FakeTransport(false, true);
+        SendQueue queue = SendQueue.start("test", transport, 3, Duration.ZERO, OverflowPolicy.DROP);
+        queue.sendText("m0");
+        transport.awaitSending(); // m0 is out of the queue
+        for (int i = 1; i <= 5; i++)
+            queue.sendText("m" + i);
+        assertEquals(2, queue.getDroppedMessages());
+        assertEquals(3, queue.getQueuedMessages());
+
+        transport.release.countDown();
+        transport.awaitReceived(4);
+        assertEquals(List.of("m0", "m1", "m2", "m3"), transport.received);
+        queue.close();
+    }
+
+    @Test
+    public void blockPolicyWaitsForSpace() throws Exception {
+        FakeTransport transport = new FakeTransport(false, true);
+        SendQueue queue = SendQueue.start("test", transport, 2, Duration.ZERO, OverflowPolicy.BLOCK);
+        queue.sendText("m0");
+        transport.awaitSending();
+        queue.sendText("m1");
+        queue.sendText("m2");
+
+        Thread sender = Thread.ofVirtual().start(() -> {
+            try {
+                queue.sendText("m3");
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        sender.join(200);
+        assertTrue("the sender should wait for space in the queue", sender.isAlive());
+
+        transport.release.countDown();
+        sender.join(5000);
+        assertFalse(sender.isAlive());
+        transport.awaitReceived(4);
+        assertEquals(List.of("m0", "m1", "m2", "m3"), transport.received);
+        assertEquals(0, queue.getDroppedMessages());
+        queue.close();
+    }
+
+    @Test
+    public void disconnectPolicyClosesTheConnection() throws Exception {
+        FakeTransport transport = new FakeTransport(false, true);
+        SendQueue queue = SendQueue.start("test", transport, 2, Duration.ZERO, OverflowPolicy.DISCONNECT);
+        queue.sendText("m0");
+        transport.awaitSending();
+        queue.sendText("m1");
+        queue.sendText("m2");
+        try {
+            queue.sendText("m3");
+            fail("the queue should be full");
+        } catch (IOException expected) { }
+
+        assertTrue(transport.disconnected.await(5, TimeUnit.SECONDS));
+        assertEquals("Too slow to receive the messages", transport.disconnectReason);
+        assertEquals(3, queue.getDroppedMessages());
+        assertEquals(0, queue.getQueuedMessages());
+        try {
+            queue.sendText("m4");
+            fail("the queue should be closed");
+        } catch (IOException expected) { }
+        transport.release.countDown();
+    }
+
+    @Test
+    public void flushWindowCoalescesTheMessages() throws Exception {
+        FakeTransport transport = new FakeTransport(true, false);
+        SendQueue queue = SendQueue.start("test", transport, 100, Duration.ofMillis(200), OverflowPolicy.BLOCK);
+        List<String> sent = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            sent.add("m" + i);
+            queue.sendText("m" + i);
+        }
+        transport.awaitReceived(10);
+        assertEquals(sent, transport.received);
+        assertEquals(1, queue.getSentFrames());
+        assertEquals(10, queue.getSentMessages());
+        queue.close();
+    }
+
+    @Test
+    public void noCoalescingWithoutBinarySupport() throws Exception {
+        FakeTransport transport = new FakeTransport(false, false);
+        SendQueue queue = SendQueue.start("test", transport, 100, Duration.ofMillis(200), OverflowPolicy.BLOCK);
+        for (int i = 0; i < 10; i++)
+            queue.sendText("m" + i);
+        transport.awaitReceived(10);
+        assertEquals(10, queue.getSentFrames());
+        queue.close();
+    }
+
+    @Test
+    public void batchesAreSplitByEncodedSize() throws Exception {
+        FakeTransport transport = new FakeTransport(true, true);
+        SendQueue queue = SendQueue.start("test", transport, 1000, Duration.ZERO, OverflowPolicy.BLOCK);
+        queue.sendText("first");
+        transport.awaitSending();
+        // 2000 chars, but 6000 bytes in UTF-8: a limit counted in chars would put 16 of them in a frame
+        String nonAscii = "€".repeat(2000);
+        List<String> sent = new ArrayList<>(List.of("first"));
+        long expectedQueuedBytes = 0;
+        for (int i = 0; i < 30; i++) {
+            String message = i + nonAscii;
+            sent.add(message);
+            expectedQueuedBytes += message.getBytes(StandardCharsets.UTF_8).length;
+            queue.sendText(message);
+        }
+        // 4 of them fit in a batch without the framing, but only 3 with it
+        String ascii = "a".repeat(SendQueue.MAX_BATCH_SIZE / 4 - 2);
+        for (int i = 0; i < 6; i++) {
+            sent.add(ascii);
+            expectedQueuedBytes += ascii.length();
+            queue.sendText(ascii);
+        }
+        assertEquals(expectedQueuedBytes, queue.getQueuedBytes());
+
+        transport.release.countDown();
+        transport.awaitReceived(sent.size());
+        assertEquals(sent, transport.received);
+        for (int size : transport.frameSizes)
+            assertTrue("frame of " + size + " bytes", size <= SendQueue.MAX_BATCH_SIZE);
+        assertTrue(queue.getSentFrames() < queue.getSentMessages());
+        assertTrue(transport.frameSizes.contains(1 + 3 * (5 + ascii.length())));
+        queue.close();
+    }
+
+    @Test
+    public void messageLargerThanABatchIsSentAlone() throws Exception {
+        FakeTransport transport = new FakeTransport(true, true);
+        SendQueue queue = SendQueue.start("test", transport, 10, Duration.ZERO, OverflowPolicy.BLOCK);
+        queue.sendText("first");
+        transport.awaitSending();
+        String large = "x".repeat(SendQueue.MAX_BATCH_SIZE * 2);
+        queue.sendText("a");
+        queue.sendText(large);
+        queue.sendText("b");
+        transport.release.countDown();
+        transport.awaitReceived(4);
+        assertEquals(List.of("first", "a", large, "b"), transport.received);
+        assertTrue(transport.frameSizes.contains(large.length())); // sent as a text frame
+        queue.close();
+    }
+
+    @Test
+    public void sendErrorDisconnects() throws Exception {
+        FakeTransport transport = new FakeTransport(false, false);
+        transport.failure = new IOException("broken pipe");
+        SendQueue queue = SendQueue.start("test", transport, 10, Duration.ZERO, OverflowPolicy.BLOCK);
+        queue.sendText("m0");
+        assertTrue(transport.disconnected.await(5, TimeUnit.SECONDS));
+        assertNotNull(transport.disconnectReason);
+        assertTrue(transport.disconnectReason.contains("broken pipe"));
+        try {
+            queue.sendText("m1");
+            fail("the queue should be closed");
+        } catch (IOException expected) { }
+    }
+
+    @Test
+    public void closeActionRunsAfterTheQueuedMessages() throws Exception {
+        FakeTransport transport = new FakeTransport(true, true);
+        SendQueue queue = SendQueue.start("test", transport, 10, Duration.ZERO, OverflowPolicy.BLOCK);
+        queue.sendText("m0");
+        transport.awaitSending();
+        queue.sendText("m1");
+        CountDownLatch closed = new CountDownLatch(1);
+        queue.sendClose(() -> {
+            transport.received.add("close");
+            closed.countDown();
+        });
+        try {
+            queue.sendText("m2");
+            fail("the queue should not accept messages after the close");
+        } catch (IOException expected) { }
+        transport.release.countDown();
+        assertTrue(closed.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of("m0", "m1", "close"), transport.received);
+        assertFalse(transport.disconnected.await(100, TimeUnit.MILLISECONDS));
+    }
+
+
+
+    /**
+     * Records the sent messages, splitting the batches, and optionally blocks the sending thread until released.
+     */
+    private static class FakeTransport implements SendQueue.Transport {
+        private final boolean acceptsBatches;
+        private final CountDownLatch release;
+        private final CountDownLatch sending = new CountDownLatch(1);
+        private final List<String> received = Collections.synchronizedList(new ArrayList<>());
+        private final List<Integer> frameSizes = Collections.synchronizedList(new ArrayList<>());
+        private final CountDownLatch disconnected = new CountDownLatch(1);
+        private volatile String disconnectReason;
+        private volatile IOException failure;
+
+        private FakeTransport(boolean acceptsBatches, boolean blocked) {
+            this.acceptsBatches = acceptsBatches;
+            release = new CountDownLatch(blocked ? 1 : 0);
+        }
+
+        private void beforeSending() throws IOException {
+            sending.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            if (failure != null)
+                throw failure;
+        }
+
+        @Override
+        public void sendText(String message) throws IOException {
+            beforeSending();
+            frameSizes.add(message.getBytes(StandardCharsets.UTF_8).length);
+            received.add(message);
+        }
+
+        @Override
+        public void sendBinary(ByteBuffer data) throws IOException {
+            beforeSending();
+            frameSizes.add(data.remaining());
+            assertTrue(PayloadRegistry.isBinaryBatch(data));
+            PayloadRegistry.splitBinaryBatch(data, received::add, b -> fail("unexpected binary message"));
+        }
+
+        @Override
+        public boolean acceptsBatches() {
+            return acceptsBatches;
+        }
+
+        @Override
+        public void disconnect(String reason) {
+            disconnectReason = reason;
+            disconnected.countDown();
+        }
+
+        private void awaitSending() throws InterruptedException {
+            assertTrue(sending.await(5, TimeUnit.SECONDS));
+        }
+
+        private void awaitReceived(int count) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (received.size() < count && System.nanoTime() < deadline)
+                Thread.sleep(10);
+            assertEquals(count, received.size());
+        }
+    }
+
+}